@@ -0,0 +1,68 @@
+package org.cryptocoinpartners.bin;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.MarketDataArchive;
+import org.cryptocoinpartners.util.MarketDataPartitioning;
+import org.joda.time.Instant;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Moves the partitions of the trade, book and bar tables which closed more than
+ * db.archive.after.days ago into the segment files of the MarketDataArchive in db.archive.dir, then
+ * drops them. Replays read the archived history from the segments transparently.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Parameters(
+    commandNames = "archive-data",
+    commandDescription = "moves closed market data partitions into compressed archive segments")
+public class ArchiveDataRunMode extends RunMode {
+
+  @Parameter(
+      names = {"-after"},
+      description = "Days after which a closed partition is moved to the archive")
+  public int afterDays = ConfigUtil.combined().getInt("db.archive.after.days", 90);
+
+  @Parameter(
+      names = {"-tables"},
+      variableArity = true,
+      description = "Market data tables to archive")
+  public List<String> tables = MarketDataPartitioning.TABLES;
+
+  @Override
+  public void run(Semaphore semaphore) {
+    File dir = new File(ConfigUtil.combined().getString("db.archive.dir", "archive"));
+    MarketDataArchive archive = new MarketDataArchive(dir);
+    Instant cutoff = new Instant().minus(afterDays * 86400000L);
+    for (String table : tables) {
+      try {
+        log.info(
+            this.getClass().getSimpleName()
+                + ":run - "
+                + table
+                + " archived partitions "
+                + archive.archive(table, cutoff));
+      } catch (Exception | Error e) {
+        log.error(
+            this.getClass().getSimpleName()
+                + ":run - unable to archive "
+                + table
+                + ", full stack trace follows:",
+            e);
+      }
+    }
+    if (semaphore != null) semaphore.release();
+    System.exit(0);
+  }
+
+  @Override
+  public void run() {
+    Semaphore semaphore = null;
+    run(semaphore);
+  }
+}
@@ -2,26 +2,39 @@ package org.cryptocoinpartners.bin;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Semaphore;
 
 import javax.inject.Inject;
 
 import org.cryptocoinpartners.module.BasicPortfolioService;
 import org.cryptocoinpartners.module.BasicQuoteService;
+import org.cryptocoinpartners.module.CointegrationBank;
 import org.cryptocoinpartners.module.Context;
 import org.cryptocoinpartners.module.JMXManager;
 import org.cryptocoinpartners.module.MockOrderService;
+import org.cryptocoinpartners.module.StatementCache;
+import org.cryptocoinpartners.module.SyntheticPricer;
+import org.cryptocoinpartners.module.TradingEventLog;
 import org.cryptocoinpartners.module.xchange.XchangeAccountService;
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.EntityRegistry;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
 import org.cryptocoinpartners.schema.Position;
 import org.cryptocoinpartners.schema.ReplayFactory;
 import org.cryptocoinpartners.schema.StrategyInstance;
 import org.cryptocoinpartners.service.OrderService;
 import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.PartitionedPortfolio;
+import org.cryptocoinpartners.util.PartitionedReplay;
 import org.cryptocoinpartners.util.Replay;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Instant;
+import org.joda.time.Interval;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
@@ -37,7 +50,6 @@ public class BacktestRunMode extends RunMode {
   public List<String> strategyNames;
 
   private Context context;
-  Semaphore backTestSemaphore = new Semaphore(0);
 
   // aws replay (LTC/BTC)
   // private final Instant start = new DateTime(2017, 7, 06, 0, 0, 0, 0,
@@ -179,6 +191,11 @@ public class BacktestRunMode extends RunMode {
   // private final Instant end = new DateTime(2017, 11, 15, 0, 0, 0, 0,
   // DateTimeZone.UTC).toInstant();//
 
+  @Parameter(
+      names = {"-partitions"},
+      description = "Number of independent groups of markets to replay concurrently")
+  int partitions = 1;
+
   @Parameter(
       names = {"-"},
       description = "No-op switch used to end list of positions before supplying the strategy name")
@@ -186,6 +203,12 @@ public class BacktestRunMode extends RunMode {
 
   @Override
   public void run(Semaphore semaphore) {
+    // intern the reference data up front so market lookups on the hot path never query
+    EntityRegistry.load();
+    if (partitions > 1) {
+      runPartitioned();
+      return;
+    }
     // PersistUtil.purgeTransactions();
     // Replay replay = Replay.all(true);
     // Replay replay = Replay.between(start, end, true);
@@ -196,7 +219,6 @@ public class BacktestRunMode extends RunMode {
             start,
             end,
             false,
-            backTestSemaphore,
             ConfigUtil.combined().getBoolean("randomticker", false),
             ConfigUtil.combined().getBoolean("strategy.prefeed.books", true),
             false,
@@ -209,7 +231,96 @@ public class BacktestRunMode extends RunMode {
     //  rootInjector.createChildInjector(new PersistanceModule());
 
     context = replay.getContext();
+    setUp(context);
+    // this should be run on seperate thread
+    // service = Executors.newSingleThreadExecutor();
+    //	Replay replayThread = new Replay();
+    // service.submit(replay);
+    // replay.getContext()
+    log.info(this.getClass().getSimpleName() + ": " + StatementCache.report());
+    // returns once every replayed event has been published
+    replay.run();
+
+    log.info("Back test completed");
+    for (StrategyInstance strategyInstance : strategyInstances) report(strategyInstance);
 
+    // todo report P&L, etc.
+  }
+
+  /**
+   * Replays the markets of the strategies in partitions. Each partition has its own Context with
+   * its own services and instances of the strategies, and only sees its own markets. The reports
+   * are of each strategy's portfolio merged over every partition.
+   */
+  private void runPartitioned() {
+    PartitionedReplay replay =
+        new PartitionedReplay(
+            new Interval(start, end),
+            false,
+            partitions,
+            ConfigUtil.combined().getBoolean("strategy.prefeed.books", true),
+            false,
+            null);
+    for (Replay partition : replay.getReplays()) setUp(partition.getContext());
+    log.info(this.getClass().getSimpleName() + ": " + StatementCache.report());
+    replay.run();
+
+    log.info("Back test completed");
+    // each partition has its own instance of every strategy, so their portfolios are merged by name
+    Map<String, PartitionedPortfolio> portfolios = new TreeMap<String, PartitionedPortfolio>();
+    for (StrategyInstance strategyInstance : strategyInstances) {
+      Portfolio portfolio = strategyInstance.getPortfolio();
+      PartitionedPortfolio merged = portfolios.get(portfolio.getName());
+      if (merged == null) {
+        merged = new PartitionedPortfolio(portfolio.getName(), portfolio.getBaseAsset());
+        portfolios.put(portfolio.getName(), merged);
+      }
+      merged.addPartition(portfolio, strategyInstance.getPortfolioService());
+    }
+    for (PartitionedPortfolio merged : portfolios.values()) {
+      // the replay's events are already in (time, partition, sequence) order
+      merged.merge(replay.getEvents());
+      report(merged);
+    }
+  }
+
+  private void report(PartitionedPortfolio merged) {
+    Portfolio portfolio = merged.getPortfolio();
+    log.info(
+        this.getClass().getSimpleName()
+            + ":runPartitioned - Portfolio: "
+            + portfolio
+            + " merged "
+            + merged.getFills()
+            + " fills and "
+            + merged.getTransactions()
+            + " transactions over "
+            + merged.getPartitions()
+            + " partitions, Total Cash Value ("
+            + portfolio.getBaseAsset()
+            + "):"
+            + merged.getBaseCashBalance().plus(merged.getBaseUnrealisedPnL())
+            + " (Cash Balance:"
+            + merged.getBaseCashBalance()
+            + " Open Trade Equity:"
+            + merged.getBaseUnrealisedPnL()
+            + " Realised PnL:"
+            + merged.getRealisedPnL()
+            + " Commissions and Fees:"
+            + merged.getComissionAndFee()
+            + ")");
+    for (Map.Entry<Market, Amount> netVolume : merged.getNetVolumes().entrySet())
+      log.info(
+          this.getClass().getSimpleName()
+              + ":runPartitioned - Portfolio: "
+              + portfolio
+              + " Market: "
+              + netVolume.getKey()
+              + " Net Position: "
+              + netVolume.getValue());
+  }
+
+  private void setUp(Context context) {
     context.attach(XchangeAccountService.class);
     context.attach(BasicQuoteService.class);
     context.attach(BasicPortfolioService.class);
@@ -219,9 +330,14 @@ public class BacktestRunMode extends RunMode {
 
     OrderService orderService = context.getInjector().getInstance(OrderService.class);
     context.attach(JMXManager.class);
+    if (TradingEventLog.isEnabled()) context.attach(TradingEventLog.class);
+    if (SyntheticPricer.isEnabled()) context.attach(SyntheticPricer.class);
+    if (CointegrationBank.isEnabled()) context.attach(CointegrationBank.class);
     //  Manager.manage("org.cryptocoinpartners.cointrader", context.getInjector().getInjector());
     //  context.attach(JMXManager.class);
     orderService.setTradingEnabled(true);
+    // simulated fills are applied before the next event so backtests stay deterministic
+    orderService.setFillProcessingThreads(0);
     // context.get
     for (String strategyName : strategyNames) {
       StrategyInstance strategyInstance = new StrategyInstance(strategyName);
@@ -235,92 +351,75 @@ public class BacktestRunMode extends RunMode {
       // context.getInjector().getInstance(cls)
 
     }
-    // this should be run on seperate thread
-    // service = Executors.newSingleThreadExecutor();
-    //	Replay replayThread = new Replay();
-    // service.submit(replay);
-    // replay.getContext()
-    replay.run();
-    while (backTestSemaphore.availablePermits() > 0) {
-      try {
-        Thread.sleep(1000);
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        log.debug(this.getClass().getSimpleName() + ": replaying historic prices", e);
-      }
-    }
+  }
 
-    log.info("Back test completed");
-    for (StrategyInstance strategyInstance : strategyInstances) {
+  private void report(StrategyInstance strategyInstance) {
+    log.info(
+        this.getClass().getSimpleName()
+            + ":run - Portfolio: "
+            + strategyInstance.getPortfolio()
+            + " Total Cash Value ("
+            + strategyInstance.getPortfolio().getBaseAsset()
+            + "):"
+            + strategyInstance
+                .getPortfolioService()
+                .getBaseCashBalance(strategyInstance.getPortfolio().getBaseAsset())
+                .plus(
+                    strategyInstance
+                        .getPortfolioService()
+                        .getBaseUnrealisedPnL(strategyInstance.getPortfolio().getBaseAsset()))
+            + ", Total Notional Value ("
+            + strategyInstance.getPortfolio().getBaseAsset()
+            + "):"
+            + strategyInstance
+                .getPortfolio()
+                .getStartingBaseNotionalBalance()
+                .plus(
+                    strategyInstance
+                        .getPortfolioService()
+                        .getBaseCashBalance(strategyInstance.getPortfolio().getBaseAsset()))
+                .plus(
+                    strategyInstance
+                        .getPortfolioService()
+                        .getBaseUnrealisedPnL(strategyInstance.getPortfolio().getBaseAsset()))
+                .minus(strategyInstance.getPortfolio().getStartingBaseCashBalance())
+            + " (Cash Balance:"
+            + strategyInstance
+                .getPortfolioService()
+                .getBaseCashBalance(strategyInstance.getPortfolio().getBaseAsset())
+            + " Realised PnL (M2M):"
+            + strategyInstance
+                .getPortfolioService()
+                .getBaseRealisedPnL(strategyInstance.getPortfolio().getBaseAsset())
+            + " Open Trade Equity:"
+            + strategyInstance
+                .getPortfolioService()
+                .getBaseUnrealisedPnL(strategyInstance.getPortfolio().getBaseAsset())
+            + " MarketValue:"
+            + strategyInstance
+                .getPortfolioService()
+                .getBaseMarketValue(strategyInstance.getPortfolio().getBaseAsset())
+            + ")");
+    for (Position position : strategyInstance.getPortfolio().getNetPositions()) {
       log.info(
           this.getClass().getSimpleName()
               + ":run - Portfolio: "
               + strategyInstance.getPortfolio()
-              + " Total Cash Value ("
-              + strategyInstance.getPortfolio().getBaseAsset()
-              + "):"
-              + strategyInstance
-                  .getPortfolioService()
-                  .getBaseCashBalance(strategyInstance.getPortfolio().getBaseAsset())
-                  .plus(
-                      strategyInstance
-                          .getPortfolioService()
-                          .getBaseUnrealisedPnL(strategyInstance.getPortfolio().getBaseAsset()))
-              + ", Total Notional Value ("
-              + strategyInstance.getPortfolio().getBaseAsset()
-              + "):"
-              + strategyInstance
-                  .getPortfolio()
-                  .getStartingBaseNotionalBalance()
-                  .plus(
-                      strategyInstance
-                          .getPortfolioService()
-                          .getBaseCashBalance(strategyInstance.getPortfolio().getBaseAsset()))
-                  .plus(
-                      strategyInstance
-                          .getPortfolioService()
-                          .getBaseUnrealisedPnL(strategyInstance.getPortfolio().getBaseAsset()))
-                  .minus(strategyInstance.getPortfolio().getStartingBaseCashBalance())
-              + " (Cash Balance:"
-              + strategyInstance
-                  .getPortfolioService()
-                  .getBaseCashBalance(strategyInstance.getPortfolio().getBaseAsset())
-              + " Realised PnL (M2M):"
-              + strategyInstance
-                  .getPortfolioService()
-                  .getBaseRealisedPnL(strategyInstance.getPortfolio().getBaseAsset())
-              + " Open Trade Equity:"
-              + strategyInstance
-                  .getPortfolioService()
-                  .getBaseUnrealisedPnL(strategyInstance.getPortfolio().getBaseAsset())
-              + " MarketValue:"
-              + strategyInstance
-                  .getPortfolioService()
-                  .getBaseMarketValue(strategyInstance.getPortfolio().getBaseAsset())
-              + ")");
-      for (Position position : strategyInstance.getPortfolio().getNetPositions()) {
-        log.info(
-            this.getClass().getSimpleName()
-                + ":run - Portfolio: "
-                + strategyInstance.getPortfolio()
-                + " Instrument: "
-                + position.getAsset()
-                + " Position: "
-                + position.toString());
-        log.info(
-            this.getClass().getSimpleName()
-                + ":run - Portfolio: "
-                + strategyInstance.getPortfolio()
-                + " Instrument: "
-                + position.getAsset()
-                + " position: "
-                + position.getUuid()
-                + " fills: "
-                + position.getFills());
-      }
+              + " Instrument: "
+              + position.getAsset()
+              + " Position: "
+              + position.toString());
+      log.info(
+          this.getClass().getSimpleName()
+              + ":run - Portfolio: "
+              + strategyInstance.getPortfolio()
+              + " Instrument: "
+              + position.getAsset()
+              + " position: "
+              + position.getUuid()
+              + " fills: "
+              + position.getFills());
     }
-
-    // todo report P&L, etc.
   }
 
   @Override
@@ -10,15 +10,23 @@ import javax.inject.Inject;
 
 import org.cryptocoinpartners.module.BasicPortfolioService;
 import org.cryptocoinpartners.module.BasicQuoteService;
+import org.cryptocoinpartners.module.Checkpoint;
+import org.cryptocoinpartners.module.Checkpointer;
+import org.cryptocoinpartners.module.CointegrationBank;
 import org.cryptocoinpartners.module.Context;
 import org.cryptocoinpartners.module.JMXManager;
 import org.cryptocoinpartners.module.SaveMarketData;
+import org.cryptocoinpartners.module.StatementCache;
+import org.cryptocoinpartners.module.SyntheticPricer;
+import org.cryptocoinpartners.module.TradingEventLog;
 import org.cryptocoinpartners.module.xchange.XchangeAccountService;
 import org.cryptocoinpartners.module.xchange.XchangeData;
 import org.cryptocoinpartners.module.xchange.XchangeOrderService;
+import org.cryptocoinpartners.schema.EntityRegistry;
 import org.cryptocoinpartners.schema.ReplayFactory;
 import org.cryptocoinpartners.schema.StrategyInstance;
 import org.cryptocoinpartners.schema.TransactionFactory;
+import org.cryptocoinpartners.service.Checkpointable;
 import org.cryptocoinpartners.service.OrderService;
 import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.Replay;
@@ -47,7 +55,6 @@ public class LiveTradeRunMode extends RunMode {
 
   final ExecutorService service = Executors.newSingleThreadExecutor();
   private final Instant end = new DateTime(DateTime.now()).toInstant();
-  Semaphore paperSemaphore = new Semaphore(0);
   Long prefeedPeriod = ConfigUtil.combined().getLong("strategy.prefeed.period", 25);
   Boolean replayBooks = ConfigUtil.combined().getBoolean("strategy.prefeed.books", false);
   Boolean replayBars = ConfigUtil.combined().getBoolean("strategy.prefeed.bars", false);
@@ -61,26 +68,50 @@ public class LiveTradeRunMode extends RunMode {
   @Override
   public void run(Semaphore semaphore) {
     // context = Context.create();
+    // intern the reference data up front so market lookups on the hot path never query
+    EntityRegistry.load();
+    // a recent checkpoint lets us replay only the history since it was taken
+    Instant replayStart = start;
+    Checkpoint checkpoint = Checkpointer.readCheckpoint();
+    if (checkpoint != null && checkpoint.getReplayStart().isAfter(start)) {
+      replayStart = checkpoint.getReplayStart();
+      log.info(
+          this.getClass().getSimpleName()
+              + ": warm starting from checkpoint at "
+              + checkpoint.getTime()
+              + ", replaying from "
+              + replayStart);
+    } else checkpoint = null;
     Replay replay =
         replayFactory.between(
-            start, end, false, paperSemaphore, false, replayBooks, replayBars, barIntervals);
+            replayStart, end, false, false, replayBooks, replayBars, barIntervals);
     context = replay.getContext();
     context.attach(XchangeAccountService.class);
     context.attach(BasicQuoteService.class);
     context.attach(BasicPortfolioService.class);
     context.attach(XchangeOrderService.class);
     context.attach(JMXManager.class);
+    if (TradingEventLog.isEnabled()) context.attach(TradingEventLog.class);
+    if (SyntheticPricer.isEnabled()) context.attach(SyntheticPricer.class);
+    if (CointegrationBank.isEnabled()) context.attach(CointegrationBank.class);
+    Checkpointer checkpointer =
+        Checkpointer.isEnabled() ? context.attach(Checkpointer.class) : null;
 
     for (String strategyName : strategyNames) {
       StrategyInstance strategyInstance = new StrategyInstance(strategyName);
       context.attachInstance(strategyInstance);
       strategyInstance.getStrategy().init();
+      if (checkpointer != null && strategyInstance.getStrategy() instanceof Checkpointable)
+        checkpointer.addCheckpointable(
+            strategyName, (Checkpointable) strategyInstance.getStrategy());
 
       // setUpInitialPortfolio(strategyInstance);
 
       // context.getInjector().getInstance(cls)
 
     }
+    if (checkpoint != null) checkpoint.restore(context, replay, checkpointer.getCheckpointables());
+    log.info(this.getClass().getSimpleName() + ": " + StatementCache.report());
     log.debug(this.getClass().getSimpleName() + ": replaying historic prices");
     replay.run();
     log.debug(this.getClass().getSimpleName() + ": replayed historic prices");
@@ -98,6 +129,7 @@ public class LiveTradeRunMode extends RunMode {
       context.attach(SaveMarketData.class);
 
     context.attach(XchangeData.class);
+    if (checkpointer != null) checkpointer.start();
     log.debug(this.getClass().getSimpleName() + ": enableing trading");
 
     orderService.setTradingEnabled(
@@ -0,0 +1,85 @@
+package org.cryptocoinpartners.bin;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.MarketDataPartitioning;
+import org.cryptocoinpartners.util.MarketDataPartitioning.Period;
+import org.joda.time.Instant;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Range partitions the trade, book and bar tables on time, creates the partitions for the periods
+ * ahead and drops the partitions older than the retention. Run it once to convert the tables, then
+ * on a schedule to keep partitions ahead of the incoming data and discard expired history.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Parameters(
+    commandNames = "partition-data",
+    commandDescription = "range partitions the market data tables by time and drops old partitions")
+public class PartitionDataRunMode extends RunMode {
+
+  @Parameter(
+      names = {"-period"},
+      description = "DAY or MONTH, used when a table is first partitioned")
+  public String period = ConfigUtil.combined().getString("db.partition.period", "MONTH");
+
+  @Parameter(
+      names = {"-ahead"},
+      description = "Number of periods to create partitions for after the current one")
+  public int ahead = ConfigUtil.combined().getInt("db.partition.ahead", 3);
+
+  @Parameter(
+      names = {"-retain"},
+      description = "Days of history to keep, dropping older partitions, or 0 to keep everything")
+  public int retainDays = ConfigUtil.combined().getInt("db.partition.retention.days", 0);
+
+  @Parameter(
+      names = {"-tables"},
+      variableArity = true,
+      description = "Market data tables to maintain")
+  public List<String> tables = MarketDataPartitioning.TABLES;
+
+  @Override
+  public void run(Semaphore semaphore) {
+    Period partitionPeriod = Period.valueOf(period.toUpperCase());
+    Instant until = partitionPeriod.floor(new Instant());
+    for (int i = 0; i < ahead; i++) until = partitionPeriod.next(until);
+    for (String table : tables) {
+      try {
+        int created = MarketDataPartitioning.partition(table, partitionPeriod, until);
+        List<String> dropped =
+            retainDays > 0
+                ? MarketDataPartitioning.dropPartitions(
+                    table, new Instant().minus(retainDays * 86400000L))
+                : null;
+        log.info(
+            this.getClass().getSimpleName()
+                + ":run - "
+                + table
+                + " created "
+                + created
+                + " partitions"
+                + (dropped == null ? "" : ", dropped " + dropped));
+      } catch (Error | RuntimeException e) {
+        log.error(
+            this.getClass().getSimpleName()
+                + ":run - unable to maintain partitions of "
+                + table
+                + ", full stack trace follows:",
+            e);
+      }
+    }
+    if (semaphore != null) semaphore.release();
+    System.exit(0);
+  }
+
+  @Override
+  public void run() {
+    Semaphore semaphore = null;
+    run(semaphore);
+  }
+}
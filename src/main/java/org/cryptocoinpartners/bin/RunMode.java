@@ -5,6 +5,7 @@ import java.util.concurrent.Semaphore;
 import javax.inject.Inject;
 
 import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.util.Indexed;
 import org.cryptocoinpartners.util.Injector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +20,7 @@ import com.beust.jcommander.Parameters;
  * @see Parameters
  */
 @Parameters(commandNames = "example", commandDescription = "This is an example of how to annotate your subclasses")
+@Indexed
 public abstract class RunMode implements Runnable {
 
     public abstract void run(Semaphore semaphore);
@@ -0,0 +1,156 @@
+package org.cryptocoinpartners.bin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.cryptocoinpartners.module.BarSeries;
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.module.VectorBacktest;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.service.BarSignal;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Backtests strategies implementing BarSignal over the strategy.vectorized.interval Bars of the
+ * strategy.vectorized.markets, without replaying them through Esper. Each market's Bars are loaded
+ * into a BarSeries once and shared by every strategy, then simulated by VectorBacktest. The summary
+ * has the same fields as the backtest run mode, in the quote currency of the markets.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Parameters(
+    commandNames = "vbacktest",
+    commandDescription = "backtest bar signal strategies over whole Bar series")
+public class VectorBacktestRunMode extends RunMode {
+
+  @Parameter(description = "Strategy name to load", arity = 1, required = true)
+  public List<String> strategyNames;
+
+  @Parameter(
+      names = {"-"},
+      description = "No-op switch used to end list of positions before supplying the strategy name")
+  boolean noop = false;
+
+  private final Instant start = new DateTime(2019, 7, 20, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();
+
+  private final Instant end = new DateTime(2021, 05, 01, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();
+
+  @Override
+  public void run(Semaphore semaphore) {
+    double interval = ConfigUtil.combined().getDouble("strategy.vectorized.interval", 3600);
+    double startingCash = ConfigUtil.combined().getDouble("strategy.vectorized.cash", 0);
+    List<BarSeries> series = new ArrayList<BarSeries>();
+    long loadStart = System.currentTimeMillis();
+    for (Object symbol : ConfigUtil.combined().getList("strategy.vectorized.markets")) {
+      Tradeable market = Tradeable.forSymbol(symbol.toString());
+      if (market == null || market.isSynthetic()) {
+        log.error(
+            this.getClass().getSimpleName()
+                + ":run - skipping unknown or synthetic market "
+                + symbol);
+        continue;
+      }
+      series.add(BarSeries.load((Market) market, interval, start, end));
+    }
+    int bars = 0;
+    for (BarSeries marketSeries : series) bars += marketSeries.size();
+    log.info(
+        this.getClass().getSimpleName()
+            + ":run - loaded "
+            + bars
+            + " bars of "
+            + series.size()
+            + " markets in "
+            + (System.currentTimeMillis() - loadStart)
+            + "ms");
+
+    Context context = Context.create();
+    for (String strategyName : strategyNames) {
+      Object strategy = context.attach(strategyName);
+      if (!(strategy instanceof BarSignal)) {
+        log.error(
+            this.getClass().getSimpleName()
+                + ":run - "
+                + strategyName
+                + " does not implement "
+                + BarSignal.class.getSimpleName());
+        continue;
+      }
+      long runStart = System.currentTimeMillis();
+      List<VectorBacktest.Result> results = new ArrayList<VectorBacktest.Result>();
+      for (BarSeries marketSeries : series)
+        results.add(VectorBacktest.run((BarSignal) strategy, marketSeries));
+      log.info(
+          this.getClass().getSimpleName()
+              + ":run - simulated "
+              + strategyName
+              + " in "
+              + (System.currentTimeMillis() - runStart)
+              + "ms");
+      report(strategyName, startingCash, results);
+    }
+    context.destroy();
+    log.info("Back test completed");
+    if (semaphore != null) semaphore.release();
+  }
+
+  private void report(
+      String strategyName, double startingCash, List<VectorBacktest.Result> results) {
+    double realised = 0;
+    double fees = 0;
+    double unrealised = 0;
+    double marketValue = 0;
+    for (VectorBacktest.Result result : results) {
+      realised += result.getRealisedPnL();
+      fees += result.getFees();
+      unrealised += result.getUnrealisedPnL();
+      marketValue += result.getMarketValue();
+    }
+    double cashBalance = startingCash + realised + fees;
+    log.info(
+        this.getClass().getSimpleName()
+            + ":run - Portfolio: "
+            + strategyName
+            + " Total Cash Value:"
+            + (cashBalance + unrealised)
+            + ", Total Notional Value:"
+            + (cashBalance + unrealised - startingCash)
+            + " (Cash Balance:"
+            + cashBalance
+            + " Realised PnL (M2M):"
+            + realised
+            + " Open Trade Equity:"
+            + unrealised
+            + " MarketValue:"
+            + marketValue
+            + ")");
+    for (VectorBacktest.Result result : results)
+      log.info(
+          this.getClass().getSimpleName()
+              + ":run - Portfolio: "
+              + strategyName
+              + " Instrument: "
+              + result.getMarket()
+              + " Position: "
+              + result.getPosition()
+              + " @ "
+              + result.getEntryPrice()
+              + " fills: "
+              + result.getFills()
+              + " fees: "
+              + result.getFees());
+  }
+
+  @Override
+  public void run() {
+    Semaphore semaphore = null;
+    run(semaphore);
+  }
+}
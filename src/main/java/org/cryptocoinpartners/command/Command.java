@@ -4,9 +4,12 @@ import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 
+import org.cryptocoinpartners.util.Indexed;
+
 /**
  * @author Tim Olson
  */
+@Indexed
 public interface Command extends Callable {
     /** This should return the title of the help page, something like "mycmd [option1|opt2] {filename}".  If null, then
      * the command is assumed to have no arguments and just the command name is printed. */
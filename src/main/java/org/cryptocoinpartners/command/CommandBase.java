@@ -2,6 +2,7 @@ package org.cryptocoinpartners.command;
 
 import org.apache.commons.lang.StringUtils;
 import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.util.ClassIndex;
 import org.cryptocoinpartners.util.Injector;
 import org.cryptocoinpartners.util.ReflectionUtil;
 import org.reflections.Reflections;
@@ -52,8 +53,12 @@ public abstract class CommandBase implements Command {
 
     static {
         commandClassesByName = new HashMap<>();
-        Reflections reflections = ReflectionUtil.getCommandReflections();
-        Set<Class<? extends Command>> commandClasses = reflections.getSubTypesOf(Command.class);
+        // commands from every indexed jar, otherwise scan the jars holding the command.path packages
+        Set<Class<? extends Command>> commandClasses = ClassIndex.getSubtypesOf(Command.class);
+        if( commandClasses == null ) {
+            Reflections reflections = ReflectionUtil.getCommandReflections();
+            commandClasses = reflections.getSubTypesOf(Command.class);
+        }
         for( Class<? extends Command> commandClass : commandClasses ) {
             int modifiers = commandClass.getModifiers();
             if( Modifier.isAbstract(modifiers) || Modifier.isInterface(modifiers) )
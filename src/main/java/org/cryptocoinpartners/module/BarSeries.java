@@ -0,0 +1,176 @@
+package org.cryptocoinpartners.module;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.util.EM;
+import org.cryptocoinpartners.util.MarketDataReader;
+import org.cryptocoinpartners.util.Visitor;
+import org.joda.time.Instant;
+
+/**
+ * The Bars of one market and interval held as parallel primitive arrays, in time order, so signals
+ * and the VectorBacktest simulation can run over a whole series without touching a Bar entity.
+ * Missing buy and sell volumes are stored as NaN.
+ */
+public class BarSeries {
+
+  /**
+   * loads the persisted Bars of the market and interval between start and end inclusive, through
+   * the MarketDataReader unless its native query fails
+   */
+  public static BarSeries load(Market market, double interval, Instant start, Instant end) {
+    final BarSeries series = new BarSeries(market, interval, 1024);
+    List<Bar> bars =
+        new MarketDataReader(Collections.<Tradeable>singletonList(market), false)
+            .readBars(start, end, Collections.singletonList(interval));
+    if (bars != null) {
+      for (Bar bar : bars) series.add(bar);
+      series.trim();
+      return series;
+    }
+    EM.queryEach(
+        Bar.class,
+        new Visitor<Bar>() {
+          @Override
+          public boolean handleItem(Bar bar) {
+            series.add(bar);
+            return true;
+          }
+        },
+        "select b from Bar b where b.market=?1 and b.interval=?2 and b.time>=?3 and b.time<=?4"
+            + " order by b.time",
+        market,
+        interval,
+        start,
+        end);
+    series.trim();
+    return series;
+  }
+
+  public BarSeries(Market market, double interval, int capacity) {
+    this.market = market;
+    this.interval = interval;
+    time = new long[capacity];
+    open = new double[capacity];
+    high = new double[capacity];
+    low = new double[capacity];
+    close = new double[capacity];
+    volume = new double[capacity];
+    buyVolume = new double[capacity];
+    sellVolume = new double[capacity];
+  }
+
+  public void add(Bar bar) {
+    add(
+        bar.getTime().getMillis(),
+        value(bar.getOpen()),
+        value(bar.getHigh()),
+        value(bar.getLow()),
+        value(bar.getClose()),
+        value(bar.getVolume()),
+        value(bar.getBuyVolume()),
+        value(bar.getSellVolume()));
+  }
+
+  public void add(
+      long time,
+      double open,
+      double high,
+      double low,
+      double close,
+      double volume,
+      double buyVolume,
+      double sellVolume) {
+    if (size == this.time.length) grow(Math.max(16, size * 2));
+    this.time[size] = time;
+    this.open[size] = open;
+    this.high[size] = high;
+    this.low[size] = low;
+    this.close[size] = close;
+    this.volume[size] = volume;
+    this.buyVolume[size] = buyVolume;
+    this.sellVolume[size] = sellVolume;
+    size++;
+  }
+
+  public Market getMarket() {
+    return market;
+  }
+
+  public double getInterval() {
+    return interval;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** bar start times in epoch millis; only the first size() elements are valid */
+  public long[] getTime() {
+    return time;
+  }
+
+  public double[] getOpen() {
+    return open;
+  }
+
+  public double[] getHigh() {
+    return high;
+  }
+
+  public double[] getLow() {
+    return low;
+  }
+
+  public double[] getClose() {
+    return close;
+  }
+
+  public double[] getVolume() {
+    return volume;
+  }
+
+  public double[] getBuyVolume() {
+    return buyVolume;
+  }
+
+  public double[] getSellVolume() {
+    return sellVolume;
+  }
+
+  private void trim() {
+    if (size < time.length) grow(size);
+  }
+
+  private void grow(int capacity) {
+    time = Arrays.copyOf(time, capacity);
+    open = Arrays.copyOf(open, capacity);
+    high = Arrays.copyOf(high, capacity);
+    low = Arrays.copyOf(low, capacity);
+    close = Arrays.copyOf(close, capacity);
+    volume = Arrays.copyOf(volume, capacity);
+    buyVolume = Arrays.copyOf(buyVolume, capacity);
+    sellVolume = Arrays.copyOf(sellVolume, capacity);
+  }
+
+  private static double value(Double value) {
+    return value == null ? Double.NaN : value;
+  }
+
+  private final Market market;
+  private final double interval;
+  private int size;
+  private long[] time;
+  private double[] open;
+  private double[] high;
+  private double[] low;
+  private double[] close;
+  private double[] volume;
+  private double[] buyVolume;
+  private double[] sellVolume;
+}
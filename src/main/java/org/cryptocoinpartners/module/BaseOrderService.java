@@ -20,10 +20,10 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -78,6 +78,8 @@ import org.cryptocoinpartners.service.QuoteService;
 import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.Injector;
+import org.cryptocoinpartners.util.PartitionedExecutor;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.cryptocoinpartners.util.Remainder;
 import org.cryptocoinpartners.util.RemainderHandler;
 import org.joda.time.Instant;
@@ -98,9 +100,6 @@ import com.google.common.collect.Table.Cell;
 // TODO syncronized on order objects, not on this class to improve performance
 @SuppressWarnings("UnusedDeclaration")
 public abstract class BaseOrderService implements OrderService {
-  static {
-    service = Executors.newFixedThreadPool(1);
-  }
 
   // ConcurrentHashMap<Listing, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Position>>>
   // listingPosition = new ConcurrentHashMap<Listing, ConcurrentHashMap<TransactionType,
@@ -109,26 +108,24 @@ public abstract class BaseOrderService implements OrderService {
   private final Lock triggerOrderLock = new ReentrantLock();
   private final Lock trailingTriggerOrdersLock = new ReentrantLock();
 
-  private transient Map<
-          Asset, Map<Exchange, Map<Listing, Map<TransactionType, ConcurrentLinkedQueue<Position>>>>>
-      positionsMap;
   private final int updateOrderAfter = 5;
   protected static final HashMap<Exchange, ExecutorService> exchangeCancellationPool =
       new HashMap<Exchange, ExecutorService>();
   protected static final HashMap<Exchange, BlockingQueue<SpecificOrder>>
       exchangeCancellationQueues = new HashMap<Exchange, BlockingQueue<SpecificOrder>>();
 
-  private static final Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>
+  // per instance, so the order services of partitions replayed side by side do not share orders
+  private final Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>
       triggerOrders =
           new ConcurrentHashMap<
               Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>();
 
-  private static final Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>
+  private final Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>
       targetOrders =
           new ConcurrentHashMap<
               Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>();
 
-  private static final Map<Tradeable, Map<Double, Map<TransactionType, List<Order>>>>
+  private final Map<Tradeable, Map<Double, Map<TransactionType, List<Order>>>>
       trailingTriggerOrders =
           new ConcurrentHashMap<Tradeable, Map<Double, Map<TransactionType, List<Order>>>>();
 
@@ -697,12 +694,6 @@ public abstract class BaseOrderService implements OrderService {
               + orderUpdate.getState()
               + " to orderStateMap");
       orderStateMap.put(orderUpdate.getOrder(), orderUpdate.getState());
-
-      if (stateOrderMap.get(orderUpdate.getState()) == null) {
-        Set<Order> orderSet = new HashSet<Order>();
-        stateOrderMap.put(orderUpdate.getState(), orderSet);
-      }
-      stateOrderMap.get(orderUpdate.getState()).add(orderUpdate.getOrder());
       if (orderUpdate.getState() == (OrderState.TRIGGER)) {
         Market triggerMarket = null;
         if (orderUpdate.getOrder().getParentFill() != null) {
@@ -730,18 +721,7 @@ public abstract class BaseOrderService implements OrderService {
       // this == OrderState.NEW || this == OrderState.TRIGGER || this == OrderState.ROUTED || this
       // == OrderState.PLACED || this == OrderState.PARTFILLED;
 
-      if (stateOrderMap.get(OrderState.NEW) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.NEW));
-      if (stateOrderMap.get(OrderState.TRIGGER) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.TRIGGER));
-      if (stateOrderMap.get(OrderState.PLACED) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PLACED));
-      if (stateOrderMap.get(OrderState.PARTFILLED) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PARTFILLED));
-      if (stateOrderMap.get(OrderState.ROUTED) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.ROUTED));
-      if (stateOrderMap.get(OrderState.CANCELLING) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.CANCELLING));
+      cointraderOpenOrders.addAll(orderStateMap.getOpenOrders());
     } catch (Exception e) {
       log.error(
           this.getClass().getSimpleName() + ": getPendingOrders - Unable to retrive order state ",
@@ -796,7 +776,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllShortTimedOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -878,7 +858,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllShortTimedOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + " Cancelled Short Timed Trigger Order: "
               + cancelledOrder);
     }
@@ -898,7 +878,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllShortStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -980,7 +960,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllShortStopOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + " Cancelled Short Stop Trigger Order: "
               + cancelledOrder);
     }
@@ -996,7 +976,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllTriggerOrdersByParentFill to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (triggerOrders.get(parentFill.getMarket()) != null
         && !triggerOrders.get(parentFill.getMarket()).isEmpty()) {
 
@@ -1057,7 +1037,7 @@ public abstract class BaseOrderService implements OrderService {
 
                   log.debug(
                       "handleCancelAllTriggerOrdersByParentFill called from class "
-                          + Thread.currentThread().getStackTrace()[2]
+                          + PersistenceTrace.callSite(log)
                           + " Cancelled Trigger Order "
                           + triggerOrder
                           + " for : "
@@ -1082,7 +1062,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllLongTimedOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -1165,7 +1145,7 @@ public abstract class BaseOrderService implements OrderService {
         updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
         log.debug(
             "handleCancelAllLongTimedOrders called from class "
-                + Thread.currentThread().getStackTrace()[2]
+                + PersistenceTrace.callSite(log)
                 + " Cancelled Long Timed Trigger Order: "
                 + cancelledOrder);
       }
@@ -1185,7 +1165,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllLongStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -1268,7 +1248,7 @@ public abstract class BaseOrderService implements OrderService {
         updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
         log.debug(
             "handleCancelAllLongStopOrders called from class "
-                + Thread.currentThread().getStackTrace()[2]
+                + PersistenceTrace.callSite(log)
                 + " Cancelled Long Stop Trigger Order: "
                 + cancelledOrder);
       }
@@ -1291,7 +1271,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllLongTimedOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -1379,7 +1359,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllLongTimedOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + " Cancelled Long Timed Trigger Order: "
               + cancelledOrder);
     }
@@ -1400,7 +1380,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllLongStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -1488,7 +1468,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllLongStopOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + " Cancelled Long Stop Trigger Order: "
               + cancelledOrder);
     }
@@ -1506,7 +1486,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelGeneralOrder to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
 
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
@@ -1539,7 +1519,7 @@ public abstract class BaseOrderService implements OrderService {
               updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
               log.debug(
                   "handleCancelGeneralOrder called from class "
-                      + Thread.currentThread().getStackTrace()[2]
+                      + PersistenceTrace.callSite(log)
                       + " Cancelled General  Trigger Order: "
                       + cancelledOrder);
               // if (cancelledOrder.)
@@ -1590,7 +1570,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : adjustShortStopLoss to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext(); ) {
@@ -1702,7 +1682,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : adjustShortStopLossByAmount to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext(); ) {
@@ -1822,7 +1802,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : adjustLongStopLossByAmount to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext(); ) {
@@ -1941,7 +1921,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : adjustLongStopLoss to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext(); ) {
@@ -2050,7 +2030,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : adjustLongTargetPrices to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
 
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
@@ -2122,7 +2102,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : adjustShortTargetPrices to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext(); ) {
@@ -2216,22 +2196,16 @@ public abstract class BaseOrderService implements OrderService {
 
   public Collection<SpecificOrder> getWorkingOrdersOrderFromStateMap() {
     ArrayList<SpecificOrder> orders = new ArrayList<SpecificOrder>();
-    for (Order order : orderStateMap.keySet())
-      if (order instanceof SpecificOrder && orderStateMap.get(order).isOpen())
-        orders.add((SpecificOrder) order);
+    for (Order order : orderStateMap.getOpenOrders())
+      if (order instanceof SpecificOrder) orders.add((SpecificOrder) order);
 
     return orders;
   }
 
   public SpecificOrder getSpecifcOrderFromStateMap(UUID uuid) {
-    boolean found = false;
-    for (Order order : orderStateMap.keySet()) {
-      if (order.getUuid().equals(uuid)) {
-        found = true;
-        if (order instanceof SpecificOrder) return (SpecificOrder) order;
-      }
-    }
-    if (!found) throw new IllegalStateException("Untracked order " + uuid);
+    Order order = orderStateMap.getOrder(uuid);
+    if (order == null) throw new IllegalStateException("Untracked order " + uuid);
+    if (order instanceof SpecificOrder) return (SpecificOrder) order;
     return null;
   }
 
@@ -2248,7 +2222,7 @@ public abstract class BaseOrderService implements OrderService {
         "{} : setTradingEnabled to {} called from stack  {}",
         this.getClass().getSimpleName(),
         enableTrading,
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     this.enableTrading = enableTrading;
   }
@@ -2258,7 +2232,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         "{} : handleOrderUpdate to called from stack {} ",
         this.getClass().getSimpleName(),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     // TOOD somethig is up in here causing the states of stop orders to be changed when they are
     // still resting
@@ -2407,24 +2381,84 @@ public abstract class BaseOrderService implements OrderService {
     }
   }
 
+  /**
+   * Processes the fill on the fill processing lane of its portfolio, so fills of one portfolio are
+   * applied in the order they are received while fills of other portfolios are applied in parallel.
+   * Lanes are not split further by asset, as a fill of any asset also updates the portfolio's cash
+   * balances, transactions and realised PnL. With no fill processing threads, the default, the fill
+   * is processed on the calling thread.
+   */
   // @When("@Priority(9) select * from Fill")
   @Override
-  public void handleFillProcessing(Fill fill) {
-    // fillProcessingLatch = new CountDownLatch(1);
+  public void handleFillProcessing(final Fill fill) {
     log.info("BaseOrderService:handleFillProcessing Fill Recieved: {}", fill);
-    handleFill(fill);
-    //    fillProcessingLatch.countDown();
-    //  fillProcessingLatch = null;
-    // service.submit(new handleFillRunnable(fill));
+    final long received = System.nanoTime();
+    PartitionedExecutor processor = getFillProcessor();
+    if (processor == null) {
+      handleFill(fill, received);
+      return;
+    }
+    processor.execute(
+        fill.getPortfolio(),
+        () -> {
+          try {
+            handleFill(fill, received);
+          } catch (Exception | Error e) {
+            log.error(
+                this.getClass().getSimpleName()
+                    + ":handleFillProcessing - unable to process fill "
+                    + fill
+                    + ", full stack trace follows:",
+                e);
+          }
+        });
+  }
+
+  @Override
+  public synchronized void setFillProcessingThreads(int threads) {
+    if (fillProcessor != null) fillProcessor.shutdown();
+    fillProcessor = null;
+    fillProcessingThreads = threads;
+  }
+
+  @Override
+  public String getFillLatency() {
+    long count = fillLatencyCount.get();
+    return count
+        + " fills, fill to position update avg "
+        + (count == 0 ? 0 : fillLatencyTotal.get() / count / 1000)
+        + "us max "
+        + fillLatencyMax.get() / 1000
+        + "us";
+  }
+
+  private synchronized PartitionedExecutor getFillProcessor() {
+    if (fillProcessor == null && fillProcessingThreads > 0)
+      fillProcessor = new PartitionedExecutor("FillProcessor", fillProcessingThreads);
+    return fillProcessor;
+  }
+
+  private void recordFillLatency(long nanos) {
+    fillLatencyCount.incrementAndGet();
+    fillLatencyTotal.addAndGet(nanos);
+    long max;
+    do {
+      max = fillLatencyMax.get();
+    } while (max < nanos && !fillLatencyMax.compareAndSet(max, nanos));
   }
 
   public void handleFill(Fill fill) {
+    handleFill(fill, System.nanoTime());
+  }
+
+  private void handleFill(Fill fill, long received) {
 
     SpecificOrder order = fill.getOrder();
     log.debug("handleFill: Updating position for fill{}", fill);
     try {
       fill.persit();
       fill.getPortfolio().merge(fill);
+      recordFillLatency(System.nanoTime() - received);
     } catch (Throwable t) {
       // fill.persit();
       log.error("handleFill: Unable to update position for fill {} due to stack trace: ", fill, t);
@@ -2859,21 +2893,6 @@ public abstract class BaseOrderService implements OrderService {
         }
       };
 
-  private class handleFillRunnable implements Runnable {
-    private final Fill fill;
-
-    // protected Logger log;
-
-    public handleFillRunnable(Fill fill) {
-      this.fill = fill;
-    }
-
-    @Override
-    public void run() {
-      handleFill(fill);
-    }
-  }
-
   private GeneralOrder buildReentrantLimitOrder(Fill fill) {
 
     //      GeneralOrder order = generalOrderFactory.create(fill.getOrder().getPortfolio(), this));
@@ -3951,7 +3970,13 @@ public abstract class BaseOrderService implements OrderService {
   @When("@Priority(1)  @Audit select * from LastTradeWindow(market in (BaseStrategy.getMarkets()))")
   private void handleTrade(Trade t) {
     log.trace("BasedOrderSerivce: handleTrade: Trade Recieved:{} ", t);
-    updateRestingOrders(t, 0.0);
+    updateRestingOrders(
+        t.getMarket(),
+        t.getTime(),
+        t.getTimeReceived(),
+        t.getPriceCount(),
+        t.getVolumeCount(),
+        0.0);
 
     // mockOrderService.submit(new updateBookRunnable(t));
   }
@@ -4415,6 +4440,45 @@ public abstract class BaseOrderService implements OrderService {
     }
   }
 
+  /**
+   * Evaluates the resting orders of the market against a trade, taking the trade price as both the
+   * best bid and the best ask. The counts are relative to the market's price and volume basis, as
+   * on Trade, so synthetic markets need no conversion. Nothing is allocated unless the market has
+   * open orders or resting trigger orders.
+   */
+  protected void updateRestingOrders(
+      Tradeable market,
+      Instant time,
+      Instant timeReceived,
+      long priceCount,
+      long volumeCount,
+      Double triggerInterval) {
+    if (priceCount == 0 || !hasRestingOrders(market)) return;
+    long volume = Math.abs(volumeCount);
+    // a sell takes the bid and a buy lifts the ask, either way the trade price is the top of book
+    Book b = bookFactory.create(time, market);
+    b.getAsks().add(new Offer(market, time, timeReceived, priceCount, -volume));
+    b.getBids().add(new Offer(market, time, timeReceived, priceCount, volume));
+    updateRestingOrders(b, triggerInterval);
+  }
+
+  /** @return whether the market has open specific orders or trigger orders to evaluate */
+  protected boolean hasRestingOrders(Tradeable market) {
+    if (orderStateMap.hasOpenOrders(market)) return true;
+    Map<Double, Map<TransactionType, Map<FillType, List<Order>>>> triggersByInterval =
+        triggerOrders.get(market);
+    if (triggersByInterval != null)
+      for (Map<TransactionType, Map<FillType, List<Order>>> bySide : triggersByInterval.values())
+        for (Map<FillType, List<Order>> byFillType : bySide.values())
+          for (List<Order> orders : byFillType.values()) if (!orders.isEmpty()) return true;
+    Map<Double, Map<TransactionType, List<Order>>> trailingByInterval =
+        trailingTriggerOrders.get(market);
+    if (trailingByInterval != null)
+      for (Map<TransactionType, List<Order>> bySide : trailingByInterval.values())
+        for (List<Order> orders : bySide.values()) if (!orders.isEmpty()) return true;
+    return false;
+  }
+
   @SuppressWarnings("ConstantConditions")
   private synchronized void updateRestingOrders(Event event, Double triggerInterval) {
     // TODO If we trigger an order and it get's rejected by the exchange, the trigger order also
@@ -4433,104 +4497,17 @@ public abstract class BaseOrderService implements OrderService {
     Tradeable market = null;
     List<Offer> asks = new ArrayList<>();
     Book b = null;
-    Trade t = null;
     List<Offer> bids = new ArrayList<>();
     if (event instanceof Book) {
       b = (Book) event;
       //  market = b.getMarket();
 
-    }
+    } else return;
     /*
      * if (event.getTimestamp() >= 1390101388000L) { log.debug("here we go"); log.debug("orderstatmap: " + orderStateMap); log.debug("pendingOrders: "
      * + getPendingOrders()); log.debug("TriggerOrders: " + triggerOrders); log.debug("TrailingTriggerOrders: " + trailingTriggerOrders); }
      */
 
-    if (event instanceof Trade) {
-      t = (Trade) event;
-
-      //  market = t.getMarket();
-      b = bookFactory.create(new Instant(t.getTimestamp()), t.getMarket());
-
-      // if Trade is a sell then it must have big the ask
-      if (!t.getMarket().isSynthetic()) {
-        if (t.getVolume().isNegative()) {
-          Offer bestBid =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().getCount(),
-                  Math.abs(t.getVolume().getCount()) * -1);
-          b.getAsks().add(bestBid);
-          Offer bestAsk =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().getCount(),
-                  Math.abs(t.getVolume().getCount()));
-          b.getBids().add(bestAsk);
-
-        } else {
-          Offer bestAsk =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().getCount(),
-                  Math.abs(t.getVolume().getCount()) * -1);
-          b.getAsks().add(bestAsk);
-          Offer bestBid =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().getCount(),
-                  Math.abs(t.getVolume().getCount()));
-          b.getBids().add(bestBid);
-        }
-      } else {
-        if (t.getVolume().isNegative()) {
-          Offer bestBid =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().asBigDecimal(),
-                  t.getVolume().asBigDecimal().abs().negate());
-          b.getAsks().add(bestBid);
-          Offer bestAsk =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().asBigDecimal(),
-                  t.getVolume().asBigDecimal().abs());
-          b.getBids().add(bestAsk);
-
-        } else {
-          Offer bestAsk =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().asBigDecimal(),
-                  t.getVolume().asBigDecimal().abs().negate());
-          b.getAsks().add(bestAsk);
-          Offer bestBid =
-              new Offer(
-                  t.getMarket(),
-                  t.getTime(),
-                  t.getTimeReceived(),
-                  t.getPrice().asBigDecimal(),
-                  t.getVolume().asBigDecimal().abs());
-          b.getBids().add(bestBid);
-        }
-      }
-
-      //     b.build();
-
-    }
     market = b.getMarket();
     asks = b.getAsks();
     bids = b.getBids();
@@ -4683,15 +4660,16 @@ public abstract class BaseOrderService implements OrderService {
             while (itto.hasNext()) {
               Order triggeredOrder = itto.next();
 
-              log.trace(
-                  "determining to trigger resting buy  order: {} {}  for interval  {} at Bid price for trigger: {} Ask price for trigger: {} ",
-                  triggeredOrder.getUuid(),
-                  (triggeredOrder.getStopPrice() != null
-                      ? " with stop price " + (triggeredOrder.getStopPrice())
-                      : ""),
-                  triggerInterval,
-                  bid.getPrice(),
-                  ask.getPrice());
+              if (log.isTraceEnabled())
+                log.trace(
+                    "determining to trigger resting buy  order: {} {}  for interval  {} at Bid price for trigger: {} Ask price for trigger: {} ",
+                    triggeredOrder.getUuid(),
+                    (triggeredOrder.getStopPrice() != null
+                        ? " with stop price " + (triggeredOrder.getStopPrice())
+                        : ""),
+                    triggerInterval,
+                    bid.getPrice(),
+                    ask.getPrice());
 
               if (triggeredOrder.getExpiryTime() != null
                   && context.getTime().isAfter(triggeredOrder.getExpiryTime())
@@ -4906,18 +4884,19 @@ public abstract class BaseOrderService implements OrderService {
 
               // for (Order triggeredOrder : triggerOrders.get(parentKey)) {
 
-              log.trace(
-                  "determining to trigger resting sell  order:{} {} for interval {} at Bid price for trigger: {}  . Ask price for trigger: {}",
-                  triggeredOrder.getUuid(),
-                  (triggeredOrder.getStopPrice() != null
-                      ? " with stop price " + (triggeredOrder.getStopPrice())
-                      : ""),
-                  (triggeredOrder.getTargetPrice() != null
-                      ? " target price " + (triggeredOrder.getTargetPrice())
-                      : ""),
-                  triggerInterval,
-                  bid.getPrice(),
-                  ask.getPrice());
+              if (log.isTraceEnabled())
+                log.trace(
+                    "determining to trigger resting sell  order:{} {} for interval {} at Bid price for trigger: {}  . Ask price for trigger: {}",
+                    triggeredOrder.getUuid(),
+                    (triggeredOrder.getStopPrice() != null
+                        ? " with stop price " + (triggeredOrder.getStopPrice())
+                        : ""),
+                    (triggeredOrder.getTargetPrice() != null
+                        ? " target price " + (triggeredOrder.getTargetPrice())
+                        : ""),
+                    triggerInterval,
+                    bid.getPrice(),
+                    ask.getPrice());
 
               if (triggeredOrder.getExpiryTime() != null
                   && context.getTime().isAfter(triggeredOrder.getExpiryTime())
@@ -5281,7 +5260,7 @@ public abstract class BaseOrderService implements OrderService {
 
                 log.debug(
                     "handleCancelAllLongOpeningGeneralOrders called from class {} Cancelled Long Opening Trigger Order:  {}",
-                    Thread.currentThread().getStackTrace()[2],
+                    PersistenceTrace.callSite(log),
                     cancelledOrder);
 
                 if (cancelledOrder.getParentFill() != null)
@@ -5297,7 +5276,7 @@ public abstract class BaseOrderService implements OrderService {
           updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
           log.debug(
               "handleCancelAllLongOpeningGeneralOrders called from class {} Cancelled Long Opening Trigger Order:  {}",
-              Thread.currentThread().getStackTrace()[2],
+              PersistenceTrace.callSite(log),
               cancelledOrder);
 
           if (cancelledOrder.getParentFill() != null)
@@ -5472,7 +5451,7 @@ public abstract class BaseOrderService implements OrderService {
 
                 log.debug(
                     "handleCancelAllLongOpeningGeneralOrders called from class {} Cancelled Long Opening Trigger Order {} ",
-                    Thread.currentThread().getStackTrace()[2],
+                    PersistenceTrace.callSite(log),
                     cancelledOrder);
 
                 if (cancelledOrder.getParentFill() != null)
@@ -5489,7 +5468,7 @@ public abstract class BaseOrderService implements OrderService {
 
           log.debug(
               "handleCancelAllLongOpeningGeneralOrders called from class {} Cancelled Long Opening Trigger Order: {}",
-              Thread.currentThread().getStackTrace()[2],
+              PersistenceTrace.callSite(log),
               cancelledOrder);
           ;
           if (cancelledOrder.getParentFill() != null)
@@ -5595,7 +5574,7 @@ public abstract class BaseOrderService implements OrderService {
 
     log.debug(
         "cancelAndReplaceOrder called from class "
-            + Thread.currentThread().getStackTrace()[2]
+            + PersistenceTrace.callSite(log)
             + "limitPriceDiscrete="
             + limitPriceDiscrete
             + ", cancelling order : "
@@ -5963,7 +5942,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + ":removeTriggerOrders - called from class "
-            + Thread.currentThread().getStackTrace()[2]
+            + PersistenceTrace.callSite(log)
             + " with triggeredOrdersToRemove="
             + triggeredOrdersToRemove
             + ",market="
@@ -6383,7 +6362,7 @@ public abstract class BaseOrderService implements OrderService {
           ordersToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -6406,38 +6385,32 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Collection<SpecificOrder> getPendingOrders(Portfolio portfolio, Market market) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return orderStateMap.getOpenOrders(portfolio, market);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingOrders(
       Portfolio portfolio, Market market, double interval) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getOrderGroup() == (interval)) {
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return inOrderGroup(orderStateMap.getOpenOrders(portfolio, market), interval);
+  }
 
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
+  private static Collection<SpecificOrder> inOrderGroup(
+      Collection<SpecificOrder> orders, double orderGroup) {
+    for (Iterator<SpecificOrder> it = orders.iterator(); it.hasNext(); )
+      if (it.next().getOrderGroup() != orderGroup) it.remove();
+    return orders;
+  }
+
+  /** keeps the orders with no execution instruction or the given one */
+  private static Collection<SpecificOrder> withExecutionInstruction(
+      Collection<SpecificOrder> orders, ExecutionInstruction execInst) {
+    for (Iterator<SpecificOrder> it = orders.iterator(); it.hasNext(); ) {
+      ExecutionInstruction orderExecInst = it.next().getExecutionInstruction();
+      if (orderExecInst != null && !orderExecInst.equals(execInst)) it.remove();
     }
-    return portfolioPendingOrders;
+    return orders;
   }
 
   @Override
@@ -6464,53 +6437,17 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Collection<SpecificOrder> getPendingLongOpenOrders(Portfolio portfolio, Market market) {
-    List<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getPositionEffect() == (PositionEffect.OPEN)
-            && pendingOrder.isBid()) {
-
-          if (!portfolioPendingOrders.contains(pendingOrder))
-            portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    //     log.trace("getPendingLongOpenOrders pending long open orders : " +
-    // portfolioPendingOrders);
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return orderStateMap.getOpenOrders(portfolio, market, TransactionType.BUY, PositionEffect.OPEN);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingLongOpenOrders(
       Portfolio portfolio, Market market, double orderGroup) {
-    List<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getOrderGroup() == (orderGroup)
-            && pendingOrder.getPositionEffect() == (PositionEffect.OPEN)
-            && pendingOrder.isBid()) {
-
-          if (!portfolioPendingOrders.contains(pendingOrder))
-            portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    //     log.trace("getPendingLongOpenOrders pending long open orders : " +
-    // portfolioPendingOrders);
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return inOrderGroup(
+        orderStateMap.getOpenOrders(portfolio, market, TransactionType.BUY, PositionEffect.OPEN),
+        orderGroup);
   }
 
   @Override
@@ -6572,103 +6509,34 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Collection<SpecificOrder> getPendingLongCloseOrders(Portfolio portfolio, Market market) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isAsk()) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    //    log.trace("getPendingLongCloseOrders pending long close orders : " +
-    // portfolioPendingOrders);
-
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return orderStateMap.getOpenOrders(
+        portfolio, market, TransactionType.SELL, PositionEffect.CLOSE);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingLongCloseOrders(
       Portfolio portfolio, Market market, double orderGroup) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-
-    for (Order order : getPendingOrders()) {
-
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getOrderGroup() == (orderGroup)
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isAsk()) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        } else {
-          // need to get all child orders thfill
-        }
-      }
-    }
-    //    log.trace("getPendingLongCloseOrders pending long close orders : " +
-    // portfolioPendingOrders);
-
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return inOrderGroup(
+        orderStateMap.getOpenOrders(portfolio, market, TransactionType.SELL, PositionEffect.CLOSE),
+        orderGroup);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingShortOpenOrders(Portfolio portfolio, Market market) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getPositionEffect() == (PositionEffect.OPEN)
-            && pendingOrder.isAsk()) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    //      log.trace("getPendingShortOpenOrders pending short open orders : " +
-    // portfolioPendingOrders);
-
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return orderStateMap.getOpenOrders(
+        portfolio, market, TransactionType.SELL, PositionEffect.OPEN);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingShortOpenOrders(
       Portfolio portfolio, Market market, double orderGroup) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getOrderGroup() == orderGroup
-            && pendingOrder.getPositionEffect() == (PositionEffect.OPEN)
-            && pendingOrder.isAsk()) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    //      log.trace("getPendingShortOpenOrders pending short open orders : " +
-    // portfolioPendingOrders);
-
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return inOrderGroup(
+        orderStateMap.getOpenOrders(portfolio, market, TransactionType.SELL, PositionEffect.OPEN),
+        orderGroup);
   }
 
   @Override
@@ -6694,50 +6562,18 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Collection<SpecificOrder> getPendingShortCloseOrders(Portfolio portfolio, Market market) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isBid()) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    //    log.trace("getPendingShortCloseOrders pending short close orders : " +
-    // portfolioPendingOrders);
-
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return orderStateMap.getOpenOrders(
+        portfolio, market, TransactionType.BUY, PositionEffect.CLOSE);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingShortCloseOrders(
       Portfolio portfolio, Market market, double orderGroup) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getOrderGroup() == orderGroup
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isBid()) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    //    log.trace("getPendingShortCloseOrders pending short close orders : " +
-    // portfolioPendingOrders);
-
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return inOrderGroup(
+        orderStateMap.getOpenOrders(portfolio, market, TransactionType.BUY, PositionEffect.CLOSE),
+        orderGroup);
   }
 
   @Override
@@ -6752,7 +6588,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         "{}: getPendingLongOpenTriggerOrders to called from stack {} with portfolio={}/{} ,market={}/{} ,orderGroup={}/{} ",
         this.getClass().getSimpleName(),
-        Thread.currentThread().getStackTrace()[2],
+        PersistenceTrace.callSite(log),
         portfolio,
         System.identityHashCode(portfolio),
         market,
@@ -6819,7 +6655,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         "{}: getPendingLongCloseTriggerOrders to called from stack {} with portfolio={}/{} ,market={}/{} ,orderGroup={}/{} ",
         this.getClass().getSimpleName(),
-        Thread.currentThread().getStackTrace()[2],
+        PersistenceTrace.callSite(log),
         portfolio,
         System.identityHashCode(portfolio),
         market,
@@ -6880,20 +6716,13 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Collection<SpecificOrder> getPendingCloseOrders(Portfolio portfolio, Market market) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    Collection<SpecificOrder> portfolioPendingOrders =
+        new ArrayList<SpecificOrder>(
+            orderStateMap.getOpenOrders(
+                portfolio, market, TransactionType.SELL, PositionEffect.CLOSE));
+    portfolioPendingOrders.addAll(
+        orderStateMap.getOpenOrders(portfolio, market, TransactionType.BUY, PositionEffect.CLOSE));
     return portfolioPendingOrders;
   }
 
@@ -6922,7 +6751,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllShortClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -6960,7 +6789,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.info(
               "handleCancelAllShortClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite()
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -6998,7 +6827,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllShortClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -7065,7 +6894,7 @@ public abstract class BaseOrderService implements OrderService {
         if (cancelledOrder.equals(orderToCancel)) {
           log.debug(
               "handleCancelSpecificOrderByParentFill called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " canclled order : "
                   + orderToCancel);
 
@@ -7076,7 +6905,7 @@ public abstract class BaseOrderService implements OrderService {
       if (!foundOrderToBeCancelled) {
         log.debug(
             "handleCancelSpecificOrderByParentFill called from class "
-                + Thread.currentThread().getStackTrace()[2]
+                + PersistenceTrace.callSite(log)
                 + " unable to cancel order : "
                 + orderToCancel);
 
@@ -7151,7 +6980,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -7681,7 +7510,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllLongOpeningSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -7708,7 +7537,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllLongOpeningSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -7721,97 +7550,43 @@ public abstract class BaseOrderService implements OrderService {
   @Override
   public Collection<SpecificOrder> getPendingLongCloseOrders(
       Portfolio portfolio, ExecutionInstruction execInst, Market market) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isAsk()
-            && (pendingOrder.getExecutionInstruction() == null
-                || (pendingOrder.getExecutionInstruction() != null
-                    && pendingOrder.getExecutionInstruction().equals(execInst)))) {
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    // orderStateMap.remove(pendingOrder);
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return withExecutionInstruction(
+        orderStateMap.getOpenOrders(portfolio, market, TransactionType.SELL, PositionEffect.CLOSE),
+        execInst);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingLongCloseOrders(
       Portfolio portfolio, ExecutionInstruction execInst, Market market, double orderGroup) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getOrderGroup() == orderGroup
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isAsk()
-            && (pendingOrder.getExecutionInstruction() == null
-                || (pendingOrder.getExecutionInstruction() != null
-                    && pendingOrder.getExecutionInstruction().equals(execInst)))) {
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    // orderStateMap.remove(pendingOrder);
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return withExecutionInstruction(
+        inOrderGroup(
+            orderStateMap.getOpenOrders(
+                portfolio, market, TransactionType.SELL, PositionEffect.CLOSE),
+            orderGroup),
+        execInst);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingShortCloseOrders(
       Portfolio portfolio, ExecutionInstruction execInst, Market market) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isBid()
-            && (pendingOrder.getExecutionInstruction() == null
-                || (pendingOrder.getExecutionInstruction() != null
-                    && pendingOrder.getExecutionInstruction().equals(execInst)))) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return withExecutionInstruction(
+        orderStateMap.getOpenOrders(portfolio, market, TransactionType.BUY, PositionEffect.CLOSE),
+        execInst);
   }
 
   @Override
   public Collection<SpecificOrder> getPendingShortCloseOrders(
       Portfolio portfolio, ExecutionInstruction execInst, Market market, double orderGroup) {
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)
-            && pendingOrder.getOrderGroup() == orderGroup
-            && pendingOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && pendingOrder.isBid()
-            && (pendingOrder.getExecutionInstruction() == null
-                || (pendingOrder.getExecutionInstruction() != null
-                    && pendingOrder.getExecutionInstruction().equals(execInst)))) {
-
-          portfolioPendingOrders.add(pendingOrder);
-        }
-      }
-    }
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return withExecutionInstruction(
+        inOrderGroup(
+            orderStateMap.getOpenOrders(
+                portfolio, market, TransactionType.BUY, PositionEffect.CLOSE),
+            orderGroup),
+        execInst);
   }
 
   @Override
@@ -7835,7 +7610,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllLongClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -7868,7 +7643,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllLongClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -7902,7 +7677,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllLongClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -7937,7 +7712,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllLongClosingSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -8009,21 +7784,29 @@ public abstract class BaseOrderService implements OrderService {
     }
   }
 
+  /**
+   * Sets the position type of a cancelled order's parent fill from the volume it still has open,
+   * as nothing more will be filled against it by this order.
+   */
+  protected void updateParentFillPositionType(SpecificOrder specificOrder) {
+    if (specificOrder.getParentFill() != null)
+      specificOrder
+          .getParentFill()
+          .setPositionType(
+              (specificOrder.getParentFill().getOpenVolumeCount() == 0
+                  ? PositionType.FLAT
+                  : (specificOrder.getParentFill().getOpenVolumeCount() > 0
+                      ? PositionType.LONG
+                      : PositionType.SHORT)));
+  }
+
   @Override
   public boolean handleCancelSpecificOrder(SpecificOrder specificOrder) {
     try {
       if (orderStateMap.get(specificOrder) != null
           && orderStateMap.get(specificOrder).isOpen()
           && cancelSpecificOrder(specificOrder)) {
-        if (specificOrder.getParentFill() != null)
-          specificOrder
-              .getParentFill()
-              .setPositionType(
-                  (specificOrder.getParentFill().getOpenVolumeCount() == 0
-                      ? PositionType.FLAT
-                      : (specificOrder.getParentFill().getOpenVolumeCount() > 0
-                          ? PositionType.LONG
-                          : PositionType.SHORT)));
+        updateParentFillPositionType(specificOrder);
         // need to remove it from any parent
         //            if (specificOrder.getParentOrder() != null &&
         // specificOrder.getParentOrder().getOrderChildren() != null
@@ -8033,7 +7816,7 @@ public abstract class BaseOrderService implements OrderService {
 
         log.debug(
             "handleCancelSpecificOrder cancelled called from class "
-                + Thread.currentThread().getStackTrace()[2]
+                + PersistenceTrace.callSite(log)
                 + " Specific Order:"
                 + specificOrder);
         return true;
@@ -8049,7 +7832,7 @@ public abstract class BaseOrderService implements OrderService {
       else {
         log.debug(
             "handleCancelSpecificOrder called from class "
-                + Thread.currentThread().getStackTrace()[2]
+                + PersistenceTrace.callSite(log)
                 + " unable to cancelled Specific Order:"
                 + specificOrder
                 + " with order state "
@@ -8070,15 +7853,7 @@ public abstract class BaseOrderService implements OrderService {
                   + getOrderState(specificOrder).toString()
                   + " so force rejecting. Exception: "
                   + ex);
-          if (specificOrder.getParentFill() != null)
-            specificOrder
-                .getParentFill()
-                .setPositionType(
-                    (specificOrder.getParentFill().getOpenVolumeCount() == 0
-                        ? PositionType.FLAT
-                        : (specificOrder.getParentFill().getOpenVolumeCount() > 0
-                            ? PositionType.LONG
-                            : PositionType.SHORT)));
+          updateParentFillPositionType(specificOrder);
 
           updateOrderState(specificOrder, OrderState.REJECTED, true);
         }
@@ -8097,7 +7872,7 @@ public abstract class BaseOrderService implements OrderService {
         if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen()) {
           log.debug(
               "handleCancelSpecificOrder called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " unable to cancel state "
                   + getOrderState(specificOrder).toString()
                   + " for "
@@ -8111,7 +7886,7 @@ public abstract class BaseOrderService implements OrderService {
       if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen()) {
         log.debug(
             "handleCancelSpecificOrder called from class "
-                + Thread.currentThread().getStackTrace()[2]
+                + PersistenceTrace.callSite(log)
                 + " unable to cancel state "
                 + getOrderState(specificOrder).toString()
                 + " for "
@@ -8148,7 +7923,7 @@ public abstract class BaseOrderService implements OrderService {
       } catch (Throwable ex) {
         log.debug(
             "completeOrder called from class "
-                + Thread.currentThread().getStackTrace()[2]
+                + PersistenceTrace.callSite(log)
                 + " unable to cancelled Specific Order:"
                 + specificOrder);
       }
@@ -8157,19 +7932,8 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Collection<SpecificOrder> getPendingOrders(Market market, Portfolio portfolio) {
-
-    Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<>();
-    if (market == null || portfolio == null) return portfolioPendingOrders;
-
-    for (Order order : getPendingOrders()) {
-      if (order instanceof SpecificOrder) {
-        SpecificOrder pendingOrder = (SpecificOrder) order;
-        if (pendingOrder.getPortfolio().equals(portfolio)
-            && pendingOrder.getMarket().equals(market)) portfolioPendingOrders.add(pendingOrder);
-      }
-    }
-
-    return portfolioPendingOrders;
+    if (market == null || portfolio == null) return new ArrayList<SpecificOrder>();
+    return orderStateMap.getOpenOrders(portfolio, market);
   }
 
   @Override
@@ -8182,7 +7946,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8247,7 +8011,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingLongStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8300,7 +8064,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingLongStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8354,7 +8118,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         "{} : getPendingLongTriggerOrders to called from stack {}",
         this.getClass().getSimpleName(),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     if (portfolio == null
         || market == null
@@ -8415,7 +8179,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getRoutedShortStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8471,7 +8235,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getRoutedShortStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8531,7 +8295,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingShortStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8584,7 +8348,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingShortStopOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8681,7 +8445,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingShortTriggerOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -8745,7 +8509,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingShortOpenTriggerOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]
+            + PersistenceTrace.callSite(log)
             + " with portfolio="
             + portfolio
             + "/"
@@ -8822,7 +8586,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingShortCloseTriggerOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]
+            + PersistenceTrace.callSite(log)
             + " with portfolio="
             + portfolio
             + "/"
@@ -8893,7 +8657,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllShortClosingGeneralOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]
+            + PersistenceTrace.callSite(log)
             + "with portfolio="
             + portfolio
             + "/"
@@ -8916,7 +8680,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllShortClosingGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + "Cancelled Long Opening Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -8949,7 +8713,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllLongClosingGeneralOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]
+            + PersistenceTrace.callSite(log)
             + " with portfolio="
             + portfolio
             + "/"
@@ -8972,7 +8736,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllLongClosingGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + "Cancelled Long Opening Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -9006,7 +8770,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         "{} : handleCancelAllLongOpeningGeneralOrders to called from stack {}",
         this.getClass().getSimpleName(),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     if (portfolio == null
         || market == null
@@ -9060,7 +8824,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllLongOpeningGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + "Cancelled Long Opening Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -9093,7 +8857,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllShortClosingGeneralOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -9146,7 +8910,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllShortClosingGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + "Cancelled Short Closing Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -9179,7 +8943,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllLongClosingGeneralOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -9235,7 +8999,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllLongClosingGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + "Cancelled Long Closing Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -9268,7 +9032,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllLongOpeningGeneralOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -9319,7 +9083,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllLongOpeningGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + "Cancelled Long Opening Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -9353,7 +9117,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : handleCancelAllShortOpeningGeneralOrders to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (portfolio == null
         || market == null
         || triggerOrders == null
@@ -9411,7 +9175,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllShortOpeningGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + ": Cancelled Short Opening Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -9447,7 +9211,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         " {}: handleCancelAllShortOpeningGeneralOrders to called from stack {}",
         this.getClass().getSimpleName(),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     if (portfolio == null
         || market == null
@@ -9507,7 +9271,7 @@ public abstract class BaseOrderService implements OrderService {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
       log.debug(
           "handleCancelAllShortOpeningGeneralOrders called from class "
-              + Thread.currentThread().getStackTrace()[2]
+              + PersistenceTrace.callSite(log)
               + ": Cancelled Short Opening Trigger Order: "
               + cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
@@ -9537,7 +9301,7 @@ public abstract class BaseOrderService implements OrderService {
     log.debug(
         this.getClass().getSimpleName()
             + " : getPendingTriggerOrder to called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext(); ) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext(); ) {
@@ -9588,7 +9352,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllShortOpeningSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -9616,7 +9380,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllShortOpeningSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -9647,7 +9411,7 @@ public abstract class BaseOrderService implements OrderService {
           orderToCancel.add(specificOrder);
           log.debug(
               "handleCancelAllOpeningSpecificOrders called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite(log)
                   + " cancelling order : "
                   + specificOrder);
         }
@@ -9662,7 +9426,7 @@ public abstract class BaseOrderService implements OrderService {
   public Collection<SpecificOrder> cancelSpecificOrder(Collection<SpecificOrder> orders) {
 
     log.trace(
-        "cancelSpecificOrder: called from class {}", Thread.currentThread().getStackTrace()[2]);
+        "cancelSpecificOrder: called from class {}", PersistenceTrace.callSite(log));
 
     Collection<SpecificOrder> cancelledOrders = new ArrayList<SpecificOrder>();
     for (SpecificOrder order : orders) {
@@ -9675,7 +9439,7 @@ public abstract class BaseOrderService implements OrderService {
 
         log.error(
             "cancelSpecificOrder: called from class {} unable to cancel order: {} {}",
-            Thread.currentThread().getStackTrace()[2],
+            PersistenceTrace.callSite(),
             order,
             e);
       }
@@ -9691,7 +9455,7 @@ public abstract class BaseOrderService implements OrderService {
         state,
         order.getUuid(),
         System.identityHashCode(order),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     // need to add vaildation here on state and last state
     //   synchronized (order) {
@@ -9716,20 +9480,8 @@ public abstract class BaseOrderService implements OrderService {
     }
     if (oldState == null) {
       oldState = OrderState.NEW;
-
-    } else if (oldState != null
-        && order != null
-        && stateOrderMap.get(oldState) != null
-        && !stateOrderMap.get(oldState).isEmpty()) {
-      if (stateOrderMap.get(oldState).remove(order))
-        log.debug(
-            this.getClass().getSimpleName()
-                + ":UpdateOrderState - Removed order "
-                + order.getUuid()
-                + "with state "
-                + oldState
-                + " from stateOrderMap");
     }
+    // the index moves the order out of its old state bucket as part of the put or remove
     if (order != null) {
       if (!state.isOpen()) {
         order.setOrderState(state);
@@ -9745,19 +9497,6 @@ public abstract class BaseOrderService implements OrderService {
                 + state
                 + " added to orderStateMap as "
                 + orderStateMap.get(order).toString());
-
-        if (stateOrderMap.get(state) == null) {
-          Set<Order> orderSet = new HashSet<Order>();
-          // orderSet.add(order);
-          stateOrderMap.put(state, orderSet);
-        }
-        if (stateOrderMap.get(state).add(order))
-          log.trace(
-              order.getUuid()
-                  + " with state "
-                  + state
-                  + " added to stateOrderMap as "
-                  + orderStateMap.get(order).toString());
       }
     }
 
@@ -9777,7 +9516,7 @@ public abstract class BaseOrderService implements OrderService {
             + order.getUuid()
             + " with state "
             + state
-            + " after added to stateOrderMap with "
+            + " after added to orderStateMap with "
             + (orderStateMap.get(order) == null
                 ? order.getOrderState()
                 : orderStateMap.get(order).toString()));
@@ -9896,7 +9635,7 @@ public abstract class BaseOrderService implements OrderService {
               + "for "
               + childOrderState
               + " Not permitted. Called from stack "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
       return;
     }
 
@@ -10400,7 +10139,7 @@ public abstract class BaseOrderService implements OrderService {
             + "/"
             + System.identityHashCode(triggerOrder.getOrderGroup())
             + "  called from stack "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     Event eventKey =
         (triggerOrder.getParentFill() != null)
             ? triggerOrder.getParentFill()
@@ -11074,19 +10813,20 @@ public abstract class BaseOrderService implements OrderService {
 
   public BaseOrderService() {}
 
-  private static ExecutorService service;
-
-  private static CountDownLatch fillProcessingLatch = null;
+  private int fillProcessingThreads = ConfigUtil.combined().getInt("fill.processing.threads", 0);
+  private PartitionedExecutor fillProcessor;
+  private final AtomicLong fillLatencyCount = new AtomicLong();
+  private final AtomicLong fillLatencyTotal = new AtomicLong();
+  private final AtomicLong fillLatencyMax = new AtomicLong();
 
   @Inject protected Context context;
 
   protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.orderService");
 
   protected boolean enableTrading = false;
-  protected final Map<Order, OrderState> orderStateMap = new HashMap<Order, OrderState>();
+  protected final OrderStateIndex orderStateMap = new OrderStateIndex();
   protected static int cancellationCount = 0;
 
-  protected final Map<OrderState, Set<Order>> stateOrderMap = new HashMap<OrderState, Set<Order>>();
   @Inject protected transient QuoteService quotes;
   @Inject protected transient PortfolioService portfolioService;
 
@@ -1478,7 +1478,7 @@ public class BasicPortfolioService implements PortfolioService {
   private static int tradesHashCode;
   private static int marginsHashCode;
 
-  private static Map<Asset, Amount> balances = new ConcurrentHashMap<Asset, Amount>();;
+  private final Map<Asset, Amount> balances = new ConcurrentHashMap<Asset, Amount>();
   private Collection<Portfolio> portfolios;
 
   @Override
@@ -1,11 +1,7 @@
 package org.cryptocoinpartners.module;
 
 import java.math.BigDecimal;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 import javax.inject.Singleton;
@@ -32,13 +28,18 @@ import org.slf4j.LoggerFactory;
 import com.google.inject.Inject;
 
 /**
- * This service listens to the Context and caches the most recent Trades and Books
+ * This service listens to the Context and caches the most recent Trades, Books and Bars of each
+ * Market and Listing in a QuoteCache.
+ *
+ * <p>The LastTradeWindow, LastBookWindow, LastBarWindow and PreviousBarWindow named windows are no
+ * longer needed by this service, but other modules select from them, so they are created from
+ * QuoteWindows.epl when it is attached unless quoteservice.windows is false.
  *
  * @author Tim Olson
  */
 @SuppressWarnings("UnusedDeclaration")
 @Singleton
-public class BasicQuoteService implements QuoteService {
+public class BasicQuoteService implements QuoteService, Context.AttachListener {
   protected static boolean seedUSDT =
       (ConfigUtil.combined() != null)
           ? ConfigUtil.combined().getBoolean("marketdata.implied.usdt", true)
@@ -68,21 +69,18 @@ public class BasicQuoteService implements QuoteService {
      * xchangeData.getTrades(market, market.getExchange())) recordTrade(trade); } catch (Throwable e) { // TODO Auto-generated catch block
      * log.error(this.getClass().getSimpleName() + ": getLastTrade - Unable to retrive latest trades for market", e); } }
      */
-    return lastTradeByMarket.get(market.getSymbol());
+    return quotes.get(market).getTrade();
   }
 
   @Override
   public Bar getLastBar(Tradeable market, double interval) {
-    if (market == null
-        || lastBarByMarket == null
-        || lastBarByMarket.get(market.getSymbol()) == null
-        || lastBarByMarket.get(market.getSymbol()).get(interval) == null) return null;
+    if (market == null) return null;
     /*
      * if (XchangeData.exists()) { XchangeData xchangeData = context.getInjector().getInstance(XchangeData.class); try { for (Trade trade :
      * xchangeData.getTrades(market, market.getExchange())) recordTrade(trade); } catch (Throwable e) { // TODO Auto-generated catch block
      * log.error(this.getClass().getSimpleName() + ": getLastTrade - Unable to retrive latest trades for market", e); } }
      */
-    return lastBarByMarket.get(market.getSymbol()).get(interval);
+    return quotes.getBar(quotes.get(market), interval);
   }
 
   @Override
@@ -96,8 +94,8 @@ public class BasicQuoteService implements QuoteService {
      * ": getLastTrade - Unable to retrive latest trades for market", e); } }
      */
 
-    if (lastTradeByListing.get(listing.getSymbol()) != null)
-      return lastTradeByListing.get(listing.getSymbol());
+    Trade lastTrade = quotes.get(listing).getTrade();
+    if (lastTrade != null) return lastTrade;
     else {
       //		log.debug(this.getClass().getSimpleName()
       //				+ ":getLastTrade - Unabled to get trade directly from listings, calcuating implied price
@@ -144,7 +142,7 @@ public class BasicQuoteService implements QuoteService {
      * recordBook(xchangeData.getBook(market, market.getExchange())); } catch (Exception e) { // TODO Auto-generated catch block
      * log.error(this.getClass().getSimpleName() + ": getLastBidForMarket - Unable to retrive latest book for market", e); } }
      */
-    return lastBookByMarket.get(market.getSymbol());
+    return quotes.get(market).getBook();
   }
 
   @Override
@@ -155,22 +153,22 @@ public class BasicQuoteService implements QuoteService {
      * getMarketsForListing(listing)) recordBook(xchangeData.getBook(market, market.getExchange())); } catch (Exception e) { // TODO Auto-generated
      * catch block log.error(this.getClass().getSimpleName() + ": getLastBidForMarket - Unable to retrive latest book for market", e); } }
      */
-    return lastBookByListing.get(listing.getSymbol());
+    return quotes.get(listing).getBook();
   }
 
   @Override
   public Set<Market> getMarketsForListing(Listing listing) {
     if (listing == null) return null;
-    Set<Market> result = marketsByListing.get(listing.getSymbol());
-    return result == null ? Collections.<Market>emptySet() : result;
+    return quotes.get(listing).getMarkets();
   }
 
   /** @return null if no Books for the given listing have been received yet */
   @Override
   public @Nullable Offer getBestBidForListing(Listing listing) {
     Offer bestBid = null;
-    for (Market market : marketsByListing.get(listing.getSymbol())) {
-      Book book = bestBidByMarket.get(market.getSymbol());
+    for (Market market : quotes.get(listing).getMarkets()) {
+      Book book = quotes.get(market).getBestBidBook();
+      if (book == null) continue;
       Offer testBestBid = book.getBestBid();
       //noinspection ConstantConditions
       if (bestBid == null
@@ -196,7 +194,7 @@ public class BasicQuoteService implements QuoteService {
 
     // XchangeData xchangeData = context.getInjector().getInstance(XchangeData.class);
     // for( Market market : marketsByListing.get(listing.getSymbol()) ) {
-    Book book = lastBookByMarket.get(market.getSymbol());
+    Book book = quotes.get(market).getBook();
     if (book != null) bestBid = book.getBestBid();
 
     if (bestBid == null || bestBid.getVolumeCount() == 0 || bestBid.getPriceCount() == 0) {
@@ -221,17 +219,16 @@ public class BasicQuoteService implements QuoteService {
   @Override
   public @Nullable Offer getBestAskForListing(Listing listing) {
     Offer bestAsk = null;
-    if (marketsByListing.get(listing.getSymbol()) != null) {
-      for (Market market : marketsByListing.get(listing.getSymbol())) {
-        Book book = bestAskByMarket.get(market.getSymbol());
-        Offer testBestAsk = book.getBestAsk();
-        //noinspection ConstantConditions
-        if (bestAsk == null
-            || bestAsk.getVolumeCount() == 0
-            || bestAsk.getPriceCount() == 0
-            || (testBestAsk != null && testBestAsk.getPrice().compareTo(bestAsk.getPrice()) < 0))
-          bestAsk = testBestAsk;
-      }
+    for (Market market : quotes.get(listing).getMarkets()) {
+      Book book = quotes.get(market).getBestAskBook();
+      if (book == null) continue;
+      Offer testBestAsk = book.getBestAsk();
+      //noinspection ConstantConditions
+      if (bestAsk == null
+          || bestAsk.getVolumeCount() == 0
+          || bestAsk.getPriceCount() == 0
+          || (testBestAsk != null && testBestAsk.getPrice().compareTo(bestAsk.getPrice()) < 0))
+        bestAsk = testBestAsk;
     }
     bestAsk = ((bestAsk == null) ? getImpliedBestAskForListing(listing) : bestAsk);
 
@@ -257,12 +254,13 @@ public class BasicQuoteService implements QuoteService {
       // listing.getQuote()).getCount();
 
       Offer offer = new Offer(market, Instant.now(), Instant.now(), bestImpliedAsk, 0L);
-      log.debug(
-          this.getClass().getSimpleName()
-              + ":getImpliedBestAskForListing - Calcaulted implied ask="
-              + offer.getPrice()
-              + ", listing="
-              + listing);
+      if (log.isDebugEnabled())
+        log.debug(
+            this.getClass().getSimpleName()
+                + ":getImpliedBestAskForListing - Calcaulted implied ask="
+                + offer.getPrice()
+                + ", listing="
+                + listing);
       return offer;
     } catch (java.lang.IllegalArgumentException e) {
       Trade lastImpliedTrade = getLastTrade(listing);
@@ -283,12 +281,13 @@ public class BasicQuoteService implements QuoteService {
                 bestImpliedAskAmount.asBigDecimal(), market.getPriceBasis());
         Offer offer =
             new Offer(market, Instant.now(), Instant.now(), bestImpliedAsk, bestImpliedAskVolume);
-        log.debug(
-            this.getClass().getSimpleName()
-                + ":getImpliedBestAskForListing - Calcaulted implied ask="
-                + offer.getPrice()
-                + ", listing="
-                + listing);
+        if (log.isDebugEnabled())
+          log.debug(
+              this.getClass().getSimpleName()
+                  + ":getImpliedBestAskForListing - Calcaulted implied ask="
+                  + offer.getPrice()
+                  + ", listing="
+                  + listing);
         return offer;
       } else {
 
@@ -305,25 +304,25 @@ public class BasicQuoteService implements QuoteService {
           // listing.getQuote()).getCount();
 
           Offer offer = new Offer(market, Instant.now(), Instant.now(), bestImpliedAsk, 0L);
-          log.debug(
-              this.getClass().getSimpleName()
-                  + ":getImpliedBestAskForListing - Calcaulted implied trade="
-                  + offer.getPrice()
-                  + ", listing="
-                  + listing);
+          if (log.isDebugEnabled())
+            log.debug(
+                this.getClass().getSimpleName()
+                    + ":getImpliedBestAskForListing - Calcaulted implied trade="
+                    + offer.getPrice()
+                    + ", listing="
+                    + listing);
           return offer;
         } else {
 
-          log.debug(
-              this.getClass().getSimpleName()
-                  + ":getImpliedBestAskForListing - Unable to detreming implied ask "
-                  + listing
-                  + " from impliedAskMatrix: "
-                  + impliedAskMatrix
-                  + " or last trade "
-                  + lastTradeByListing
-                  + " or impliedTradeMatrix"
-                  + impliedTradeMatrix);
+          if (log.isDebugEnabled())
+            log.debug(
+                this.getClass().getSimpleName()
+                    + ":getImpliedBestAskForListing - Unable to detreming implied ask "
+                    + listing
+                    + " from impliedAskMatrix: "
+                    + impliedAskMatrix
+                    + " or impliedTradeMatrix"
+                    + impliedTradeMatrix);
 
           return null;
         }
@@ -347,12 +346,13 @@ public class BasicQuoteService implements QuoteService {
       // listing.getQuote()).getCount();
 
       Offer offer = new Offer(market, Instant.now(), Instant.now(), bestImpliedBid, 0L);
-      log.debug(
-          this.getClass().getSimpleName()
-              + ":getImpliedBestBidForListing - Calcaulted implied bid="
-              + offer.getPrice()
-              + ", listing="
-              + listing);
+      if (log.isDebugEnabled())
+        log.debug(
+            this.getClass().getSimpleName()
+                + ":getImpliedBestBidForListing - Calcaulted implied bid="
+                + offer.getPrice()
+                + ", listing="
+                + listing);
       return offer;
 
     } catch (java.lang.IllegalArgumentException e) {
@@ -373,12 +373,13 @@ public class BasicQuoteService implements QuoteService {
                     bestImpliedBidAmount.asBigDecimal(), market.getPriceBasis()));
         Offer offer =
             new Offer(market, Instant.now(), Instant.now(), bestImpliedBid, bestImpliedBidVolume);
-        log.debug(
-            this.getClass().getSimpleName()
-                + ":getImpliedBestBidForListing - Calcaulted implied bid="
-                + offer.getPrice()
-                + ", listing="
-                + listing);
+        if (log.isDebugEnabled())
+          log.debug(
+              this.getClass().getSimpleName()
+                  + ":getImpliedBestBidForListing - Calcaulted implied bid="
+                  + offer.getPrice()
+                  + ", listing="
+                  + listing);
 
         return offer;
       } else {
@@ -396,25 +397,25 @@ public class BasicQuoteService implements QuoteService {
           // listing.getQuote()).getCount();
 
           Offer offer = new Offer(market, Instant.now(), Instant.now(), bestImpliedAsk, 0L);
-          log.debug(
-              this.getClass().getSimpleName()
-                  + ":getImpliedBestBidForListing - Calcaulted implied trade="
-                  + offer.getPrice()
-                  + ", listing="
-                  + listing);
+          if (log.isDebugEnabled())
+            log.debug(
+                this.getClass().getSimpleName()
+                    + ":getImpliedBestBidForListing - Calcaulted implied trade="
+                    + offer.getPrice()
+                    + ", listing="
+                    + listing);
           return offer;
         } else {
 
-          log.debug(
-              this.getClass().getSimpleName()
-                  + ":getImpliedBestBidForListing - Unable to detreming implied ask "
-                  + listing
-                  + " from impliedAskMatrix: "
-                  + impliedAskMatrix
-                  + " or last trade "
-                  + lastTradeByListing
-                  + " or impliedTradeMatrix"
-                  + impliedTradeMatrix);
+          if (log.isDebugEnabled())
+            log.debug(
+                this.getClass().getSimpleName()
+                    + ":getImpliedBestBidForListing - Unable to detreming implied ask "
+                    + listing
+                    + " from impliedAskMatrix: "
+                    + impliedAskMatrix
+                    + " or impliedTradeMatrix"
+                    + impliedTradeMatrix);
 
           return null;
         }
@@ -431,7 +432,7 @@ public class BasicQuoteService implements QuoteService {
      * recordBook(xchangeData.getBook(market, market.getExchange())); } catch (Exception e) { // TODO Auto-generated catch block
      * log.error(this.getClass().getSimpleName() + ": getLastAskForMarket - Unable to retrive latest book for market", e); } }
      */
-    Book book = lastBookByMarket.get(market.getSymbol());
+    Book book = quotes.get(market).getBook();
     if (book != null) bestAsk = book.getBestAsk();
     //noinspection ConstantConditions
 
@@ -519,18 +520,20 @@ public class BasicQuoteService implements QuoteService {
     }
   }
 
-  @When("@Priority(1) @Audit select * from LastBookWindow")
+  @Override
+  public void afterAttach(Context context) {
+    if (context.getConfig().getBoolean("quoteservice.windows", true))
+      context.loadStatements("QuoteWindows");
+  }
+
+  @When("@Priority(1) @Audit select * from Book(bidVolumeAsDouble>0, askVolumeAsDouble<0)")
   private void recordBook(Book b) {
     Tradeable market = b.getMarket();
     if (!market.isSynthetic()) {
       Market marketToHandel = (Market) market;
-
-      handleMarket(marketToHandel);
-
-      String listingSymbol = marketToHandel.getListing().getSymbol();
-      Book lastBookForListing = lastBookByListing.get(listingSymbol);
-      if (lastBookForListing == null || !lastBookForListing.getTime().isAfter(b.getTime()))
-        lastBookByListing.put(listingSymbol, b);
+      QuoteCache.Slot listingQuotes = quotes.slot(marketToHandel.getListing());
+      listingQuotes.addMarket(marketToHandel);
+      listingQuotes.putBook(b, false);
       if (b.getBids() != null && !b.getBids().isEmpty())
         updateMatrix(
             impliedBidMatrix, marketToHandel.getBase(), marketToHandel.getQuote(), b.getBidPrice());
@@ -538,145 +541,37 @@ public class BasicQuoteService implements QuoteService {
         updateMatrix(
             impliedAskMatrix, marketToHandel.getBase(), marketToHandel.getQuote(), b.getAskPrice());
     }
-
-    String marketSymbol = market.getSymbol();
-    Book lastBookForMarket = lastBookByMarket.get(marketSymbol);
-    if (lastBookForMarket == null || !lastBookForMarket.getTime().isAfter(b.getTime()))
-      lastBookByMarket.put(marketSymbol, b);
-
-    Offer bestBid = b.getBestBid();
-    Book lastBestBidBook = bestBidByMarket.get(marketSymbol);
-    //noinspection ConstantConditions
-    if (bestBid != null
-        && (lastBestBidBook == null
-            || bestBid.getPrice().compareTo(lastBestBidBook.getBestBid().getPrice()) > 0))
-      bestBidByMarket.put(marketSymbol, b);
-
-    Offer bestAsk = b.getBestAsk();
-    Book lastBestAskBook = bestAskByMarket.get(marketSymbol);
-    //noinspection ConstantConditions
-    if (bestAsk != null
-        && (lastBestAskBook == null
-            || bestAsk.getPrice().compareTo(lastBestAskBook.getBestAsk().getPrice()) < 0))
-      bestAskByMarket.put(marketSymbol, b);
+    quotes.slot(market).putBook(b, true);
   }
 
-  @When("@Priority(1) @Audit select * from LastTradeWindow")
+  @When("@Priority(1) @Audit select * from Trade(priceCount>0, volumeCount!=0)")
   private void recordTrade(Trade t) {
-
     Tradeable market = t.getMarket();
-    Listing inverseListing = null;
-    DiscreteAmount inversePrice = null;
-    Market inverseMarket = null;
-    Trade it = null;
+    // trades older than the last one for the market neither replace it nor move the implied rates
+    if (!quotes.slot(market).putTrade(t)) return;
     if (!market.isSynthetic()) {
       Market marketToHandle = (Market) market;
-
-      handleMarket(marketToHandle);
-      String listingSymbol = marketToHandle.getListing().getSymbol();
-      Trade lastTradeForListing = lastTradeByListing.get(listingSymbol);
-      if (!t.getPrice().isZero()
-          && (lastTradeForListing == null
-              || (lastTradeForListing != null
-                  && !lastTradeForListing.getTime().isAfter(t.getTime())))) {
-
-        lastTradeByListing.put(listingSymbol, t);
-        // long impliedPriceCount = impliedTradeMatrix.getRate(listing.getBase(),
-        // listing.getQuote()).getCount();
-
-        /*				if (marketToHandle.getListing().getPrompt() == null)
-        	inverseListing = Listing
-        			.forSymbol(marketToHandle.getListing().getQuote().getSymbol() + "." + marketToHandle.getListing().getBase().getSymbol());
-
-        else
-        	inverseListing = Listing.forSymbol(marketToHandle.getListing().getQuote().getSymbol() + "."
-        			+ marketToHandle.getListing().getBase().getSymbol() + "." + marketToHandle.getListing().getPrompt().getSymbol());
-
-        inverseMarket = context.getInjector().getInstance(Market.class).findOrCreate(marketToHandle.getExchange(), inverseListing);
-        inversePrice = new DiscreteAmount(
-        		DiscreteAmount.roundedCountForBasis(t.getPrice().invert().asBigDecimal(), marketToHandle.getListing().getBase().getBasis()),
-        		marketToHandle.getListing().getBase().getBasis());
-        inversePrice.toIBasis((long) marketToHandle.getListing().getBase().getBasis(), Remainder.ROUND_EVEN);
-        it = new Trade(inverseMarket, t.getTimeReceived(), t.getRemoteKey(), inversePrice.getCount(), t.getVolume().getCount());
-        lastTradeByListing.put(inverseListing.getSymbol(), it);*/
-
-      }
+      QuoteCache.Slot listingQuotes = quotes.slot(marketToHandle.getListing());
+      listingQuotes.addMarket(marketToHandle);
+      if (!t.getPrice().isZero()) listingQuotes.putTrade(t);
 
       updateMatrix(
           impliedTradeMatrix, marketToHandle.getBase(), marketToHandle.getQuote(), t.getPrice());
       log.trace("updated impliedTradeMatrix={} , trade={} ", impliedTradeMatrix, t);
     }
-
-    String marketSymbol = market.getSymbol();
-    Trade lastTradeForMarket = lastTradeByMarket.get(marketSymbol);
-    if (lastTradeForMarket == null || !lastTradeForMarket.getTime().isAfter(t.getTime())) {
-      lastTradeByMarket.put(marketSymbol, t);
-      if (inverseMarket != null && it != null) lastTradeByMarket.put(inverseMarket.getSymbol(), it);
-    }
   }
 
-  @When("@Priority(1) @Audit select * from LastBarWindow")
+  @When("@Priority(1) @Audit select * from Bar")
   private void recordBar(Bar b) {
     Tradeable market = b.getMarket();
-    double interval = b.getInterval();
-
+    int interval = quotes.intervalSlot(b.getInterval());
     if (!market.isSynthetic()) {
-      Market marketToHandle = (Market) b.getMarket();
-      handleMarket(marketToHandle);
-
-      String listingSymbol = marketToHandle.getListing().getSymbol();
-      Bar lastBarForListing =
-          lastBarByListing.get(listingSymbol) == null
-                  || lastBarByListing.get(listingSymbol).isEmpty()
-              ? null
-              : lastBarByListing.get(listingSymbol).get(interval);
-
-      if (lastBarForListing == null || !lastBarForListing.getTime().isAfter(b.getTime())) {
-        Map<Double, Bar> barInterval = new ConcurrentHashMap<Double, Bar>();
-        if (lastBarByListing.get(listingSymbol) == null) {
-          barInterval.put(interval, b);
-
-          lastBarByListing.put(listingSymbol, barInterval);
-        } else lastBarByListing.get(listingSymbol).put(interval, b);
-      }
-    }
-
-    String marketSymbol = market.getSymbol();
-    Bar lastBarForMarket =
-        lastBarByMarket.get(marketSymbol) == null || lastBarByMarket.get(marketSymbol).isEmpty()
-            ? null
-            : lastBarByMarket.get(marketSymbol).get(interval);
-
-    // Bar lastBarForMarket = lastBarByMarket.get(marketSymbol).get(interval);
-    if (lastBarForMarket == null || !lastBarForMarket.getTime().isAfter(b.getTime())) {
-
-      Map<Double, Bar> barInterval = new ConcurrentHashMap<Double, Bar>();
-      if (lastBarByMarket.get(marketSymbol) == null) {
-        barInterval.put(interval, b);
-
-        lastBarByMarket.put(marketSymbol, barInterval);
-      } else lastBarByMarket.get(marketSymbol).put(interval, b);
-    }
-  }
-
-  private void handleMarket(Market market) {
-    final Listing listing = market.getListing();
-    final String listingSymbol = listing.getSymbol();
-    boolean found = false;
-    Set<Market> markets = marketsByListing.get(listingSymbol);
-    if (markets == null) {
-      markets = new HashSet<>();
-      markets.add(market);
-      marketsByListing.put(listingSymbol, markets);
-      found = true;
-    } else {
-      for (Market mappdMarket : markets) {
-        if (mappdMarket.equals(market)) found = true;
-      }
-    }
-    if (!found) {
-      markets.add(market);
+      Market marketToHandle = (Market) market;
+      QuoteCache.Slot listingQuotes = quotes.slot(marketToHandle.getListing());
+      listingQuotes.addMarket(marketToHandle);
+      listingQuotes.putBar(interval, b);
     }
+    quotes.slot(market).putBar(interval, b);
   }
 
   private final ListingsMatrix impliedBidMatrix = new ListingsMatrix();
@@ -685,16 +580,5 @@ public class BasicQuoteService implements QuoteService {
   protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.quoteService");
   @Inject protected Context context;
 
-  private final Map<String, Trade> lastTradeByListing = new ConcurrentHashMap<>();
-  private final Map<String, Book> lastBookByListing = new ConcurrentHashMap<>();
-  private final Map<String, Trade> lastTradeByMarket = new ConcurrentHashMap<>();
-  private final Map<String, Map<Double, Bar>> lastBarByMarket =
-      new ConcurrentHashMap<String, Map<Double, Bar>>();
-  private final Map<String, Map<Double, Bar>> lastBarByListing =
-      new ConcurrentHashMap<String, Map<Double, Bar>>();
-
-  private final Map<String, Book> lastBookByMarket = new ConcurrentHashMap<>();
-  private final Map<String, Book> bestBidByMarket = new ConcurrentHashMap<>();
-  private final Map<String, Book> bestAskByMarket = new ConcurrentHashMap<>();
-  private final Map<String, Set<Market>> marketsByListing = new ConcurrentHashMap<>();
+  private final QuoteCache quotes = new QuoteCache();
 }
@@ -0,0 +1,341 @@
+package org.cryptocoinpartners.module;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.BarFactory;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.service.Checkpointable;
+import org.cryptocoinpartners.util.Replay;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A snapshot of the market data and strategy state needed to warm-start a live or paper run: the
+ * last Trade and Book of each market, the most recent completed Bars of each market and interval,
+ * and the state of every Checkpointable strategy. Market data is held as plain counts and symbols
+ * rather than entities, so a checkpoint can be read back before the database has been touched.
+ *
+ * <p>On restart the run mode replays history from getReplayStart() instead of the full prefeed
+ * period, after restore() has republished the checkpointed market data. getReplayStart() is the
+ * start of the oldest bar which was still being built at the checkpoint, so the bar builders see
+ * every trade of their current bar. Strategy state is only restored when the replay reaches the
+ * checkpoint time, so the replayed events before it are not counted twice.
+ */
+public class Checkpoint implements Serializable {
+
+  public Checkpoint(Instant time) {
+    this.time = time.getMillis();
+  }
+
+  public Instant getTime() {
+    return new Instant(time);
+  }
+
+  /**
+   * @return the time to replay history from, which is the earliest start of a bar in progress at
+   *     the checkpoint time, or the checkpoint time if no bars were checkpointed
+   */
+  public Instant getReplayStart() {
+    long start = time;
+    Map<String, BarRecord> latest = new HashMap<String, BarRecord>();
+    for (BarRecord bar : bars) {
+      String key = bar.market + ":" + bar.interval;
+      BarRecord previous = latest.get(key);
+      if (previous == null || bar.time > previous.time) latest.put(key, bar);
+    }
+    for (BarRecord bar : latest.values())
+      start = Math.min(start, bar.time + (long) (bar.interval * 1000));
+    return new Instant(start);
+  }
+
+  public void addTrade(Trade trade) {
+    trades.add(
+        new TradeRecord(
+            trade.getMarket().getSymbol(),
+            trade.getTime().getMillis(),
+            trade.getRemoteKey(),
+            trade.getPriceCount(),
+            trade.getVolumeCount()));
+  }
+
+  public void addBook(Book book) {
+    books.add(new BookRecord(book));
+  }
+
+  public void addBar(Bar bar) {
+    bars.add(new BarRecord(bar));
+  }
+
+  public void putState(String key, Serializable state) {
+    states.put(key, state);
+  }
+
+  @Nullable
+  public Serializable getState(String key) {
+    return states.get(key);
+  }
+
+  public int getTradeCount() {
+    return trades.size();
+  }
+
+  public int getBookCount() {
+    return books.size();
+  }
+
+  public int getBarCount() {
+    return bars.size();
+  }
+
+  /**
+   * Publishes the checkpointed market data, then restores the state of the given strategies once
+   * the replay reaches the checkpoint time. The replay starts at getReplayStart(), before the
+   * checkpoint time, and strategies see every event it publishes. Their checkpointed state already
+   * reflects the events before the checkpoint time, so it replaces whatever they derived from those
+   * events and they go on from the first event the checkpoint had not seen, counting nothing twice.
+   *
+   * @param strategies Checkpointable strategies keyed as they were when the checkpoint was taken
+   */
+  public void restore(
+      Context context, Replay replay, final Map<String, Checkpointable> strategies) {
+    republish(context);
+    replay.at(
+        getTime(),
+        new Runnable() {
+          @Override
+          public void run() {
+            restoreStates(strategies);
+          }
+        });
+  }
+
+  /**
+   * Publishes the checkpointed Bars, Trades and Books which are older than getReplayStart() in time
+   * order, so quote services and bar builders hold the market as it was before the replayed history
+   */
+  public void republish(Context context) {
+    long replayStart = getReplayStart().getMillis();
+    TradeFactory tradeFactory = context.getInjector().getInstance(TradeFactory.class);
+    BookFactory bookFactory = context.getInjector().getInstance(BookFactory.class);
+    BarFactory barFactory = context.getInjector().getInstance(BarFactory.class);
+    List<Event> events = new ArrayList<Event>();
+    for (BarRecord record : bars) {
+      Tradeable market = record.time < replayStart ? Tradeable.forSymbol(record.market) : null;
+      if (market != null) events.add(record.toBar(barFactory, market));
+    }
+    for (TradeRecord record : trades) {
+      Tradeable market = record.time < replayStart ? Tradeable.forSymbol(record.market) : null;
+      if (market != null) events.add(record.toTrade(tradeFactory, market));
+    }
+    for (BookRecord record : books) {
+      Tradeable market = record.time < replayStart ? Tradeable.forSymbol(record.market) : null;
+      if (market != null) events.add(record.toBook(bookFactory, market));
+    }
+    Collections.sort(
+        events,
+        new Comparator<Event>() {
+          @Override
+          public int compare(Event event, Event event2) {
+            return event.getTime().compareTo(event2.getTime());
+          }
+        });
+    for (Event event : events) context.publish(event);
+    log.info(
+        this.getClass().getSimpleName()
+            + ":republish - republished "
+            + events.size()
+            + " events from checkpoint at "
+            + getTime());
+  }
+
+  /**
+   * Hands each strategy its checkpointed state. Only call this once the strategies have seen every
+   * event before the checkpoint time and none after it.
+   */
+  public void restoreStates(Map<String, Checkpointable> strategies) {
+    for (Map.Entry<String, Checkpointable> entry : strategies.entrySet()) {
+      Serializable state = states.get(entry.getKey());
+      if (state == null) continue;
+      try {
+        entry.getValue().restoreCheckpointState(state);
+      } catch (Exception | Error ex) {
+        log.error(
+            this.getClass().getSimpleName()
+                + ":restoreStates - unable to restore state of "
+                + entry.getKey()
+                + ", full stack trace follows:",
+            ex);
+      }
+    }
+    log.info(
+        this.getClass().getSimpleName()
+            + ":restoreStates - restored strategy state from checkpoint at "
+            + getTime());
+  }
+
+  /**
+   * Writes the checkpoint to a temporary file next to the target then moves it into place, so a
+   * crash part way through a write leaves the previous checkpoint intact.
+   */
+  public void write(File file) throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile(file.getName(), ".tmp", dir);
+    try (ObjectOutputStream out =
+        new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeObject(this);
+    } catch (IOException e) {
+      temp.delete();
+      throw e;
+    }
+    Files.move(
+        temp.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** @return the checkpoint in the file, or null if there is none or it cannot be read */
+  @Nullable
+  public static Checkpoint read(File file) {
+    if (!file.isFile()) return null;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return (Checkpoint) in.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      log.warn("Checkpoint:read - unable to read checkpoint " + file + ", ignoring it", e);
+      return null;
+    }
+  }
+
+  private static class TradeRecord implements Serializable {
+
+    private TradeRecord(
+        String market, long time, @Nullable String remoteKey, long priceCount, long volumeCount) {
+      this.market = market;
+      this.time = time;
+      this.remoteKey = remoteKey;
+      this.priceCount = priceCount;
+      this.volumeCount = volumeCount;
+    }
+
+    private Trade toTrade(TradeFactory tradeFactory, Tradeable market) {
+      return tradeFactory.create(market, new Instant(time), remoteKey, priceCount, volumeCount);
+    }
+
+    private static final long serialVersionUID = 1L;
+    private final String market;
+    private final long time;
+    private final String remoteKey;
+    private final long priceCount;
+    private final long volumeCount;
+  }
+
+  /** a book as parallel arrays of counts, bids highest first and asks lowest first */
+  private static class BookRecord implements Serializable {
+
+    private BookRecord(Book book) {
+      market = book.getMarket().getSymbol();
+      time = book.getTime().getMillis();
+      List<Offer> bids = book.getBids();
+      List<Offer> asks = book.getAsks();
+      bidPrices = new long[bids.size()];
+      bidVolumes = new long[bids.size()];
+      for (int i = 0; i < bids.size(); i++) {
+        bidPrices[i] = bids.get(i).getPriceCount();
+        bidVolumes[i] = bids.get(i).getVolumeCount();
+      }
+      askPrices = new long[asks.size()];
+      askVolumes = new long[asks.size()];
+      for (int i = 0; i < asks.size(); i++) {
+        askPrices[i] = asks.get(i).getPriceCount();
+        askVolumes[i] = Math.abs(asks.get(i).getVolumeCount());
+      }
+    }
+
+    private Book toBook(BookFactory bookFactory, Tradeable market) {
+      Book book = bookFactory.create(new Instant(time), market);
+      for (int i = 0; i < bidPrices.length; i++) book.addBid(bidPrices[i], bidVolumes[i]);
+      for (int i = 0; i < askPrices.length; i++) book.addAsk(askPrices[i], askVolumes[i]);
+      return book.build();
+    }
+
+    private static final long serialVersionUID = 1L;
+    private final String market;
+    private final long time;
+    private final long[] bidPrices;
+    private final long[] bidVolumes;
+    private final long[] askPrices;
+    private final long[] askVolumes;
+  }
+
+  private static class BarRecord implements Serializable {
+
+    private BarRecord(Bar bar) {
+      market = bar.getMarket().getSymbol();
+      time = bar.getTime().getMillis();
+      interval = bar.getInterval();
+      open = bar.getOpen();
+      close = bar.getClose();
+      high = bar.getHigh();
+      low = bar.getLow();
+      volume = valueOf(bar.getVolume());
+      buyVolume = valueOf(bar.getBuyVolume());
+      sellVolume = valueOf(bar.getSellVolume());
+    }
+
+    private Bar toBar(BarFactory barFactory, Tradeable market) {
+      return barFactory.create(
+          time, interval, open, close, high, low, volume, buyVolume, sellVolume, market);
+    }
+
+    private static double valueOf(@Nullable Double value) {
+      return value == null ? 0d : value;
+    }
+
+    private static final long serialVersionUID = 1L;
+    private final String market;
+    private final long time;
+    private final double interval;
+    private final double open;
+    private final double close;
+    private final double high;
+    private final double low;
+    private final double volume;
+    private final double buyVolume;
+    private final double sellVolume;
+  }
+
+  private static final long serialVersionUID = 1L;
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.checkpoint");
+  private final long time;
+  private final List<TradeRecord> trades = new ArrayList<TradeRecord>();
+  private final List<BookRecord> books = new ArrayList<BookRecord>();
+  private final List<BarRecord> bars = new ArrayList<BarRecord>();
+  private final Map<String, Serializable> states = new HashMap<String, Serializable>();
+}
@@ -0,0 +1,169 @@
+package org.cryptocoinpartners.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.cryptocoinpartners.esper.annotation.When;
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.service.Checkpointable;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the last Trade and Book of every market and the most recent strategy.checkpoint.bars Bars
+ * of every market and interval, and every strategy.checkpoint.period seconds writes them together
+ * with the state of the registered Checkpointable strategies to strategy.checkpoint.file. A period
+ * of zero disables checkpointing.
+ *
+ * <p>The events are read from their streams rather than the QuoteWindows named windows, which are
+ * not created when quoteservice.windows is false and into which no Bar is ever inserted.
+ */
+@Singleton
+public class Checkpointer {
+
+  public static boolean isEnabled() {
+    return ConfigUtil.combined().getLong("strategy.checkpoint.period", 300) > 0;
+  }
+
+  public static File getFile() {
+    return new File(ConfigUtil.combined().getString("strategy.checkpoint.file", "checkpoint.ser"));
+  }
+
+  /**
+   * @return the checkpoint to warm-start from, or null if checkpointing is disabled or there is no
+   *     readable checkpoint
+   */
+  @Nullable
+  public static Checkpoint readCheckpoint() {
+    return isEnabled() ? Checkpoint.read(getFile()) : null;
+  }
+
+  public void addCheckpointable(String key, Checkpointable checkpointable) {
+    checkpointables.put(key, checkpointable);
+  }
+
+  public Map<String, Checkpointable> getCheckpointables() {
+    return Collections.unmodifiableMap(checkpointables);
+  }
+
+  /** starts the periodic checkpoint writes, once any history has been replayed */
+  public synchronized void start() {
+    long period = ConfigUtil.combined().getLong("strategy.checkpoint.period", 300);
+    if (period <= 0 || scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    scheduler.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            write();
+          }
+        },
+        period,
+        period,
+        TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) scheduler.shutdown();
+    scheduler = null;
+  }
+
+  /** @return a checkpoint of the current market data and strategy state at the context time */
+  public Checkpoint checkpoint() {
+    Checkpoint checkpoint = new Checkpoint(context.getTime());
+    for (Trade trade : lastTrades.values()) checkpoint.addTrade(trade);
+    for (Book book : lastBooks.values()) checkpoint.addBook(book);
+    for (Deque<Bar> marketBars : bars.values()) {
+      List<Bar> copy;
+      synchronized (marketBars) {
+        copy = new ArrayList<Bar>(marketBars);
+      }
+      for (Bar bar : copy) checkpoint.addBar(bar);
+    }
+    for (Map.Entry<String, Checkpointable> entry : checkpointables.entrySet()) {
+      Serializable state = entry.getValue().getCheckpointState();
+      if (state != null) checkpoint.putState(entry.getKey(), state);
+    }
+    return checkpoint;
+  }
+
+  public void write() {
+    try {
+      Checkpoint checkpoint = checkpoint();
+      checkpoint.write(getFile());
+      log.debug(
+          this.getClass().getSimpleName()
+              + ":write - checkpointed "
+              + checkpoint.getTradeCount()
+              + " trades, "
+              + checkpoint.getBookCount()
+              + " books and "
+              + checkpoint.getBarCount()
+              + " bars at "
+              + checkpoint.getTime());
+    } catch (IOException | RuntimeException e) {
+      log.error(
+          this.getClass().getSimpleName()
+              + ":write - unable to write checkpoint, full stack trace follows:",
+          e);
+    }
+  }
+
+  @When("@Priority(1) @Audit select * from Trade(priceCount>0, volumeCount!=0)")
+  public void handleTrade(Trade trade) {
+    String symbol = trade.getMarket().getSymbol();
+    Trade last = lastTrades.get(symbol);
+    if (last == null || !last.getTime().isAfter(trade.getTime())) lastTrades.put(symbol, trade);
+  }
+
+  @When("@Priority(1) @Audit select * from Book(bidVolumeAsDouble>0, askVolumeAsDouble<0)")
+  public void handleBook(Book book) {
+    String symbol = book.getMarket().getSymbol();
+    Book last = lastBooks.get(symbol);
+    if (last == null || !last.getTime().isAfter(book.getTime())) lastBooks.put(symbol, book);
+  }
+
+  @When("@Priority(1) @Audit select * from Bar")
+  public void handleBar(Bar bar) {
+    Deque<Bar> marketBars =
+        bars.computeIfAbsent(
+            bar.getMarket().getSymbol() + ":" + bar.getInterval(), k -> new ArrayDeque<Bar>());
+    synchronized (marketBars) {
+      Bar last = marketBars.peekLast();
+      if (last != null && !last.getTime().isBefore(bar.getTime())) {
+        if (!last.getTime().equals(bar.getTime())) return;
+        marketBars.pollLast();
+      }
+      marketBars.addLast(bar);
+      while (marketBars.size() > maxBars) marketBars.pollFirst();
+    }
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.checkpoint");
+  @Inject protected Context context;
+  private final int maxBars = ConfigUtil.combined().getInt("strategy.checkpoint.bars", 200);
+  private final Map<String, Checkpointable> checkpointables =
+      new ConcurrentHashMap<String, Checkpointable>();
+  private final Map<String, Trade> lastTrades = new ConcurrentHashMap<String, Trade>();
+  private final Map<String, Book> lastBooks = new ConcurrentHashMap<String, Book>();
+  private final Map<String, Deque<Bar>> bars = new ConcurrentHashMap<String, Deque<Bar>>();
+  private ScheduledExecutorService scheduler;
+}
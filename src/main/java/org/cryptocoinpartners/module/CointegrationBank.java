@@ -0,0 +1,252 @@
+package org.cryptocoinpartners.module;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.inject.Singleton;
+
+import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.esper.annotation.When;
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.CointegrationUpdate;
+import org.cryptocoinpartners.schema.EntityRegistry;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.util.Cointegration;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.PartitionedExecutor;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+/**
+ * Keeps a rolling hedge ratio for every pair listed in cointegration.pairs, each as MARKET/HEDGE,
+ * fitting market = alpha + beta * hedge with a Cointegration filter. A pair is stepped with the
+ * closing prices of its cointegration.interval second Bars once both legs have closed a bar at the
+ * same time, and each step publishes a CointegrationUpdate unless cointegration.publish is false.
+ *
+ * <p>Legs are found by the EntityRegistry ordinal of the bar's market, so a bar costs one array
+ * read plus a step of a few dozen multiplications per pair it belongs to. Pairs are stepped on the
+ * thread delivering the bar, or with cointegration.threads above 0 on that many threads, each pair
+ * always on the same one so its bars are filtered in order. The threads stop when the Context is
+ * destroyed. Readers get the latest update of a pair from getLast without locking.
+ */
+@Singleton
+public class CointegrationBank implements Context.AttachListener, Context.DestroyListener {
+
+  public static boolean isEnabled() {
+    return !getPairs(ConfigUtil.combined()).isEmpty();
+  }
+
+  @Override
+  public void afterAttach(Context context) {
+    Configuration config = context.getConfig();
+    interval = config.getDouble("cointegration.interval", 60);
+    publish = config.getBoolean("cointegration.publish", true);
+    setThreads(config.getInt("cointegration.threads", 0));
+    double delta = config.getDouble("cointegration.delta", 0.0001);
+    double r = config.getDouble("cointegration.r", 0.001);
+    for (Object pair : getPairs(config)) {
+      String[] symbols = pair.toString().split("/");
+      Tradeable market = symbols.length == 2 ? Tradeable.forSymbol(symbols[0].trim()) : null;
+      Tradeable hedge = symbols.length == 2 ? Tradeable.forSymbol(symbols[1].trim()) : null;
+      if (!(market instanceof Market) || !(hedge instanceof Market)) {
+        log.warn(
+            this.getClass().getSimpleName()
+                + ":afterAttach - "
+                + pair
+                + " is not a pair of markets, not fitting it");
+        continue;
+      }
+      register((Market) market, (Market) hedge, delta, r);
+    }
+  }
+
+  /** Stops the pair threads, letting the steps already queued finish */
+  @Override
+  public void beforeDestroy(Context context) {
+    setThreads(0);
+  }
+
+  /**
+   * Starts fitting market = alpha + beta * hedge on the closes of their bars
+   *
+   * @param delta the state noise of the filter, how fast the hedge ratio may drift
+   * @param r the measurement noise of the filter, the variance of the spread
+   */
+  public synchronized void register(Market market, Market hedge, double delta, double r) {
+    Pair pair = new Pair(market, hedge, new Cointegration(delta, r));
+    pairs.put(key(market, hedge), pair);
+    Leg[][] byMarket = legsByMarket;
+    for (Market leg : Arrays.asList(market, hedge)) {
+      int ordinal = EntityRegistry.ordinal(leg);
+      if (ordinal >= byMarket.length)
+        byMarket = Arrays.copyOf(byMarket, Math.max(ordinal + 1, byMarket.length * 2));
+      Leg[] existing = byMarket[ordinal] == null ? new Leg[0] : byMarket[ordinal];
+      Leg[] legsOfMarket = Arrays.copyOf(existing, existing.length + 1);
+      legsOfMarket[existing.length] = new Leg(pair, leg == market);
+      byMarket[ordinal] = legsOfMarket;
+    }
+    legsByMarket = byMarket;
+    log.info(
+        this.getClass().getSimpleName()
+            + ":register - fitting "
+            + market
+            + " against "
+            + hedge
+            + " with delta "
+            + delta
+            + " and r "
+            + r);
+  }
+
+  /** @return the latest update of the pair, or null until it has been stepped */
+  public CointegrationUpdate getLast(Tradeable market, Tradeable hedge) {
+    Pair pair = market == null || hedge == null ? null : pairs.get(key(market, hedge));
+    return pair == null ? null : pair.last;
+  }
+
+  /** @return the latest update of every pair which has been stepped */
+  public List<CointegrationUpdate> getAll() {
+    List<CointegrationUpdate> updates = new ArrayList<CointegrationUpdate>();
+    for (Pair pair : pairs.values()) if (pair.last != null) updates.add(pair.last);
+    return updates;
+  }
+
+  @When("@Priority(2) select * from Bar(market.synthetic=false)")
+  public void handleBar(Bar bar) {
+    if (bar.getInterval() == null || bar.getInterval() != interval || bar.getClose() == null)
+      return;
+    Leg[] legs = legs(bar.getMarket());
+    if (legs == null) return;
+    double close = bar.getClose() * bar.getMarket().getPriceBasis();
+    for (Leg leg : legs) leg.pair.close(leg.market, bar.getTime().getMillis(), close);
+  }
+
+  /** steps the pairs on that many threads, or on the thread delivering the bar if 0 */
+  synchronized void setThreads(int threads) {
+    PartitionedExecutor previous = executor;
+    executor = threads > 0 ? new PartitionedExecutor("cointegration", threads) : null;
+    if (previous != null) previous.shutdown();
+  }
+
+  PartitionedExecutor getExecutor() {
+    return executor;
+  }
+
+  void publish(CointegrationUpdate update) {
+    context.publish(update);
+  }
+
+  private static List<?> getPairs(Configuration config) {
+    return config == null
+        ? Collections.emptyList()
+        : config.getList("cointegration.pairs", Collections.emptyList());
+  }
+
+  private static String key(Tradeable market, Tradeable hedge) {
+    return market.getSymbol() + '/' + hedge.getSymbol();
+  }
+
+  private Leg[] legs(Tradeable market) {
+    if (!(market instanceof Market)) return null;
+    int ordinal = EntityRegistry.ordinal((Market) market);
+    Leg[][] byMarket = legsByMarket;
+    return ordinal < byMarket.length ? byMarket[ordinal] : null;
+  }
+
+  /** A market which is a leg of a pair, either its market or its hedge */
+  private static class Leg {
+
+    private Leg(Pair pair, boolean market) {
+      this.pair = pair;
+      this.market = market;
+    }
+
+    private final Pair pair;
+    private final boolean market;
+  }
+
+  /** The filter of one pair and the last bar close of each leg */
+  private class Pair {
+
+    private Pair(Market market, Market hedge, Cointegration filter) {
+      this.market = market;
+      this.hedge = hedge;
+      this.filter = filter;
+    }
+
+    private void close(boolean isMarket, final long time, double close) {
+      final double y;
+      final double x;
+      synchronized (this) {
+        if (isMarket) {
+          marketClose = close;
+          marketTime = time;
+        } else {
+          hedgeClose = close;
+          hedgeTime = time;
+        }
+        // step once per bar time, when both legs have closed it
+        if (marketTime != hedgeTime || time <= stepped) return;
+        stepped = time;
+        y = marketClose;
+        x = hedgeClose;
+      }
+      PartitionedExecutor executor = CointegrationBank.this.executor;
+      if (executor != null) {
+        try {
+          executor.execute(this, () -> step(time, x, y));
+          return;
+        } catch (RejectedExecutionException e) {
+          // the lanes were stopped since the read above
+        }
+      }
+      step(time, x, y);
+    }
+
+    private void step(long time, double x, double y) {
+      CointegrationUpdate update;
+      synchronized (filter) {
+        filter.step(x, y);
+        update =
+            new CointegrationUpdate(
+                new Instant(time),
+                market,
+                hedge,
+                filter.getAlpha(),
+                filter.getBeta(),
+                filter.getError(),
+                filter.getVariance(),
+                filter.getSteps());
+        last = update;
+      }
+      if (publish) publish(update);
+    }
+
+    private final Market market;
+    private final Market hedge;
+    private final Cointegration filter;
+    private double marketClose;
+    private double hedgeClose;
+    private long marketTime = Long.MIN_VALUE;
+    private long hedgeTime = Long.MIN_VALUE + 1;
+    private long stepped = Long.MIN_VALUE;
+    private volatile CointegrationUpdate last;
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.cointegrationBank");
+  @Inject protected Context context;
+  private volatile double interval = 60;
+  private volatile boolean publish = true;
+  private volatile PartitionedExecutor executor;
+  private final Map<String, Pair> pairs = new ConcurrentHashMap<String, Pair>();
+  private volatile Leg[][] legsByMarket = new Leg[0][];
+}
@@ -1,7 +1,6 @@
 package org.cryptocoinpartners.module;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
@@ -12,6 +11,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -31,6 +31,7 @@ import org.cryptocoinpartners.esper.annotation.When;
 import org.cryptocoinpartners.schema.Event;
 import org.cryptocoinpartners.schema.StrategyInstance;
 import org.cryptocoinpartners.service.Service;
+import org.cryptocoinpartners.util.ClassIndex;
 import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.Injector;
 import org.cryptocoinpartners.util.ReflectionUtil;
@@ -39,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.espertech.esper.client.EPAdministrator;
+import com.espertech.esper.client.EPException;
 import com.espertech.esper.client.EPRuntime;
 import com.espertech.esper.client.EPServiceProvider;
 import com.espertech.esper.client.EPServiceProviderManager;
@@ -48,9 +50,7 @@ import com.espertech.esper.client.SafeIterator;
 import com.espertech.esper.client.StatementAwareUpdateListener;
 import com.espertech.esper.client.UpdateListener;
 import com.espertech.esper.client.deploy.DeploymentException;
-import com.espertech.esper.client.deploy.DeploymentOptions;
-import com.espertech.esper.client.deploy.DeploymentResult;
-import com.espertech.esper.client.deploy.EPDeploymentAdmin;
+import com.espertech.esper.client.deploy.ModuleItem;
 import com.espertech.esper.client.deploy.ParseException;
 import com.espertech.esper.client.time.CurrentTimeEvent;
 import com.espertech.esper.client.time.CurrentTimeSpanEvent;
@@ -99,6 +99,11 @@ public class Context {
     public void afterAttach(Context context);
   }
 
+  /** Attached modules implementing this are told before the Context is destroyed */
+  public static interface DestroyListener {
+    public void beforeDestroy(Context context);
+  }
+
   /**
    * This is the main way to register modules with the Context. Attaching a class to a Context has
    * many effects:
@@ -178,6 +183,7 @@ public class Context {
       AttachListener listener = (AttachListener) instance;
       listener.afterAttach(this);
     }
+    if (instance instanceof DestroyListener) destroyListeners.add((DestroyListener) instance);
   }
 
   public List<Object> loadStatementByName(String name)
@@ -438,7 +444,7 @@ public class Context {
   }
 
   public void subscribe(Object listener, Method method, String statement) {
-    EPStatement epStatement = epAdministrator.createEPL(statement);
+    EPStatement epStatement = StatementCache.create(epAdministrator, statement);
     subscribe(listener, method, epStatement);
   }
 
@@ -447,37 +453,49 @@ public class Context {
   }
 
   /**
+   * Creates the statements of the EPL module source.epl from the JVM-wide StatementCache. If any
+   * statement fails the statements already created from the module are destroyed.
+   *
    * @param source a string containing EPL statements
    * @param intoFieldBean if not null, any @IntoMethod annotations on Esper statements will bind the
    *     columns from the select statement into the fields of the intoFieldBean instance.
    */
   public void loadStatements(String source, Object intoFieldBean) {
-    EPDeploymentAdmin deploymentAdmin = epAdministrator.getDeploymentAdmin();
-
     com.espertech.esper.client.deploy.Module module;
     String filename = source + ".epl";
+    // the class index records which modules have no EPL file on the classpath, so unless one has
+    // been dropped into the working directory we need not search for it
+    if (Boolean.FALSE.equals(ClassIndex.hasEpl(source)) && !new File(filename).exists()) return;
     try {
-      module = deploymentAdmin.read(filename);
-      DeploymentResult deployResult;
+      module = StatementCache.getModule(epAdministrator, filename);
+      if (module == null) {
+        // it is not neccessary for every module to have an EPL file
+        return;
+      }
+      if (module.getImports() != null)
+        for (String imported : module.getImports())
+          epAdministrator.getConfiguration().addImport(imported);
+      List<EPStatement> statements = new ArrayList<EPStatement>();
       try {
-        deployResult = deploymentAdmin.deploy(module, new DeploymentOptions());
-        List<EPStatement> statements = deployResult.getStatements();
+        for (ModuleItem item : module.getItems())
+          if (!item.isCommentOnly())
+            statements.add(StatementCache.create(epAdministrator, item.getExpression()));
+      } catch (EPException e) {
+        log.error("unable to deploy module " + source, e);
+        for (EPStatement statement : statements) statement.destroy();
+        return;
+      }
 
-        for (EPStatement statement : statements) {
+      for (EPStatement statement : statements) {
 
-          try {
-            processAnnotations(statement);
-          } catch (Exception e) {
-            // TODO Auto-generated catch block
-            log.error("Threw a Execption, full stack trace follows:", e);
-          }
+        try {
+          processAnnotations(statement);
+        } catch (Exception e) {
+          // TODO Auto-generated catch block
+          log.error("Threw a Execption, full stack trace follows:", e);
         }
-        log.info("deployed module " + filename);
-      } catch (DeploymentException e) {
-        log.error("unable to deploy module " + source, e);
       }
-    } catch (FileNotFoundException ignored) {
-      // it is not neccessary for every module to have an EPL file
+      log.info("deployed module " + filename);
     } catch (IOException e) {
       log.trace(
           "no module file found for "
@@ -508,7 +526,14 @@ public class Context {
 
   private Class<?> findModuleClass(String name) {
     Class<?> found;
-    for (String path : getModulePathList()) {
+    List<String> modulePaths = getModulePathList();
+    for (String path : modulePaths) {
+      String pdot = path + ".";
+      if ((found = ClassIndex.getModuleClass(pdot + name)) != null) return found;
+      if ((found = ClassIndex.getModuleClass(pdot + name + "Module")) != null) return found;
+    }
+    // modules from jars built without the index
+    for (String path : modulePaths) {
       String pdot = path + ".";
       if ((found = findClass(pdot + name)) != null) return found;
       if ((found = findClass(pdot + name + "Module")) != null) return found;
@@ -729,8 +754,19 @@ public class Context {
   private final transient com.espertech.esper.client.Configuration epConfig =
       new com.espertech.esper.client.Configuration();
   private transient HashSet<String> loadedModules = new HashSet<String>();
+  private final transient List<DestroyListener> destroyListeners =
+      new CopyOnWriteArrayList<DestroyListener>();
 
   private void privateDestroy() {
+    for (DestroyListener listener : destroyListeners) {
+      try {
+        listener.beforeDestroy(this);
+      } catch (Exception | Error e) {
+        log.error(
+            "Context:destroy - " + listener + " failed to stop, full stack trace follows:", e);
+      }
+    }
+    destroyListeners.clear();
     epService.destroy();
 
     // null all the variables here to eliminate any crazy cycles
@@ -287,6 +287,11 @@ public class JMXManager implements JMXManagerMBean {
 
 	}
 
+	@Override
+	public String getFillLatency() {
+		return orderService.getFillLatency();
+	}
+
 	// run createStopLimitPercentageManualFill OKCOIN_THISWEEK:BTC.USD.THISWEEK "1" 47000.16 4700 TRAILING_STOP_LOSS ShortError Close True
 
 	@Override
@@ -10,6 +10,8 @@ public interface JMXManagerMBean {
 
 	String getPortfolioService();
 
+	String getFillLatency();
+
 	void createSpecificOrder(String marketSymbol, String volume, String limitPrice);
 
 	void createGeneralOrder(String marketSymbol, String volume, String limitPrice);
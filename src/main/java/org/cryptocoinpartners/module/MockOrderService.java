@@ -8,8 +8,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -45,7 +43,6 @@ import org.cryptocoinpartners.util.EM;
 @Singleton
 @SuppressWarnings("UnusedDeclaration")
 public class MockOrderService extends BaseOrderService {
-  private static ExecutorService mockOrderService = Executors.newFixedThreadPool(1);
   // static Double doubleSlippage = ConfigUtil.combined().getDouble("mock.exchange.slippage", 0.02);
   private static double slippage = ConfigUtil.combined().getDouble("mock.exchange.slippage", 0);
   protected final Lock updateOrderBookLock = new ReentrantLock();
@@ -480,14 +477,15 @@ public class MockOrderService extends BaseOrderService {
                     //	sellOrderVolumeCount = sellOrderVolumeCount - askFillVolume;
                     logFill(order, bid, fill);
 
-                    log.debug(
-                        "{}:UpdateBook - set bidVolume {} to {} with askFillVolume  {}",
-                        this.getClass().getSimpleName(),
-                        bid.getVolumeCount(),
-                        (bid.getVolumeCount() < 0
-                            ? -((Math.abs(bid.getVolumeCount()) + askFillVolume))
-                            : (Math.abs(bid.getVolumeCount() + askFillVolume))),
-                        askFillVolume);
+                    if (log.isDebugEnabled())
+                      log.debug(
+                          "{}:UpdateBook - set bidVolume {} to {} with askFillVolume  {}",
+                          this.getClass().getSimpleName(),
+                          bid.getVolumeCount(),
+                          (bid.getVolumeCount() < 0
+                              ? -((Math.abs(bid.getVolumeCount()) + askFillVolume))
+                              : (Math.abs(bid.getVolumeCount() + askFillVolume))),
+                          askFillVolume);
 
                     bid.setVolumeCount(
                         (bid.getVolumeCount() < 0
@@ -785,7 +783,8 @@ public class MockOrderService extends BaseOrderService {
   // private static ConcurrentHashMap<Market, ConcurrentHashMap<TransactionType,
   // ArrayList<SpecificOrder>>> pendingOrders = new ConcurrentHashMap<Market,
   // ConcurrentHashMap<TransactionType, ArrayList<SpecificOrder>>>();
-  private static transient Map<Market, Map<TransactionType, ArrayList<SpecificOrder>>>
+  // per instance, so the mock exchanges of partitions replayed side by side do not share orders
+  private final transient Map<Market, Map<TransactionType, ArrayList<SpecificOrder>>>
       pendingOrders =
           new ConcurrentHashMap<Market, Map<TransactionType, ArrayList<SpecificOrder>>>();
 
@@ -810,14 +809,10 @@ public class MockOrderService extends BaseOrderService {
     // book (pendingOrders)
     // if (stateOrderMap.get(OrderState.NEW) != null)
     //    cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.NEW));
-    if (stateOrderMap.get(OrderState.PLACED) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PLACED));
-    if (stateOrderMap.get(OrderState.PARTFILLED) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PARTFILLED));
-    if (stateOrderMap.get(OrderState.ROUTED) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.ROUTED));
-    if (stateOrderMap.get(OrderState.CANCELLING) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.CANCELLING));
+    cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.PLACED));
+    cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.PARTFILLED));
+    cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.ROUTED));
+    cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.CANCELLING));
     for (org.cryptocoinpartners.schema.Order openOrder : cointraderOpenOrders) {
       if (openOrder instanceof SpecificOrder) addOrder((SpecificOrder) openOrder);
     }
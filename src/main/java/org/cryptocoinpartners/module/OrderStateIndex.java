@@ -0,0 +1,237 @@
+package org.cryptocoinpartners.module;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Tradeable;
+
+/**
+ * The current state of every order known to an order service, indexed by order, by id, by state
+ * and, for open SpecificOrders, by market, portfolio, side and position effect.
+ *
+ * <p>A state change moves the order between index buckets in constant time, so the pending order
+ * queries read a single bucket rather than filtering every order. Transitions for one order are
+ * atomic and the index may be read and written from any thread. The Map view is read-only apart
+ * from put, remove and clear.
+ *
+ * <p>An open order is bucketed by the portfolio, market, side and position effect it has when it is
+ * put, so these must not change while the order is open.
+ */
+public class OrderStateIndex extends AbstractMap<Order, OrderState> {
+
+  public OrderStateIndex() {
+    for (OrderState state : OrderState.values())
+      byState.put(state, OrderStateIndex.<Order>newConcurrentSet());
+  }
+
+  @Override
+  @Nullable
+  public OrderState get(Object order) {
+    return order == null ? null : states.get(order);
+  }
+
+  @Override
+  public boolean containsKey(Object order) {
+    return order != null && states.containsKey(order);
+  }
+
+  /** sets the order's state, moving it between the state and open order indexes */
+  @Override
+  @Nullable
+  public OrderState put(final Order order, final OrderState state) {
+    final OrderState[] oldState = new OrderState[1];
+    states.compute(
+        order,
+        (key, previous) -> {
+          oldState[0] = previous;
+          if (previous != null) byState.get(previous).remove(key);
+          byState.get(state).add(key);
+          if (state.isOpen()) index(key);
+          else unindex(key);
+          return state;
+        });
+    if (order.getUuid() != null) byId.put(order.getUuid(), order);
+    return oldState[0];
+  }
+
+  @Override
+  @Nullable
+  public OrderState remove(Object order) {
+    if (!(order instanceof Order)) return null;
+    final OrderState[] oldState = new OrderState[1];
+    states.computeIfPresent(
+        (Order) order,
+        (key, previous) -> {
+          oldState[0] = previous;
+          byState.get(previous).remove(key);
+          unindex(key);
+          return null;
+        });
+    if (((Order) order).getUuid() != null) byId.remove(((Order) order).getUuid(), order);
+    return oldState[0];
+  }
+
+  @Override
+  public void clear() {
+    for (Order order : new ArrayList<Order>(states.keySet())) remove(order);
+  }
+
+  @Override
+  public int size() {
+    return states.size();
+  }
+
+  @Override
+  public Set<Order> keySet() {
+    return Collections.unmodifiableSet(states.keySet());
+  }
+
+  @Override
+  public Set<Map.Entry<Order, OrderState>> entrySet() {
+    return Collections.unmodifiableMap(states).entrySet();
+  }
+
+  /** @return the tracked order with the given id, or null */
+  @Nullable
+  public Order getOrder(UUID id) {
+    return byId.get(id);
+  }
+
+  /** @return a live read-only view of the orders in the given state */
+  public Set<Order> getOrders(OrderState state) {
+    return Collections.unmodifiableSet(byState.get(state));
+  }
+
+  /** @return the orders in any open state */
+  public List<Order> getOpenOrders() {
+    List<Order> orders = new ArrayList<Order>();
+    for (OrderState state : OPEN_STATES) orders.addAll(byState.get(state));
+    return orders;
+  }
+
+  /** @return whether any portfolio has an open SpecificOrder for the market */
+  public boolean hasOpenOrders(Tradeable market) {
+    Set<SpecificOrder> orders = open.get(new Key(null, market, null, null));
+    return orders != null && !orders.isEmpty();
+  }
+
+  /** @return the open SpecificOrders for the portfolio and market */
+  public Collection<SpecificOrder> getOpenOrders(Portfolio portfolio, Tradeable market) {
+    Set<SpecificOrder> orders = open.get(new Key(portfolio, market, null, null));
+    return orders == null
+        ? Collections.<SpecificOrder>emptyList()
+        : new ArrayList<SpecificOrder>(orders);
+  }
+
+  /**
+   * @param side BUY for bids, SELL for asks
+   * @return the open SpecificOrders for the portfolio and market on the given side with the given
+   *     position effect
+   */
+  public Collection<SpecificOrder> getOpenOrders(
+      Portfolio portfolio, Tradeable market, TransactionType side, PositionEffect positionEffect) {
+    Set<SpecificOrder> orders = open.get(new Key(portfolio, market, side, positionEffect));
+    return orders == null
+        ? Collections.<SpecificOrder>emptyList()
+        : new ArrayList<SpecificOrder>(orders);
+  }
+
+  private void index(Order order) {
+    if (!(order instanceof SpecificOrder)) return;
+    SpecificOrder specificOrder = (SpecificOrder) order;
+    for (Key key : keysFor(specificOrder))
+      open.computeIfAbsent(key, k -> OrderStateIndex.<SpecificOrder>newConcurrentSet())
+          .add(specificOrder);
+  }
+
+  private void unindex(Order order) {
+    if (!(order instanceof SpecificOrder)) return;
+    for (Key key : keysFor((SpecificOrder) order)) {
+      Set<SpecificOrder> orders = open.get(key);
+      if (orders != null) orders.remove(order);
+    }
+  }
+
+  private static Key[] keysFor(SpecificOrder order) {
+    return new Key[] {
+      new Key(null, order.getMarket(), null, null),
+      new Key(order.getPortfolio(), order.getMarket(), null, null),
+      new Key(
+          order.getPortfolio(),
+          order.getMarket(),
+          order.isBid() ? TransactionType.BUY : TransactionType.SELL,
+          order.getPositionEffect())
+    };
+  }
+
+  private static <T> Set<T> newConcurrentSet() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+  }
+
+  private static class Key {
+
+    private Key(
+        @Nullable Portfolio portfolio,
+        Tradeable market,
+        @Nullable TransactionType side,
+        @Nullable PositionEffect positionEffect) {
+      this.portfolio = portfolio;
+      this.market = market;
+      this.side = side;
+      this.positionEffect = positionEffect;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return side == key.side
+          && positionEffect == key.positionEffect
+          && Objects.equals(portfolio, key.portfolio)
+          && Objects.equals(market, key.market);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(portfolio, market, side, positionEffect);
+    }
+
+    private final Portfolio portfolio;
+    private final Tradeable market;
+    private final TransactionType side;
+    private final PositionEffect positionEffect;
+  }
+
+  private static final OrderState[] OPEN_STATES = {
+    OrderState.NEW,
+    OrderState.TRIGGER,
+    OrderState.PLACED,
+    OrderState.PARTFILLED,
+    OrderState.ROUTED,
+    OrderState.CANCELLING
+  };
+
+  private final Map<Order, OrderState> states = new ConcurrentHashMap<Order, OrderState>();
+  private final Map<OrderState, Set<Order>> byState =
+      new EnumMap<OrderState, Set<Order>>(OrderState.class);
+  private final Map<UUID, Order> byId = new ConcurrentHashMap<UUID, Order>();
+  private final Map<Key, Set<SpecificOrder>> open =
+      new ConcurrentHashMap<Key, Set<SpecificOrder>>();
+}
@@ -0,0 +1,47 @@
+package org.cryptocoinpartners.module;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Singleton;
+
+import org.cryptocoinpartners.esper.annotation.When;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Fill;
+import org.cryptocoinpartners.schema.PositionUpdate;
+import org.cryptocoinpartners.schema.Transaction;
+
+/**
+ * Records, in publication order, the Fills, Transactions and PositionUpdates published in the
+ * Context of one PartitionedReplay partition, so they can be merged with those of the other
+ * partitions once every partition has finished.
+ */
+@Singleton
+public class PartitionJournal {
+
+  @When("@Priority(1) select * from Fill")
+  public void handleFill(Fill fill) {
+    record(fill);
+  }
+
+  @When("@Priority(1) select * from Transaction")
+  public void handleTransaction(Transaction transaction) {
+    record(transaction);
+  }
+
+  @When("@Priority(1) select * from PositionUpdate")
+  public void handlePositionUpdate(PositionUpdate positionUpdate) {
+    record(positionUpdate);
+  }
+
+  /** @return a copy of the events recorded so far, in publication order */
+  public synchronized List<Event> getEvents() {
+    return new ArrayList<Event>(events);
+  }
+
+  private synchronized void record(Event event) {
+    events.add(event);
+  }
+
+  private final List<Event> events = new ArrayList<Event>();
+}
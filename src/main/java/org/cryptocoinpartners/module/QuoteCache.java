@@ -0,0 +1,243 @@
+package org.cryptocoinpartners.module;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.EntityRegistry;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+
+/**
+ * The latest Trade, Book and Bars of each Market and Listing, held in arrays indexed by their
+ * EntityRegistry ordinals. Each entry is an immutable Quote which an update replaces with a
+ * compare-and-set, so readers never lock and always see a consistent top of book, last trade and
+ * last bars. Bars are kept per interval in a slot given out the first time the interval is seen.
+ *
+ * <p>Synthetic markets have no ordinal and are kept by symbol instead.
+ */
+class QuoteCache {
+
+  /** The latest quotes of one Market or Listing, replaced whole on every update */
+  static final class Quote {
+
+    public Trade getTrade() {
+      return trade;
+    }
+
+    public Book getBook() {
+      return book;
+    }
+
+    /** @return the Book with the highest best bid seen */
+    public Book getBestBidBook() {
+      return bestBidBook;
+    }
+
+    /** @return the Book with the lowest best ask seen */
+    public Book getBestAskBook() {
+      return bestAskBook;
+    }
+
+    /** @return the Markets trading a Listing, empty for the Quote of a Market */
+    public Set<Market> getMarkets() {
+      return markets;
+    }
+
+    private Quote(
+        Trade trade,
+        Book book,
+        Book bestBidBook,
+        Book bestAskBook,
+        Bar[] bars,
+        Set<Market> markets) {
+      this.trade = trade;
+      this.book = book;
+      this.bestBidBook = bestBidBook;
+      this.bestAskBook = bestAskBook;
+      this.bars = bars;
+      this.markets = markets;
+    }
+
+    private Quote withTrade(Trade trade) {
+      return new Quote(trade, book, bestBidBook, bestAskBook, bars, markets);
+    }
+
+    private Quote withBook(Book book, boolean trackBest) {
+      Book lastBook =
+          this.book == null || !this.book.getTime().isAfter(book.getTime()) ? book : this.book;
+      Book bestBid = bestBidBook;
+      Book bestAsk = bestAskBook;
+      // an empty side has a zero priced best offer, which must not count as the best ask
+      if (trackBest) {
+        Offer bid = book.getBids().isEmpty() ? null : book.getBestBid();
+        if (bid != null
+            && (bestBid == null || bid.getPrice().compareTo(bestBid.getBestBid().getPrice()) > 0))
+          bestBid = book;
+        Offer ask = book.getAsks().isEmpty() ? null : book.getBestAsk();
+        if (ask != null
+            && (bestAsk == null || ask.getPrice().compareTo(bestAsk.getBestAsk().getPrice()) < 0))
+          bestAsk = book;
+      }
+      return new Quote(trade, lastBook, bestBid, bestAsk, bars, markets);
+    }
+
+    private Quote withBar(int slot, Bar bar) {
+      Bar[] bars = Arrays.copyOf(this.bars, Math.max(this.bars.length, slot + 1));
+      bars[slot] = bar;
+      return new Quote(trade, book, bestBidBook, bestAskBook, bars, markets);
+    }
+
+    private Quote withMarket(Market market) {
+      Set<Market> markets = new HashSet<Market>(this.markets);
+      markets.add(market);
+      return new Quote(
+          trade, book, bestBidBook, bestAskBook, bars, Collections.unmodifiableSet(markets));
+    }
+
+    private Bar bar(int slot) {
+      return slot >= 0 && slot < bars.length ? bars[slot] : null;
+    }
+
+    private final Trade trade;
+    private final Book book;
+    private final Book bestBidBook;
+    private final Book bestAskBook;
+    private final Bar[] bars;
+    private final Set<Market> markets;
+  }
+
+  /** The current Quote of one Market or Listing */
+  static final class Slot extends AtomicReference<Quote> {
+
+    private Slot() {
+      super(EMPTY);
+    }
+
+    /** @return false, leaving the Quote unchanged, if the trade is older than the last one */
+    boolean putTrade(Trade trade) {
+      for (; ; ) {
+        Quote quote = get();
+        if (quote.trade != null && quote.trade.getTime().isAfter(trade.getTime())) return false;
+        if (compareAndSet(quote, quote.withTrade(trade))) return true;
+      }
+    }
+
+    /**
+     * Replaces the last book unless the book is older, and if trackBest also the best bid and ask
+     * books when the book betters them
+     */
+    void putBook(Book book, boolean trackBest) {
+      for (; ; ) {
+        Quote quote = get();
+        if (compareAndSet(quote, quote.withBook(book, trackBest))) return;
+      }
+    }
+
+    void putBar(int slot, Bar bar) {
+      for (; ; ) {
+        Quote quote = get();
+        Bar last = quote.bar(slot);
+        if (last != null && last.getTime().isAfter(bar.getTime())) return;
+        if (compareAndSet(quote, quote.withBar(slot, bar))) return;
+      }
+    }
+
+    void addMarket(Market market) {
+      for (; ; ) {
+        Quote quote = get();
+        if (quote.markets.contains(market)) return;
+        if (compareAndSet(quote, quote.withMarket(market))) return;
+      }
+    }
+  }
+
+  /** @return the latest quotes of the market, empty if none have been recorded */
+  Quote get(Tradeable market) {
+    Slot slot = find(market);
+    return slot == null ? EMPTY : slot.get();
+  }
+
+  Quote get(Listing listing) {
+    Slot slot = listing == null ? null : find(listingSlots, EntityRegistry.ordinal(listing));
+    return slot == null ? EMPTY : slot.get();
+  }
+
+  /** @return the last Bar of the interval in the Quote, or null if none was recorded */
+  Bar getBar(Quote quote, double interval) {
+    double[] intervals = this.intervals;
+    for (int i = 0; i < intervals.length; i++) if (intervals[i] == interval) return quote.bar(i);
+    return null;
+  }
+
+  Slot slot(Tradeable market) {
+    Slot slot = find(market);
+    if (slot != null) return slot;
+    if (market instanceof Market)
+      return create(EntityRegistry.ordinal((Market) market), false);
+    slot = new Slot();
+    Slot existing = syntheticSlots.putIfAbsent(market.getSymbol(), slot);
+    return existing == null ? slot : existing;
+  }
+
+  Slot slot(Listing listing) {
+    int ordinal = EntityRegistry.ordinal(listing);
+    Slot slot = find(listingSlots, ordinal);
+    return slot != null ? slot : create(ordinal, true);
+  }
+
+  /** @return the slot for Bars of the interval in every Quote, given out on first use */
+  int intervalSlot(double interval) {
+    double[] intervals = this.intervals;
+    for (int i = 0; i < intervals.length; i++) if (intervals[i] == interval) return i;
+    synchronized (this) {
+      intervals = this.intervals;
+      for (int i = 0; i < intervals.length; i++) if (intervals[i] == interval) return i;
+      intervals = Arrays.copyOf(intervals, intervals.length + 1);
+      intervals[intervals.length - 1] = interval;
+      this.intervals = intervals;
+      return intervals.length - 1;
+    }
+  }
+
+  private Slot find(Tradeable market) {
+    if (market == null) return null;
+    if (market instanceof Market)
+      return find(marketSlots, EntityRegistry.ordinal((Market) market));
+    return syntheticSlots.get(market.getSymbol());
+  }
+
+  private static Slot find(Slot[] slots, int ordinal) {
+    return ordinal < slots.length ? slots[ordinal] : null;
+  }
+
+  private synchronized Slot create(int ordinal, boolean listing) {
+    Slot[] slots = listing ? listingSlots : marketSlots;
+    if (ordinal < slots.length && slots[ordinal] != null) return slots[ordinal];
+    // slots are carried over when the table grows, so updates racing the copy are never lost
+    if (ordinal >= slots.length)
+      slots = Arrays.copyOf(slots, Math.max(ordinal + 1, slots.length * 2));
+    Slot slot = new Slot();
+    slots[ordinal] = slot;
+    if (listing) listingSlots = slots;
+    else marketSlots = slots;
+    return slot;
+  }
+
+  static final Quote EMPTY =
+      new Quote(null, null, null, null, new Bar[0], Collections.<Market>emptySet());
+
+  private volatile Slot[] marketSlots = new Slot[0];
+  private volatile Slot[] listingSlots = new Slot[0];
+  private volatile double[] intervals = new double[0];
+  private final Map<String, Slot> syntheticSlots = new ConcurrentHashMap<String, Slot>();
+}
@@ -53,7 +53,8 @@ public class SaveMarketData {
   */
   // @When("select * from MarketData")
   // @When("select * from MarketData")
-  @When("@Priority(1) @Audit  select * from Book")
+  // synthetic books and trades are derived from their legs, so they are never stored
+  @When("@Priority(1) @Audit  select * from Book(market.synthetic=false)")
   public void handleBook(Book m) {
 
     //  if (future == null || future.isDone()) {
@@ -74,7 +75,7 @@ public class SaveMarketData {
     }
   }
 
-  @When("@Priority(1) @Audit select * from Trade")
+  @When("@Priority(1) @Audit select * from Trade(market.synthetic=false)")
   public void handleTrade(Trade m) {
 
     log.trace("trade recieved: " + m.getUuid() + " thread: " + Thread.currentThread().getName());
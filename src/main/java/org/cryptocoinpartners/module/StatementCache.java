@@ -0,0 +1,143 @@
+package org.cryptocoinpartners.module;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.espertech.esper.client.EPAdministrator;
+import com.espertech.esper.client.EPStatement;
+import com.espertech.esper.client.deploy.Module;
+import com.espertech.esper.client.deploy.ParseException;
+import com.espertech.esper.client.soda.EPStatementObjectModel;
+
+/**
+ * Parses EPL once per JVM. EPL module files are read, and every statement is compiled into an
+ * EPStatementObjectModel, the first time any Context needs them. Later Contexts, such as those
+ * created by each Replay of a parameter sweep, create their statements from the cached object
+ * models. The models are never modified after they are cached, so they are
+ * shared between Contexts.
+ *
+ * <p>The time taken to compile each statement, and to create and start it in each Context, is
+ * recorded and can be logged with report().
+ */
+public class StatementCache {
+
+  /**
+   * Creates and starts a statement in the administrator's engine from the cached object model for
+   * the EPL, compiling and caching it first if necessary.
+   */
+  public static EPStatement create(EPAdministrator administrator, String epl) {
+    Timing timing = timing(epl);
+    EPStatementObjectModel model = models.get(epl);
+    if (model == null) {
+      long start = System.nanoTime();
+      model = administrator.compileEPL(epl);
+      timing.compiled(System.nanoTime() - start);
+      EPStatementObjectModel existing = models.putIfAbsent(epl, model);
+      if (existing != null) model = existing;
+    }
+    long start = System.nanoTime();
+    EPStatement statement = administrator.create(model);
+    timing.started(System.nanoTime() - start);
+    return statement;
+  }
+
+  /**
+   * @return the EPL module with the given resource name, or null if there is no such module. The
+   *     module must not be modified.
+   * @throws ParseException if the module cannot be split into statements
+   */
+  @Nullable
+  public static Module getModule(EPAdministrator administrator, String resource)
+      throws IOException, ParseException {
+    Module module = modules.get(resource);
+    if (module != null || missing.contains(resource)) return module;
+    try {
+      module = administrator.getDeploymentAdmin().read(resource);
+    } catch (FileNotFoundException e) {
+      missing.add(resource);
+      return null;
+    }
+    modules.put(resource, module);
+    return module;
+  }
+
+  /** @return a table of the compile and start times of every statement, slowest first */
+  public static String report() {
+    List<Map.Entry<String, Timing>> entries =
+        new ArrayList<Map.Entry<String, Timing>>(timings.entrySet());
+    Collections.sort(
+        entries,
+        new Comparator<Map.Entry<String, Timing>>() {
+          @Override
+          public int compare(Map.Entry<String, Timing> entry, Map.Entry<String, Timing> entry2) {
+            return Long.compare(entry2.getValue().total(), entry.getValue().total());
+          }
+        });
+    long compileNanos = 0;
+    long startNanos = 0;
+    StringBuilder report = new StringBuilder();
+    for (Map.Entry<String, Timing> entry : entries) {
+      Timing timing = entry.getValue();
+      compileNanos += timing.compileNanos;
+      startNanos += timing.startNanos.get();
+      report.append(
+          String.format(
+              "%n%10.3f ms compile %10.3f ms start (%d starts)  %s",
+              timing.compileNanos / 1e6,
+              timing.startNanos.get() / 1e6,
+              timing.starts.get(),
+              abbreviate(entry.getKey())));
+    }
+    return String.format(
+            "%d EPL statements compiled in %.3f ms and started in %.3f ms",
+            entries.size(),
+            compileNanos / 1e6,
+            startNanos / 1e6)
+        + report;
+  }
+
+  private static Timing timing(String epl) {
+    return timings.computeIfAbsent(epl, k -> new Timing());
+  }
+
+  private static String abbreviate(String epl) {
+    String flat = epl.replaceAll("\\s+", " ").trim();
+    return flat.length() > 120 ? flat.substring(0, 117) + "..." : flat;
+  }
+
+  private static class Timing {
+
+    private void compiled(long nanos) {
+      compileNanos = nanos;
+    }
+
+    private void started(long nanos) {
+      starts.incrementAndGet();
+      startNanos.addAndGet(nanos);
+    }
+
+    private long total() {
+      return compileNanos + startNanos.get();
+    }
+
+    private volatile long compileNanos;
+    private final AtomicLong starts = new AtomicLong();
+    private final AtomicLong startNanos = new AtomicLong();
+  }
+
+  private static final Map<String, EPStatementObjectModel> models =
+      new ConcurrentHashMap<String, EPStatementObjectModel>();
+  private static final Map<String, Module> modules = new ConcurrentHashMap<String, Module>();
+  private static final Set<String> missing = ConcurrentHashMap.newKeySet();
+  private static final Map<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+}
@@ -0,0 +1,396 @@
+package org.cryptocoinpartners.module;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Singleton;
+
+import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.esper.annotation.When;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.EntityRegistry;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.SyntheticMarket;
+import org.cryptocoinpartners.schema.TopOfBook;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+/**
+ * Prices the SyntheticMarkets listed in synthetic.markets from the top of book and last trade of
+ * their legs. A synthetic price is the sum of its leg prices weighted by synthetic.weights.SYMBOL,
+ * one weight per leg in the order of SyntheticMarket.getMarkets() (default: 1 for every leg). The
+ * synthetic bid takes the bid of legs with a positive weight and the ask of legs with a negative
+ * one, and the ask the reverse, so it is the price at which the whole basket could be sold. A
+ * synthetic side stays empty until every leg has quoted the side it is priced from.
+ *
+ * <p>Each leg's contribution is kept in the synthetic market's price basis, so a leg update
+ * replaces one term of a running sum rather than walking every leg. Readers get the latest prices
+ * from getTopOfBook and getLastPriceCount without locking. Once every leg has quoted, a synthetic
+ * Book and TopOfBook, and a Trade when a leg has traded, are published at most once every
+ * synthetic.publish.interval milliseconds of Context time, carrying the latest prices. Updates
+ * held back by the interval are published by a timer firing every interval, so the last prices
+ * go out at most one interval late even when the legs stop updating. SaveMarketData does not
+ * store them, as they can be priced again from the stored legs.
+ */
+@Singleton
+public class SyntheticPricer implements Context.AttachListener {
+
+  public static boolean isEnabled() {
+    return !getSymbols(ConfigUtil.combined()).isEmpty();
+  }
+
+  @Override
+  public void afterAttach(Context context) {
+    Configuration config = context.getConfig();
+    publishInterval = config.getLong("synthetic.publish.interval", 250);
+    for (Object symbol : getSymbols(config)) {
+      Tradeable market = Tradeable.forSymbol(symbol.toString());
+      if (!(market instanceof SyntheticMarket)) {
+        log.warn(
+            this.getClass().getSimpleName()
+                + ":afterAttach - "
+                + symbol
+                + " is not a synthetic market, not pricing it");
+        continue;
+      }
+      SyntheticMarket synthetic = (SyntheticMarket) market;
+      List<?> configured = config.getList("synthetic.weights." + symbol, Collections.emptyList());
+      double[] weights = new double[synthetic.getMarkets().size()];
+      for (int i = 0; i < weights.length; i++)
+        weights[i] = i < configured.size() ? Double.parseDouble(configured.get(i).toString()) : 1;
+      register(synthetic, weights);
+    }
+    if (pricers.isEmpty()) return;
+    try {
+      context.subscribe(
+          this,
+          SyntheticPricer.class.getMethod("flush", long.class),
+          "select current_timestamp() from pattern [every timer:interval("
+              + publishInterval
+              + " msec)]");
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Starts pricing the synthetic market from its legs
+   *
+   * @param weights the weight of each leg, in the order of SyntheticMarket.getMarkets()
+   */
+  public synchronized void register(SyntheticMarket market, double... weights) {
+    List<Market> legs = market.getMarkets();
+    if (weights.length != legs.size())
+      throw new IllegalArgumentException(
+          "expected " + legs.size() + " weights for " + market + " but got " + weights.length);
+    Pricer pricer = new Pricer(market, weights);
+    pricers.put(market, pricer);
+    Leg[][] byMarket = legsByMarket;
+    for (int i = 0; i < legs.size(); i++) {
+      int ordinal = EntityRegistry.ordinal(legs.get(i));
+      if (ordinal >= byMarket.length)
+        byMarket = Arrays.copyOf(byMarket, Math.max(ordinal + 1, byMarket.length * 2));
+      Leg[] existing = byMarket[ordinal] == null ? new Leg[0] : byMarket[ordinal];
+      Leg[] legsOfMarket = Arrays.copyOf(existing, existing.length + 1);
+      legsOfMarket[existing.length] = new Leg(pricer, i);
+      byMarket[ordinal] = legsOfMarket;
+    }
+    legsByMarket = byMarket;
+    log.info(
+        this.getClass().getSimpleName()
+            + ":register - pricing "
+            + market
+            + " from "
+            + legs
+            + " weighted "
+            + Arrays.toString(weights));
+  }
+
+  /** @return the latest synthetic top of book, or null until every leg has quoted */
+  public TopOfBook getTopOfBook(Tradeable market) {
+    Pricer pricer = pricer(market);
+    return pricer == null ? null : pricer.top;
+  }
+
+  /** @return the latest synthetic last price count, or 0 until every leg has traded */
+  public long getLastPriceCount(Tradeable market) {
+    Pricer pricer = pricer(market);
+    return pricer == null ? 0 : pricer.lastPrice;
+  }
+
+  /** publishes the updates of every synthetic market held back by the publish interval */
+  public void flush(long now) {
+    Instant time = new Instant(now);
+    for (Pricer pricer : pricers.values()) pricer.flush(time);
+  }
+
+  @When("@Priority(2) select * from Book(market.synthetic=false)")
+  public void handleBook(Book book) {
+    Leg[] legs = legs(book.getMarket());
+    if (legs == null) return;
+    Offer bid = book.getBestBid();
+    Offer ask = book.getBestAsk();
+    long bidPrice = bid == null ? 0 : bid.getPriceCount();
+    long bidVolume = bid == null ? 0 : Math.abs(bid.getVolumeCount());
+    long askPrice = ask == null ? 0 : ask.getPriceCount();
+    long askVolume = ask == null ? 0 : Math.abs(ask.getVolumeCount());
+    for (Leg leg : legs)
+      leg.pricer.quote(leg.index, book.getTime(), bidPrice, bidVolume, askPrice, askVolume);
+  }
+
+  @When("@Priority(2) select * from TopOfBook(market.synthetic=false)")
+  public void handleTopOfBook(TopOfBook top) {
+    Leg[] legs = legs(top.getMarket());
+    if (legs == null) return;
+    for (Leg leg : legs)
+      leg.pricer.quote(
+          leg.index,
+          top.getTime(),
+          top.getBidPriceCount(),
+          top.getBidVolumeCount(),
+          top.getAskPriceCount(),
+          top.getAskVolumeCount());
+  }
+
+  @When("@Priority(2) select * from Trade(market.synthetic=false, priceCount>0)")
+  public void handleTrade(Trade trade) {
+    Leg[] legs = legs(trade.getMarket());
+    if (legs == null) return;
+    for (Leg leg : legs)
+      leg.pricer.trade(leg.index, trade.getTime(), trade.getPriceCount(), trade.getVolumeCount());
+  }
+
+  private static List<?> getSymbols(Configuration config) {
+    return config == null
+        ? Collections.emptyList()
+        : config.getList("synthetic.markets", Collections.emptyList());
+  }
+
+  private Leg[] legs(Tradeable market) {
+    if (!(market instanceof Market)) return null;
+    int ordinal = EntityRegistry.ordinal((Market) market);
+    Leg[][] byMarket = legsByMarket;
+    return ordinal < byMarket.length ? byMarket[ordinal] : null;
+  }
+
+  private Pricer pricer(Tradeable market) {
+    return market == null ? null : pricers.get(market);
+  }
+
+  /** @param trade the synthetic trade to publish with the top of book, or null */
+  void publish(TopOfBook top, Trade trade) {
+    Book book = bookFactory.create(top.getTime(), top.getMarket());
+    if (top.hasBid()) book.addBid(top.getBidPriceCount(), top.getBidVolumeCount());
+    if (top.hasAsk()) book.addAsk(top.getAskPriceCount(), top.getAskVolumeCount());
+    context.publish(book.build());
+    context.publish(top);
+    if (trade != null) context.publish(trade);
+  }
+
+  /** A market which is a leg of a synthetic market, at the given index of its legs */
+  private static class Leg {
+
+    private Leg(Pricer pricer, int index) {
+      this.pricer = pricer;
+      this.index = index;
+    }
+
+    private final Pricer pricer;
+    private final int index;
+  }
+
+  /** The running prices of one synthetic market, in its price and volume basis */
+  private class Pricer {
+
+    private Pricer(SyntheticMarket market, double[] weights) {
+      this.market = market;
+      this.weights = weights;
+      int legs = weights.length;
+      priceScale = new double[legs];
+      volumeScale = new double[legs];
+      for (int i = 0; i < legs; i++) {
+        Market leg = market.getMarkets().get(i);
+        priceScale[i] = weights[i] * leg.getPriceBasis() / market.getPriceBasis();
+        volumeScale[i] =
+            weights[i] == 0
+                ? 0
+                : leg.getVolumeBasis() / market.getVolumeBasis() / Math.abs(weights[i]);
+      }
+      bidTerms = new long[legs];
+      askTerms = new long[legs];
+      lastTerms = new long[legs];
+      bidVolumes = new long[legs];
+      askVolumes = new long[legs];
+      quoted = new boolean[legs];
+      traded = new boolean[legs];
+      unquoted = legs;
+      untraded = legs;
+      missingBids = legs;
+      missingAsks = legs;
+    }
+
+    private void quote(
+        int leg, Instant time, long bidPrice, long bidVolume, long askPrice, long askVolume) {
+      TopOfBook publish;
+      Trade trade;
+      synchronized (this) {
+        // selling the basket sells the legs bought and buys back the legs sold short
+        boolean positive = weights[leg] >= 0;
+        long legBidVolume = positive ? bidVolume : askVolume;
+        long legAskVolume = positive ? askVolume : bidVolume;
+        // an empty side has no price, so it adds nothing until the leg quotes it again
+        long bidTerm =
+            legBidVolume == 0 ? 0 : Math.round(priceScale[leg] * (positive ? bidPrice : askPrice));
+        long askTerm =
+            legAskVolume == 0 ? 0 : Math.round(priceScale[leg] * (positive ? askPrice : bidPrice));
+        bid += bidTerm - bidTerms[leg];
+        ask += askTerm - askTerms[leg];
+        bidTerms[leg] = bidTerm;
+        askTerms[leg] = askTerm;
+        missingBids += missing(bidVolumes[leg]) - missing(legBidVolume);
+        missingAsks += missing(askVolumes[leg]) - missing(legAskVolume);
+        bidVolumes[leg] = scale(leg, legBidVolume);
+        askVolumes[leg] = scale(leg, legAskVolume);
+        if (!quoted[leg]) {
+          quoted[leg] = true;
+          unquoted--;
+        }
+        if (unquoted > 0) return;
+        // a basket is only as deep as its thinnest leg
+        long basketBidVolume = Long.MAX_VALUE;
+        long basketAskVolume = Long.MAX_VALUE;
+        for (int i = 0; i < weights.length; i++) {
+          if (weights[i] == 0) continue;
+          basketBidVolume = Math.min(basketBidVolume, bidVolumes[i]);
+          basketAskVolume = Math.min(basketAskVolume, askVolumes[i]);
+        }
+        topBidVolume = missingBids > 0 || basketBidVolume == Long.MAX_VALUE ? 0 : basketBidVolume;
+        topAskVolume = missingAsks > 0 || basketAskVolume == Long.MAX_VALUE ? 0 : basketAskVolume;
+        top = top(time);
+        held = true;
+        if (!due(time)) return;
+        publish = top;
+        trade = pendingTrade(time);
+      }
+      publish(publish, trade);
+    }
+
+    private void trade(int leg, Instant time, long priceCount, long volumeCount) {
+      TopOfBook publish;
+      Trade trade;
+      synchronized (this) {
+        long lastTerm = Math.round(priceScale[leg] * priceCount);
+        last += lastTerm - lastTerms[leg];
+        lastTerms[leg] = lastTerm;
+        if (!traded[leg]) {
+          traded[leg] = true;
+          untraded--;
+        }
+        if (untraded > 0) return;
+        lastPrice = last;
+        lastVolume = Math.max(1, (long) (volumeScale[leg] * Math.abs(volumeCount)));
+        newTrade = true;
+        held = true;
+        if (top == null || !due(time)) return;
+        publish = top;
+        trade = pendingTrade(time);
+      }
+      publish(publish, trade);
+    }
+
+    /** publishes the latest prices if an update was held back and the interval has passed */
+    private void flush(Instant time) {
+      TopOfBook publish;
+      Trade trade;
+      synchronized (this) {
+        if (!held || top == null || !due(time)) return;
+        top = top(time);
+        publish = top;
+        trade = pendingTrade(time);
+      }
+      publish(publish, trade);
+    }
+
+    /** @return the synthetic top of book at the running prices, without its empty sides */
+    private TopOfBook top(Instant time) {
+      return new TopOfBook(
+          time,
+          market,
+          ++sequence,
+          topBidVolume == 0 ? 0 : bid,
+          topBidVolume,
+          topAskVolume == 0 ? 0 : ask,
+          topAskVolume);
+    }
+
+    private int missing(long volume) {
+      return volume == 0 ? 1 : 0;
+    }
+
+    /** @return the leg volume in basket units, at least one unit if the leg has the side */
+    private long scale(int leg, long volume) {
+      if (volume == 0) return 0;
+      return weights[leg] == 0 ? 1 : Math.max(1, (long) (volumeScale[leg] * Math.abs(volume)));
+    }
+
+    private boolean due(Instant time) {
+      if (time.getMillis() - published < publishInterval) return false;
+      published = time.getMillis();
+      held = false;
+      return true;
+    }
+
+    /** @return a Trade at the last price if a leg has traded since the last publication */
+    private Trade pendingTrade(Instant time) {
+      if (!newTrade) return null;
+      newTrade = false;
+      return new Trade(market, time, null, lastPrice, lastVolume);
+    }
+
+    private final SyntheticMarket market;
+    private final double[] weights;
+    private final double[] priceScale;
+    private final double[] volumeScale;
+    private final long[] bidTerms;
+    private final long[] askTerms;
+    private final long[] lastTerms;
+    private final long[] bidVolumes;
+    private final long[] askVolumes;
+    private final boolean[] quoted;
+    private final boolean[] traded;
+    private int unquoted;
+    private int untraded;
+    private int missingBids;
+    private int missingAsks;
+    private long topBidVolume;
+    private long topAskVolume;
+    private long bid;
+    private long ask;
+    private long last;
+    private long sequence;
+    private long published = Long.MIN_VALUE / 2;
+    private boolean newTrade;
+    private boolean held;
+    private long lastVolume;
+    private volatile long lastPrice;
+    private volatile TopOfBook top;
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.syntheticPricer");
+  @Inject protected Context context;
+  @Inject protected BookFactory bookFactory;
+  private volatile long publishInterval = 250;
+  private final Map<Tradeable, Pricer> pricers = new ConcurrentHashMap<Tradeable, Pricer>();
+  private volatile Leg[][] legsByMarket = new Leg[0][];
+}
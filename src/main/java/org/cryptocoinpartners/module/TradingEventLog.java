@@ -0,0 +1,200 @@
+package org.cryptocoinpartners.module;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Singleton;
+
+import org.cryptocoinpartners.esper.annotation.When;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Fill;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.OrderUpdate;
+import org.cryptocoinpartners.schema.Position;
+import org.cryptocoinpartners.schema.PositionUpdate;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the OrderUpdates, Fills and PositionUpdates published in the Context as one JSON object
+ * per line to eventlog.file. Each line is formatted on the publishing thread and handed to a single
+ * writer thread through a queue of eventlog.queue.size lines, so order handling never waits on the
+ * disk. When the queue is full lines are dropped, and the number dropped is written to the log once
+ * the writer catches up. An empty eventlog.file disables the log.
+ */
+@Singleton
+public class TradingEventLog {
+
+  public static boolean isEnabled() {
+    return !getFileName().isEmpty();
+  }
+
+  public static String getFileName() {
+    return ConfigUtil.combined().getString("eventlog.file", "");
+  }
+
+  public TradingEventLog() {
+    synchronized (TradingEventLog.class) {
+      // every Context of a process shares the one writer and file
+      if (writer == null) writer = new WriterThread(getFileName());
+    }
+  }
+
+  @When("@Priority(1) select * from OrderUpdate")
+  public void handleOrderUpdate(OrderUpdate orderUpdate) {
+    Order order = orderUpdate.getOrder();
+    StringBuilder line = start("order", orderUpdate);
+    if (order != null) {
+      field(line, "order", order.getUuid());
+      field(line, "market", order.getMarket());
+      field(line, "volume", order.getVolume());
+      field(line, "limitPrice", order.getLimitPrice());
+      field(line, "stopPrice", order.getStopPrice());
+      field(line, "fillType", order.getFillType());
+      field(line, "positionEffect", order.getPositionEffect());
+    }
+    field(line, "lastState", orderUpdate.getLastState());
+    field(line, "state", orderUpdate.getState());
+    writer.offer(end(line));
+  }
+
+  @When("@Priority(1) select * from Fill")
+  public void handleFill(Fill fill) {
+    StringBuilder line = start("fill", fill);
+    field(line, "order", fill.getOrder() == null ? null : fill.getOrder().getUuid());
+    field(line, "market", fill.getMarket());
+    field(line, "price", fill.getPrice());
+    field(line, "volume", fill.getVolume());
+    field(line, "openVolume", fill.getOpenVolume());
+    field(line, "positionEffect", fill.getPositionEffect());
+    writer.offer(end(line));
+  }
+
+  @When("@Priority(1) select * from PositionUpdate")
+  public void handlePositionUpdate(PositionUpdate positionUpdate) {
+    Position position = positionUpdate.getPosition();
+    StringBuilder line = start("position", positionUpdate);
+    field(line, "market", positionUpdate.getMarket());
+    field(line, "lastType", positionUpdate.getLastType());
+    field(line, "type", positionUpdate.getType());
+    if (position != null) {
+      field(line, "volume", position.getVolume());
+      field(line, "avgPrice", position.getAvgPrice());
+    }
+    writer.offer(end(line));
+  }
+
+  private static StringBuilder start(String type, Event event) {
+    StringBuilder line = buffer.get();
+    line.setLength(0);
+    line.append("{\"type\":\"").append(type).append('"');
+    line.append(",\"time\":").append(event.getTime() == null ? 0 : event.getTime().getMillis());
+    field(line, "id", event.getUuid());
+    return line;
+  }
+
+  private static void field(StringBuilder line, String name, Object value) {
+    if (value == null) return;
+    line.append(",\"").append(name).append("\":\"");
+    String text = value.toString();
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') line.append('\\').append(c);
+      else if (c < ' ') line.append(' ');
+      else line.append(c);
+    }
+    line.append('"');
+  }
+
+  private static String end(StringBuilder line) {
+    return line.append('}').toString();
+  }
+
+  private static class WriterThread extends Thread {
+
+    WriterThread(String fileName) {
+      super("TradingEventLog");
+      this.fileName = fileName;
+      setDaemon(true);
+      start();
+      Runtime.getRuntime().addShutdownHook(new Thread(this::close, "TradingEventLog-shutdown"));
+    }
+
+    void offer(String line) {
+      if (!queue.offer(line)) dropped.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+      List<String> lines = new ArrayList<String>();
+      try (Writer out =
+          new BufferedWriter(
+              new OutputStreamWriter(
+                  new FileOutputStream(fileName, true), StandardCharsets.UTF_8))) {
+        while (!closed || !queue.isEmpty()) {
+          String line = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (line == null) continue;
+          lines.add(line);
+          queue.drainTo(lines);
+          for (String next : lines) {
+            out.write(next);
+            out.write('\n');
+          }
+          lines.clear();
+          out.flush();
+          long lost = dropped.getAndSet(0);
+          if (lost > 0)
+            log.warn(
+                TradingEventLog.class.getSimpleName()
+                    + ":run - dropped "
+                    + lost
+                    + " events while the queue to "
+                    + fileName
+                    + " was full");
+        }
+      } catch (IOException | InterruptedException e) {
+        log.error(
+            TradingEventLog.class.getSimpleName()
+                + ":run - unable to write to "
+                + fileName
+                + ", full stack trace follows:",
+            e);
+      } finally {
+        done = true;
+      }
+    }
+
+    private void close() {
+      closed = true;
+      try {
+        // give the writer a moment to drain the events published just before exit
+        for (int i = 0; i < 50 && !done; i++) Thread.sleep(20);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private final String fileName;
+    private final BlockingQueue<String> queue =
+        new ArrayBlockingQueue<String>(ConfigUtil.combined().getInt("eventlog.queue.size", 65536));
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+    private volatile boolean done;
+  }
+
+  private static final ThreadLocal<StringBuilder> buffer =
+      ThreadLocal.withInitial(() -> new StringBuilder(256));
+  private static volatile WriterThread writer;
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.tradingEventLog");
+}
@@ -0,0 +1,160 @@
+package org.cryptocoinpartners.module;
+
+import java.math.BigDecimal;
+
+import org.cryptocoinpartners.enumeration.ExecutionInstruction;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.service.BarSignal;
+import org.cryptocoinpartners.util.FeesUtil;
+
+/**
+ * Simulates a BarSignal over a BarSeries in a single pass. The target position computed at the
+ * close of each bar is filled in full at the open of the next bar, rounded to the market's volume
+ * basis, as a TAKER order whose commission comes from FeesUtil. Positions are marked to the close
+ * of every bar. PnL is linear in price times contract size, so inverse contracts are not modelled.
+ */
+public class VectorBacktest {
+
+  public static Result run(BarSignal signal, BarSeries series) {
+    double[] targets = new double[series.size()];
+    signal.positions(series, targets);
+    return simulate(series, targets);
+  }
+
+  public static Result simulate(BarSeries series, double[] targets) {
+    Market market = series.getMarket();
+    int size = series.size();
+    double[] open = series.getOpen();
+    double[] close = series.getClose();
+    double volumeBasis = market.getVolumeBasis();
+    double contractSize = market.getContractSize(market);
+    boolean charged = market.getFeeMethod() != null;
+
+    Result result = new Result(market, size);
+    double position = 0;
+    double entryPrice = 0;
+    double realised = 0;
+    double fees = 0;
+    int fills = 0;
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        double target = Math.round(targets[i - 1] / volumeBasis) * volumeBasis;
+        double quantity = target - position;
+        double price = open[i];
+        if (quantity != 0 && !Double.isNaN(price)) {
+          boolean opening = position == 0 || Math.signum(position) == Math.signum(quantity);
+          if (!opening) {
+            // reduce the position at its average entry, flipping through zero if needed
+            double closed = Math.min(Math.abs(quantity), Math.abs(position));
+            realised += Math.signum(position) * closed * (price - entryPrice) * contractSize;
+            double remainder = position + quantity;
+            if (Math.signum(remainder) != Math.signum(position)) entryPrice = price;
+          } else {
+            entryPrice = (entryPrice * position + price * quantity) / (position + quantity);
+          }
+          PositionEffect effect =
+              Math.abs(target) > Math.abs(position) ? PositionEffect.OPEN : PositionEffect.CLOSE;
+          if (charged) fees += commission(market, price, quantity, effect);
+          position = target;
+          if (position == 0) entryPrice = 0;
+          fills++;
+        }
+      }
+      double mark = close[i];
+      double unrealised = Double.isNaN(mark) ? 0 : position * (mark - entryPrice) * contractSize;
+      result.equity[i] = realised + fees + unrealised;
+      result.positions[i] = position;
+    }
+    result.position = position;
+    result.entryPrice = entryPrice;
+    result.realisedPnL = realised;
+    result.fees = fees;
+    result.fills = fills;
+    result.lastPrice = size == 0 ? Double.NaN : close[size - 1];
+    result.unrealisedPnL =
+        position == 0 ? 0 : position * (result.lastPrice - entryPrice) * contractSize;
+    return result;
+  }
+
+  /** @return the commission on the fill from FeesUtil, as a negative amount */
+  private static double commission(
+      Market market, double price, double quantity, PositionEffect positionEffect) {
+    return FeesUtil.getCommission(
+            new DecimalAmount(BigDecimal.valueOf(price)),
+            new DecimalAmount(BigDecimal.valueOf(quantity)),
+            market,
+            positionEffect,
+            ExecutionInstruction.TAKER)
+        .asDouble();
+  }
+
+  /** The outcome of simulating one market, in units of the market's quote currency. */
+  public static class Result {
+
+    private Result(Market market, int size) {
+      this.market = market;
+      this.equity = new double[size];
+      this.positions = new double[size];
+    }
+
+    public Market getMarket() {
+      return market;
+    }
+
+    /** @return realised PnL, fees and open trade equity at the close of each bar */
+    public double[] getEquity() {
+      return equity;
+    }
+
+    /** @return the position held at the close of each bar */
+    public double[] getPositions() {
+      return positions;
+    }
+
+    public double getPosition() {
+      return position;
+    }
+
+    public double getEntryPrice() {
+      return entryPrice;
+    }
+
+    public double getLastPrice() {
+      return lastPrice;
+    }
+
+    public double getRealisedPnL() {
+      return realisedPnL;
+    }
+
+    public double getUnrealisedPnL() {
+      return unrealisedPnL;
+    }
+
+    /** @return the commission paid, as a negative amount */
+    public double getFees() {
+      return fees;
+    }
+
+    public double getMarketValue() {
+      return position == 0 ? 0 : position * lastPrice * market.getContractSize(market);
+    }
+
+    public int getFills() {
+      return fills;
+    }
+
+    private final Market market;
+    private final double[] equity;
+    private final double[] positions;
+    private double position;
+    private double entryPrice;
+    private double lastPrice;
+    private double realisedPnL;
+    private double unrealisedPnL;
+    private double fees;
+    private int fills;
+  }
+}
@@ -33,4 +33,9 @@ public class BinanceHelper extends XchangeHelperBase {
 
 	}
 
+	@Override
+	public MarketDataStream getMarketDataStream() {
+		return new BinanceMarketDataStream();
+	}
+
 }
@@ -0,0 +1,111 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.util.XchangeUtil;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.marketdata.Trade;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams trades and diff-depth updates from the Binance combined stream endpoint. Depth snapshots come from the REST depth endpoint, and their
+ * lastUpdateId is used as the snapshot sequence so that LiveBook can line up the buffered U/u update ids as Binance documents.
+ */
+public class BinanceMarketDataStream extends WebSocketMarketDataStream {
+
+	@Override
+	protected String getDefaultEndpoint() {
+		return "wss://stream.binance.com:9443/stream";
+	}
+
+	@Override
+	protected URI getStreamUri(String endpoint, Collection<Market> markets) {
+		StringBuilder streams = new StringBuilder();
+		for (Market market : markets) {
+			String symbol = getSymbol(market);
+			marketsBySymbol.put(symbol, market);
+			String stream = symbol.toLowerCase();
+			if (streams.length() > 0)
+				streams.append('/');
+			streams.append(stream).append("@trade/").append(stream).append("@depth@100ms");
+		}
+		return URI.create(endpoint + "?streams=" + streams);
+	}
+
+	@Override
+	public void requestSnapshot(final Market market) {
+		getScheduler().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					getListener().onBookSnapshot(fetchSnapshot(market));
+				} catch (Exception e) {
+					log.error(BinanceMarketDataStream.this.getClass().getSimpleName() + ":requestSnapshot - unable to get depth snapshot for " + market, e);
+				}
+			}
+		});
+	}
+
+	/** fetches the REST depth snapshot, using lastUpdateId as the snapshot sequence */
+	protected BookDelta fetchSnapshot(Market market) throws Exception {
+		JsonNode depth = mapper.readTree(new URL(SNAPSHOT_ENDPOINT + "?symbol=" + getSymbol(market) + "&limit=" + SNAPSHOT_DEPTH));
+		long lastUpdateId = depth.get("lastUpdateId").asLong();
+		BookDelta snapshot = new BookDelta(market, lastUpdateId, lastUpdateId, System.currentTimeMillis());
+		for (JsonNode bid : depth.get("bids"))
+			snapshot.addBid(new BigDecimal(bid.get(0).asText()), new BigDecimal(bid.get(1).asText()));
+		for (JsonNode ask : depth.get("asks"))
+			snapshot.addAsk(new BigDecimal(ask.get(0).asText()), new BigDecimal(ask.get(1).asText()));
+		return snapshot;
+	}
+
+	@Override
+	protected void handleMessage(String message) throws Exception {
+		JsonNode root = mapper.readTree(message);
+		JsonNode data = root.has("data") ? root.get("data") : root;
+		JsonNode event = data.get("e");
+		if (event == null)
+			return;
+		Market market = marketsBySymbol.get(data.get("s").asText());
+		if (market == null)
+			return;
+		switch (event.asText()) {
+			case "trade":
+				// m is true when the buyer was the maker, i.e. the aggressor sold
+				OrderType type = data.get("m").asBoolean() ? OrderType.ASK : OrderType.BID;
+				Trade trade = new Trade.Builder().type(type).originalAmount(new BigDecimal(data.get("q").asText()))
+						.currencyPair(XchangeUtil.getCurrencyPairForListing(market.getListing())).price(new BigDecimal(data.get("p").asText()))
+						.timestamp(new Date(data.get("T").asLong())).id(data.get("t").asText()).build();
+				getListener().onTrade(market, trade);
+				break;
+			case "depthUpdate":
+				BookDelta delta = new BookDelta(market, data.get("U").asLong(), data.get("u").asLong(), data.get("E").asLong());
+				for (JsonNode bid : data.get("b"))
+					delta.addBid(new BigDecimal(bid.get(0).asText()), new BigDecimal(bid.get(1).asText()));
+				for (JsonNode ask : data.get("a"))
+					delta.addAsk(new BigDecimal(ask.get(0).asText()), new BigDecimal(ask.get(1).asText()));
+				getListener().onBookDelta(delta);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static String getSymbol(Market market) {
+		return (market.getListing().getBase().getSymbol() + market.getListing().getQuote().getSymbol()).toUpperCase();
+	}
+
+	private static final String SNAPSHOT_ENDPOINT = "https://api.binance.com/api/v3/depth";
+	private static final int SNAPSHOT_DEPTH = 1000;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Map<String, Market> marketsBySymbol = new ConcurrentHashMap<>();
+}
@@ -10,6 +10,7 @@ import org.cryptocoinpartners.schema.Listing;
 import org.cryptocoinpartners.schema.SpecificOrder;
 import org.cryptocoinpartners.util.XchangeUtil;
 import org.knowm.xchange.bitfinex.v1.dto.trade.BitfinexOrderFlags;
+import org.knowm.xchange.bitfinex.v1.service.BitfinexTradeServiceRaw;
 import org.knowm.xchange.dto.Order;
 import org.knowm.xchange.dto.marketdata.Trades;
 import org.knowm.xchange.service.trade.TradeService;
@@ -63,6 +64,14 @@ public class BitfinexHelper extends XchangeHelperBase {
 
 	}
 
+	/** Bitfinex cancels any number of orders with one call to order/cancel/multi */
+	@Override
+	public boolean cancelOrders(TradeService tradeService, Listing listing, Collection<String> orderIds) throws Exception {
+		if (!(tradeService instanceof BitfinexTradeServiceRaw))
+			return super.cancelOrders(tradeService, listing, orderIds);
+		return ((BitfinexTradeServiceRaw) tradeService).cancelBitfinexOrderMulti(new ArrayList<String>(orderIds));
+	}
+
 	@Override
 	public org.knowm.xchange.dto.Order adjustOrder(SpecificOrder specificOrder, org.knowm.xchange.dto.Order xchangeOrder) {
 		//Set Margin Flags
@@ -0,0 +1,91 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Market;
+
+/**
+ * An incremental order book update received from a MarketDataStream. Each level carries the new total volume resting at that price; a zero volume
+ * removes the level. firstSequence and lastSequence give the range of exchange update ids covered by this delta, and are equal for exchanges which
+ * number each message individually.
+ */
+public class BookDelta {
+
+	public BookDelta(Market market, long firstSequence, long lastSequence, long timestamp) {
+		this.market = market;
+		this.firstSequence = firstSequence;
+		this.lastSequence = lastSequence;
+		this.timestamp = timestamp;
+	}
+
+	public BookDelta addBid(BigDecimal price, BigDecimal volume) {
+		bids.add(new Level(price, volume));
+		return this;
+	}
+
+	public BookDelta addAsk(BigDecimal price, BigDecimal volume) {
+		asks.add(new Level(price, volume));
+		return this;
+	}
+
+	public Market getMarket() {
+		return market;
+	}
+
+	public long getFirstSequence() {
+		return firstSequence;
+	}
+
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public List<Level> getBids() {
+		return bids;
+	}
+
+	public List<Level> getAsks() {
+		return asks;
+	}
+
+	@Override
+	public String toString() {
+		return "BookDelta{" + market + " seq=" + firstSequence + "-" + lastSequence + " bids=" + bids + " asks=" + asks + "}";
+	}
+
+	public static class Level {
+		public Level(BigDecimal price, BigDecimal volume) {
+			this.price = price;
+			this.volume = volume;
+		}
+
+		public BigDecimal getPrice() {
+			return price;
+		}
+
+		public BigDecimal getVolume() {
+			return volume;
+		}
+
+		@Override
+		public String toString() {
+			return volume + "@" + price;
+		}
+
+		private final BigDecimal price;
+		private final BigDecimal volume;
+	}
+
+	private final Market market;
+	private final long firstSequence;
+	private final long lastSequence;
+	private final long timestamp;
+	private final List<Level> bids = new ArrayList<>();
+	private final List<Level> asks = new ArrayList<>();
+}
@@ -0,0 +1,321 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the queued cancels for one exchange. Each drain groups the orders by market and coalesces
+ * them into batch cancel calls of up to cancel.batch orders; the rest are sent as single cancels on
+ * up to cancel.threads threads. Once a drain's calls have returned each affected market is polled
+ * once, which publishes the CANCELLED OrderUpdates. Orders still working after that go back on the
+ * queue for the next drain, up to the exchange retry count. Every drain, including those the order
+ * polling schedules with nothing to send, settles the orders whose cancel has since been
+ * confirmed, so their parent fill bookkeeping happens once the exchange has cancelled them.
+ */
+class CancellationPipeline implements Runnable {
+
+  /** The order service the pipeline cancels orders for */
+  interface Cancels {
+
+    @Nullable
+    OrderState getState(SpecificOrder order);
+
+    /** @return the exchange's cancellation queue, shared with the order polling */
+    BlockingQueue<SpecificOrder> getQueue();
+
+    /**
+     * Cancels orders of one market with a single call
+     *
+     * @return true if the exchange accepted the batch, false if the orders need single cancels
+     * @throws NotYetImplementedForExchangeException if the exchange has no batch cancel
+     */
+    boolean cancelBatch(List<SpecificOrder> batch) throws Exception;
+
+    /** @return true if the exchange accepted the cancel */
+    boolean cancel(SpecificOrder order) throws Exception;
+
+    /** Polls the market's orders, moving those the exchange has cancelled to CANCELLED */
+    void confirm(Market market);
+
+    /** Called once for each order whose cancel has been confirmed */
+    void cancelled(SpecificOrder order);
+
+    /** Called with errors returned by the exchange, so rate limit rejections slow the limiter */
+    void failed(Exception e);
+  }
+
+  CancellationPipeline(
+      final Exchange exchange, Cancels cancels, int batchSize, int threads, int maxAttempts) {
+    this.exchange = exchange;
+    this.cancels = cancels;
+    this.batchSize = Math.max(1, batchSize);
+    this.maxAttempts = maxAttempts;
+    ThreadFactory threadFactory =
+        runnable -> {
+          Thread thread =
+              new Thread(
+                  runnable,
+                  "CancellationPipeline-" + exchange + "-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        };
+    this.callExecutor = Executors.newFixedThreadPool(Math.max(1, threads), threadFactory);
+    this.drainExecutor = Executors.newSingleThreadExecutor(threadFactory);
+  }
+
+  /** queues the order and schedules a drain */
+  void submit(SpecificOrder order) {
+    BlockingQueue<SpecificOrder> queue = cancels.getQueue();
+    accepted.add(order);
+    if (!inFlight.contains(order) && !queue.contains(order)) queue.offer(order);
+    schedule();
+  }
+
+  /**
+   * schedules a drain of the queue unless one is already waiting to run. Calls made while
+   * confirming a drain are ignored, so retries wait for the next order poll.
+   */
+  void schedule() {
+    if (Thread.currentThread() == drainThread || drainExecutor.isShutdown()) return;
+    if (!scheduled.compareAndSet(false, true)) return;
+    try {
+      drainExecutor.execute(this);
+    } catch (RejectedExecutionException e) {
+      // shut down since the check above
+      scheduled.set(false);
+    }
+  }
+
+  /** Stops the pipeline threads once the drain already scheduled has run */
+  void shutdown() {
+    try {
+      // the call threads are still needed by a drain waiting to run
+      drainExecutor.execute(callExecutor::shutdown);
+    } catch (RejectedExecutionException e) {
+      callExecutor.shutdown();
+    }
+    drainExecutor.shutdown();
+  }
+
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    return drainExecutor.awaitTermination(timeout, unit)
+        && callExecutor.awaitTermination(
+            Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void run() {
+    scheduled.set(false);
+    drainThread = Thread.currentThread();
+    List<SpecificOrder> orders = new ArrayList<SpecificOrder>();
+    cancels.getQueue().drainTo(orders);
+    Map<Market, List<SpecificOrder>> marketOrders = new HashMap<Market, List<SpecificOrder>>();
+    for (SpecificOrder order : orders) {
+      OrderState state = cancels.getState(order);
+      if (state == null || !state.isWorking() || order.getRemoteKey() == null) continue;
+      if (marketOrders.get(order.getMarket()) == null)
+        marketOrders.put(order.getMarket(), new ArrayList<SpecificOrder>());
+      marketOrders.get(order.getMarket()).add(order);
+      // orders the polling queued after a failed direct cancel are settled here as well
+      accepted.add(order);
+      inFlight.add(order);
+    }
+    try {
+      if (!marketOrders.isEmpty()) drain(marketOrders);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      drainThread = null;
+      for (List<SpecificOrder> ordersToCancel : marketOrders.values())
+        for (SpecificOrder order : ordersToCancel) {
+          inFlight.remove(order);
+          retryIfWorking(order);
+        }
+      settle();
+    }
+  }
+
+  private void drain(Map<Market, List<SpecificOrder>> marketOrders) throws InterruptedException {
+    List<Future<?>> calls = new ArrayList<Future<?>>();
+    for (List<SpecificOrder> ordersToCancel : marketOrders.values()) {
+      for (int i = 0; i < ordersToCancel.size(); i += batchSize) {
+        List<SpecificOrder> batch =
+            ordersToCancel.subList(i, Math.min(ordersToCancel.size(), i + batchSize));
+        if (batch.size() > 1 && cancelBatch(batch)) continue;
+        for (SpecificOrder order : batch) calls.add(callExecutor.submit(new CancelCall(order)));
+      }
+    }
+    for (Future<?> call : calls) {
+      try {
+        call.get();
+      } catch (ExecutionException e) {
+        log.error(
+            this.getClass().getSimpleName() + ":run - cancel failed on " + exchange, e.getCause());
+      }
+    }
+    for (Market market : marketOrders.keySet()) cancels.confirm(market);
+  }
+
+  /** @return true if the exchange accepted the batch, false if the orders need single cancels */
+  private boolean cancelBatch(List<SpecificOrder> batch) throws InterruptedException {
+    if (!batchSupported) return false;
+    try {
+      boolean accepted = cancels.cancelBatch(batch);
+      log.debug(
+          this.getClass().getSimpleName()
+              + ":cancelBatch - cancelled "
+              + batch
+              + " on "
+              + exchange
+              + " accepted "
+              + accepted);
+      return accepted;
+    } catch (NotYetImplementedForExchangeException e) {
+      log.info(
+          this.getClass().getSimpleName()
+              + ":cancelBatch - "
+              + exchange
+              + " has no batch cancel, cancelling orders individually");
+      batchSupported = false;
+      return false;
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      cancels.failed(e);
+      log.error(
+          this.getClass().getSimpleName()
+              + ":cancelBatch - unable to cancel "
+              + batch
+              + " on "
+              + exchange
+              + " due to "
+              + e
+              + ", cancelling orders individually");
+      return false;
+    }
+  }
+
+  private void retryIfWorking(SpecificOrder order) {
+    OrderState state = cancels.getState(order);
+    if (state == null || !state.isWorking()) {
+      attempts.remove(order);
+      return;
+    }
+    Integer attempt = attempts.get(order);
+    attempt = (attempt == null) ? 1 : attempt + 1;
+    if (attempt >= maxAttempts) {
+      attempts.remove(order);
+      log.error(
+          this.getClass().getSimpleName()
+              + ":retryIfWorking - unable to cancel order "
+              + order
+              + " after "
+              + attempt
+              + " attempts");
+      return;
+    }
+    attempts.put(order, attempt);
+    // picked up by the next drain, which the order polling schedules
+    cancels.getQueue().offer(order);
+  }
+
+  /** hands confirmed cancels to the order service and forgets orders which are no longer open */
+  private void settle() {
+    for (SpecificOrder order : accepted) {
+      OrderState state = cancels.getState(order);
+      if (state == OrderState.CANCELLED) {
+        if (accepted.remove(order)) cancelled(order);
+      } else if (state == null || !state.isOpen()) accepted.remove(order);
+    }
+  }
+
+  private void cancelled(SpecificOrder order) {
+    try {
+      cancels.cancelled(order);
+    } catch (Exception | Error e) {
+      log.error(
+          this.getClass().getSimpleName() + ":settle - unable to settle cancelled " + order, e);
+    }
+  }
+
+  private class CancelCall implements Runnable {
+
+    private CancelCall(SpecificOrder order) {
+      this.order = order;
+    }
+
+    @Override
+    public void run() {
+      try {
+        boolean cancelled = cancels.cancel(order);
+        log.debug(
+            this.getClass().getSimpleName()
+                + ":run - cancel of "
+                + order
+                + " on "
+                + exchange
+                + " returned "
+                + cancelled);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        cancels.failed(e);
+        log.error(
+            this.getClass().getSimpleName()
+                + ":run - unable to cancel order "
+                + order
+                + " on "
+                + exchange
+                + " due to "
+                + e);
+      }
+    }
+
+    private final SpecificOrder order;
+  }
+
+  protected static Logger log =
+      LoggerFactory.getLogger("org.cryptocoinpartners.cancellationPipeline");
+  private final Exchange exchange;
+  private final Cancels cancels;
+  private final int batchSize;
+  private final int maxAttempts;
+  private final ExecutorService callExecutor;
+  private final ExecutorService drainExecutor;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final AtomicInteger threadCount = new AtomicInteger();
+  private final Set<SpecificOrder> inFlight =
+      Collections.newSetFromMap(new ConcurrentHashMap<SpecificOrder, Boolean>());
+  private final Set<SpecificOrder> accepted =
+      Collections.newSetFromMap(new ConcurrentHashMap<SpecificOrder, Boolean>());
+  private final Map<SpecificOrder, Integer> attempts =
+      new ConcurrentHashMap<SpecificOrder, Integer>();
+  private volatile boolean batchSupported = true;
+  private volatile Thread drainThread;
+}
@@ -0,0 +1,296 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.TopOfBook;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the current order book for one Market from a snapshot plus a stream of BookDeltas. Levels are kept in place as sorted arrays of price
+ * and volume counts, so an update costs a binary search plus a short array shift near the top of the book, and the best bid and ask are read in
+ * O(1).
+ * <p>
+ * Deltas which arrive before the first snapshot, or while waiting for a resync, are buffered and replayed on top of the next snapshot. A delta
+ * whose firstSequence is beyond the next expected sequence is a gap: the book is invalidated and a new snapshot is required.
+ */
+public class LiveBook {
+
+	public enum Result {
+		APPLIED, STALE, BUFFERED, GAP
+	}
+
+	public LiveBook(Market market) {
+		this(market, DEFAULT_MAX_BUFFERED);
+	}
+
+	public LiveBook(Market market, int maxBuffered) {
+		this.market = market;
+		this.maxBuffered = maxBuffered;
+	}
+
+	/**
+	 * Replaces the book with the given snapshot then replays any buffered deltas. A snapshot sequence below zero means the exchange does not number
+	 * its snapshots, in which case buffered deltas newer than the snapshot timestamp are applied.
+	 *
+	 * @return APPLIED if the book is now in sync, or GAP if the buffered deltas do not join up with the snapshot
+	 */
+	public synchronized Result reset(BookDelta snapshot) {
+		bids.clear();
+		asks.clear();
+		sequence = snapshot.getLastSequence();
+		timestamp = snapshot.getTimestamp();
+		put(snapshot);
+		synced = true;
+		while (!pending.isEmpty()) {
+			BookDelta delta = pending.poll();
+			if (sequence < 0) {
+				if (delta.getTimestamp() <= timestamp)
+					continue;
+				applyInPlace(delta);
+			} else if (apply(delta) == Result.GAP)
+				return Result.GAP;
+		}
+		return Result.APPLIED;
+	}
+
+	public synchronized Result apply(BookDelta delta) {
+		if (!synced) {
+			if (pending.size() >= maxBuffered)
+				pending.poll();
+			pending.add(delta);
+			return Result.BUFFERED;
+		}
+		if (sequence >= 0 && delta.getLastSequence() <= sequence)
+			return Result.STALE;
+		if (sequence >= 0 && delta.getFirstSequence() > sequence + 1) {
+			log.debug(this.getClass().getSimpleName() + ":apply - gap in " + market + " expected " + (sequence + 1) + " got " + delta.getFirstSequence());
+			invalidate();
+			pending.add(delta);
+			return Result.GAP;
+		}
+		applyInPlace(delta);
+		return Result.APPLIED;
+	}
+
+	/**
+	 * Adds a new price level, or replaces the volume of an existing one. Volumes are positive counts on both sides, and a zero volume removes the
+	 * level as it does in a BookDelta.
+	 */
+	public synchronized void add(boolean bid, long priceCount, long volumeCount) {
+		Side side = bid ? bids : asks;
+		if (volumeCount == 0)
+			side.remove(priceCount);
+		else
+			side.set(priceCount, volumeCount);
+	}
+
+	/** Changes the volume at an existing price level, removing it if the volume is zero. Returns false if there is no such level. */
+	public synchronized boolean modify(boolean bid, long priceCount, long volumeCount) {
+		Side side = bid ? bids : asks;
+		if (volumeCount == 0)
+			return side.remove(priceCount);
+		int index = side.indexOf(priceCount);
+		if (index < 0)
+			return false;
+		side.volumes[index] = volumeCount;
+		return true;
+	}
+
+	/** Removes a price level. Returns false if there is no such level. */
+	public synchronized boolean delete(boolean bid, long priceCount) {
+		return (bid ? bids : asks).remove(priceCount);
+	}
+
+	/** Marks the book out of sync.  Subsequent deltas are buffered until the next snapshot */
+	public synchronized void invalidate() {
+		synced = false;
+		pending.clear();
+	}
+
+	public synchronized boolean isSynced() {
+		return synced;
+	}
+
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	public synchronized long getTimestamp() {
+		return timestamp;
+	}
+
+	public synchronized int getBidDepth() {
+		return bids.size;
+	}
+
+	public synchronized int getAskDepth() {
+		return asks.size;
+	}
+
+	public synchronized long getBestBidPriceCount() {
+		return bids.size == 0 ? 0 : bids.prices[0];
+	}
+
+	public synchronized long getBestBidVolumeCount() {
+		return bids.size == 0 ? 0 : bids.volumes[0];
+	}
+
+	public synchronized long getBestAskPriceCount() {
+		return asks.size == 0 ? 0 : asks.prices[0];
+	}
+
+	public synchronized long getBestAskVolumeCount() {
+		return asks.size == 0 ? 0 : asks.volumes[0];
+	}
+
+	public Market getMarket() {
+		return market;
+	}
+
+	/**
+	 * @return a TopOfBook event if the best bid or ask has changed since the last call, otherwise null. Nothing is allocated when the top of the book
+	 *         is unchanged.
+	 */
+	@Nullable
+	public synchronized TopOfBook pollTopOfBookChange() {
+		if (!synced)
+			return null;
+		long bidPrice = getBestBidPriceCount();
+		long bidVolume = getBestBidVolumeCount();
+		long askPrice = getBestAskPriceCount();
+		long askVolume = getBestAskVolumeCount();
+		if (bidPrice == lastBidPrice && bidVolume == lastBidVolume && askPrice == lastAskPrice && askVolume == lastAskVolume)
+			return null;
+		lastBidPrice = bidPrice;
+		lastBidVolume = bidVolume;
+		lastAskPrice = askPrice;
+		lastAskVolume = askVolume;
+		return new TopOfBook(new Instant(timestamp), market, sequence, bidPrice, bidVolume, askPrice, askVolume);
+	}
+
+	/** @return a new Book entity holding the current levels, bids highest first and asks lowest first, or null if the book is not in sync */
+	@Nullable
+	public synchronized Book toBook(BookFactory bookFactory) {
+		if (!synced || bids.size == 0 || asks.size == 0)
+			return null;
+		Book book = bookFactory.create(new Instant(timestamp), market);
+		for (int i = 0; i < bids.size; i++)
+			book.addBid(bids.prices[i], bids.volumes[i]);
+		for (int i = 0; i < asks.size; i++)
+			book.addAsk(asks.prices[i], asks.volumes[i]);
+		return book.build();
+	}
+
+	private void applyInPlace(BookDelta delta) {
+		put(delta);
+		if (delta.getLastSequence() >= 0)
+			sequence = delta.getLastSequence();
+		timestamp = Math.max(timestamp, delta.getTimestamp());
+	}
+
+	private void put(BookDelta delta) {
+		for (BookDelta.Level level : delta.getBids())
+			put(bids, level);
+		for (BookDelta.Level level : delta.getAsks())
+			put(asks, level);
+	}
+
+	private void put(Side side, BookDelta.Level level) {
+		long priceCount = DiscreteAmount.roundedCountForBasis(level.getPrice(), market.getPriceBasis());
+		BigDecimal volume = level.getVolume().abs();
+		if (volume.signum() == 0)
+			side.remove(priceCount);
+		else
+			side.set(priceCount, DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
+	}
+
+	/** one side of the book as parallel arrays sorted best price first */
+	private static class Side {
+
+		private Side(boolean descending) {
+			this.descending = descending;
+		}
+
+		/** @return the index of the price, or (-(insertion point) - 1) if the level is absent */
+		private int indexOf(long priceCount) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long midPrice = prices[mid];
+				if (midPrice == priceCount)
+					return mid;
+				if (descending ? midPrice > priceCount : midPrice < priceCount)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return -(low + 1);
+		}
+
+		private void set(long priceCount, long volumeCount) {
+			int index = indexOf(priceCount);
+			if (index >= 0) {
+				volumes[index] = volumeCount;
+				return;
+			}
+			index = -index - 1;
+			if (size == prices.length) {
+				prices = Arrays.copyOf(prices, size * 2);
+				volumes = Arrays.copyOf(volumes, size * 2);
+			}
+			System.arraycopy(prices, index, prices, index + 1, size - index);
+			System.arraycopy(volumes, index, volumes, index + 1, size - index);
+			prices[index] = priceCount;
+			volumes[index] = volumeCount;
+			size++;
+		}
+
+		private boolean remove(long priceCount) {
+			int index = indexOf(priceCount);
+			if (index < 0)
+				return false;
+			System.arraycopy(prices, index + 1, prices, index, size - index - 1);
+			System.arraycopy(volumes, index + 1, volumes, index, size - index - 1);
+			size--;
+			return true;
+		}
+
+		private void clear() {
+			size = 0;
+		}
+
+		private final boolean descending;
+		private long[] prices = new long[INITIAL_DEPTH];
+		private long[] volumes = new long[INITIAL_DEPTH];
+		private int size;
+	}
+
+	private static final int DEFAULT_MAX_BUFFERED = 1000;
+	private static final int INITIAL_DEPTH = 64;
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.xchangeData");
+
+	private final Market market;
+	private final int maxBuffered;
+	private final Side bids = new Side(true);
+	private final Side asks = new Side(false);
+	private final Deque<BookDelta> pending = new ArrayDeque<>();
+	private long sequence = -1;
+	private long timestamp;
+	private boolean synced;
+	private long lastBidPrice;
+	private long lastBidVolume;
+	private long lastAskPrice;
+	private long lastAskVolume;
+}
@@ -0,0 +1,47 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Market;
+import org.knowm.xchange.dto.marketdata.Trade;
+
+/**
+ * A push connection delivering trades and incremental book updates for the Markets of one Exchange. XchangeData uses a stream when the exchange
+ * Helper supplies one, or when one is configured with the key:<br/>
+ * xchange.<marketname>.streaming.config.class=com.foo.bar.MyStream<br/>
+ * and only falls back to REST polling for a Market while its stream is disconnected or its book has a gap.
+ */
+public interface MarketDataStream {
+
+	/**
+	 * Opens the stream. Implementations should reconnect on their own after an unexpected disconnect, reporting the outage to the listener.
+	 *
+	 * @param endpoint overrides the exchange's default stream address, e.g. to point at a local stand-in. null uses the default.
+	 */
+	void connect(Exchange exchange, Collection<Market> markets, @Nullable String endpoint, Listener listener) throws Exception;
+
+	void disconnect();
+
+	boolean isConnected();
+
+	/** Asks for a full book snapshot for the market, which is delivered asynchronously through Listener.onBookSnapshot() */
+	void requestSnapshot(Market market);
+
+	interface Listener {
+
+		void onConnected();
+
+		void onDisconnected(@Nullable Exception cause);
+
+		void onTrade(Market market, Trade trade);
+
+		void onBookSnapshot(BookDelta snapshot);
+
+		void onBookDelta(BookDelta delta);
+
+	}
+
+}
@@ -0,0 +1,164 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.exceptions.UnknownOrderStateException;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the new orders of one exchange from order.threads dedicated threads, in the order they
+ * were queued when there is a single thread. The remote key returned by the exchange is matched
+ * to the SpecificOrder, which then moves to PLACED. An order the exchange has not acknowledged
+ * within order.ack.timeout seconds of being sent is moved to ERROR, as its state on the exchange
+ * is unknown; the order polling reconciles it once the exchange reports it. Orders still queued
+ * behind a slow send have not reached the exchange, so they are never timed out.
+ */
+class OrderGateway {
+
+  /** The order service the gateway sends orders for */
+  interface Orders {
+
+    @Nullable
+    OrderState getState(SpecificOrder order);
+
+    /** Places the order on the exchange, returning once the exchange has answered */
+    void send(SpecificOrder order) throws Throwable;
+
+    /** Marks an order the exchange refused as REJECTED */
+    void reject(SpecificOrder order, String reason);
+
+    /** Marks an order which may or may not be on the exchange as ERROR, for polling to reconcile */
+    void unknown(SpecificOrder order, String reason);
+  }
+
+  OrderGateway(final Exchange exchange, Orders orders, int threads, long ackTimeout) {
+    this.exchange = exchange;
+    this.orders = orders;
+    this.ackTimeout = ackTimeout;
+    ThreadFactory threadFactory =
+        runnable -> {
+          Thread thread =
+              new Thread(
+                  runnable, "OrderGateway-" + exchange + "-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        };
+    this.sendExecutor = Executors.newFixedThreadPool(Math.max(1, threads), threadFactory);
+    this.timeoutExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    if (ackTimeout > 0)
+      timeoutExecutor.scheduleWithFixedDelay(
+          this::expire, ackTimeout, Math.max(100, ackTimeout / 10), TimeUnit.MILLISECONDS);
+  }
+
+  void submit(final SpecificOrder order) {
+    sendExecutor.execute(() -> send(order));
+  }
+
+  /** Stops the gateway threads, letting orders already queued be sent */
+  void shutdown() {
+    sendExecutor.shutdown();
+    timeoutExecutor.shutdownNow();
+  }
+
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return sendExecutor.awaitTermination(timeout, unit);
+  }
+
+  /** @return true on a gateway thread which is sending an order */
+  static boolean isSending() {
+    return Boolean.TRUE.equals(sending.get());
+  }
+
+  private void send(SpecificOrder order) {
+    sending.set(true);
+    try {
+      OrderState state = orders.getState(order);
+      if (state != null && (!state.isOpen() || state == OrderState.CANCELLING)) {
+        log.info(
+            this.getClass().getSimpleName()
+                + ":send - not sending "
+                + order
+                + " to "
+                + exchange
+                + " as it is "
+                + state);
+        return;
+      }
+      // the ack timeout runs from the send, not from when the order was queued
+      inFlight.put(order, System.currentTimeMillis());
+      orders.send(order);
+    } catch (Throwable e) {
+      boolean unknown = isUnknownState(e);
+      log.error(
+          this.getClass().getSimpleName()
+              + ":send - unable to place order "
+              + order
+              + " on "
+              + exchange
+              + (unknown ? ", state on exchange unknown" : "")
+              + ", full stack trace follows:",
+          e);
+      if (orders.getState(order) == OrderState.NEW) {
+        if (unknown)
+          orders.unknown(order, "unable to confirm placement on " + exchange + " due to " + e);
+        else orders.reject(order, "unable to place on " + exchange + " due to " + e);
+      }
+    } finally {
+      inFlight.remove(order);
+      sending.set(false);
+    }
+  }
+
+  /** moves sent orders which have waited longer than the ack timeout to ERROR */
+  private void expire() {
+    long cutoff = System.currentTimeMillis() - ackTimeout;
+    for (Map.Entry<SpecificOrder, Long> entry : inFlight.entrySet()) {
+      if (entry.getValue() > cutoff || !inFlight.remove(entry.getKey(), entry.getValue()))
+        continue;
+      SpecificOrder order = entry.getKey();
+      if (orders.getState(order) != OrderState.NEW) continue;
+      try {
+        orders.unknown(
+            order,
+            "no acknowledgement from "
+                + exchange
+                + " within "
+                + ackTimeout
+                + "ms, state on exchange unknown");
+      } catch (Exception | Error e) {
+        log.error(
+            this.getClass().getSimpleName() + ":expire - unable to time out order " + order, e);
+      }
+    }
+  }
+
+  /** @return true if the order may have reached the exchange despite the error */
+  private static boolean isUnknownState(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause())
+      if (cause instanceof UnknownOrderStateException) return true;
+    return false;
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.orderGateway");
+  private static final ThreadLocal<Boolean> sending = new ThreadLocal<Boolean>();
+  private final Exchange exchange;
+  private final Orders orders;
+  private final long ackTimeout;
+  private final ExecutorService sendExecutor;
+  private final ScheduledExecutorService timeoutExecutor;
+  private final Map<SpecificOrder, Long> inFlight = new ConcurrentHashMap<SpecificOrder, Long>();
+  private final AtomicInteger threadCount = new AtomicInteger();
+}
@@ -0,0 +1,183 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.java_websocket.client.DefaultSSLWebSocketClientFactory;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for MarketDataStreams carried over a WebSocket. Subclasses build the stream URI and parse each text message; this class owns the
+ * connection, reconnects with exponential backoff, and treats a connection which has been silent for longer than streaming.timeout
+ * seconds as dropped.
+ */
+public abstract class WebSocketMarketDataStream implements MarketDataStream {
+
+	/** @return the URI to open for the given markets, starting from the configured or default endpoint */
+	protected abstract URI getStreamUri(String endpoint, Collection<Market> markets);
+
+	/** @return the default endpoint for the exchange */
+	protected abstract String getDefaultEndpoint();
+
+	/** called on the socket thread for every text frame */
+	protected abstract void handleMessage(String message) throws Exception;
+
+	/** called once the socket is open, e.g. to send subscription requests */
+	protected void onOpen(WebSocketClient client) {
+	}
+
+	@Override
+	public synchronized void connect(Exchange exchange, Collection<Market> markets, @Nullable String endpoint, Listener listener) throws Exception {
+		this.exchange = exchange;
+		this.markets = new ArrayList<>(markets);
+		this.endpoint = endpoint == null ? getDefaultEndpoint() : endpoint;
+		this.listener = listener;
+		this.closing = false;
+		open();
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkTimeout();
+			}
+		}, timeoutMillis, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void disconnect() {
+		closing = true;
+		scheduler.shutdownNow();
+		if (client != null)
+			client.close();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	protected Listener getListener() {
+		return listener;
+	}
+
+	protected Exchange getExchange() {
+		return exchange;
+	}
+
+	protected List<Market> getMarkets() {
+		return markets;
+	}
+
+	protected ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	private synchronized void open() throws Exception {
+		URI uri = getStreamUri(endpoint, markets);
+		log.info(this.getClass().getSimpleName() + ":open - connecting to " + uri);
+		client = new Client(uri);
+		if ("wss".equalsIgnoreCase(uri.getScheme()))
+			client.setWebSocketFactory(new DefaultSSLWebSocketClientFactory(SSLContext.getDefault()));
+		lastMessageTime = System.currentTimeMillis();
+		client.connect();
+	}
+
+	private void checkTimeout() {
+		WebSocketClient current = client;
+		if (connected && current != null && System.currentTimeMillis() - lastMessageTime > timeoutMillis) {
+			log.warn(this.getClass().getSimpleName() + ":checkTimeout - no messages from " + exchange + " for " + timeoutMillis + "ms, reconnecting");
+			current.close();
+		}
+	}
+
+	private void scheduleReconnect() {
+		if (closing || scheduler.isShutdown())
+			return;
+		final long delay = backoffMillis;
+		backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					open();
+				} catch (Exception e) {
+					log.error(WebSocketMarketDataStream.this.getClass().getSimpleName() + ":reconnect - unable to reconnect to " + exchange, e);
+					scheduleReconnect();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private class Client extends WebSocketClient {
+
+		private Client(URI serverUri) {
+			super(serverUri);
+		}
+
+		@Override
+		public void onOpen(ServerHandshake handshake) {
+			connected = true;
+			backoffMillis = MIN_BACKOFF_MILLIS;
+			lastMessageTime = System.currentTimeMillis();
+			WebSocketMarketDataStream.this.onOpen(this);
+			listener.onConnected();
+		}
+
+		@Override
+		public void onMessage(String message) {
+			lastMessageTime = System.currentTimeMillis();
+			try {
+				handleMessage(message);
+			} catch (Exception e) {
+				log.error(WebSocketMarketDataStream.this.getClass().getSimpleName() + ":onMessage - unable to handle " + message, e);
+			}
+		}
+
+		@Override
+		public void onClose(int code, String reason, boolean remote) {
+			if (client != this)
+				return;
+			connected = false;
+			log.info(WebSocketMarketDataStream.this.getClass().getSimpleName() + ":onClose - " + exchange + " stream closed " + code + " " + reason);
+			if (!closing)
+				listener.onDisconnected(null);
+			scheduleReconnect();
+		}
+
+		@Override
+		public void onError(Exception ex) {
+			log.error(WebSocketMarketDataStream.this.getClass().getSimpleName() + ":onError - " + exchange + " stream error", ex);
+		}
+	}
+
+	private static final long MIN_BACKOFF_MILLIS = 1000;
+	private static final long MAX_BACKOFF_MILLIS = 30000;
+	private static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.xchangeData");
+
+	private final long timeoutMillis = ConfigUtil.combined() == null ? DEFAULT_TIMEOUT_MILLIS
+			: (long) (1000 * ConfigUtil.combined().getDouble("streaming.timeout", DEFAULT_TIMEOUT_MILLIS / 1000));
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private volatile WebSocketClient client;
+	private volatile boolean connected;
+	private volatile boolean closing;
+	private volatile long lastMessageTime;
+	private volatile long backoffMillis = MIN_BACKOFF_MILLIS;
+	private Exchange exchange;
+	private List<Market> markets;
+	private String endpoint;
+	private Listener listener;
+}
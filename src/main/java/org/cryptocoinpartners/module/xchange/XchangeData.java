@@ -7,11 +7,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -31,6 +32,7 @@ import org.cryptocoinpartners.schema.Listing;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Prompt;
 import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.TopOfBook;
 import org.cryptocoinpartners.schema.TradeFactory;
 import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.EM;
@@ -71,6 +73,8 @@ public class XchangeData {
 			// .rate.queries rate limit the number of queries to this many (default: 1)
 			// .rate.period rate limit the number of queries during this period of time (default: 1 second)
 			// .listings identifies which Listings should be fetched from this exchange
+			// .streaming.uri overrides the default endpoint of the exchange's MarketDataStream, if any
+			// .streaming.book.interval minimum milliseconds between Books published from a stream (default: 250, negative for TopOfBook events only)
 			Exchange exchange = XchangeUtil.getExchangeForTag(tag);
 			String prefix = configPrefix + "." + tag + '.';
 			if (exchange != null) {
@@ -82,7 +86,10 @@ public class XchangeData {
 				int retryCount = config.getInt(prefix + "retry", 10);
 				Duration period = Duration.millis((long) (1000 * config.getDouble(prefix + "rate.period", 1))); // rate.period in seconds
 				final List listings = config.getList(prefix + "listings");
-				initExchange(helperClassName, streamingConfigClassName, queries, period, exchange, listings, retryCount, lagPeriod);
+				final String streamingUri = config.getString(prefix + "streaming.uri", null);
+				long bookInterval = config.getLong(prefix + "streaming.book.interval", 250);
+				initExchange(helperClassName, streamingConfigClassName, streamingUri, bookInterval, queries, period, exchange, listings, retryCount,
+						lagPeriod);
 			} else {
 				log.warn("Could not find Exchange for property \"xchange." + tag + ".*\"");
 			}
@@ -114,14 +121,26 @@ public class XchangeData {
 
 		boolean cancelOrder(TradeService tradeService, Listing listing, String orderId) throws Exception;
 
+		/**
+		 * Cancels several orders on one listing with a single exchange call.
+		 *
+		 * @return true if the exchange accepted the whole batch
+		 * @throws org.knowm.xchange.exceptions.NotYetImplementedForExchangeException if the exchange has no batch cancel, in which case the
+		 *         orders are cancelled one at a time
+		 */
+		boolean cancelOrders(TradeService tradeService, Listing listing, Collection<String> orderIds) throws Exception;
+
 		void handleTrades(Trades tradeSpec);
 
 		void handleOrderBook(OrderBook orderBook);
 
+		/** @return a new MarketDataStream for this exchange, or null if market data should only be polled */
+		MarketDataStream getMarketDataStream();
+
 	}
 
-	private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, int queries, Duration per,
-			Exchange coinTraderExchange, List listings, int retryCount, int lagPeriod) {
+	private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, @Nullable String streamingUri,
+			long bookInterval, int queries, Duration per, Exchange coinTraderExchange, List listings, int retryCount, int lagPeriod) {
 		org.knowm.xchange.Exchange xchangeExchange = XchangeUtil.getExchangeForMarket(coinTraderExchange);
 		Helper helper = null;
 		if (helperClassName != null && !helperClassName.isEmpty()) {
@@ -162,7 +181,8 @@ public class XchangeData {
 			markets.add(market);
 		}
 
-		RateLimiter rateLimiter = new RateLimiter(queries, per);
+		// shared with XchangeOrderService so market data and order traffic draw on the same exchange limit
+		RateLimiter rateLimiter = RateLimiter.forExchange(coinTraderExchange, queries, per);
 
 		//   initExchange(helperClassName, streamingConfigClassName, queries, period, exchange, listings);
 
@@ -195,9 +215,22 @@ public class XchangeData {
 				//mergeRunnable runable = new ApplicationInitializer().new mergeRunnable( new ArrayBlockingQueue<Bar>(queueSize));
 			}
 
+			rateLimiters.put(cointraderMarket, rateLimiter);
+			pollingMarkets.add(cointraderMarket);
 			rateLimiter.execute(new FetchTradesRunnable(context, coinTraderExchange, cointraderMarket, rateLimiter));
 		}
 
+		MarketDataStream stream = createMarketDataStream(streamingConfigClassName, helper);
+		if (stream != null) {
+			StreamListener listener = new StreamListener(coinTraderExchange, stream, markets, bookInterval);
+			try {
+				stream.connect(coinTraderExchange, markets, streamingUri, listener);
+			} catch (Exception e) {
+				log.error(this.getClass().getSimpleName() + ":initExchange - unable to open market data stream for " + coinTraderExchange
+						+ ", polling only", e);
+			}
+		}
+
 		// for (Iterator<Market> im = markets.iterator(); im.hasNext(); )
 		//   market = im.next();
 
@@ -210,6 +243,48 @@ public class XchangeData {
 
 	}
 
+	@Nullable
+	private MarketDataStream createMarketDataStream(@Nullable String streamingConfigClassName, @Nullable Helper helper) {
+		if (streamingConfigClassName == null || streamingConfigClassName.isEmpty())
+			return helper == null ? null : helper.getMarketDataStream();
+		if (streamingConfigClassName.indexOf('.') == -1)
+			streamingConfigClassName = XchangeData.class.getPackage().getName() + '.' + streamingConfigClassName;
+		try {
+			return (MarketDataStream) getClass().getClassLoader().loadClass(streamingConfigClassName).newInstance();
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+			log.error("Could not use streaming class " + streamingConfigClassName + " as a " + MarketDataStream.class + ", polling only", e);
+			return null;
+		}
+	}
+
+	/** @return true when the market's stream is connected and its book is in sync, so REST polling is not needed */
+	private boolean isStreaming(Market market) {
+		StreamListener listener = streamListeners.get(market);
+		return listener != null && listener.stream.isConnected() && listener.isSynced(market);
+	}
+
+	/** backs off the exchange's shared rate limiter if the error was a rate limit rejection */
+	private void reportError(Market market, Throwable error) {
+		RateLimiter rateLimiter = rateLimiters.get(market);
+		if (rateLimiter != null)
+			rateLimiter.reportError(error);
+	}
+
+	/** restarts the polling loop for a market whose stream has dropped or gapped */
+	private void resumePolling(Market market) {
+		RateLimiter rateLimiter = rateLimiters.get(market);
+		if (rateLimiter != null && pollingMarkets.add(market)) {
+			log.info(this.getClass().getSimpleName() + ":resumePolling - polling " + market + " until its stream is in sync");
+			rateLimiter.execute(new FetchTradesRunnable(context, market.getExchange(), market, rateLimiter));
+		}
+	}
+
+	private org.cryptocoinpartners.schema.Trade createTrade(Market market, Trade trade) {
+		BigDecimal volume = (trade.getType() == OrderType.ASK) ? trade.getOriginalAmount().negate() : trade.getOriginalAmount();
+		//TODO need to support contracts where prompt and basis are differnet from the contract basisi
+		return tradeFactory.create(market, new Instant(trade.getTimestamp()), trade.getId(), trade.getPrice(), volume);
+	}
+
 	public Collection<org.cryptocoinpartners.schema.Trade> getTrades(Market market, Exchange coinTraderExchange) throws Throwable {
 
 		Prompt prompt = market.getListing().getPrompt();
@@ -221,8 +296,18 @@ public class XchangeData {
 		if (lastTradeTimes.get(market) == null || lastTradeIds.get(market) == null || (lastTradeTimes.get(market) == 0 && lastTradeIds.get(market) == 0)) {
 			try {
 
-				org.cryptocoinpartners.schema.Trade trade = EM.queryLimitOne(org.cryptocoinpartners.schema.Trade.class,
-						"select t from Trade t where market=?1 order by time desc", market);
+				// look in the recent time partitions first, then fall back to a scan of the whole history
+				org.cryptocoinpartners.schema.Trade trade = null;
+				try {
+					trade = EM.queryLimitOne(org.cryptocoinpartners.schema.Trade.class,
+							"select t from Trade t where market=?1 and time>=?2 order by time desc", market,
+							Instant.now().minus(lastTradeLookback));
+				} catch (NoResultException e) {
+					// no recent trades
+				}
+				if (trade == null)
+					trade = EM.queryLimitOne(org.cryptocoinpartners.schema.Trade.class, "select t from Trade t where market=?1 order by time desc",
+							market);
 				//  for (org.cryptocoinpartners.schema.Trade trade : results) {
 				// org.cryptocoinpartners.schema.Trade trade = query.getSingleResult();
 				//long millis = Math.round(trade.getTime().getMillis() / 86400000);
@@ -306,11 +391,8 @@ public class XchangeData {
 					// }
 					//   || ()) {
 					Instant tradeInstant = new Instant(trade.getTimestamp());
-					BigDecimal volume = (trade.getType() == OrderType.ASK) ? trade.getOriginalAmount().negate() : trade.getOriginalAmount();
 					log.trace("Creating new cointrader trades from: " + trade);
-					//TODO need to support contracts where prompt and basis are differnet from the contract basisi
-
-					org.cryptocoinpartners.schema.Trade ourTrade = tradeFactory.create(market, tradeInstant, trade.getId(), trade.getPrice(), volume);
+					org.cryptocoinpartners.schema.Trade ourTrade = createTrade(market, trade);
 					ourTrades.add(ourTrade);
 					long lag = (ourTrade.getTimestampReceived() - ourTrade.getTimestamp()) / 1000;
 					if (logLags.get(market) != null && logLags.get(market) > 0 && lag > logLags.get(market))
@@ -331,6 +413,7 @@ public class XchangeData {
 			return ourTrades;
 
 		} catch (Exception | Error e) {
+			reportError(market, e);
 			Integer tradeFailureCount = failedTradeCounts.get(market);
 			tradeFailureCount++;
 			failedTradeCounts.put(market, tradeFailureCount);
@@ -395,34 +478,27 @@ public class XchangeData {
 			if (XchangeUtil.getHelperForExchange(coinTraderExchange) != null)
 				XchangeUtil.getHelperForExchange(coinTraderExchange).handleOrderBook(orderBook);
 			log.trace("Attempting create book from: " + orderBook);
-			Book book = bookFactory.create(new Instant(orderBook.getTimeStamp()), market);
-			LimitOrder limitOrder;
-			// sort lowerst to highest limit price
-			List<LimitOrder> asks = orderBook.getAsks();
-			log.trace("Attempting to sort asks: " + asks);
-
-			Collections.sort(asks, limitPriceComparator);
-			// sort highest to lowest limit price
-			List<LimitOrder> bids = orderBook.getBids();
-			log.trace("Attempting to sort bids: " + bids);
-
-			Collections.sort(bids, Collections.reverseOrder(limitPriceComparator));
-			// need to sort bids
-			for (Iterator<LimitOrder> itb = bids.iterator(); itb.hasNext(); book.addBid(limitOrder.getLimitPrice(), limitOrder.getOriginalAmount()))
-				limitOrder = itb.next();
-
-			// neet to sort asks
-			for (Iterator<LimitOrder> ita = asks.iterator(); ita.hasNext(); book.addAsk(limitOrder.getLimitPrice(), limitOrder.getOriginalAmount()))
-				limitOrder = ita.next();
-
-			book.build();
-			//        log.debug("publish book:" + book.getId());
+			// the snapshot is unnumbered, so the live book just takes it as the new state.  the live book keeps the levels sorted as they are added.
+			BookDelta snapshot = new BookDelta(market, -1, -1,
+					orderBook.getTimeStamp() == null ? System.currentTimeMillis() : orderBook.getTimeStamp().getTime());
+			for (LimitOrder bid : orderBook.getBids())
+				snapshot.addBid(bid.getLimitPrice(), bid.getOriginalAmount());
+			for (LimitOrder ask : orderBook.getAsks())
+				snapshot.addAsk(ask.getLimitPrice(), ask.getOriginalAmount());
+			LiveBook liveBook = polledBooks.get(market);
+			if (liveBook == null) {
+				polledBooks.putIfAbsent(market, new LiveBook(market));
+				liveBook = polledBooks.get(market);
+			}
+			liveBook.reset(snapshot);
+			Book book = liveBook.toBook(bookFactory);
 
 			failedBookCounts.put(market, 0);
 			return book;
 			//
 
 		} catch (Exception | Error e) {
+			reportError(market, e);
 			Integer bookFailureCount = failedTradeCounts.get(market);
 			bookFailureCount++;
 			failedTradeCounts.put(market, bookFailureCount);
@@ -471,10 +547,20 @@ public class XchangeData {
 		@Override
 		public void run() {
 			try {
+				if (isStreaming(market)) {
+					// the stream is delivering this market, so stop polling.  resumePolling() restarts us on a disconnect or gap
+					pollingMarkets.remove(market);
+					if (isStreaming(market) || !pollingMarkets.add(market))
+						return;
+				}
 				rateLimiter.execute(this); // run again. requeue in case we die!
 				//   Thread.sleep(15000);
 				Book book = getBook(market, coinTraderExchange);
 				Collection<org.cryptocoinpartners.schema.Trade> trades = getTrades(market, coinTraderExchange);
+				LiveBook liveBook = polledBooks.get(market);
+				TopOfBook topOfBook = liveBook == null ? null : liveBook.pollTopOfBookChange();
+				if (topOfBook != null)
+					context.publish(topOfBook);
 				if (book != null && !book.getBids().isEmpty() && !book.getAsks().isEmpty())
 					context.publish(book);
 				if (trades != null && !trades.isEmpty()) {
@@ -502,12 +588,122 @@ public class XchangeData {
 
 	}
 
-	private static final Comparator<LimitOrder> limitPriceComparator = new Comparator<LimitOrder>() {
+	/**
+	 * Receives the MarketDataStream callbacks for one exchange, keeping a LiveBook per market. A TopOfBook is published whenever an update changes
+	 * the best bid or ask, while full Books are published from the live book at most once per bookInterval milliseconds, or never if bookInterval is
+	 * negative. Trades are published as they arrive, and any disconnect or sequence gap hands the affected markets back to polling until a fresh
+	 * snapshot brings the book back into sync.
+	 */
+	private class StreamListener implements MarketDataStream.Listener {
+
+		private StreamListener(Exchange exchange, MarketDataStream stream, Collection<Market> markets, long bookInterval) {
+			this.exchange = exchange;
+			this.stream = stream;
+			this.bookInterval = bookInterval;
+			for (Market market : markets) {
+				liveBooks.put(market, new LiveBook(market));
+				lastBookPublished.put(market, 0L);
+				streamListeners.put(market, this);
+			}
+		}
+
+		private boolean isSynced(Market market) {
+			LiveBook liveBook = liveBooks.get(market);
+			return liveBook != null && liveBook.isSynced();
+		}
+
 		@Override
-		public int compare(LimitOrder event, LimitOrder event2) {
-			return event.getLimitPrice().compareTo(event2.getLimitPrice());
+		public void onConnected() {
+			log.info(XchangeData.this.getClass().getSimpleName() + ":onConnected - market data stream connected for " + exchange);
+			for (LiveBook liveBook : liveBooks.values()) {
+				liveBook.invalidate();
+				stream.requestSnapshot(liveBook.getMarket());
+			}
 		}
-	};
+
+		@Override
+		public void onDisconnected(@Nullable Exception cause) {
+			log.warn(XchangeData.this.getClass().getSimpleName() + ":onDisconnected - market data stream lost for " + exchange + ", polling", cause);
+			for (LiveBook liveBook : liveBooks.values()) {
+				liveBook.invalidate();
+				resumePolling(liveBook.getMarket());
+			}
+		}
+
+		@Override
+		public void onTrade(Market market, Trade trade) {
+			long remoteId;
+			try {
+				remoteId = Long.valueOf(trade.getId());
+			} catch (NumberFormatException e) {
+				remoteId = 0;
+			}
+			Long lastTradeTime = lastTradeTimes.get(market);
+			Long lastTradeId = lastTradeIds.get(market);
+			// the polling loop may already have published this trade while the stream was catching up
+			if (lastTradeTime != null && lastTradeId != null && trade.getTimestamp().getTime() <= lastTradeTime && remoteId <= lastTradeId)
+				return;
+			org.cryptocoinpartners.schema.Trade ourTrade = createTrade(market, trade);
+			lastTradeTimes.put(market, trade.getTimestamp().getTime());
+			lastTradeIds.put(market, remoteId);
+			context.publish(ourTrade);
+		}
+
+		@Override
+		public void onBookSnapshot(BookDelta snapshot) {
+			LiveBook liveBook = liveBooks.get(snapshot.getMarket());
+			if (liveBook == null)
+				return;
+			if (liveBook.reset(snapshot) == LiveBook.Result.GAP) {
+				stream.requestSnapshot(snapshot.getMarket());
+				return;
+			}
+			log.debug(XchangeData.this.getClass().getSimpleName() + ":onBookSnapshot - " + snapshot.getMarket() + " in sync at sequence "
+					+ liveBook.getSequence());
+			publishBook(liveBook, true);
+		}
+
+		@Override
+		public void onBookDelta(BookDelta delta) {
+			LiveBook liveBook = liveBooks.get(delta.getMarket());
+			if (liveBook == null)
+				return;
+			switch (liveBook.apply(delta)) {
+				case APPLIED:
+					publishBook(liveBook, false);
+					break;
+				case GAP:
+					log.info(XchangeData.this.getClass().getSimpleName() + ":onBookDelta - sequence gap on " + delta.getMarket() + ", resyncing");
+					resumePolling(delta.getMarket());
+					stream.requestSnapshot(delta.getMarket());
+					break;
+				default:
+					break;
+			}
+		}
+
+		private void publishBook(LiveBook liveBook, boolean force) {
+			Market market = liveBook.getMarket();
+			TopOfBook topOfBook = liveBook.pollTopOfBookChange();
+			if (topOfBook != null)
+				context.publish(topOfBook);
+			long now = System.currentTimeMillis();
+			if (bookInterval < 0 || (!force && now - lastBookPublished.get(market) < bookInterval))
+				return;
+			Book book = liveBook.toBook(bookFactory);
+			if (book != null) {
+				lastBookPublished.put(market, now);
+				failedBookCounts.put(market, 0);
+				context.publish(book);
+			}
+		}
+
+		private final Exchange exchange;
+		private final MarketDataStream stream;
+		private final long bookInterval;
+		private final Map<Market, LiveBook> liveBooks = new ConcurrentHashMap<Market, LiveBook>();
+		private final Map<Market, Long> lastBookPublished = new ConcurrentHashMap<Market, Long>();
+	}
 
 	private static final Comparator<Trade> timeOrderIdComparator = new Comparator<Trade>() {
 		@Override
@@ -527,16 +723,22 @@ public class XchangeData {
 	private final TradeFactory tradeFactory;
 
 	private static int queueSize = ConfigUtil.combined().getInt("db.writer.queue.length", 10000);
+	private static final Duration lastTradeLookback = Duration.standardDays(ConfigUtil.combined().getLong("db.partition.lookback.days", 7L));
 	private static ExecutorService mergeMarketDataService = Executors.newCachedThreadPool();
 
 	//  @Inject
 	//protected EntityManager entityManager;
-	private final HashMap<Market, Long> lastTradeIds = new HashMap<Market, Long>();
-	private final HashMap<Market, Long> lastTradeTimes = new HashMap<Market, Long>();
-	private final HashMap<Market, Integer> failedTradeCounts = new HashMap<Market, Integer>();
-	private final HashMap<Market, Integer> failedBookCounts = new HashMap<Market, Integer>();
-	private final HashMap<Market, Integer> retryCounts = new HashMap<Market, Integer>();
-	private final HashMap<Market, Integer> logLags = new HashMap<Market, Integer>();
+	// shared between the polling threads and the stream listener threads
+	private final Map<Market, Long> lastTradeIds = new ConcurrentHashMap<Market, Long>();
+	private final Map<Market, Long> lastTradeTimes = new ConcurrentHashMap<Market, Long>();
+	private final Map<Market, Integer> failedTradeCounts = new ConcurrentHashMap<Market, Integer>();
+	private final Map<Market, Integer> failedBookCounts = new ConcurrentHashMap<Market, Integer>();
+	private final Map<Market, Integer> retryCounts = new ConcurrentHashMap<Market, Integer>();
+	private final Map<Market, Integer> logLags = new ConcurrentHashMap<Market, Integer>();
+	private final Map<Market, LiveBook> polledBooks = new ConcurrentHashMap<Market, LiveBook>();
+	private final Map<Market, RateLimiter> rateLimiters = new ConcurrentHashMap<Market, RateLimiter>();
+	private final Map<Market, StreamListener> streamListeners = new ConcurrentHashMap<Market, StreamListener>();
+	private final Set<Market> pollingMarkets = Collections.newSetFromMap(new ConcurrentHashMap<Market, Boolean>());
 	private final Context context;
 	private static boolean instanceExists = false;
 }
@@ -8,6 +8,7 @@ import org.knowm.xchange.dto.Order;
 import org.knowm.xchange.dto.Order.OrderType;
 import org.knowm.xchange.dto.marketdata.OrderBook;
 import org.knowm.xchange.dto.marketdata.Trades;
+import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
 import org.knowm.xchange.service.trade.TradeService;
 import org.knowm.xchange.service.trade.params.TradeHistoryParams;
 import org.knowm.xchange.service.trade.params.TradeHistoryParamsAll;
@@ -35,6 +36,11 @@ public class XchangeHelperBase implements XchangeData.Helper {
 		return tradeService.cancelOrder(orderId);
 	}
 
+	@Override
+	public boolean cancelOrders(TradeService tradeService, Listing listing, Collection<String> orderIds) throws Exception {
+		throw new NotYetImplementedForExchangeException();
+	}
+
 	@Override
 	public void handleTrades(Trades xchangeTrades) {
 	}
@@ -69,4 +75,9 @@ public class XchangeHelperBase implements XchangeData.Helper {
 		return null;
 	}
 
+	@Override
+	public MarketDataStream getMarketDataStream() {
+		return null;
+	}
+
 }
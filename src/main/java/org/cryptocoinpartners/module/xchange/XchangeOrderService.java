@@ -15,6 +15,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.annotation.Nullable;
@@ -46,6 +48,7 @@ import org.cryptocoinpartners.schema.SpecificOrder;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.cryptocoinpartners.util.EM;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.cryptocoinpartners.util.RateLimiter;
 import org.cryptocoinpartners.util.Remainder;
 import org.cryptocoinpartners.util.XchangeUtil;
@@ -76,7 +79,7 @@ import si.mazi.rescu.HttpStatusIOException;
  */
 @Singleton
 @SuppressWarnings("UnusedDeclaration")
-public class XchangeOrderService extends BaseOrderService {
+public class XchangeOrderService extends BaseOrderService implements Context.DestroyListener {
 
   private final FillFactory fillFactory;
   //  @Inject
@@ -86,6 +89,33 @@ public class XchangeOrderService extends BaseOrderService {
   private static final HashMap<Market, Long> lastFillTimes = new HashMap<Market, Long>();
   private static final HashMap<Exchange, RateLimiter> rateLimiters =
       new HashMap<Exchange, RateLimiter>();
+  private static final Map<Exchange, CancellationPipeline> cancellationPipelines =
+      new ConcurrentHashMap<Exchange, CancellationPipeline>();
+  private static final Map<Exchange, OrderGateway> orderGateways =
+      new ConcurrentHashMap<Exchange, OrderGateway>();
+  // order status polls waiting for trading to be enabled again
+  private final Set<FetchOrdersRunnable> parkedPolls = ConcurrentHashMap.newKeySet();
+
+  /** waits for a token from the exchange's shared rate limiter in the given lane */
+  private static void acquire(Exchange exchange, RateLimiter.Priority priority)
+      throws InterruptedException {
+    RateLimiter rateLimiter = rateLimiters.get(exchange);
+    if (rateLimiter != null) rateLimiter.acquire(priority);
+  }
+
+  /** @return true if the error was the exchange rejecting us for exceeding its rate limit */
+  private static boolean reportError(Exchange exchange, Throwable error) {
+    RateLimiter rateLimiter = rateLimiters.get(exchange);
+    return rateLimiter != null && rateLimiter.reportError(error);
+  }
+
+  /** Enabling trading resumes the order status polls which parked while it was disabled */
+  @Override
+  public void setTradingEnabled(Boolean enableTrading) {
+    super.setTradingEnabled(enableTrading);
+    if (enableTrading == null || !enableTrading) return;
+    for (FetchOrdersRunnable poll : parkedPolls) if (parkedPolls.remove(poll)) poll.resubmit();
+  }
 
   @Inject
   public XchangeOrderService(Context context, Configuration config, FillFactory fillFactory) {
@@ -119,6 +149,10 @@ public class XchangeOrderService extends BaseOrderService {
                 (long)
                     (2000 * config.getDouble(prefix + "rate.period", 1))); // rate.period in seconds
         final List listings = config.getList(prefix + "listings");
+        int cancelBatchSize = config.getInt(prefix + "cancel.batch", 10);
+        int cancelThreads = config.getInt(prefix + "cancel.threads", 1);
+        int orderThreads = config.getInt(prefix + "order.threads", 1);
+        long ackTimeout = (long) (1000 * config.getDouble(prefix + "order.ack.timeout", 30));
 
         initExchange(
             helperClassName,
@@ -127,7 +161,11 @@ public class XchangeOrderService extends BaseOrderService {
             queries,
             period,
             exchange,
-            listings);
+            listings,
+            cancelBatchSize,
+            cancelThreads,
+            orderThreads,
+            ackTimeout);
       } else {
         log.warn("Could not find Exchange for property \"xchange." + tag + ".*\"");
       }
@@ -141,7 +179,11 @@ public class XchangeOrderService extends BaseOrderService {
       int queries,
       Duration per,
       Exchange coinTraderExchange,
-      List listings) {
+      List listings,
+      int cancelBatchSize,
+      int cancelThreads,
+      int orderThreads,
+      long ackTimeout) {
     org.knowm.xchange.Exchange xchangeExchange =
         XchangeUtil.getExchangeForMarket(coinTraderExchange);
     Helper helper = null;
@@ -191,8 +233,26 @@ public class XchangeOrderService extends BaseOrderService {
 
     //    PollingTradeService dataService = xchangeExchange.getPollingTradeService();
     // when
-    RateLimiter rateLimiter = new RateLimiter(queries, per);
+    // shared with XchangeData so order traffic and market data draw on the same exchange limit
+    RateLimiter rateLimiter = RateLimiter.forExchange(coinTraderExchange, queries, per);
     rateLimiters.put(coinTraderExchange, rateLimiter);
+    CancellationPipeline previousPipeline =
+        cancellationPipelines.put(
+            coinTraderExchange,
+            new CancellationPipeline(
+                coinTraderExchange,
+                new ExchangeCancels(coinTraderExchange, helper, cancelThreads),
+                cancelBatchSize,
+                cancelThreads,
+                retryCount));
+    if (previousPipeline != null) previousPipeline.shutdown();
+    if (orderThreads > 0) {
+      OrderGateway previous =
+          orderGateways.put(
+              coinTraderExchange,
+              new OrderGateway(coinTraderExchange, gatewayOrders, orderThreads, ackTimeout));
+      if (previous != null) previous.shutdown();
+    }
     for (Market cointraderMarket : markets) {
 
       // add to various shared mapps
@@ -200,14 +260,59 @@ public class XchangeOrderService extends BaseOrderService {
 
       rateLimiter.execute(
           new FetchOrdersRunnable(
-              context, cointraderMarket, rateLimiter, coinTraderExchange, retryCount, helper));
+              context, cointraderMarket, rateLimiter, coinTraderExchange, retryCount, helper),
+          RateLimiter.Priority.ORDER_STATUS);
     }
 
     return;
   }
 
+  /**
+   * Queues the order on its exchange's {@link OrderGateway}, so the strategy or Esper thread
+   * placing it does not wait on the exchange round trip. The order stays NEW until the gateway has
+   * sent it. Exchanges configured with order.threads=0, and retries made on a gateway thread, send
+   * directly.
+   */
   @Override
   protected void handleSpecificOrder(SpecificOrder specificOrder) throws Throwable {
+    OrderGateway gateway = orderGateways.get(specificOrder.getMarket().getExchange());
+    if (gateway == null || OrderGateway.isSending()) sendSpecificOrder(specificOrder);
+    else gateway.submit(specificOrder);
+  }
+
+  /** Stops the gateway and cancellation threads of every exchange when the Context is destroyed */
+  @Override
+  public void beforeDestroy(Context context) {
+    for (OrderGateway gateway : orderGateways.values()) gateway.shutdown();
+    orderGateways.clear();
+    for (CancellationPipeline pipeline : cancellationPipelines.values()) pipeline.shutdown();
+    cancellationPipelines.clear();
+  }
+
+  private final OrderGateway.Orders gatewayOrders =
+      new OrderGateway.Orders() {
+        @Override
+        public OrderState getState(SpecificOrder order) {
+          return orderStateMap.get(order);
+        }
+
+        @Override
+        public void send(SpecificOrder order) throws Throwable {
+          sendSpecificOrder(order);
+        }
+
+        @Override
+        public void reject(SpecificOrder order, String reason) {
+          XchangeOrderService.this.reject(order, reason);
+        }
+
+        @Override
+        public void unknown(SpecificOrder order, String reason) {
+          error(order, reason);
+        }
+      };
+
+  private void sendSpecificOrder(SpecificOrder specificOrder) throws Throwable {
     Order.OrderType orderType = specificOrder.isBid() ? Order.OrderType.BID : Order.OrderType.ASK;
     org.knowm.xchange.Exchange exchange =
         XchangeUtil.getExchangeForMarket(specificOrder.getMarket().getExchange());
@@ -288,6 +393,7 @@ public class XchangeOrderService extends BaseOrderService {
       try {
         // TODO if this failed like we place a clsoing order it jsut get's rejected but we have not
         // reverted teh stack correctly
+        acquire(specificOrder.getMarket().getExchange(), RateLimiter.Priority.NEW_ORDER);
         synchronized (tradeService) {
           specificOrder.setRemoteKey(tradeService.placeLimitOrder(limitOrder));
         }
@@ -295,6 +401,7 @@ public class XchangeOrderService extends BaseOrderService {
         specificOrder.merge();
         updateOrderState(specificOrder, OrderState.PLACED, true);
       } catch (ExchangeException ex) {
+        if (reportError(specificOrder.getMarket().getExchange(), ex)) throw ex;
         // Let's try placing it as a market order!
         log.warn(
             this.getClass().getSimpleName()
@@ -313,7 +420,7 @@ public class XchangeOrderService extends BaseOrderService {
 
         // todo retry until expiration or reject as invalid
       } catch (Exception | Error e) {
-
+        reportError(specificOrder.getMarket().getExchange(), e);
         if (specificOrder.isInternal()) {
           log.error(
               this.getClass().getSimpleName()
@@ -376,6 +483,7 @@ public class XchangeOrderService extends BaseOrderService {
       // timestamp);
       // todo put on a queue
       try {
+        acquire(specificOrder.getMarket().getExchange(), RateLimiter.Priority.NEW_ORDER);
         synchronized (tradeService) {
           specificOrder.setRemoteKey(tradeService.placeMarketOrder(marketOrder));
         }
@@ -388,6 +496,7 @@ public class XchangeOrderService extends BaseOrderService {
 
         throw e;
       } catch (ExchangeException ex) {
+        if (reportError(specificOrder.getMarket().getExchange(), ex)) throw ex;
         log.warn(
             this.getClass().getSimpleName()
                 + ":handleSpecificOrder Attempting to place limit order as unable to place market order "
@@ -447,6 +556,7 @@ public class XchangeOrderService extends BaseOrderService {
     // just OKCOIN_THISWEEK:BTC.USD
     try {
       OpenOrders openOrders;
+      acquire(market.getExchange(), RateLimiter.Priority.ORDER_STATUS);
       synchronized (tradeService) {
         openOrders = tradeService.getOpenOrders();
       }
@@ -481,9 +591,12 @@ public class XchangeOrderService extends BaseOrderService {
       }
 
     } catch (IOException e) {
+      reportError(market.getExchange(), e);
       log.error("Threw a Execption, full stack trace follows:", e);
 
       e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
     return pendingOrders;
   }
@@ -593,7 +706,9 @@ public class XchangeOrderService extends BaseOrderService {
       // for all the order we know about, we need to see if we had any fills for these orders
 
       // so we just need to blend 1 and generate unknow orders!
-      if (exchangeCancellationQueues != null
+      if (cancellationPipelines.get(coinTraderExchange) != null)
+        cancellationPipelines.get(coinTraderExchange).schedule();
+      else if (exchangeCancellationQueues != null
           && exchangeCancellationQueues.get(coinTraderExchange) != null) {
         SpecificOrder orderToCancel = null;
         try {
@@ -887,7 +1002,7 @@ public class XchangeOrderService extends BaseOrderService {
             // TODO Auto-generated catch block
             log.error(
                 "getOrders: called from class "
-                    + Thread.currentThread().getStackTrace()[2]
+                    + PersistenceTrace.callSite()
                     + " unable to cancel order:"
                     + specificOrder
                     + " "
@@ -1013,7 +1128,6 @@ public class XchangeOrderService extends BaseOrderService {
     @Override
     public void run() {
       try {
-        if (resubmitable) rateLimiter.execute(this); // requeue in case we die!
         if (!getTradingEnabled()) return;
         if (lastFillTimes.get(market) == null
             || lastFillTimes.get(market) == 0
@@ -1064,9 +1178,19 @@ public class XchangeOrderService extends BaseOrderService {
         firstRun = false;
         // return "Success";
 
-        // run again. requeue
+        // run again once this poll is done, so a slow exchange is never polled twice at once
+        if (resubmitable) resubmit();
+      }
+    }
 
+    /** queues the next poll, or parks it until trading is enabled again */
+    private void resubmit() {
+      if (!getTradingEnabled()) {
+        parkedPolls.add(this);
+        // trading may have been enabled before we parked
+        if (!getTradingEnabled() || !parkedPolls.remove(this)) return;
       }
+      rateLimiter.execute(this, RateLimiter.Priority.ORDER_STATUS);
     }
 
     /*
@@ -1339,7 +1463,7 @@ public class XchangeOrderService extends BaseOrderService {
       return deleted;
     }
     try {
-
+      acquire(order.getMarket().getExchange(), RateLimiter.Priority.CANCEL);
       synchronized (tradeService) {
         if (XchangeUtil.getHelperForExchange(order.getMarket().getExchange()) != null)
           XchangeUtil.getHelperForExchange(order.getMarket().getExchange())
@@ -1394,6 +1518,7 @@ public class XchangeOrderService extends BaseOrderService {
 
       return deleted;
     } catch (HttpStatusIOException hse) {
+      reportError(order.getMarket().getExchange(), hse);
       log.error(
           this.getClass().getSimpleName()
               + "specificOrderToCancel: Unable to cancel order :"
@@ -1465,6 +1590,131 @@ public class XchangeOrderService extends BaseOrderService {
     }
   }
 
+  /**
+   * Hands working orders to their exchange's {@link CancellationPipeline} rather than cancelling
+   * them one blocking call at a time. Those orders are CANCELLING when this returns and are not in
+   * the returned collection, which holds only orders confirmed CANCELLED; their CANCELLED state
+   * follows as an OrderUpdate once the exchange confirms it, and the pipeline then updates their
+   * parent fill as handleCancelSpecificOrder does. Orders which have not reached an exchange are
+   * cancelled as before.
+   */
+  @Override
+  public Collection<SpecificOrder> cancelSpecificOrder(Collection<SpecificOrder> orders) {
+    Collection<SpecificOrder> cancelledOrders = new ArrayList<SpecificOrder>();
+    Collection<SpecificOrder> directOrders = new ArrayList<SpecificOrder>();
+    for (SpecificOrder order : orders) {
+      OrderState state = orderStateMap.get(order);
+      if (state == null || !state.isOpen()) continue;
+      CancellationPipeline pipeline = cancellationPipelines.get(order.getMarket().getExchange());
+      if (pipeline == null
+          || order.getMarket().isSynthetic()
+          || !state.isWorking()
+          || order.getRemoteKey() == null) {
+        directOrders.add(order);
+        continue;
+      }
+      updateOrderState(order, OrderState.CANCELLING, true);
+      pipeline.submit(order);
+    }
+    if (!directOrders.isEmpty()) cancelledOrders.addAll(super.cancelSpecificOrder(directOrders));
+    return cancelledOrders;
+  }
+
+  /** Cancels orders of one exchange for its {@link CancellationPipeline} */
+  private class ExchangeCancels implements CancellationPipeline.Cancels {
+
+    private ExchangeCancels(Exchange exchange, @Nullable Helper helper, int threads) {
+      this.exchange = exchange;
+      this.helper = helper;
+      this.threads = threads;
+    }
+
+    @Override
+    public OrderState getState(SpecificOrder order) {
+      return orderStateMap.get(order);
+    }
+
+    @Override
+    public BlockingQueue<SpecificOrder> getQueue() {
+      synchronized (exchangeCancellationQueues) {
+        if (exchangeCancellationQueues.get(exchange) == null)
+          exchangeCancellationQueues.put(exchange, new LinkedBlockingQueue<SpecificOrder>());
+        return exchangeCancellationQueues.get(exchange);
+      }
+    }
+
+    @Override
+    public boolean cancelBatch(List<SpecificOrder> batch) throws Exception {
+      if (helper == null) return false;
+      List<String> orderIds = new ArrayList<String>(batch.size());
+      for (SpecificOrder order : batch) orderIds.add(order.getRemoteKey());
+      Listing listing = batch.get(0).getMarket().getListing();
+      TradeService tradeService = XchangeUtil.getExchangeForMarket(exchange).getTradeService();
+      acquire(exchange, RateLimiter.Priority.CANCEL);
+      if (threads > 1) return helper.cancelOrders(tradeService, listing, orderIds);
+      synchronized (tradeService) {
+        return helper.cancelOrders(tradeService, listing, orderIds);
+      }
+    }
+
+    @Override
+    public boolean cancel(SpecificOrder order) throws Exception {
+      TradeService tradeService = XchangeUtil.getExchangeForMarket(exchange).getTradeService();
+      acquire(exchange, RateLimiter.Priority.CANCEL);
+      if (threads > 1) return cancel(tradeService, order);
+      synchronized (tradeService) {
+        return cancel(tradeService, order);
+      }
+    }
+
+    private boolean cancel(TradeService tradeService, SpecificOrder order) throws Exception {
+      if (helper != null)
+        return helper.cancelOrder(
+            tradeService, order.getMarket().getListing(), order.getRemoteKey());
+      return tradeService.cancelOrder(order.getRemoteKey());
+    }
+
+    @Override
+    public void confirm(Market market) {
+      try {
+        Object contract = null;
+        if (helper != null && market.getListing().getPrompt() != null)
+          contract = helper.getContractForListing(market.getListing());
+        getOrders(
+            helper,
+            market,
+            XchangeUtil.getCurrencyPairForListing(market.getListing()),
+            0,
+            0,
+            contract,
+            false,
+            exchange,
+            0,
+            (rateLimiters.get(exchange) != null
+                ? rateLimiters.get(exchange).getPeriod().getStandardSeconds()
+                : 5L));
+      } catch (Throwable e) {
+        log.error(
+            this.getClass().getSimpleName() + ":confirm - unable to confirm cancels on " + market,
+            e);
+      }
+    }
+
+    @Override
+    public void cancelled(SpecificOrder order) {
+      updateParentFillPositionType(order);
+    }
+
+    @Override
+    public void failed(Exception e) {
+      reportError(exchange, e);
+    }
+
+    private final Exchange exchange;
+    private final Helper helper;
+    private final int threads;
+  }
+
   @Override
   protected OrderState getOrderStateFromOrderService(org.cryptocoinpartners.schema.Order order)
       throws Throwable {
@@ -1486,6 +1736,7 @@ public class XchangeOrderService extends BaseOrderService {
         // TODO: need to check prompts to ensure they have the full OKCOIN_THISWEEK:BTC.USD.THISWEEK
         // not just OKCOIN_THISWEEK:BTC.USD
         try {
+          acquire(specificOrder.getMarket().getExchange(), RateLimiter.Priority.ORDER_STATUS);
           synchronized (tradeService) {
             exchangeOrders =
                 tradeService.getOrder(openOrders.toArray(new String[openOrders.size()]));
@@ -13,6 +13,7 @@ import javax.persistence.Transient;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.BalanceDao;
 import org.cryptocoinpartners.schema.dao.Dao;
+import org.cryptocoinpartners.util.PersistenceTrace;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
@@ -178,7 +179,7 @@ public class Balance extends Holding {
       log.trace(
           "Balance - Merge : Merge of Balance {} called from class {}",
           this.getUuid(),
-          Thread.currentThread().getStackTrace()[2]);
+          PersistenceTrace.callSite(log));
 
       balanceDao.merge(this);
       // if (duplicate == null || duplicate.isEmpty())
@@ -245,7 +246,7 @@ public class Balance extends Holding {
     log.debug(
         "Balance - Persist : Persist of Balance {} called from class {}",
         this.getUuid(),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     try {
       balanceDao.persist(this);
@@ -1,5 +1,7 @@
 package org.cryptocoinpartners.schema;
 
+import java.util.UUID;
+
 import javax.annotation.Nullable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -105,6 +107,46 @@ public class Bar extends MarketData {
     this.sellVolume = sellVolume;
   }
 
+  /**
+   * Builds a detached Bar from the columns of its database row, keeping its uuid, timeReceived and
+   * remoteKey as JPA would. Used by MarketDataReader to read Bars without a persistence context.
+   */
+  public static Bar fromRow(
+      Long id,
+      @Nullable UUID uuid,
+      Instant time,
+      Instant timeReceived,
+      @Nullable String remoteKey,
+      Double interval,
+      Double open,
+      Double close,
+      Double high,
+      Double low,
+      Double volume,
+      Double buyVolume,
+      Double sellVolume,
+      Tradeable market) {
+    Bar bar =
+        new Bar(
+            time,
+            timeReceived,
+            remoteKey,
+            interval,
+            open,
+            close,
+            high,
+            low,
+            volume,
+            buyVolume,
+            sellVolume,
+            market);
+    bar.setTimeReceived(timeReceived);
+    bar.setId(id);
+    if (uuid != null) bar.setUuid(uuid);
+    bar.setPersisted(true);
+    return bar;
+  }
+
   public <T> T queryZeroOne(Class<T> resultType, String queryStr, Object... params) {
 
     //  em = createEntityManager();
@@ -12,9 +12,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import javax.annotation.Nullable;
+import javax.persistence.ConstraintMode;
 import javax.persistence.Entity;
+import javax.persistence.ForeignKey;
 import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
@@ -330,6 +333,24 @@ public class Book extends MarketData implements Spread {
 
   }
 
+  /** adds a bid level already expressed as price and volume counts of the market's bases */
+  public synchronized Book addBid(long priceCount, long volumeCount) {
+    synchronized (this.bids) {
+      this.bids.add(
+          Offer.bid(this.getMarket(), this.getTime(), this.getTimeReceived(), priceCount, volumeCount));
+    }
+    return this;
+  }
+
+  /** adds an ask level already expressed as price and a positive volume count */
+  public synchronized Book addAsk(long priceCount, long volumeCount) {
+    synchronized (this.asks) {
+      this.asks.add(
+          Offer.ask(this.getMarket(), this.getTime(), this.getTimeReceived(), priceCount, volumeCount));
+    }
+    return this;
+  }
+
   public <T> T queryZeroOne(Class<T> resultType, String queryStr, Object... params) {
 
     //  em = createEntityManager();
@@ -517,6 +538,47 @@ public class Book extends MarketData implements Spread {
     return sb.toString();
   }
 
+  /**
+   * Builds a detached Book from the columns of its database row, decoding the blobs as postLoad()
+   * does. Used by MarketDataReader to read Books without a persistence context, so any parent must
+   * already have been built the same way.
+   */
+  public static Book fromRow(
+      Long id,
+      @Nullable UUID uuid,
+      Instant time,
+      Instant timeReceived,
+      @Nullable String remoteKey,
+      Tradeable market,
+      @Nullable Book parent,
+      @Nullable byte[] bidInsertionsBlob,
+      @Nullable byte[] askInsertionsBlob,
+      @Nullable byte[] bidDeletionsBlob,
+      @Nullable byte[] askDeletionsBlob) {
+    Book book = new Book();
+    book.setId(id);
+    if (uuid != null) book.setUuid(uuid);
+    book.setTime(time);
+    book.setTimeReceived(timeReceived);
+    book.setRemoteKey(remoteKey);
+    book.setMarket(market);
+    book.bids = book.convertDatabaseBlobToQuoteList(bidInsertionsBlob);
+    book.asks = book.convertDatabaseBlobToQuoteList(askInsertionsBlob);
+    if (parent != null) {
+      book.parent = parent;
+      book.bidDeletionsBlob = bidDeletionsBlob;
+      book.askDeletionsBlob = askDeletionsBlob;
+      book.needToResolveDiff = true;
+    } else book.sortBook();
+    book.setPersisted(true);
+    return book;
+  }
+
+  /** @return the quotes encoded as the insertion blob of a full Book, as stored in the database */
+  public static byte[] toDatabaseBlob(List<? extends Offer> quotes) {
+    return convertQuotesToDatabaseBlob(quotes);
+  }
+
   // JPA
   protected Book() {}
 
@@ -532,7 +594,7 @@ public class Book extends MarketData implements Spread {
   // cascade = { CascadeType.REFRESH, CascadeType.MERGE }
   @Override
   @ManyToOne(optional = true)
-  @JoinColumn(name = "parent")
+  @JoinColumn(name = "parent", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
   // , cascade = { CascadeType.REFRESH, CascadeType.MERGE, CascadeType.PERSIST })
   public Book getParent() {
     return parent;
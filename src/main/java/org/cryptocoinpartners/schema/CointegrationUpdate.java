@@ -0,0 +1,141 @@
+package org.cryptocoinpartners.schema;
+
+import javax.annotation.Nullable;
+import javax.persistence.Transient;
+
+import org.cryptocoinpartners.schema.dao.Dao;
+import org.joda.time.Instant;
+
+/**
+ * Published by the CointegrationBank each time it steps a pair, carrying the rolling hedge ratio of
+ * market = alpha + beta * hedge and the spread of the bar which produced it. A pair strategy can
+ * trade the zScore directly rather than refitting the pair itself. It is never persisted.
+ */
+public class CointegrationUpdate extends Event {
+
+  public CointegrationUpdate(
+      Instant time,
+      Tradeable market,
+      Tradeable hedge,
+      double alpha,
+      double beta,
+      double error,
+      double variance,
+      long steps) {
+    super(time);
+    this.market = market;
+    this.hedge = hedge;
+    this.alpha = alpha;
+    this.beta = beta;
+    this.error = error;
+    this.variance = variance;
+    this.steps = steps;
+  }
+
+  /** the dependent leg of the pair, priced as alpha + beta times the hedge */
+  public Tradeable getMarket() {
+    return market;
+  }
+
+  public Tradeable getHedge() {
+    return hedge;
+  }
+
+  public double getAlpha() {
+    return alpha;
+  }
+
+  /** the hedge ratio, units of the hedge to hold against one unit of the market */
+  public double getBeta() {
+    return beta;
+  }
+
+  /** the spread market - alpha - beta * hedge predicted before this step */
+  public double getError() {
+    return error;
+  }
+
+  public double getVariance() {
+    return variance;
+  }
+
+  /** the spread in standard deviations, or 0 if its variance is not yet positive */
+  public double getZScore() {
+    return variance > 0 ? error / Math.sqrt(variance) : 0;
+  }
+
+  /** the number of bars the pair has been stepped with, including this one */
+  public long getSteps() {
+    return steps;
+  }
+
+  @Override
+  public String toString() {
+    return "CointegrationUpdate{"
+        + market
+        + " = "
+        + alpha
+        + " + "
+        + beta
+        + " * "
+        + hedge
+        + " error="
+        + error
+        + " z="
+        + getZScore()
+        + " steps="
+        + steps
+        + "}";
+  }
+
+  @Override
+  @Transient
+  @Nullable
+  public EntityBase getParent() {
+    return null;
+  }
+
+  @Override
+  @Transient
+  public Dao getDao() {
+    return null;
+  }
+
+  @Override
+  @Transient
+  public void setDao(Dao dao) {}
+
+  @Override
+  public void persit() {}
+
+  @Override
+  public void persitParents() {}
+
+  @Override
+  public void detach() {}
+
+  @Override
+  public void merge() {}
+
+  @Override
+  public void delete() {}
+
+  @Override
+  public EntityBase refresh() {
+    return this;
+  }
+
+  @Override
+  public void prePersist() {}
+
+  @Override
+  public void postPersist() {}
+
+  private final Tradeable market;
+  private final Tradeable hedge;
+  private final double alpha;
+  private final double beta;
+  private final double error;
+  private final double variance;
+  private final long steps;
+}
@@ -1,9 +1,9 @@
 package org.cryptocoinpartners.schema;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.Cacheable;
 import javax.persistence.Entity;
@@ -39,20 +39,22 @@ public class Currency extends Asset {
 	@Inject
 	protected transient static CurrencyFactory currencyFactory;
 
-	private static Map<String, Currency> currencyMap = new HashMap<String, Currency>();
+	private static Map<String, Currency> currencyMap = new ConcurrentHashMap<String, Currency>();
 
 	public boolean isFiat() {
 		return fiat;
 	}
 
 	public static Currency forSymbol(String symbol) {
+		if (symbol == null)
+			return null;
 		if (currencyMap.isEmpty())
 			allSymbols();
 		if (currencyMap.get(symbol) == null) {
 			Currency currency = EM.queryOne(Currency.class, "select c from Currency c where symbol=?1", symbol);
 			if (currency != null) {
-				currencyMap.put(symbol, currency);
 				currency.setPersisted(true);
+				currencyMap.put(symbol, EntityRegistry.intern(currency));
 			}
 		}
 		return currencyMap.get(symbol);
@@ -64,7 +66,7 @@ public class Currency extends Asset {
 			List<Currency> currencies = EM.queryList(Currency.class, "select c from Currency c");
 			for (Currency currency : currencies) {
 				currency.setPersisted(true);
-				currencyMap.put(currency.getSymbol(), currency);
+				currencyMap.put(currency.getSymbol(), EntityRegistry.intern(currency));
 			}
 		}
 		return currencyMap.keySet();
@@ -97,7 +99,7 @@ public class Currency extends Asset {
 			//Injector.root().injectMembers(currency);
 			// final Currency currency = currencyFactory.create(isFiat, symbol, basis);
 			currency.setRevision(currency.getRevision() + 1);
-			currencyMap.put(symbol, currency);
+			currencyMap.put(symbol, EntityRegistry.intern(currency));
 			try {
 				currencyDao.persistEntities(false, currency);
 			} catch (Throwable e1) {
@@ -115,7 +117,7 @@ public class Currency extends Asset {
 		} catch (NoResultException e) {
 			final Currency currency = new Currency(isFiat, symbol, basis, multiplier);
 			currency.setRevision(currency.getRevision() + 1);
-			currencyMap.put(symbol, currency);
+			currencyMap.put(symbol, EntityRegistry.intern(currency));
 			try {
 				currencyDao.persistEntities(false, currency);
 			} catch (Throwable e1) {
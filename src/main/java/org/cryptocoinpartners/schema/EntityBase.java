@@ -39,6 +39,8 @@ public abstract class EntityBase
   private PersistanceAction persistanceAction;
   // Only 1 thread at a time can upda
   private final transient Semaphore updateLock = new Semaphore(1);
+  // held plus one, so the zero left by deserialisation still reads as not interned
+  private transient int ordinal;
 
   @Transient
   public long getDelay() {
@@ -82,6 +84,16 @@ public abstract class EntityBase
     // return 1;
   }
 
+  /** @return the dense ordinal given by EntityRegistry when this entity was interned, or -1 */
+  @Transient
+  public int getOrdinal() {
+    return ordinal - 1;
+  }
+
+  void setOrdinal(int ordinal) {
+    this.ordinal = ordinal + 1;
+  }
+
   @Transient
   public boolean isPersisted() {
 
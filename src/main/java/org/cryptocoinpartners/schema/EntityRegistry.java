@@ -0,0 +1,212 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cryptocoinpartners.util.EM;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interns the reference entities, Assets, Prompts, Exchanges, Listings and Markets, so each symbol
+ * resolves to one shared instance. Every interned entity is given a dense ordinal per type, which
+ * hot-path structures use to index arrays instead of hashing entities or symbol strings.
+ *
+ * <p>Lookups by symbol or ordinal never lock. The forSymbol and findOrCreate methods of the entities
+ * ask the registry before the database, so once load() has interned everything at startup they no
+ * longer query.
+ */
+public class EntityRegistry {
+
+  /** Interns every Asset, Prompt, Exchange, Listing and Market held in the database */
+  public static void load() {
+    for (String symbol : Currency.allSymbols()) Currency.forSymbol(symbol);
+    for (String symbol : Prompt.allSymbols()) Prompt.forSymbol(symbol);
+    for (Exchange exchange : EM.queryList(Exchange.class, "select e from Exchange e")) {
+      exchange.setPersisted(true);
+      intern(exchange);
+    }
+    for (Listing listing : EM.queryList(Listing.class, "select x from Listing x")) {
+      listing.setPersisted(true);
+      intern(listing);
+    }
+    for (Market market : EM.queryList(Market.class, "select m from Market m")) {
+      market.setPersisted(true);
+      intern(market);
+    }
+    log.info(
+        EntityRegistry.class.getSimpleName()
+            + ":load - interned "
+            + assets.size()
+            + " assets, "
+            + exchanges.size()
+            + " exchanges, "
+            + listings.size()
+            + " listings and "
+            + markets.size()
+            + " markets");
+  }
+
+  /** @return the interned instance of the asset, registering it if it is the first seen */
+  @SuppressWarnings("unchecked")
+  public static <T extends Asset> T intern(T asset) {
+    return asset == null ? null : (T) assets.intern(asset.getSymbol(), asset);
+  }
+
+  public static Prompt intern(Prompt prompt) {
+    return prompt == null ? null : prompts.intern(prompt.getSymbol(), prompt);
+  }
+
+  public static Exchange intern(Exchange exchange) {
+    return exchange == null ? null : exchanges.intern(exchange.getSymbol(), exchange);
+  }
+
+  public static Listing intern(Listing listing) {
+    if (listing == null) return null;
+    intern(listing.getBase());
+    intern(listing.getQuote());
+    intern(listing.getPrompt());
+    return listings.intern(listing.getSymbol(), listing);
+  }
+
+  public static Market intern(Market market) {
+    if (market == null) return null;
+    intern(market.getExchange());
+    intern(market.getListing());
+    return markets.intern(market.getSymbol(), market);
+  }
+
+  public static int ordinal(Asset asset) {
+    return assets.ordinal(asset.getSymbol(), asset);
+  }
+
+  public static int ordinal(Exchange exchange) {
+    return exchanges.ordinal(exchange.getSymbol(), exchange);
+  }
+
+  public static int ordinal(Listing listing) {
+    return listings.ordinal(listing.getSymbol(), listing);
+  }
+
+  public static int ordinal(Market market) {
+    return markets.ordinal(market.getSymbol(), market);
+  }
+
+  public static Asset asset(String symbol) {
+    return assets.get(symbol);
+  }
+
+  public static Prompt prompt(String symbol) {
+    return prompts.get(symbol);
+  }
+
+  public static Exchange exchange(String symbol) {
+    return exchanges.get(symbol);
+  }
+
+  public static Listing listing(String symbol) {
+    return listings.get(symbol);
+  }
+
+  public static Listing listing(Asset base, Asset quote, Prompt prompt) {
+    if (base == null || quote == null) return null;
+    String symbol = base.getSymbol() + '.' + quote.getSymbol();
+    return listings.get(prompt == null ? symbol : symbol + '.' + prompt.getSymbol());
+  }
+
+  public static Market market(String symbol) {
+    return markets.get(symbol);
+  }
+
+  public static Market market(Exchange exchange, Listing listing) {
+    if (exchange == null || listing == null) return null;
+    return markets.get(exchange.getSymbol() + ':' + listing.getSymbol());
+  }
+
+  public static Asset asset(int ordinal) {
+    return assets.get(ordinal);
+  }
+
+  public static Exchange exchange(int ordinal) {
+    return exchanges.get(ordinal);
+  }
+
+  public static Listing listing(int ordinal) {
+    return listings.get(ordinal);
+  }
+
+  public static Market market(int ordinal) {
+    return markets.get(ordinal);
+  }
+
+  /** @return the number of ordinals given out, every asset ordinal is below it */
+  public static int getAssetCount() {
+    return assets.size();
+  }
+
+  public static int getExchangeCount() {
+    return exchanges.size();
+  }
+
+  public static int getListingCount() {
+    return listings.size();
+  }
+
+  public static int getMarketCount() {
+    return markets.size();
+  }
+
+  private static class Interner<T extends EntityBase> {
+
+    T get(String symbol) {
+      return symbol == null ? null : bySymbol.get(symbol);
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int ordinal) {
+      EntityBase[] table = byOrdinal;
+      return ordinal >= 0 && ordinal < table.length ? (T) table[ordinal] : null;
+    }
+
+    int size() {
+      return size;
+    }
+
+    T intern(String symbol, T entity) {
+      T interned = bySymbol.get(symbol);
+      if (interned == null)
+        synchronized (this) {
+          interned = bySymbol.get(symbol);
+          if (interned == null) {
+            EntityBase[] table = byOrdinal;
+            if (size == table.length) table = Arrays.copyOf(table, size * 2);
+            table[size] = entity;
+            entity.setOrdinal(size);
+            byOrdinal = table;
+            size++;
+            bySymbol.put(symbol, entity);
+            return entity;
+          }
+        }
+      // copies loaded separately from the interned instance share its ordinal
+      if (entity.getOrdinal() < 0) entity.setOrdinal(interned.getOrdinal());
+      return interned;
+    }
+
+    int ordinal(String symbol, T entity) {
+      int ordinal = entity.getOrdinal();
+      return ordinal >= 0 ? ordinal : intern(symbol, entity).getOrdinal();
+    }
+
+    private final ConcurrentHashMap<String, T> bySymbol = new ConcurrentHashMap<String, T>();
+    private volatile EntityBase[] byOrdinal = new EntityBase[64];
+    private volatile int size;
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.entityRegistry");
+  private static final Interner<Asset> assets = new Interner<Asset>();
+  private static final Interner<Prompt> prompts = new Interner<Prompt>();
+  private static final Interner<Exchange> exchanges = new Interner<Exchange>();
+  private static final Interner<Listing> listings = new Interner<Listing>();
+  private static final Interner<Market> markets = new Interner<Market>();
+}
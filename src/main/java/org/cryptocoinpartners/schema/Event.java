@@ -4,6 +4,7 @@ import java.io.Serializable;
 
 import javax.persistence.MappedSuperclass;
 
+import org.cryptocoinpartners.util.Indexed;
 import org.joda.time.Instant;
 
 /**
@@ -12,6 +13,7 @@ import org.joda.time.Instant;
  * @author Tim Olson
  */
 @MappedSuperclass
+@Indexed
 //@Inheritance(strategy = InheritanceType.TABLE_PER_CLASS)
 public abstract class Event extends Temporal implements Serializable {
 
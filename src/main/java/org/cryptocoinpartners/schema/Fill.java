@@ -37,6 +37,7 @@ import org.cryptocoinpartners.schema.dao.FillDao;
 import org.cryptocoinpartners.service.OrderService;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.FeesUtil;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.hibernate.Hibernate;
 import org.joda.time.Instant;
 import org.joda.time.format.DateTimeFormat;
@@ -792,7 +793,7 @@ public class Fill extends RemoteEvent {
     log.trace(
         "Fill:loadAllChildOrdersByFill loading child order for fill {} . Calling class {}",
         parentFill.getUuid(),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
     try {
 
       log.trace(
@@ -1184,7 +1185,7 @@ public class Fill extends RemoteEvent {
     log.debug(
         "Fill - Delete : Delete of Fill {} called from class {}",
         this.getUuid(),
-        Thread.currentThread().getStackTrace()[2]);
+        PersistenceTrace.callSite(log));
 
     // TODO Auto-generated method stub
 
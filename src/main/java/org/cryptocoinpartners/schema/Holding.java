@@ -12,6 +12,7 @@ import javax.persistence.Transient;
 
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.schema.dao.HoldingDao;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,7 +43,7 @@ public abstract class Holding extends EntityBase {
 
   public static Holding forSymbol(String symbol) {
     log.debug(
-        "Holding - forSymbol: called from class " + Thread.currentThread().getStackTrace()[2]);
+        "Holding - forSymbol: called from class " + PersistenceTrace.callSite(log));
     Matcher matcher = Pattern.compile("(\\w+):(\\w+)").matcher(symbol);
     if (!matcher.matches())
       throw new IllegalArgumentException("Could not parse Holding symbol " + symbol);
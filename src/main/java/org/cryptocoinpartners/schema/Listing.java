@@ -1,9 +1,9 @@
 package org.cryptocoinpartners.schema;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.Cacheable;
 import javax.persistence.Entity;
@@ -46,7 +46,7 @@ import com.google.inject.assistedinject.AssistedInject;
 public class Listing extends EntityBase {
 	@Inject
 	protected transient static ListingJpaDao listingDao;
-	protected static Set<Listing> listings = new HashSet<Listing>();
+	protected static Set<Listing> listings = ConcurrentHashMap.newKeySet();
 
 	@Inject
 	protected transient static ListingFactory listingFactory;
@@ -84,12 +84,9 @@ public class Listing extends EntityBase {
 
 	/** will create the listing if it doesn't exist */
 	public static Listing forPair(Asset base, Asset quote) {
-		Listing listing = null;
-		for (Listing mappedListing : listings) {
-			if (mappedListing.getBase().equals(base) && mappedListing.getQuote().equals(quote) && mappedListing.getPrompt() == null)
-				return mappedListing;
-		}
-		//this is very slow, we should cache it in a map!
+		Listing listing = EntityRegistry.listing(base, quote, null);
+		if (listing != null)
+			return listing;
 		try {
 
 			listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBase", base, quote);
@@ -98,8 +95,8 @@ public class Listing extends EntityBase {
 
 				try {
 					listingDao.persistEntities(false, listing);
-					if (listing != null)
-						listings.add(listing);
+					listing = EntityRegistry.intern(listing);
+					listings.add(listing);
 				} catch (Throwable e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -107,8 +104,8 @@ public class Listing extends EntityBase {
 
 			} else {
 				listing.setPersisted(true);
-				if (listing != null)
-					listings.add(listing);
+				listing = EntityRegistry.intern(listing);
+				listings.add(listing);
 			}
 
 			return listing;
@@ -117,8 +114,8 @@ public class Listing extends EntityBase {
 
 			try {
 				listingDao.persistEntities(false, listing);
-				if (listing != null)
-					listings.add(listing);
+				listing = EntityRegistry.intern(listing);
+				listings.add(listing);
 			} catch (Throwable ex) {
 				// TODO Auto-generated catch block
 				ex.printStackTrace();
@@ -129,12 +126,9 @@ public class Listing extends EntityBase {
 	}
 
 	public static Listing forPair(Asset base, Asset quote, Prompt prompt) {
-		Listing listing = null;
-		for (Listing mappedListing : listings) {
-			if (mappedListing.getBase().equals(base) && mappedListing.getQuote().equals(quote)
-					&& (mappedListing.getPrompt() != null && mappedListing.getPrompt().equals(prompt)))
-				return mappedListing;
-		}
+		Listing listing = prompt == null ? null : EntityRegistry.listing(base, quote, prompt);
+		if (listing != null)
+			return listing;
 		try {
 
 			listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBasePrompt", base, quote, prompt);
@@ -143,24 +137,24 @@ public class Listing extends EntityBase {
 
 				try {
 					listingDao.persistEntities(false, listing);
-					if (listing != null)
-						listings.add(listing);
+					listing = EntityRegistry.intern(listing);
+					listings.add(listing);
 				} catch (Throwable e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
 			} else {
 				listing.setPersisted(true);
-				if (listing != null)
-					listings.add(listing);
+				listing = EntityRegistry.intern(listing);
+				listings.add(listing);
 			}
 			return listing;
 		} catch (NoResultException e) {
 			try {
 				listing = listingFactory.create(base, quote, prompt);
 				listingDao.persistEntities(false, listing);
-				if (listing != null)
-					listings.add(listing);
+				listing = EntityRegistry.intern(listing);
+				listings.add(listing);
 			} catch (Throwable ex) {
 				// TODO Auto-generated catch block
 				ex.printStackTrace();
@@ -335,6 +329,9 @@ public class Listing extends EntityBase {
 
 	public static Listing forSymbol(String symbol) {
 		symbol = symbol.toUpperCase();
+		Listing interned = EntityRegistry.listing(symbol);
+		if (interned != null)
+			return interned;
 		final int dot = symbol.indexOf('.');
 		if (dot == -1)
 			throw new IllegalArgumentException("Invalid Listing symbol: \"" + symbol + "\"");
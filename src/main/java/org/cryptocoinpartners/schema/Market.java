@@ -60,15 +60,19 @@ public class Market extends Tradeable {
   @Inject protected static transient ExchangeFactory exchangeFactory;
   @Inject protected static transient MarketJpaDao marketDao;
 
-  // TODO
-  // add a set of markets, that we keep and get from here, if not presnet in set go to db
-  /** adds the Market to the database if it does not already exist */
-  public static synchronized Market findOrCreate(Exchange exchange, Listing listing) {
+  /**
+   * adds the Market to the database if it does not already exist. Markets already interned in the
+   * EntityRegistry are returned without locking or querying the database.
+   */
+  public static Market findOrCreate(Exchange exchange, Listing listing) {
+    Market interned = EntityRegistry.market(exchange, listing);
+    if (interned != null) return interned;
     return findOrCreate(exchange, listing, listing.getPriceBasis(), listing.getVolumeBasis());
   }
 
-  public static synchronized Market findOrCreate(
-      Exchange exchange, Listing listing, double minOrderSize) {
+  public static Market findOrCreate(Exchange exchange, Listing listing, double minOrderSize) {
+    Market interned = EntityRegistry.market(exchange, listing);
+    if (interned != null) return interned;
     return findOrCreate(
         exchange, listing, listing.getPriceBasis(), listing.getVolumeBasis(), minOrderSize);
   }
@@ -103,7 +107,14 @@ public class Market extends Tradeable {
     market.getMarkets().remove(this);
   }
 
-  public static synchronized Market findOrCreate(
+  public static Market findOrCreate(
+      Exchange exchange, Listing listing, double quoteBasis, double volumeBasis) {
+    Market interned = EntityRegistry.market(exchange, listing);
+    if (interned != null) return interned;
+    return load(exchange, listing, quoteBasis, volumeBasis);
+  }
+
+  private static synchronized Market load(
       Exchange exchange, Listing listing, double quoteBasis, double volumeBasis) {
     // final String queryStr = "select m from Market m where exchange=?1 and listing=?2";
     try {
@@ -114,17 +125,14 @@ public class Market extends Tradeable {
       List<Market> results =
           EM.namedQueryList(Market.class, "Market.findByMarket", exchange, listing);
       if (results != null && !results.isEmpty() && results.get(0) != null) {
-        for (Market result : results) {
-          result.setPersisted(true);
-          if (result != null) markets.add(result);
-        }
-        return results.get(0);
+        return internAll(results);
       } else {
         Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis);
         ml.setPeristanceAction(PersistanceAction.NEW);
         ml.setRevision(ml.getRevision() + 1);
         ml.getDao().persistEntities(false, ml);
-        if (ml != null) markets.add(ml);
+        ml = EntityRegistry.intern(ml);
+        markets.add(ml);
         //  Market ml = new Market(exchange, listing, quoteBasis, volumeBasis);
 
         // marketDao.persist(ml);
@@ -138,7 +146,8 @@ public class Market extends Tradeable {
         ml.setPeristanceAction(PersistanceAction.NEW);
         ml.setRevision(ml.getRevision() + 1);
         marketDao.persistEntities(false, ml);
-        if (ml != null) markets.add(ml);
+        ml = EntityRegistry.intern(ml);
+        markets.add(ml);
       } catch (Throwable e1) {
         // TODO Auto-generated catch block
         e1.printStackTrace();
@@ -155,7 +164,18 @@ public class Market extends Tradeable {
     }
   }
 
-  public static synchronized Market findOrCreate(
+  public static Market findOrCreate(
+      Exchange exchange,
+      Listing listing,
+      double quoteBasis,
+      double volumeBasis,
+      double minOrderSize) {
+    Market interned = EntityRegistry.market(exchange, listing);
+    if (interned != null) return interned;
+    return load(exchange, listing, quoteBasis, volumeBasis, minOrderSize);
+  }
+
+  private static synchronized Market load(
       Exchange exchange,
       Listing listing,
       double quoteBasis,
@@ -170,17 +190,12 @@ public class Market extends Tradeable {
       List<Market> results =
           EM.namedQueryList(Market.class, "Market.findByMarket", exchange, listing);
       if (results != null && !results.isEmpty() && results.get(0) != null) {
-        for (Market result : results) {
-          result.setPersisted(true);
-          if (result != null) markets.add(result);
-        }
-
-        if (results.get(0).getMinimumOrderSize(results.get(0)) == minOrderSize)
-          return results.get(0);
+        Market found = internAll(results);
+        if (found.getMinimumOrderSize(found) == minOrderSize) return found;
         else {
-          results.get(0).setMinimumOrderSize(minOrderSize);
-          results.get(0).merge();
-          return results.get(0);
+          found.setMinimumOrderSize(minOrderSize);
+          found.merge();
+          return found;
         }
       } else {
         Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis, minOrderSize);
@@ -188,7 +203,8 @@ public class Market extends Tradeable {
           ml.setPeristanceAction(PersistanceAction.NEW);
           ml.setRevision(ml.getRevision() + 1);
           marketDao.persistEntities(false, ml);
-          if (ml != null) markets.add(ml);
+          ml = EntityRegistry.intern(ml);
+          markets.add(ml);
         } catch (Throwable e) {
           // TODO Auto-generated catch block
           e.printStackTrace();
@@ -207,7 +223,8 @@ public class Market extends Tradeable {
         ml.setPeristanceAction(PersistanceAction.NEW);
         ml.setRevision(ml.getRevision() + 1);
         marketDao.persistEntities(false, ml);
-        if (ml != null) markets.add(ml);
+        ml = EntityRegistry.intern(ml);
+        markets.add(ml);
       } catch (Throwable e1) {
         // TODO Auto-generated catch block
         e1.printStackTrace();
@@ -220,6 +237,23 @@ public class Market extends Tradeable {
     }
   }
 
+  /**
+   * interns the loaded markets
+   *
+   * @return the interned instance of the first, which is a copy loaded earlier if there is one
+   */
+  private static Market internAll(List<Market> results) {
+    Market first = null;
+    for (Market result : results) {
+      if (result == null) continue;
+      result.setPersisted(true);
+      Market interned = EntityRegistry.intern(result);
+      markets.add(interned);
+      if (first == null) first = interned;
+    }
+    return first;
+  }
+
   /** @return active Markets for the given exchange */
   public static List<Market> find(Exchange exchange) {
 
@@ -1,6 +1,8 @@
 package org.cryptocoinpartners.schema;
 
 import javax.annotation.Nullable;
+import javax.persistence.ConstraintMode;
+import javax.persistence.ForeignKey;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
@@ -25,8 +27,9 @@ public abstract class MarketData extends RemoteEvent {
     this.market = market;
   }
 
+  // no foreign key constraint, so the market data tables can be range partitioned
   @ManyToOne(optional = false)
-  @JoinColumn(name = "market")
+  @JoinColumn(name = "market", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
   public Tradeable getMarket() {
 
     return market;
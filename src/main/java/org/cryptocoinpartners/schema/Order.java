@@ -44,6 +44,7 @@ import org.cryptocoinpartners.schema.dao.FillJpaDao;
 import org.cryptocoinpartners.schema.dao.OrderDao;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.FeesUtil;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.cryptocoinpartners.util.Remainder;
 import org.hibernate.Hibernate;
 import org.hibernate.annotations.Type;
@@ -344,7 +345,7 @@ public abstract class Order extends Event {
           System.identityHashCode(order),
           this.getUuid(),
           System.identityHashCode(this),
-          Thread.currentThread().getStackTrace()[2]);
+          PersistenceTrace.callSite(log));
 
     if (order == null || (order != null && !order.equals(this))) {
 
@@ -364,7 +365,7 @@ public abstract class Order extends Event {
               + " / "
               + System.identityHashCode(this)
               + ". Calling class "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
       //   for (StackTraceElement ste : Thread.currentThread().getStackTrace()) {
       //     log.error(ste.toString());
       // }
@@ -647,7 +648,7 @@ public abstract class Order extends Event {
             + "/"
             + System.identityHashCode(parentOrder)
             + " called from class "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
 
     Map withFillsHints = new HashMap();
     Map withTransHints = new HashMap();
@@ -740,7 +741,7 @@ public abstract class Order extends Event {
                   + " for order "
                   + orderWithFills.getUuid()
                   + ". Calling class "
-                  + Thread.currentThread().getStackTrace()[2]);
+                  + PersistenceTrace.callSite(log));
           fill.loadAllChildOrdersByFill(fill, orders, fills);
 
         } else {
@@ -1266,7 +1267,7 @@ public abstract class Order extends Event {
           "Order - Merge : Merge of Order "
               + this.getUuid()
               + " called from class "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
 
       orderDao.merge(this);
       // if (duplicate == null || duplicate.isEmpty())
@@ -1409,7 +1410,7 @@ public abstract class Order extends Event {
       log.debug(
           "Order - Persist : Persit of Order {} called from class {} ",
           this.getUuid(),
-          Thread.currentThread().getStackTrace()[2]);
+          PersistenceTrace.callSite(log));
       this.setPeristanceAction(PersistanceAction.NEW);
       this.setRevision(this.getRevision() + 1);
 
@@ -1553,7 +1554,7 @@ public abstract class Order extends Event {
             + "/"
             + System.identityHashCode(order)
             + " called from class "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
     if (!getOrderChildren().contains(order) && order != null && !order.equals(this))
       synchronized (getOrderChildren()) {
         getOrderChildren().add(order);
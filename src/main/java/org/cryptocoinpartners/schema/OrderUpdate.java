@@ -21,6 +21,7 @@ import org.cryptocoinpartners.enumeration.OrderState;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.schema.dao.OrderUpdateDao;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.joda.time.Instant;
 
 import com.google.inject.Inject;
@@ -216,7 +217,7 @@ public class OrderUpdate extends Event {
               + " - Persist : Persit of Order Update "
               + this.getUuid()
               + " called from class "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
 
       this.setPeristanceAction(PersistanceAction.NEW);
       this.setRevision(this.getRevision() + 1);
@@ -286,7 +287,7 @@ public class OrderUpdate extends Event {
               + " - Merge : Merge of Order Update "
               + this.getUuid()
               + " called from class "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
 
       this.setPeristanceAction(PersistanceAction.NEW);
       this.setRevision(this.getRevision() + 1);
@@ -148,30 +148,10 @@ public class Portfolio extends EntityBase {
    */
   public @Transient List<Fill> getDetailedPositions() {
     List<Fill> allPositions = new CopyOnWriteArrayList<Fill>();
-    synchronized (positionsMap) {
-      for (Asset asset : positionsMap.keySet()) {
-        // Asset asset = it.next();
-        for (Exchange exchange : positionsMap.get(asset).keySet()) {
-          for (Listing listing : positionsMap.get(asset).get(exchange).keySet()) {
-            for (TransactionType transactionType :
-                positionsMap.get(asset).get(exchange).get(listing).keySet()) {
-              for (Iterator<Position> itp =
-                      positionsMap
-                          .get(asset)
-                          .get(exchange)
-                          .get(listing)
-                          .get(transactionType)
-                          .iterator();
-                  itp.hasNext(); ) {
-                Position pos = itp.next();
-                synchronized (pos.getFills()) {
-                  for (Fill fill : pos.getFills()) {
-                    allPositions.add(fill);
-                  }
-                }
-              }
-            }
-          }
+    for (Position pos : positionBook.getPositions()) {
+      synchronized (pos.getFills()) {
+        for (Fill fill : pos.getFills()) {
+          allPositions.add(fill);
         }
       }
     }
@@ -313,14 +293,10 @@ public class Portfolio extends EntityBase {
 
   protected @Transient synchronized void persistPositions(
       Asset asset, Exchange exchange, Listing listing) {
-    if (positionsMap != null
-        && positionsMap.get(asset) != null
-        && positionsMap.get(asset).get(exchange) != null
-        && positionsMap.get(asset).get(exchange).get(listing) != null)
-      for (TransactionType transactionType :
-          positionsMap.get(asset).get(exchange).get(listing).keySet()) {
-        for (Position position :
-            positionsMap.get(asset).get(exchange).get(listing).get(transactionType)) {
+    PositionBook.Slot slot = positionBook.get(asset, exchange, listing);
+    if (slot != null)
+      for (TransactionType transactionType : TransactionType.values()) {
+        for (Position position : slot.positions(transactionType)) {
           position.persit();
         }
       }
@@ -357,7 +333,7 @@ public class Portfolio extends EntityBase {
 
     positions.clear();
 
-    positionsMap.clear();
+    positionBook.clear();
     restRealisedProfits();
   }
 
@@ -375,79 +351,7 @@ public class Portfolio extends EntityBase {
   }
 
   public @Transient Collection<Position> getNetPositions() {
-    ConcurrentLinkedQueue<Position> allPositions = new ConcurrentLinkedQueue<Position>();
-    synchronized (positionsMap) {
-      for (Asset asset : positionsMap.keySet()) {
-        for (Exchange exchange : positionsMap.get(asset).keySet()) {
-          for (Listing listing : positionsMap.get(asset).get(exchange).keySet()) {
-            for (TransactionType transactionType :
-                positionsMap.get(asset).get(exchange).get(listing).keySet()) {
-              for (Position position :
-                  positionsMap.get(asset).get(exchange).get(listing).get(transactionType)) {
-                allPositions.add(position);
-                //                            for (Fill pos : position.getFills()) {
-                //
-                //                                if (pos.isLong()) {
-                //                                    longAvgPrice =
-                // ((longAvgPrice.times(longVolume,
-                // Remainder.ROUND_EVEN)).plus(pos.getOpenVolume().times(pos.getPrice(),
-                //
-                // Remainder.ROUND_EVEN))).dividedBy(longVolume.plus(pos.getOpenVolume()),
-                // Remainder.ROUND_EVEN);
-                //                                    if (pos.getStopPrice() != null)
-                //                                        longAvgStopPrice =
-                // ((longAvgStopPrice.times(longVolume,
-                // Remainder.ROUND_EVEN)).plus(pos.getOpenVolume().times(
-                //                                                pos.getStopPrice(),
-                // Remainder.ROUND_EVEN))).dividedBy(longVolume.plus(pos.getOpenVolume()),
-                //                                                Remainder.ROUND_EVEN);
-                //
-                //                                    longVolume =
-                // longVolume.plus(pos.getOpenVolume());
-                //                                } else if (pos.isShort()) {
-                //                                    shortAvgPrice =
-                // ((shortAvgPrice.times(shortVolume,
-                // Remainder.ROUND_EVEN)).plus(pos.getOpenVolume().times(pos.getPrice(),
-                //
-                // Remainder.ROUND_EVEN))).dividedBy(shortVolume.plus(pos.getOpenVolume()),
-                // Remainder.ROUND_EVEN);
-                //                                    if (pos.getStopPrice() != null)
-                //                                        shortAvgStopPrice =
-                // ((shortAvgStopPrice.times(longVolume,
-                // Remainder.ROUND_EVEN)).plus(pos.getOpenVolume().times(
-                //                                                pos.getStopPrice(),
-                // Remainder.ROUND_EVEN))).dividedBy(longVolume.plus(pos.getOpenVolume()),
-                //                                                Remainder.ROUND_EVEN);
-                //
-                //                                    shortVolume =
-                // shortVolume.plus(pos.getOpenVolume());
-                //                                }
-                //                            }
-              }
-              // need to change this to just return one position that is the total, not one long and
-              // one short.
-              //                        if (!shortVolume.isZero() || !longVolume.isZero()) {
-              //                            Market market = Market.findOrCreate(exchange, listing);
-              //                            Fill pos = new Fill();
-              //                            pos.setPortfolio(this);
-              //                            pos.setMarket(market);
-              //
-              //
-              // pos.setPriceCount(longAvgPrice.toBasis(market.getPriceBasis(),
-              // Remainder.ROUND_EVEN).getCount());
-              //
-              // pos.setVolumeCount(longVolume.toBasis(market.getPriceBasis(),
-              // Remainder.ROUND_EVEN).getCount());
-              //                            Position position = new Position(pos);
-              //                            allPositions.add(position);
-              //                        }
-
-            }
-          }
-        }
-      }
-    }
-    return allPositions;
+    return new ConcurrentLinkedQueue<Position>(positionBook.getPositions());
   }
 
   private class handleUpdateWorkingExitRunnable implements Runnable {
@@ -530,17 +434,10 @@ public class Portfolio extends EntityBase {
     // DecimalAmount.ZERO, DecimalAmount.ZERO);
     // new ConcurrentLinkedQueue<Transaction>();
     Collection<Fill> fills = new ArrayList<Fill>();
-    if (positionsMap.get(asset) != null
-        && positionsMap.get(asset).get(market.getExchange()) != null
-        && positionsMap.get(asset).get(market.getExchange()).get(market.getListing()) != null)
-      for (TransactionType transactionType :
-          positionsMap.get(asset).get(market.getExchange()).get(market.getListing()).keySet()) {
-        for (Position detailedPosition :
-            positionsMap
-                .get(asset)
-                .get(market.getExchange())
-                .get(market.getListing())
-                .get(transactionType)) {
+    PositionBook.Slot slot = positionBook.get(asset, market.getExchange(), market.getListing());
+    if (slot != null)
+      for (TransactionType transactionType : TransactionType.values()) {
+        for (Position detailedPosition : slot.positions(transactionType)) {
           synchronized (detailedPosition.getFills()) {
             for (Fill pos : detailedPosition.getFills())
               if (pos.getOrder().getOrderGroup() == orderGroup) fills.add(pos);
@@ -559,17 +456,10 @@ public class Portfolio extends EntityBase {
     // DecimalAmount.ZERO, DecimalAmount.ZERO);
     // new ConcurrentLinkedQueue<Transaction>();
     Collection<Fill> fills = new ArrayList<Fill>();
-    if (positionsMap.get(asset) != null
-        && positionsMap.get(asset).get(market.getExchange()) != null
-        && positionsMap.get(asset).get(market.getExchange()).get(market.getListing()) != null)
-      for (TransactionType transactionType :
-          positionsMap.get(asset).get(market.getExchange()).get(market.getListing()).keySet()) {
-        for (Position detailedPosition :
-            positionsMap
-                .get(asset)
-                .get(market.getExchange())
-                .get(market.getListing())
-                .get(transactionType)) {
+    PositionBook.Slot slot = positionBook.get(asset, market.getExchange(), market.getListing());
+    if (slot != null)
+      for (TransactionType transactionType : TransactionType.values()) {
+        for (Position detailedPosition : slot.positions(transactionType)) {
           synchronized (detailedPosition.getFills()) {
             for (Fill pos : detailedPosition.getFills()) fills.add(pos);
           }
@@ -581,21 +471,9 @@ public class Portfolio extends EntityBase {
 
   public @Transient Position getLongPosition(Asset asset, Market market) {
     List<Fill> fills = new ArrayList<Fill>();
-    if (positionsMap.get(asset) != null
-        && positionsMap.get(asset).get(market.getExchange()) != null
-        && positionsMap.get(asset).get(market.getExchange()).get(market.getListing()) != null
-        && positionsMap
-                .get(asset)
-                .get(market.getExchange())
-                .get(market.getListing())
-                .get(TransactionType.BUY)
-            != null) {
-      for (Position detailedPosition :
-          positionsMap
-              .get(asset)
-              .get(market.getExchange())
-              .get(market.getListing())
-              .get(TransactionType.BUY)) {
+    PositionBook.Slot slot = positionBook.get(asset, market.getExchange(), market.getListing());
+    if (slot != null) {
+      for (Position detailedPosition : slot.positions(TransactionType.BUY)) {
 
         fills.addAll(
             detailedPosition
@@ -614,21 +492,9 @@ public class Portfolio extends EntityBase {
 
   public @Transient Position getLongPosition(Asset asset, Market market, double orderGroup) {
     List<Fill> fills = new ArrayList<Fill>();
-    if (positionsMap.get(asset) != null
-        && positionsMap.get(asset).get(market.getExchange()) != null
-        && positionsMap.get(asset).get(market.getExchange()).get(market.getListing()) != null
-        && positionsMap
-                .get(asset)
-                .get(market.getExchange())
-                .get(market.getListing())
-                .get(TransactionType.BUY)
-            != null) {
-      for (Position detailedPosition :
-          positionsMap
-              .get(asset)
-              .get(market.getExchange())
-              .get(market.getListing())
-              .get(TransactionType.BUY)) {
+    PositionBook.Slot slot = positionBook.get(asset, market.getExchange(), market.getListing());
+    if (slot != null) {
+      for (Position detailedPosition : slot.positions(TransactionType.BUY)) {
 
         fills.addAll(
             detailedPosition
@@ -647,21 +513,9 @@ public class Portfolio extends EntityBase {
 
   public @Transient Position getShortPosition(Asset asset, Market market) {
     List<Fill> fills = new ArrayList<Fill>();
-    if (positionsMap.get(asset) != null
-        && positionsMap.get(asset).get(market.getExchange()) != null
-        && positionsMap.get(asset).get(market.getExchange()).get(market.getListing()) != null
-        && positionsMap
-                .get(asset)
-                .get(market.getExchange())
-                .get(market.getListing())
-                .get(TransactionType.SELL)
-            != null) {
-      for (Position detailedPosition :
-          positionsMap
-              .get(asset)
-              .get(market.getExchange())
-              .get(market.getListing())
-              .get(TransactionType.SELL)) {
+    PositionBook.Slot slot = positionBook.get(asset, market.getExchange(), market.getListing());
+    if (slot != null) {
+      for (Position detailedPosition : slot.positions(TransactionType.SELL)) {
 
         fills.addAll(
             detailedPosition
@@ -700,21 +554,9 @@ public class Portfolio extends EntityBase {
 
   public @Transient Position getShortPosition(Asset asset, Market market, double orderGroup) {
     List<Fill> fills = new ArrayList<Fill>();
-    if (positionsMap.get(asset) != null
-        && positionsMap.get(asset).get(market.getExchange()) != null
-        && positionsMap.get(asset).get(market.getExchange()).get(market.getListing()) != null
-        && positionsMap
-                .get(asset)
-                .get(market.getExchange())
-                .get(market.getListing())
-                .get(TransactionType.SELL)
-            != null) {
-      for (Position detailedPosition :
-          positionsMap
-              .get(asset)
-              .get(market.getExchange())
-              .get(market.getListing())
-              .get(TransactionType.SELL)) {
+    PositionBook.Slot slot = positionBook.get(asset, market.getExchange(), market.getListing());
+    if (slot != null) {
+      for (Position detailedPosition : slot.positions(TransactionType.SELL)) {
 
         fills.addAll(
             detailedPosition
@@ -733,33 +575,7 @@ public class Portfolio extends EntityBase {
   }
 
   public @Transient Collection<Position> getPositions(Asset asset, Exchange exchange) {
-    Collection<Position> allPositions = new ConcurrentLinkedQueue<Position>();
-
-    if (positionsMap.get(asset) != null && positionsMap.get(asset).get(exchange) != null) {
-      for (Iterator<Listing> itl = positionsMap.get(asset).get(exchange).keySet().iterator();
-          itl.hasNext(); ) {
-        Listing listing = itl.next();
-        for (Iterator<TransactionType> itt =
-                positionsMap.get(asset).get(exchange).get(listing).keySet().iterator();
-            itt.hasNext(); ) {
-          TransactionType transactionType = itt.next();
-
-          for (Iterator<Position> itp =
-                  positionsMap
-                      .get(asset)
-                      .get(exchange)
-                      .get(listing)
-                      .get(transactionType)
-                      .iterator();
-              itp.hasNext(); ) {
-            Position pos = itp.next();
-            allPositions.add(pos);
-          }
-        }
-      }
-    }
-
-    return allPositions;
+    return new ConcurrentLinkedQueue<Position>(positionBook.getPositions(asset, exchange));
   }
 
   public @Transient Map<Asset, Amount> getRealisedPnLs() {
@@ -945,27 +761,12 @@ public class Portfolio extends EntityBase {
     long netVolumeCount = 0;
     Fill pos = null;
     //  synchronized (lock) {
-    if (positionsMap.get(asset) != null && positionsMap.get(asset).get(exchange) != null) {
-      synchronized (positionsMap.get(asset).get(exchange)) {
-        for (Iterator<Listing> itl = positionsMap.get(asset).get(exchange).keySet().iterator();
-            itl.hasNext(); ) {
-          Listing listing = itl.next();
-          for (Iterator<TransactionType> itt =
-                  positionsMap.get(asset).get(exchange).get(listing).keySet().iterator();
-              itt.hasNext(); ) {
-            TransactionType transactionType = itt.next();
-
-            for (Position itpos :
-                positionsMap.get(asset).get(exchange).get(listing).get(transactionType)) {
-              synchronized (itpos.getFills()) {
-                for (Iterator<Fill> itp = itpos.getFills().iterator(); itp.hasNext(); ) {
-
-                  pos = itp.next();
-                  netVolumeCount += pos.getOpenVolumeCount();
-                }
-              }
-            }
-          }
+    for (Position itpos : positionBook.getPositions(asset, exchange)) {
+      synchronized (itpos.getFills()) {
+        for (Iterator<Fill> itp = itpos.getFills().iterator(); itp.hasNext(); ) {
+
+          pos = itp.next();
+          netVolumeCount += pos.getOpenVolumeCount();
         }
       }
     }
@@ -1289,66 +1090,14 @@ public class Portfolio extends EntityBase {
   @Transient
   public synchronized void insert(Position position) {
 
-    // baseCCY->Exchange->Listing->TransactionType
     TransactionType transactionType =
         (position.isLong()) ? TransactionType.BUY : TransactionType.SELL;
-    Map<Exchange, Map<Listing, Map<TransactionType, List<Position>>>> assetPositions =
-        positionsMap.get(position.getMarket().getBase());
-    if (assetPositions == null) {
-      assetPositions =
-          new ConcurrentHashMap<Exchange, Map<Listing, Map<TransactionType, List<Position>>>>();
-      Map<Listing, Map<TransactionType, List<Position>>> listingPosition =
-          new ConcurrentHashMap<Listing, Map<TransactionType, List<Position>>>();
-      Map<TransactionType, List<Position>> positionType =
-          new ConcurrentHashMap<TransactionType, List<Position>>();
-
-      List<Position> detailPosition = new ArrayList<Position>();
-      detailPosition.add(position);
-      positionType.put(transactionType, detailPosition);
-      listingPosition.put(position.getMarket().getListing(), positionType);
-      assetPositions.put(position.getMarket().getExchange(), listingPosition);
-      positionsMap.put(position.getMarket().getBase(), assetPositions);
-      return;
-
-    } else {
-      Map<Listing, Map<TransactionType, List<Position>>> listingPosition =
-          assetPositions.get(position.getMarket().getExchange());
-      if (listingPosition == null) {
-        listingPosition = new ConcurrentHashMap<Listing, Map<TransactionType, List<Position>>>();
-        Map<TransactionType, List<Position>> positionType =
-            new ConcurrentHashMap<TransactionType, List<Position>>();
-        List<Position> detailPosition = new ArrayList<Position>();
-        detailPosition.add(position);
-        positionType.put(transactionType, detailPosition);
-        listingPosition.put(position.getMarket().getListing(), positionType);
-        assetPositions.put(position.getMarket().getExchange(), listingPosition);
-        return;
-
-      } else {
-        Map<TransactionType, List<Position>> positionType =
-            listingPosition.get(position.getMarket().getListing());
-        if (positionType == null) {
-          positionType = new ConcurrentHashMap<TransactionType, List<Position>>();
-          List<Position> detailPosition = new ArrayList<Position>();
-          detailPosition.add(position);
-          positionType.put(transactionType, detailPosition);
-          listingPosition.put(position.getMarket().getListing(), positionType);
-          return;
-
-        } else {
-          List<Position> positions = positionType.get(transactionType);
-          if (positions == null) {
-            List<Position> detailPosition = new ArrayList<Position>();
-            detailPosition.add(position);
-            positionType.put(transactionType, detailPosition);
-            return;
-          } else {
-            positions.add(position);
-            return;
-          }
-        }
-      }
-    }
+    positionBook.add(
+        position.getMarket().getBase(),
+        position.getMarket().getExchange(),
+        position.getMarket().getListing(),
+        transactionType,
+        position);
   }
 
   // TODO hold the positions per order group in seperate map so that the orderupdate published with
@@ -1357,6 +1106,15 @@ public class Portfolio extends EntityBase {
 
   @Transient
   public boolean merge(Fill fill) {
+    try {
+      return mergeFill(fill);
+    } finally {
+      // closing out removes emptied positions from the lists as well as adding to them
+      positionBook.modified();
+    }
+  }
+
+  private boolean mergeFill(Fill fill) {
     boolean persit = true;
     TransactionType transactionType = (fill.isLong()) ? TransactionType.BUY : TransactionType.SELL;
     PositionEffect positionEffect = fill.getPositionEffect();
@@ -1373,10 +1131,7 @@ public class Portfolio extends EntityBase {
         (fill.getMarket().getTradedCurrency(fill.getMarket()) == null)
             ? fill.getMarket().getQuote()
             : fill.getMarket().getTradedCurrency(fill.getMarket());
-    Map<Exchange, Map<Listing, Map<TransactionType, List<Position>>>> assetPositions =
-        positionsMap.get(fill.getMarket().getBase());
-    Map<Listing, Map<TransactionType, List<Position>>> listingPosition =
-        new ConcurrentHashMap<Listing, Map<TransactionType, List<Position>>>();
+    PositionBook.Slot slot = positionBook.get(fill.getMarket());
     Map<Listing, Amount> marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
     Map<Exchange, Map<Listing, Amount>> assetRealisedProfits =
         getRealisedPnL().get(this.getBaseAsset());
@@ -1388,37 +1143,25 @@ public class Portfolio extends EntityBase {
             != null) {
       marketRealisedProfits = assetRealisedProfits.get(fill.getMarket().getListing());
     }
-    if (assetPositions == null) {
-      log.trace("merge. creating new asset positions for fill {}", fill);
+    if (slot == null) {
+      log.trace("merge. creating new positions for fill {}", fill);
 
-      List<Position> detailPosition = new ArrayList<Position>();
       Position detPosition;
       if (fill.getPosition() == null) {
         detPosition = positionFactory.create(fill, fill.getMarket());
-
-        log.trace("merge. merge. created new detPosition= {}, fill= {}", detPosition, fill);
-
+        log.trace("merge. created new detPosition={}, fill={}", detPosition, fill);
         detPosition.persit();
 
       } else {
         detPosition = fill.getPosition();
       }
-      detailPosition.add(detPosition);
-      log.trace("{} added detPosition={} , detailPosition={}", fill, detPosition, detailPosition);
-
-      Map<TransactionType, List<Position>> positionType =
-          new ConcurrentHashMap<TransactionType, List<Position>>();
-      positionType.put(transactionType, detailPosition);
-      listingPosition.put(fill.getMarket().getListing(), positionType);
-      assetPositions =
-          new ConcurrentHashMap<Exchange, Map<Listing, Map<TransactionType, List<Position>>>>();
-      assetPositions.put(fill.getMarket().getExchange(), listingPosition);
-      positionsMap.put(fill.getMarket().getBase(), assetPositions);
-      // publishPositionUpdate(
-      //   fill.getPosition(),
-      // (fill.isLong()) ? PositionType.LONG : PositionType.SHORT,
-      //  fill.getMarket(),
-      //  fill.getOrder().getOrderGroup());
+      log.trace("{} added to new {} position", fill, fill.getMarket().getExchange());
+      positionBook.add(
+          fill.getMarket().getBase(),
+          fill.getMarket().getExchange(),
+          fill.getMarket().getListing(),
+          transactionType,
+          detPosition);
       Amount profits = DecimalAmount.ZERO;
       if (getRealisedPnL() == null || getRealisedPnL().get(this.getBaseAsset()) == null) {
         assetRealisedProfits = new ConcurrentHashMap<Exchange, Map<Listing, Amount>>();
@@ -1426,25 +1169,18 @@ public class Portfolio extends EntityBase {
         marketRealisedProfits.put(fill.getMarket().getListing(), profits);
         assetRealisedProfits.put(fill.getMarket().getExchange(), marketRealisedProfits);
         getRealisedPnL().put(this.getBaseAsset(), assetRealisedProfits);
-      }
-      if (getRealisedPnL() == null
-          || getRealisedPnL().get(this.getBaseAsset()) == null
-          || getRealisedPnL().get(this.getBaseAsset()).get(fill.getMarket().getExchange())
-              == null) {
+      } else if (getRealisedPnL().get(this.getBaseAsset()).get(fill.getMarket().getExchange())
+          == null) {
         marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
         marketRealisedProfits.put(fill.getMarket().getListing(), profits);
         getRealisedPnL()
             .get(this.getBaseAsset())
             .put(fill.getMarket().getExchange(), marketRealisedProfits);
-      }
-      if (getRealisedPnL() == null
-          || getRealisedPnL().get(this.getBaseAsset()) == null
-          || getRealisedPnL().get(this.getBaseAsset()).get(fill.getMarket().getExchange()) == null
-          || getRealisedPnL()
-                  .get(this.getBaseAsset())
-                  .get(fill.getMarket().getExchange())
-                  .get(fill.getMarket().getListing())
-              == null) {
+      } else if (getRealisedPnL()
+              .get(this.getBaseAsset())
+              .get(fill.getMarket().getExchange())
+              .get(fill.getMarket().getListing())
+          == null) {
         getRealisedPnL()
             .get(this.getBaseAsset())
             .get(fill.getMarket().getExchange())
@@ -1452,46 +1188,51 @@ public class Portfolio extends EntityBase {
       }
       fill.merge();
       return true;
+
     } else {
-      Map<Listing, Map<TransactionType, List<Position>>> exchangePositions =
-          assetPositions.get(fill.getMarket().getExchange());
-      if (exchangePositions == null) {
-        log.trace("merge. creating new exchangePositions for fill {}", fill);
-
-        List<Position> detailPosition = new ArrayList<Position>();
-        Map<TransactionType, List<Position>> positionType =
-            new ConcurrentHashMap<TransactionType, List<Position>>();
+      log.trace(
+          "merge. getting listings for transaction type {}  market {} listing {} ",
+          transactionType,
+          fill.getMarket(),
+          fill.getMarket().getListing());
+      List<Position> transactionPositions = slot.get(transactionType);
+      List<Position> openingTransactionPositions = slot.get(openingTransactionType);
+
+      if (transactionPositions == null) {
+        log.trace("merge. creating new lisiting for fill {}", fill);
+
+        List<Position> listingsDetailPosition = new ArrayList<Position>();
         Position detPosition;
         if (fill.getPosition() == null) {
           detPosition = positionFactory.create(fill, fill.getMarket());
-          log.trace("merge. created new detPosition={}, fill={}", detPosition, fill);
-          detPosition.persit();
+          log.trace("merge. created new detPosition={} from fill={}", detPosition, fill);
 
+          // detPosition.getPortfolio().merge();
+          detPosition.persit();
         } else {
           detPosition = fill.getPosition();
         }
-        log.trace(fill + "added to new " + fill.getMarket().getExchange() + " position");
-        detailPosition.add(detPosition);
-        positionType.put(transactionType, detailPosition);
-        listingPosition.put(fill.getMarket().getListing(), positionType);
-        assetPositions.put(fill.getMarket().getExchange(), listingPosition);
-        /*        publishPositionUpdate(
-        fill.getPosition(),
-        (fill.isLong()) ? PositionType.LONG : PositionType.SHORT,
-        fill.getMarket(),
-        fill.getOrder().getOrderGroup());*/
-        Amount profits = DecimalAmount.ZERO;
-        // NPE here
+
+        listingsDetailPosition.add(detPosition);
+        log.trace(
+            "{} added to detPosition={} listingsDetailPosition={}",
+            fill,
+            detPosition,
+            listingsDetailPosition);
+
+        slot.put(transactionType, listingsDetailPosition);
+        transactionPositions = listingsDetailPosition;
+        Amount listingProfits = DecimalAmount.ZERO;
         if (getRealisedPnL() == null || getRealisedPnL().get(this.getBaseAsset()) == null) {
           assetRealisedProfits = new ConcurrentHashMap<Exchange, Map<Listing, Amount>>();
           marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
-          marketRealisedProfits.put(fill.getMarket().getListing(), profits);
+          marketRealisedProfits.put(fill.getMarket().getListing(), listingProfits);
           assetRealisedProfits.put(fill.getMarket().getExchange(), marketRealisedProfits);
           getRealisedPnL().put(this.getBaseAsset(), assetRealisedProfits);
         } else if (getRealisedPnL().get(this.getBaseAsset()).get(fill.getMarket().getExchange())
             == null) {
           marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
-          marketRealisedProfits.put(fill.getMarket().getListing(), profits);
+          marketRealisedProfits.put(fill.getMarket().getListing(), listingProfits);
           getRealisedPnL()
               .get(this.getBaseAsset())
               .put(fill.getMarket().getExchange(), marketRealisedProfits);
@@ -1503,783 +1244,650 @@ public class Portfolio extends EntityBase {
           getRealisedPnL()
               .get(this.getBaseAsset())
               .get(fill.getMarket().getExchange())
-              .put(fill.getMarket().getListing(), profits);
+              .put(fill.getMarket().getListing(), listingProfits);
         }
-        fill.merge();
-        return true;
       } else {
+        // Map<TransactionType, ConcurrentLinkedQueue<Position>> listingPositions =
+        // assetPositions.get(fill.getMarket().getExchange())
+        ///		.get(fill.getMarket().getListing());
 
-        Map<TransactionType, List<Position>> listingPositions =
-            assetPositions.get(fill.getMarket().getExchange()).get(fill.getMarket().getListing());
-        if (listingPositions == null) {
-          log.trace("merge. creating new listing for fill {}", fill);
-          List<Position> detailPosition = new ArrayList<Position>();
-          Map<TransactionType, List<Position>> positionType =
-              new ConcurrentHashMap<TransactionType, List<Position>>();
-          Position detPosition;
-          if (fill.getPosition() == null) {
-            detPosition = positionFactory.create(fill, fill.getMarket());
-            log.trace("merge. created new detPosition={}, fill={}", detPosition, fill);
-            detPosition.persit();
-            fill.merge();
+        Position position = transactionPositions.isEmpty() ? null : transactionPositions.get(0);
+        if (position != null) {
 
-          } else {
-            detPosition = fill.getPosition();
-          }
-          log.trace(fill + "added to new " + fill.getMarket().getExchange() + " position");
-
-          detailPosition.add(detPosition);
-          positionType.put(transactionType, detailPosition);
-          assetPositions
-              .get(fill.getMarket().getExchange())
-              .put(fill.getMarket().getListing(), positionType);
-
-          /*          publishPositionUpdate(
-          fill.getPosition(),
-          (fill.isLong()) ? PositionType.LONG : PositionType.SHORT,
-          fill.getMarket(),
-          fill.getOrder().getOrderGroup());*/
-          Amount profits = DecimalAmount.ZERO;
-          if (getRealisedPnL() == null || getRealisedPnL().get(this.getBaseAsset()) == null) {
-            assetRealisedProfits = new ConcurrentHashMap<Exchange, Map<Listing, Amount>>();
-            marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
-            marketRealisedProfits.put(fill.getMarket().getListing(), profits);
-            assetRealisedProfits.put(fill.getMarket().getExchange(), marketRealisedProfits);
-            getRealisedPnL().put(this.getBaseAsset(), assetRealisedProfits);
-          } else if (getRealisedPnL().get(this.getBaseAsset()).get(fill.getMarket().getExchange())
-              == null) {
-            marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
-            marketRealisedProfits.put(fill.getMarket().getListing(), profits);
-            getRealisedPnL()
-                .get(this.getBaseAsset())
-                .put(fill.getMarket().getExchange(), marketRealisedProfits);
-          } else if (getRealisedPnL()
-                  .get(this.getBaseAsset())
-                  .get(fill.getMarket().getExchange())
-                  .get(fill.getMarket().getListing())
-              == null) {
-            getRealisedPnL()
-                .get(this.getBaseAsset())
-                .get(fill.getMarket().getExchange())
-                .put(fill.getMarket().getListing(), profits);
-          }
-          fill.merge();
-          return true;
-
-        } else {
           log.trace(
-              "merge. getting listings for transaction type {}  market {} listing {} ",
+              "{} prepareing to add  fill={} ,transactionType={}, position={}",
+              fill,
               transactionType,
-              fill.getMarket(),
-              fill.getMarket().getListing());
-          List<Position> transactionPositions =
-              exchangePositions.get(fill.getMarket().getListing()).get(transactionType);
-
-          Map<TransactionType, List<Position>> openingListingPositions =
-              exchangePositions.get(fill.getMarket().getListing());
-          List<Position> openingTransactionPositions = null;
-          if (openingListingPositions != null) {
-            openingTransactionPositions =
-                exchangePositions.get(fill.getMarket().getListing()).get(openingTransactionType);
-          }
+              position);
 
-          if (transactionPositions == null) {
-            log.trace("merge. creating new lisiting for fill {}", fill);
+          fill.setPosition(position);
+          if (position.addFill(fill)) {
 
-            List<Position> listingsDetailPosition = new ArrayList<Position>();
-            Position detPosition;
-            if (fill.getPosition() == null) {
-              detPosition = positionFactory.create(fill, fill.getMarket());
-              log.trace("merge. created new detPosition={} from fill={}", detPosition, fill);
-
-              // detPosition.getPortfolio().merge();
-              detPosition.persit();
-            } else {
-              detPosition = fill.getPosition();
-            }
-
-            listingsDetailPosition.add(detPosition);
             log.trace(
-                "{} added to detPosition={} listingsDetailPosition={}",
+                "added fill={}, transactionType={}, position={}",
                 fill,
-                detPosition,
-                listingsDetailPosition);
+                transactionType,
+                position);
 
-            exchangePositions
-                .get(fill.getMarket().getListing())
-                .put(transactionType, listingsDetailPosition);
-            transactionPositions =
-                exchangePositions.get(fill.getMarket().getListing()).get(transactionType);
-            Amount listingProfits = DecimalAmount.ZERO;
-            if (getRealisedPnL() == null || getRealisedPnL().get(this.getBaseAsset()) == null) {
-              assetRealisedProfits = new ConcurrentHashMap<Exchange, Map<Listing, Amount>>();
-              marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
-              marketRealisedProfits.put(fill.getMarket().getListing(), listingProfits);
-              assetRealisedProfits.put(fill.getMarket().getExchange(), marketRealisedProfits);
-              getRealisedPnL().put(this.getBaseAsset(), assetRealisedProfits);
-            } else if (getRealisedPnL().get(this.getBaseAsset()).get(fill.getMarket().getExchange())
-                == null) {
-              marketRealisedProfits = new ConcurrentHashMap<Listing, Amount>();
-              marketRealisedProfits.put(fill.getMarket().getListing(), listingProfits);
-              getRealisedPnL()
-                  .get(this.getBaseAsset())
-                  .put(fill.getMarket().getExchange(), marketRealisedProfits);
-            } else if (getRealisedPnL()
-                    .get(this.getBaseAsset())
-                    .get(fill.getMarket().getExchange())
-                    .get(fill.getMarket().getListing())
-                == null) {
-              getRealisedPnL()
-                  .get(this.getBaseAsset())
-                  .get(fill.getMarket().getExchange())
-                  .put(fill.getMarket().getListing(), listingProfits);
+            /*                synchronized (position.getFills()) {
+              Collections.sort(position.getFills(), timeComparator);
             }
+            log.trace("sorted exisitng position by time then largest volume:" + position);*/
+            //   fill.persit();
           } else {
-            // Map<TransactionType, ConcurrentLinkedQueue<Position>> listingPositions =
-            // assetPositions.get(fill.getMarket().getExchange())
-            ///		.get(fill.getMarket().getListing());
-
-            Position position =
-                listingPositions.isEmpty()
-                    ? null
-                    : (listingPositions.get(transactionType).isEmpty()
-                        ? null
-                        : listingPositions.get(transactionType).get(0));
-            if (position != null) {
-
-              log.trace(
-                  "{} prepareing to add  fill={} ,transactionType={}, position={}",
-                  fill,
-                  transactionType,
-                  position);
-
-              fill.setPosition(position);
-              if (position.addFill(fill)) {
-
-                log.trace(
-                    "added fill={}, transactionType={}, position={}",
-                    fill,
-                    transactionType,
-                    position);
+            /*                log.trace(
+                fill + " not added to existing " + transactionType + " position:" + position);
+            fill.persit();*/
+          }
 
-                /*                synchronized (position.getFills()) {
-                  Collections.sort(position.getFills(), timeComparator);
-                }
-                log.trace("sorted exisitng position by time then largest volume:" + position);*/
-                //   fill.persit();
-              } else {
-                /*                log.trace(
-                    fill + " not added to existing " + transactionType + " position:" + position);
-                fill.persit();*/
-              }
+        } else {
+          Position detPosition;
+          if (fill.getPosition() == null) {
+            // fill.getPortfolio().merge();
+            detPosition = positionFactory.create(fill, fill.getMarket());
 
-            } else {
-              Position detPosition;
-              if (fill.getPosition() == null) {
-                // fill.getPortfolio().merge();
-                detPosition = positionFactory.create(fill, fill.getMarket());
+            log.trace("merge. created new detPosition={}, fill {}", detPosition, fill);
 
-                log.trace("merge. created new detPosition={}, fill {}", detPosition, fill);
+            //       detPosition.getPortfolio().merge();
+            detPosition.persit();
 
-                //       detPosition.getPortfolio().merge();
-                detPosition.persit();
+          } else {
+            log.trace("merge. adding to exising fill position  for fill {}", fill);
+            detPosition = fill.getPosition();
+          }
+          // the position book copies the list under the same lock
+          synchronized (transactionPositions) {
+            transactionPositions.add(detPosition);
+          }
+        }
+      }
 
-              } else {
-                log.trace("merge. adding to exising fill position  for fill {}", fill);
-                detPosition = fill.getPosition();
+      log.trace(
+          "merge fills -  Determing closeouts fill {} with open positions {}",
+          fill,
+          openingTransactionPositions);
+
+      if (openingTransactionPositions != null && !(openingTransactionPositions.isEmpty())) {
+        Amount realisedPnL = DecimalAmount.ZERO;
+        long closingVolumeCount = 0;
+        Amount entryPrice = DecimalAmount.ZERO;
+        Amount exitPrice = DecimalAmount.ZERO;
+        Set<Position> positionsToPublish = new HashSet<Position>();
+        synchronized (transactionPositions) {
+          Iterator<Position> lpitr = transactionPositions.iterator();
+
+          Collection<Order> ordersToCancel = new HashSet<Order>();
+          List<Fill> closingFillsToRemove = new ArrayList<Fill>();
+          CLOSEPOSITIONSLOOP:
+          while (lpitr.hasNext()) {
+            Position closePos = lpitr.next();
+
+            synchronized (closePos) {
+              if (!closePos.hasFills()) {
+                log.trace(
+                    "merge fills 1 - removing position: {} from listingPositions:{} ",
+                    closePos.getUuid(),
+                    transactionPositions);
+                closePos.delete();
+                lpitr.remove();
+                continue;
               }
-              listingPositions.get(transactionType).add(detPosition);
-            }
-          }
 
-          log.trace(
-              "merge fills -  Determing closeouts fill {} with open positions {}",
-              fill,
-              openingTransactionPositions);
-
-          if (openingTransactionPositions != null && !(openingTransactionPositions.isEmpty())) {
-            Amount realisedPnL = DecimalAmount.ZERO;
-            long closingVolumeCount = 0;
-            Amount entryPrice = DecimalAmount.ZERO;
-            Amount exitPrice = DecimalAmount.ZERO;
-            Set<Position> positionsToPublish = new HashSet<Position>();
-            synchronized (transactionPositions) {
-              Iterator<Position> lpitr = transactionPositions.iterator();
-
-              Collection<Order> ordersToCancel = new HashSet<Order>();
-              List<Fill> closingFillsToRemove = new ArrayList<Fill>();
-              CLOSEPOSITIONSLOOP:
-              while (lpitr.hasNext()) {
-                Position closePos = lpitr.next();
-
-                synchronized (closePos) {
-                  if (!closePos.hasFills()) {
-                    log.trace(
-                        "merge fills 1 - removing position: {} from listingPositions:{} ",
-                        closePos.getUuid(),
-                        transactionPositions);
-                    closePos.delete();
-                    lpitr.remove();
-                    continue;
+              synchronized (openingTransactionPositions) {
+                Iterator<Position> olpitr = openingTransactionPositions.iterator();
+                boolean closedFillBreak = false;
+                OPENPOSITIONSLOOP:
+                while (olpitr.hasNext() && !closedFillBreak) {
+                  Position openPos = olpitr.next();
+                  synchronized (openPos) {
+                    if (!openPos.hasFills()) {
+
+                      log.trace(
+                          "merge fills 1 - removing position:{}  from listingPositions {}",
+                          openPos.getUuid(),
+                          transactionPositions);
+                      openPos.delete();
+                      olpitr.remove();
+                      continue;
+                    }
                   }
+                  if ((openPos.getPositionEffect().equals(PositionEffect.OPEN)
+                          && (openPos.getPositionEffect().equals(closePos.getPositionEffect())))
+                      || (openPos.getPositionEffect().equals(PositionEffect.CLOSE)
+                          && (openPos
+                              .getPositionEffect()
+                              .equals(closePos.getPositionEffect())))) {
 
-                  synchronized (openingTransactionPositions) {
-                    Iterator<Position> olpitr = openingTransactionPositions.iterator();
-                    boolean closedFillBreak = false;
-                    OPENPOSITIONSLOOP:
-                    while (olpitr.hasNext() && !closedFillBreak) {
-                      Position openPos = olpitr.next();
-                      synchronized (openPos) {
-                        if (!openPos.hasFills()) {
-
-                          log.trace(
-                              "merge fills 1 - removing position:{}  from listingPositions {}",
-                              openPos.getUuid(),
-                              transactionPositions);
-                          openPos.delete();
-                          olpitr.remove();
-                          continue;
-                        }
-                      }
-                      if ((openPos.getPositionEffect().equals(PositionEffect.OPEN)
-                              && (openPos.getPositionEffect().equals(closePos.getPositionEffect())))
-                          || (openPos.getPositionEffect().equals(PositionEffect.CLOSE)
-                              && (openPos
-                                  .getPositionEffect()
-                                  .equals(closePos.getPositionEffect())))) {
+                    log.trace("skipping closing: {} with openPos {}", closePos, openPos);
 
-                        log.trace("skipping closing: {} with openPos {}", closePos, openPos);
-
-                        continue;
-                      }
-                      // TODO if we only have opening posiotns on in ClosePos & OpenPos we don't
-                      // need to
-                      // loop
-                      // should be a more efficent way that looping over every openPos for every
-                      // ClosePos
-                      synchronized (closePos.getFills()) {
-                        Collection<Fill> closingFills =
-                            (positionEffect.equals(PositionEffect.OPEN)
-                                ? closePos.getOpenFills()
-                                : (positionEffect.equals(PositionEffect.CLOSE)
-                                    ? closePos.getCloseFills()
-                                    : closePos.getFills()));
-                        Iterator<Fill> cpitr = closingFills.iterator();
+                    continue;
+                  }
+                  // TODO if we only have opening posiotns on in ClosePos & OpenPos we don't
+                  // need to
+                  // loop
+                  // should be a more efficent way that looping over every openPos for every
+                  // ClosePos
+                  synchronized (closePos.getFills()) {
+                    Collection<Fill> closingFills =
+                        (positionEffect.equals(PositionEffect.OPEN)
+                            ? closePos.getOpenFills()
+                            : (positionEffect.equals(PositionEffect.CLOSE)
+                                ? closePos.getCloseFills()
+                                : closePos.getFills()));
+                    Iterator<Fill> cpitr = closingFills.iterator();
+                    log.trace(
+                        "merge fills closePos has {} fills {} ",
+                        closingFills.size(),
+                        closingFills);
+
+                    int closedFillCount = 0;
+                    CLOSEDFILLSLOOP:
+                    while (cpitr.hasNext()) {
+
+                      log.trace(
+                          "merge fills - Starting close outs with closing position {} incrementing loop {} with iterator {}",
+                          closePos.getUuid(),
+                          closedFillCount,
+                          System.identityHashCode(cpitr));
+
+                      closedFillCount++;
+                      Fill closePosition = cpitr.next();
+                      synchronized (closePosition) {
                         log.trace(
-                            "merge fills closePos has {} fills {} ",
-                            closingFills.size(),
-                            closingFills);
+                            "merge fills  - Closing fill {} loop {} with itterator{}  ",
+                            closePosition.getUuid(),
+                            closedFillCount,
+                            System.identityHashCode(cpitr));
 
-                        int closedFillCount = 0;
-                        CLOSEDFILLSLOOP:
-                        while (cpitr.hasNext()) {
+                        if (closePosition.getOpenVolumeCount() != 0) {
 
                           log.trace(
-                              "merge fills - Starting close outs with closing position {} incrementing loop {} with iterator {}",
-                              closePos.getUuid(),
+                              "merge fills - Starting close outs with opeingin position {} loop {}  with iterator {}",
+                              openPos.getUuid(),
                               closedFillCount,
                               System.identityHashCode(cpitr));
 
-                          closedFillCount++;
-                          Fill closePosition = cpitr.next();
-                          synchronized (closePosition) {
+                          if (!openPos.hasFills()) {
                             log.trace(
-                                "merge fills  - Closing fill {} loop {} with itterator{}  ",
+                                "merge fills removing position: {} from openingListingPositions:{} ",
+                                openPos.getUuid(),
+                                openingTransactionPositions);
+
+                            log.trace(
+                                "merge fills - Opening Position {}  has no fills to close outs with closing fill {} loop {} with iterator {} ",
+                                openPos.getUuid(),
                                 closePosition.getUuid(),
                                 closedFillCount,
                                 System.identityHashCode(cpitr));
 
-                            if (closePosition.getOpenVolumeCount() != 0) {
+                            olpitr.remove();
 
-                              log.trace(
-                                  "merge fills - Starting close outs with opeingin position {} loop {}  with iterator {}",
-                                  openPos.getUuid(),
-                                  closedFillCount,
-                                  System.identityHashCode(cpitr));
+                            continue;
+                          }
+                          ArrayList<Fill> openingFillsToRemove = new ArrayList<Fill>();
+                          synchronized (openPos.getFills()) {
+                            Collection<Fill> baseOpeningFills =
+                                (openingPositionEffect.equals(PositionEffect.OPEN)
+                                    ? openPos.getOpenFills()
+                                    : (openingPositionEffect.equals(PositionEffect.CLOSE)
+                                        ? openPos.getCloseFills()
+                                        : openPos.getFills()));
+
+                            Collection<Fill> openingFills =
+                                orderGroupCloseOut
+                                    ? Collections2.filter(
+                                        baseOpeningFills,
+                                        predicateByOrderGroup(closePosition.getOrderGroup()))
+                                    : baseOpeningFills;
+
+                            Iterator<Fill> opitr = openingFills.iterator();
 
-                              if (!openPos.hasFills()) {
-                                log.trace(
-                                    "merge fills removing position: {} from openingListingPositions:{} ",
-                                    openPos.getUuid(),
-                                    openingTransactionPositions);
+                            log.trace(
+                                "merge fills openPos has {} fills {}",
+                                openingFills.size(),
+                                openingFills);
+
+                            Listing listing = Listing.forPair(currency, this.getBaseAsset());
 
+                            Offer rate = quoteService.getImpliedBestAskForListing(listing);
+                            OPENFILLSLOOP:
+                            while (opitr.hasNext() && !closedFillBreak) {
+                              Fill openPosition = opitr.next();
+                              synchronized (openPosition) {
                                 log.trace(
-                                    "merge fills - Opening Position {}  has no fills to close outs with closing fill {} loop {} with iterator {} ",
-                                    openPos.getUuid(),
-                                    closePosition.getUuid(),
+                                    "merge fills - Starting close outs with opeing fill {} loop {} with iterator {}",
+                                    openPosition.getUuid(),
                                     closedFillCount,
                                     System.identityHashCode(cpitr));
+                                if (openPosition.getOpenVolumeCount() != 0) {
+                                  realisedPnL = DecimalAmount.ZERO;
+                                  closingVolumeCount = 0;
+
+                                  //		if(oenPostion.getOrder)
+                                  exitPrice = openPosition.getPrice();
+                                  entryPrice = closePosition.getPrice();
+                                  closingVolumeCount =
+                                      (openingTransactionType == (TransactionType.SELL))
+                                          ? (Math.min(
+                                                  Math.abs(openPosition.getOpenVolumeCount()),
+                                                  Math.abs(closePosition.getOpenVolumeCount())))
+                                              * -1
+                                          : (Math.min(
+                                              Math.abs(openPosition.getOpenVolumeCount()),
+                                              Math.abs(closePosition.getOpenVolumeCount())));
+                                  if (closingVolumeCount != 0) {
+                                    long updatedVolumeCount = 0;
+                                    if ((Math.abs(closePosition.getOpenVolumeCount())
+                                        >= Math.abs(openPosition.getOpenVolumeCount()))) {
+                                      updatedVolumeCount =
+                                          closePosition.getOpenVolumeCount()
+                                              + closingVolumeCount;
+                                      openPosition.setOpenVolumeCount(0);
 
-                                olpitr.remove();
+                                      log.trace(
+                                          "merge. set open position  {} open volume count to 0/{}",
+                                          openPosition,
+                                          openPosition.getOpenVolumeCount());
 
-                                continue;
-                              }
-                              ArrayList<Fill> openingFillsToRemove = new ArrayList<Fill>();
-                              synchronized (openPos.getFills()) {
-                                Collection<Fill> baseOpeningFills =
-                                    (openingPositionEffect.equals(PositionEffect.OPEN)
-                                        ? openPos.getOpenFills()
-                                        : (openingPositionEffect.equals(PositionEffect.CLOSE)
-                                            ? openPos.getCloseFills()
-                                            : openPos.getFills()));
-
-                                Collection<Fill> openingFills =
-                                    orderGroupCloseOut
-                                        ? Collections2.filter(
-                                            baseOpeningFills,
-                                            predicateByOrderGroup(closePosition.getOrderGroup()))
-                                        : baseOpeningFills;
-
-                                Iterator<Fill> opitr = openingFills.iterator();
+                                      openPosition.setUpdateTime(context.getTime());
+                                      openPosition.setPosition(null);
+                                      openingFillsToRemove.add(openPosition);
+                                      openPosition.setHoldingTime(
+                                          closePosition.getTimestamp()
+                                              - openPosition.getTimestamp());
 
-                                log.trace(
-                                    "merge fills openPos has {} fills {}",
-                                    openingFills.size(),
-                                    openingFills);
+                                      closePosition.setOpenVolumeCount(updatedVolumeCount);
 
-                                Listing listing = Listing.forPair(currency, this.getBaseAsset());
+                                      log.trace(
+                                          "merge. set close position {} open volume count to 0/{} ",
+                                          closePosition,
+                                          closePosition.getOpenVolumeCount());
 
-                                Offer rate = quoteService.getImpliedBestAskForListing(listing);
-                                OPENFILLSLOOP:
-                                while (opitr.hasNext() && !closedFillBreak) {
-                                  Fill openPosition = opitr.next();
-                                  synchronized (openPosition) {
-                                    log.trace(
-                                        "merge fills - Starting close outs with opeing fill {} loop {} with iterator {}",
-                                        openPosition.getUuid(),
-                                        closedFillCount,
-                                        System.identityHashCode(cpitr));
-                                    if (openPosition.getOpenVolumeCount() != 0) {
-                                      realisedPnL = DecimalAmount.ZERO;
-                                      closingVolumeCount = 0;
-
-                                      //		if(oenPostion.getOrder)
-                                      exitPrice = openPosition.getPrice();
-                                      entryPrice = closePosition.getPrice();
-                                      closingVolumeCount =
-                                          (openingTransactionType == (TransactionType.SELL))
-                                              ? (Math.min(
-                                                      Math.abs(openPosition.getOpenVolumeCount()),
-                                                      Math.abs(closePosition.getOpenVolumeCount())))
-                                                  * -1
-                                              : (Math.min(
-                                                  Math.abs(openPosition.getOpenVolumeCount()),
-                                                  Math.abs(closePosition.getOpenVolumeCount())));
-                                      if (closingVolumeCount != 0) {
-                                        long updatedVolumeCount = 0;
-                                        if ((Math.abs(closePosition.getOpenVolumeCount())
-                                            >= Math.abs(openPosition.getOpenVolumeCount()))) {
-                                          updatedVolumeCount =
-                                              closePosition.getOpenVolumeCount()
-                                                  + closingVolumeCount;
-                                          openPosition.setOpenVolumeCount(0);
-
-                                          log.trace(
-                                              "merge. set open position  {} open volume count to 0/{}",
-                                              openPosition,
-                                              openPosition.getOpenVolumeCount());
-
-                                          openPosition.setUpdateTime(context.getTime());
-                                          openPosition.setPosition(null);
-                                          openingFillsToRemove.add(openPosition);
-                                          openPosition.setHoldingTime(
-                                              closePosition.getTimestamp()
-                                                  - openPosition.getTimestamp());
-
-                                          closePosition.setOpenVolumeCount(updatedVolumeCount);
-
-                                          log.trace(
-                                              "merge. set close position {} open volume count to 0/{} ",
-                                              closePosition,
-                                              closePosition.getOpenVolumeCount());
+                                      closePosition.setUpdateTime(context.getTime());
 
-                                          closePosition.setUpdateTime(context.getTime());
+                                      logCloseOut(
+                                          closingVolumeCount,
+                                          openPosition,
+                                          closePosition,
+                                          true);
 
-                                          logCloseOut(
-                                              closingVolumeCount,
-                                              openPosition,
-                                              closePosition,
-                                              true);
-
-                                          openPosition.merge();
-                                          if (closePosition.getOpenVolumeCount() == 0) {
-
-                                            log.trace(
-                                                "merge. setting close position {} position to null",
-                                                closePosition);
-
-                                            closePosition.setPosition(null);
-                                            closingFillsToRemove.add(closePosition);
-                                            closePos.reset();
-                                            closePosition.setHoldingTime(
-                                                closePosition.getTimestamp()
-                                                    - openPosition.getTimestamp());
-                                          }
-                                          closePosition.merge();
-
-                                        } else if (closePosition.getOpenVolumeCount() != 0) {
-                                          updatedVolumeCount =
-                                              openPosition.getOpenVolumeCount()
-                                                  - closingVolumeCount;
-                                          closePosition.setOpenVolumeCount(0);
-
-                                          log.trace(
-                                              "merge. set close position {} open volume count to 0/{}",
-                                              closePosition,
-                                              closePosition.getOpenVolumeCount());
-
-                                          closePosition.setUpdateTime(context.getTime());
-                                          closingFillsToRemove.add(closePosition);
-                                          closePosition.setPosition(null);
-
-                                          closePos.reset();
-                                          openPosition.setOpenVolumeCount(updatedVolumeCount);
-
-                                          log.trace(
-                                              "merge. set open position {} open volume count to  {}/{} ",
-                                              openPosition,
-                                              updatedVolumeCount,
-                                              openPosition.getOpenVolumeCount());
-
-                                          openPosition.setUpdateTime(context.getTime());
-
-                                          openPos.reset();
-                                          openPosition.setHoldingTime(
-                                              closePosition.getTimestamp()
-                                                  - openPosition.getTimestamp());
-                                          if (openPosition.getOpenVolumeCount() == 0) {
-
-                                            log.trace(
-                                                "merge. setting open position {}  position to null {} ",
-                                                openPosition);
-
-                                            openPosition.setPosition(null);
-                                            openingFillsToRemove.add(openPosition);
-                                            openPos.reset();
-                                            openPosition.setHoldingTime(
-                                                closePosition.getTimestamp()
-                                                    - openPosition.getTimestamp());
-                                          }
-                                          openPosition.merge();
-                                          closePosition.merge();
-                                          logCloseOut(
-                                              closingVolumeCount,
-                                              openPosition,
-                                              closePosition,
-                                              true);
-                                        } else if (closePosition.getOpenVolumeCount() == 0) {
-                                          log.trace(
-                                              "merge. setting close position to null {} as open volume is :{}",
-                                              closePosition,
-                                              closePosition.getOpenVolumeCount());
-                                          closePosition.setPosition(null);
-                                          closingFillsToRemove.add(closePosition);
-                                          closePosition.merge();
-
-                                          // closePos.reset();
-                                        }
-                                        // closePosition.merge();
-                                        DiscreteAmount volDiscrete =
-                                            new DiscreteAmount(
-                                                closingVolumeCount,
-                                                closePosition.getMarket().getVolumeBasis());
-                                        // Trade lastTrade = quotes.getLastTrade(listing);
-
-                                        log.debug(
-                                            "calucalting realisedPNL with {} existing realised pnl",
-                                            realisedPnL);
-
-                                        /*                                          if (!closePosition
-                                            .getMarket()
-                                            .getBase()
-                                            .getSymbol()
-                                            .equals("BTC")) {
-                                          log.debug("no btc");
-                                          rate =
-                                              quoteService.getImpliedBestAskForListing(listing);
-                                        }*/
-                                        Amount multplier =
-                                            closePosition
-                                                .getMarket()
-                                                .getMultiplier(
-                                                    closePosition.getMarket(),
-                                                    entryPrice,
-                                                    exitPrice);
-                                        double contractSize =
-                                            closePosition
-                                                .getMarket()
-                                                .getContractSize(closePosition.getMarket());
-                                        realisedPnL =
-                                            realisedPnL.plus(
-                                                (((entryPrice.minus(exitPrice))
-                                                        .times(volDiscrete, Remainder.ROUND_EVEN))
-                                                    .times(multplier, Remainder.ROUND_EVEN)
-                                                    .times(contractSize, Remainder.ROUND_EVEN)));
-                                        DiscreteAmount closingVolumeCountDiscrete =
-                                            new DiscreteAmount(
-                                                closingVolumeCount,
-                                                closePosition.getMarket().getVolumeBasis());
-                                        Amount openPositonFee =
-                                            FeesUtil.getCommission(
-                                                openPosition.getPrice(),
-                                                closingVolumeCountDiscrete.negate(),
-                                                openPosition.getMarket(),
-                                                openPosition.getPositionEffect(),
-                                                openPosition.getOrder().getExecutionInstruction());
-                                        Amount closePositonFee =
-                                            FeesUtil.getCommission(
-                                                closePosition.getPrice(),
-                                                closingVolumeCountDiscrete,
-                                                closePosition.getMarket(),
-                                                closePosition.getPositionEffect(),
-                                                closePosition.getOrder().getExecutionInstruction());
+                                      openPosition.merge();
+                                      if (closePosition.getOpenVolumeCount() == 0) {
 
                                         log.trace(
-                                            "calucalted realisedPNL={},entryPrice={},exitPrice={},volDiscrete={},multplier={},contractSize={}",
-                                            realisedPnL,
-                                            entryPrice,
-                                            exitPrice,
-                                            volDiscrete,
-                                            multplier,
-                                            contractSize);
-                                        Amount RealisedPnL =
-                                            realisedPnL.toBasis(
-                                                currency.getBasis(), Remainder.ROUND_FLOOR);
-
-                                        log.debug(
-                                            "At {} rounded RealisedPnL to {},entryPrice={},exitPrice={},volDiscrete={},multplier={},contractSize={} with currency {} and basis{} for market {}",
-                                            context.getTime(),
-                                            RealisedPnL,
-                                            entryPrice,
-                                            exitPrice,
-                                            volDiscrete,
-                                            multplier,
-                                            contractSize,
-                                            currency,
-                                            currency.getBasis(),
-                                            closePosition.getMarket());
-
-                                        Transaction trans = null;
-                                        if (baseRealisedPnL
-                                            && !(currency.getSymbol().equals("USDT")
-                                                && this.getBaseAsset().getSymbol().equals("USD"))) {
-                                          Amount BaseRealisedPnL =
-                                              (RealisedPnL.times(
-                                                      rate.getPrice(), Remainder.ROUND_EVEN))
-                                                  .toBasis(
-                                                      this.getBaseAsset().getBasis(),
-                                                      Remainder.ROUND_FLOOR);
-
-                                          log.debug(
-                                              "At {} calucalted BaseRealisedPnL of {}  wth rate {} for market {} in {}",
-                                              context.getTime(),
-                                              BaseRealisedPnL,
-                                              rate.getPrice(),
-                                              closePosition.getMarket(),
-                                              this.getBaseAsset());
-
-                                          openPositonFee =
-                                              (openPositonFee.times(
-                                                      rate.getPrice(), Remainder.ROUND_EVEN))
-                                                  .toBasis(
-                                                      this.getBaseAsset().getBasis(),
-                                                      Remainder.ROUND_FLOOR);
-                                          closePositonFee =
-                                              (closePositonFee.times(
-                                                      rate.getPrice(), Remainder.ROUND_EVEN))
-                                                  .toBasis(
-                                                      this.getBaseAsset().getBasis(),
-                                                      Remainder.ROUND_FLOOR);
-                                          trans =
-                                              transactionFactory.create(
-                                                  closePosition,
-                                                  this,
-                                                  closePosition.getMarket().getExchange(),
-                                                  this.getBaseAsset(),
-                                                  TransactionType.REALISED_PROFIT_LOSS,
-                                                  BaseRealisedPnL,
-                                                  new DiscreteAmount(0, currency.getBasis()));
-                                          trans.persit();
-
-                                        } else {
-                                          if (!RealisedPnL.isZero()) {
-                                            trans =
-                                                transactionFactory.create(
-                                                    closePosition,
-                                                    this,
-                                                    closePosition.getMarket().getExchange(),
-                                                    currency,
-                                                    TransactionType.REALISED_PROFIT_LOSS,
-                                                    RealisedPnL,
-                                                    new DiscreteAmount(0, currency.getBasis()));
-                                            trans.persit();
-                                          }
-                                        }
-
-                                        if (RealisedPnL.isNegative()
-                                            && closePosition.getPositionEffect()
-                                                == PositionEffect.OPEN)
-                                          log.trace(
-                                              "realsiedPnL is a loss. netted open position: {} with closing postion: {}",
-                                              openPosition,
-                                              closePosition);
-
-                                        if (trans != null) {
-
-                                          log.debug(
-                                              "At {} merge - Realised PnL={} ,realisedPNLCCY={},BaseCCY={},BaseRate={},openPositonFee={},closePositonFee={},closePosition={},openPosition={},transaction={} ",
-                                              context.getTime(),
-                                              trans.getAmount(),
-                                              trans.getCurrency(),
-                                              this.getBaseAsset(),
-                                              rate.getPrice(),
-                                              openPositonFee,
-                                              closePositonFee,
-                                              closePosition,
-                                              openPosition,
-                                              trans);
+                                            "merge. setting close position {} position to null",
+                                            closePosition);
+
+                                        closePosition.setPosition(null);
+                                        closingFillsToRemove.add(closePosition);
+                                        closePos.reset();
+                                        closePosition.setHoldingTime(
+                                            closePosition.getTimestamp()
+                                                - openPosition.getTimestamp());
+                                      }
+                                      closePosition.merge();
 
-                                          context.setPublishTime(trans);
-                                          trans.persit();
-                                          getManager().updatePortfolio(trans);
-                                        }
+                                    } else if (closePosition.getOpenVolumeCount() != 0) {
+                                      updatedVolumeCount =
+                                          openPosition.getOpenVolumeCount()
+                                              - closingVolumeCount;
+                                      closePosition.setOpenVolumeCount(0);
 
-                                        if (closePosition.getOpenVolumeCount() == 0) {
+                                      log.trace(
+                                          "merge. set close position {} open volume count to 0/{}",
+                                          closePosition,
+                                          closePosition.getOpenVolumeCount());
 
-                                          log.trace(
-                                              "merge - closePosition Position fill {} has zero quanityt with opening  fill {} loop {} with iterator{}",
-                                              closePosition.getUuid(),
-                                              openPosition.getUuid(),
-                                              closedFillCount,
-                                              System.identityHashCode(cpitr));
+                                      closePosition.setUpdateTime(context.getTime());
+                                      closingFillsToRemove.add(closePosition);
+                                      closePosition.setPosition(null);
 
-                                          log.trace(
-                                              "{} closed fully out with  {}",
-                                              closePosition,
-                                              openPosition);
-
-                                          for (Order childOrder :
-                                              closePosition.getFillChildOrders())
-                                            if (childOrder.getUsePosition()
-                                                && childOrder.getFillType().isTrigger()
-                                                && childOrder.getStopPrice() != null)
-                                              ordersToCancel.add(childOrder);
-
-                                          positionsToPublish.add(openPos);
-                                          closedFillBreak = true;
-                                        } else
-                                          log.trace(
-                                              "{} not closed fully out with {} ",
-                                              closePosition,
-                                              openPosition);
+                                      closePos.reset();
+                                      openPosition.setOpenVolumeCount(updatedVolumeCount);
+
+                                      log.trace(
+                                          "merge. set open position {} open volume count to  {}/{} ",
+                                          openPosition,
+                                          updatedVolumeCount,
+                                          openPosition.getOpenVolumeCount());
+
+                                      openPosition.setUpdateTime(context.getTime());
+
+                                      openPos.reset();
+                                      openPosition.setHoldingTime(
+                                          closePosition.getTimestamp()
+                                              - openPosition.getTimestamp());
+                                      if (openPosition.getOpenVolumeCount() == 0) {
+
+                                        log.trace(
+                                            "merge. setting open position {}  position to null {} ",
+                                            openPosition);
+
+                                        openPosition.setPosition(null);
+                                        openingFillsToRemove.add(openPosition);
+                                        openPos.reset();
+                                        openPosition.setHoldingTime(
+                                            closePosition.getTimestamp()
+                                                - openPosition.getTimestamp());
                                       }
+                                      openPosition.merge();
+                                      closePosition.merge();
+                                      logCloseOut(
+                                          closingVolumeCount,
+                                          openPosition,
+                                          closePosition,
+                                          true);
+                                    } else if (closePosition.getOpenVolumeCount() == 0) {
+                                      log.trace(
+                                          "merge. setting close position to null {} as open volume is :{}",
+                                          closePosition,
+                                          closePosition.getOpenVolumeCount());
+                                      closePosition.setPosition(null);
+                                      closingFillsToRemove.add(closePosition);
+                                      closePosition.merge();
+
+                                      // closePos.reset();
                                     }
                                     // closePosition.merge();
-                                    if (openPosition.getOpenVolumeCount() == 0) {
+                                    DiscreteAmount volDiscrete =
+                                        new DiscreteAmount(
+                                            closingVolumeCount,
+                                            closePosition.getMarket().getVolumeBasis());
+                                    // Trade lastTrade = quotes.getLastTrade(listing);
+
+                                    log.debug(
+                                        "calucalting realisedPNL with {} existing realised pnl",
+                                        realisedPnL);
+
+                                    /*                                          if (!closePosition
+                                        .getMarket()
+                                        .getBase()
+                                        .getSymbol()
+                                        .equals("BTC")) {
+                                      log.debug("no btc");
+                                      rate =
+                                          quoteService.getImpliedBestAskForListing(listing);
+                                    }*/
+                                    Amount multplier =
+                                        closePosition
+                                            .getMarket()
+                                            .getMultiplier(
+                                                closePosition.getMarket(),
+                                                entryPrice,
+                                                exitPrice);
+                                    double contractSize =
+                                        closePosition
+                                            .getMarket()
+                                            .getContractSize(closePosition.getMarket());
+                                    realisedPnL =
+                                        realisedPnL.plus(
+                                            (((entryPrice.minus(exitPrice))
+                                                    .times(volDiscrete, Remainder.ROUND_EVEN))
+                                                .times(multplier, Remainder.ROUND_EVEN)
+                                                .times(contractSize, Remainder.ROUND_EVEN)));
+                                    DiscreteAmount closingVolumeCountDiscrete =
+                                        new DiscreteAmount(
+                                            closingVolumeCount,
+                                            closePosition.getMarket().getVolumeBasis());
+                                    Amount openPositonFee =
+                                        FeesUtil.getCommission(
+                                            openPosition.getPrice(),
+                                            closingVolumeCountDiscrete.negate(),
+                                            openPosition.getMarket(),
+                                            openPosition.getPositionEffect(),
+                                            openPosition.getOrder().getExecutionInstruction());
+                                    Amount closePositonFee =
+                                        FeesUtil.getCommission(
+                                            closePosition.getPrice(),
+                                            closingVolumeCountDiscrete,
+                                            closePosition.getMarket(),
+                                            closePosition.getPositionEffect(),
+                                            closePosition.getOrder().getExecutionInstruction());
+
+                                    log.trace(
+                                        "calucalted realisedPNL={},entryPrice={},exitPrice={},volDiscrete={},multplier={},contractSize={}",
+                                        realisedPnL,
+                                        entryPrice,
+                                        exitPrice,
+                                        volDiscrete,
+                                        multplier,
+                                        contractSize);
+                                    Amount RealisedPnL =
+                                        realisedPnL.toBasis(
+                                            currency.getBasis(), Remainder.ROUND_FLOOR);
+
+                                    log.debug(
+                                        "At {} rounded RealisedPnL to {},entryPrice={},exitPrice={},volDiscrete={},multplier={},contractSize={} with currency {} and basis{} for market {}",
+                                        context.getTime(),
+                                        RealisedPnL,
+                                        entryPrice,
+                                        exitPrice,
+                                        volDiscrete,
+                                        multplier,
+                                        contractSize,
+                                        currency,
+                                        currency.getBasis(),
+                                        closePosition.getMarket());
+
+                                    Transaction trans = null;
+                                    if (baseRealisedPnL
+                                        && !(currency.getSymbol().equals("USDT")
+                                            && this.getBaseAsset().getSymbol().equals("USD"))) {
+                                      Amount BaseRealisedPnL =
+                                          (RealisedPnL.times(
+                                                  rate.getPrice(), Remainder.ROUND_EVEN))
+                                              .toBasis(
+                                                  this.getBaseAsset().getBasis(),
+                                                  Remainder.ROUND_FLOOR);
+
+                                      log.debug(
+                                          "At {} calucalted BaseRealisedPnL of {}  wth rate {} for market {} in {}",
+                                          context.getTime(),
+                                          BaseRealisedPnL,
+                                          rate.getPrice(),
+                                          closePosition.getMarket(),
+                                          this.getBaseAsset());
+
+                                      openPositonFee =
+                                          (openPositonFee.times(
+                                                  rate.getPrice(), Remainder.ROUND_EVEN))
+                                              .toBasis(
+                                                  this.getBaseAsset().getBasis(),
+                                                  Remainder.ROUND_FLOOR);
+                                      closePositonFee =
+                                          (closePositonFee.times(
+                                                  rate.getPrice(), Remainder.ROUND_EVEN))
+                                              .toBasis(
+                                                  this.getBaseAsset().getBasis(),
+                                                  Remainder.ROUND_FLOOR);
+                                      trans =
+                                          transactionFactory.create(
+                                              closePosition,
+                                              this,
+                                              closePosition.getMarket().getExchange(),
+                                              this.getBaseAsset(),
+                                              TransactionType.REALISED_PROFIT_LOSS,
+                                              BaseRealisedPnL,
+                                              new DiscreteAmount(0, currency.getBasis()));
+                                      trans.persit();
+
+                                    } else {
+                                      if (!RealisedPnL.isZero()) {
+                                        trans =
+                                            transactionFactory.create(
+                                                closePosition,
+                                                this,
+                                                closePosition.getMarket().getExchange(),
+                                                currency,
+                                                TransactionType.REALISED_PROFIT_LOSS,
+                                                RealisedPnL,
+                                                new DiscreteAmount(0, currency.getBasis()));
+                                        trans.persit();
+                                      }
+                                    }
 
+                                    if (RealisedPnL.isNegative()
+                                        && closePosition.getPositionEffect()
+                                            == PositionEffect.OPEN)
                                       log.trace(
-                                          "merge - Opening Position fill {} has zero quanityt with close outs with closing fill {} loop {} with iterator  {}",
-                                          openPosition.getUuid(),
+                                          "realsiedPnL is a loss. netted open position: {} with closing postion: {}",
+                                          openPosition,
+                                          closePosition);
+
+                                    if (trans != null) {
+
+                                      log.debug(
+                                          "At {} merge - Realised PnL={} ,realisedPNLCCY={},BaseCCY={},BaseRate={},openPositonFee={},closePositonFee={},closePosition={},openPosition={},transaction={} ",
+                                          context.getTime(),
+                                          trans.getAmount(),
+                                          trans.getCurrency(),
+                                          this.getBaseAsset(),
+                                          rate.getPrice(),
+                                          openPositonFee,
+                                          closePositonFee,
+                                          closePosition,
+                                          openPosition,
+                                          trans);
+
+                                      context.setPublishTime(trans);
+                                      trans.persit();
+                                      getManager().updatePortfolio(trans);
+                                    }
+
+                                    if (closePosition.getOpenVolumeCount() == 0) {
+
+                                      log.trace(
+                                          "merge - closePosition Position fill {} has zero quanityt with opening  fill {} loop {} with iterator{}",
                                           closePosition.getUuid(),
+                                          openPosition.getUuid(),
                                           closedFillCount,
                                           System.identityHashCode(cpitr));
 
-                                      openPosition.setPosition(null);
-                                      openingFillsToRemove.add(openPosition);
-                                      // openPos.reset();
-                                      for (Order childOrder : openPosition.getFillChildOrders())
+                                      log.trace(
+                                          "{} closed fully out with  {}",
+                                          closePosition,
+                                          openPosition);
+
+                                      for (Order childOrder :
+                                          closePosition.getFillChildOrders())
                                         if (childOrder.getUsePosition()
-                                            && (childOrder.getFillType() == null
-                                                || (childOrder.getFillType() != null
-                                                    && childOrder.getFillType().isTrigger()))
+                                            && childOrder.getFillType().isTrigger()
                                             && childOrder.getStopPrice() != null)
                                           ordersToCancel.add(childOrder);
-                                    }
-                                  }
-                                  openPosition.merge();
 
-                                  if (closePosition.getOpenVolumeCount() == 0) {
-                                    openPos.reset();
-                                    closePosition.merge();
-                                    closePos.reset();
-                                    continue CLOSEDFILLSLOOP;
+                                      positionsToPublish.add(openPos);
+                                      closedFillBreak = true;
+                                    } else
+                                      log.trace(
+                                          "{} not closed fully out with {} ",
+                                          closePosition,
+                                          openPosition);
                                   }
                                 }
+                                // closePosition.merge();
+                                if (openPosition.getOpenVolumeCount() == 0) {
+
+                                  log.trace(
+                                      "merge - Opening Position fill {} has zero quanityt with close outs with closing fill {} loop {} with iterator  {}",
+                                      openPosition.getUuid(),
+                                      closePosition.getUuid(),
+                                      closedFillCount,
+                                      System.identityHashCode(cpitr));
+
+                                  openPosition.setPosition(null);
+                                  openingFillsToRemove.add(openPosition);
+                                  // openPos.reset();
+                                  for (Order childOrder : openPosition.getFillChildOrders())
+                                    if (childOrder.getUsePosition()
+                                        && (childOrder.getFillType() == null
+                                            || (childOrder.getFillType() != null
+                                                && childOrder.getFillType().isTrigger()))
+                                        && childOrder.getStopPrice() != null)
+                                      ordersToCancel.add(childOrder);
+                                }
+                              }
+                              openPosition.merge();
+
+                              if (closePosition.getOpenVolumeCount() == 0) {
                                 openPos.reset();
                                 closePosition.merge();
                                 closePos.reset();
+                                continue CLOSEDFILLSLOOP;
                               }
-                              openPos.removeFills(openingFillsToRemove);
-                              if (!openPos.hasFills()) {
-                                openPos.delete();
-                              }
-
-                              positionsToPublish.add(openPos);
-                              //	publishPositionUpdate(openPos, (openPos.isLong()) ?
-                              // PositionType.LONG : PositionType.SHORT,
-                              //		openPos.getMarket(), 0);
-
-                            } else {
-
-                              log.trace(
-                                  "merge fills - Removing closed outs fills with  {} loop {} with iterator{}",
-                                  closePosition.getUuid(),
-                                  closedFillCount,
-                                  System.identityHashCode(cpitr));
-
-                              closePosition.setPosition(null);
-                              closingFillsToRemove.add(closePosition);
-                              closePos.reset();
-                              // cpitr.remove();
                             }
+                            openPos.reset();
+                            closePosition.merge();
+                            closePos.reset();
+                          }
+                          openPos.removeFills(openingFillsToRemove);
+                          if (!openPos.hasFills()) {
+                            openPos.delete();
                           }
 
+                          positionsToPublish.add(openPos);
+                          //	publishPositionUpdate(openPos, (openPos.isLong()) ?
+                          // PositionType.LONG : PositionType.SHORT,
+                          //		openPos.getMarket(), 0);
+
+                        } else {
+
                           log.trace(
-                              "merge fills - Completed close outs with closing fill {} loop {} with iterator {} ",
+                              "merge fills - Removing closed outs fills with  {} loop {} with iterator{}",
                               closePosition.getUuid(),
                               closedFillCount,
                               System.identityHashCode(cpitr));
+
+                          closePosition.setPosition(null);
+                          closingFillsToRemove.add(closePosition);
+                          closePos.reset();
+                          // cpitr.remove();
                         }
                       }
-                      closePos.removeFills(closingFillsToRemove);
-                      if (!closePos.hasFills()) {
-                        closePos.delete();
-                      }
+
+                      log.trace(
+                          "merge fills - Completed close outs with closing fill {} loop {} with iterator {} ",
+                          closePosition.getUuid(),
+                          closedFillCount,
+                          System.identityHashCode(cpitr));
                     }
                   }
+                  closePos.removeFills(closingFillsToRemove);
+                  if (!closePos.hasFills()) {
+                    closePos.delete();
+                  }
                 }
-                positionsToPublish.add(closePos);
-                //	publishPositionUpdate(closePos, (closePos.isLong()) ? PositionType.LONG :
-                // PositionType.SHORT, closePos.getMarket(), 0);
-
               }
+            }
+            positionsToPublish.add(closePos);
+            //	publishPositionUpdate(closePos, (closePos.isLong()) ? PositionType.LONG :
+            // PositionType.SHORT, closePos.getMarket(), 0);
 
-              // looop over latest postions and publish out.
-              for (Order orderToCancel : ordersToCancel) {
+          }
 
-                log.debug("merge fills: cancelling orders {} ", orderToCancel);
+          // looop over latest postions and publish out.
+          for (Order orderToCancel : ordersToCancel) {
 
-                orderService.handleCancelOrder(orderToCancel);
-              }
-              /*             for (Position position : positionsToPublish)
-              publishPositionUpdate(
-                  position,
-                  (position.isLong()) ? PositionType.LONG : PositionType.SHORT,
-                  position.getMarket(),
-                  0);*/
-              fill.merge();
-              return true;
-            }
+            log.debug("merge fills: cancelling orders {} ", orderToCancel);
+
+            orderService.handleCancelOrder(orderToCancel);
           }
-          /*          publishPositionUpdate(
-          fill.getPosition(),
-          (fill.isLong()) ? PositionType.LONG : PositionType.SHORT,
-          fill.getMarket(),
-          fill.getOrder().getOrderGroup());*/
+          /*             for (Position position : positionsToPublish)
+          publishPositionUpdate(
+              position,
+              (position.isLong()) ? PositionType.LONG : PositionType.SHORT,
+              position.getMarket(),
+              0);*/
           fill.merge();
           return true;
         }
       }
+      /*          publishPositionUpdate(
+      fill.getPosition(),
+      (fill.isLong()) ? PositionType.LONG : PositionType.SHORT,
+      fill.getMarket(),
+      fill.getOrder().getOrderGroup());*/
+      fill.merge();
+      return true;
     }
   }
 
@@ -2553,9 +2161,6 @@ public class Portfolio extends EntityBase {
 
   // JPA
   public Portfolio() {
-    this.positionsMap =
-        new ConcurrentHashMap<
-            Asset, Map<Exchange, Map<Listing, Map<TransactionType, List<Position>>>>>();
     this.realisedProfits = new ConcurrentHashMap<Asset, Map<Exchange, Map<Listing, Amount>>>();
     this.commissionsAndFees = new ConcurrentHashMap<Asset, Map<Exchange, Map<Listing, Amount>>>();
 
@@ -2563,11 +2168,6 @@ public class Portfolio extends EntityBase {
 
   }
 
-  protected synchronized void setPositionMap(
-      Map<Asset, Map<Exchange, Map<Listing, Map<TransactionType, List<Position>>>>> positions) {
-    this.positionsMap = positions;
-  }
-
   public synchronized void setBaseAsset(Asset baseAsset) {
     this.baseAsset = baseAsset;
   }
@@ -2819,8 +2419,7 @@ public class Portfolio extends EntityBase {
   private DiscreteAmount baseCashBalance;
   protected List<Holding> holdings;
   private long baseCashBalanceCount;
-  private transient Map<Asset, Map<Exchange, Map<Listing, Map<TransactionType, List<Position>>>>>
-      positionsMap;
+  private final transient PositionBook positionBook = new PositionBook();
   private transient Map<Asset, Map<Exchange, Map<Listing, Amount>>> realisedProfits;
 
   private transient Map<Asset, Map<Exchange, Map<Listing, Amount>>> commissionsAndFees;
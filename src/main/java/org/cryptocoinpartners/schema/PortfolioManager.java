@@ -20,6 +20,7 @@ import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.cryptocoinpartners.service.QuoteService;
 import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.cryptocoinpartners.util.Remainder;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -131,7 +132,7 @@ public class PortfolioManager extends EntityBase implements Context.AttachListen
           log.error(
               this.getClass().getSimpleName()
                   + ":removeReservation - Called from class "
-                  + Thread.currentThread().getStackTrace()[2]
+                  + PersistenceTrace.callSite()
                   + " Unknown order state: "
                   + update.getState());
           break;
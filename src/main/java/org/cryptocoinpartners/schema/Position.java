@@ -26,6 +26,7 @@ import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.enumeration.PositionEffect;
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.schema.dao.PositionDao;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.cryptocoinpartners.util.Remainder;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -988,7 +989,7 @@ public class Position extends Holding {
         "Position - Merge : Merge of Position "
             + this.getUuid()
             + " called from class "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
 
     this.setPeristanceAction(PersistanceAction.MERGE);
 
@@ -1020,7 +1021,7 @@ public class Position extends Holding {
           "Position - delete : Delete of Position "
               + this.getUuid()
               + " called from class "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
       //  if (this.getPortfolio() != null)
       //  if (this.getPortfolio().removePosition(this)) {
 
@@ -1057,7 +1058,7 @@ public class Position extends Holding {
           "Position - Refresh : Refresh of Position "
               + this.getUuid()
               + " called from class "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
 
       return positionDao.refresh(this);
       // if (duplicate == null || duplicate.isEmpty())
@@ -1097,7 +1098,7 @@ public class Position extends Holding {
           "Position - Persist : Persit of Position "
               + this.getUuid()
               + " called from class "
-              + Thread.currentThread().getStackTrace()[2]);
+              + PersistenceTrace.callSite(log));
       this.setPeristanceAction(PersistanceAction.NEW);
       this.setRevision(this.getRevision() + 1);
 
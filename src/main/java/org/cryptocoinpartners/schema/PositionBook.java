@@ -0,0 +1,172 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.cryptocoinpartners.enumeration.TransactionType;
+
+/**
+ * The Positions of a Portfolio by base Asset, Exchange, Listing and TransactionType. The Positions
+ * are held in nested arrays addressed by the EntityRegistry ordinals of the asset, exchange and
+ * listing, so finding the Positions of a market takes three array reads instead of hashing an
+ * entity at each level of nested maps.
+ *
+ * <p>Slots are only created under the book's lock and published through a volatile root, so
+ * lookups never lock. Each list of Positions is guarded by its own monitor, which Portfolio holds
+ * while it adds to or closes out a list, so copies of a list never see it mid-update. Readers
+ * wanting every Position share a snapshot which is rebuilt on the first read after the book has
+ * been modified.
+ */
+public class PositionBook {
+
+  /** The Positions held in one market, by TransactionType */
+  public class Slot {
+
+    /** @return the live list of Positions on this side, or null if none were ever added */
+    public List<Position> get(TransactionType side) {
+      return sides.get(side.ordinal());
+    }
+
+    public void put(TransactionType side, List<Position> positions) {
+      sides.set(side.ordinal(), positions);
+      modified();
+    }
+
+    public void add(TransactionType side, Position position) {
+      List<Position> positions = get(side);
+      if (positions == null) {
+        positions = new ArrayList<Position>();
+        positions.add(position);
+        put(side, positions);
+      } else {
+        synchronized (positions) {
+          positions.add(position);
+        }
+        modified();
+      }
+    }
+
+    /** @return a copy of the Positions on this side, safe to iterate while fills are merged */
+    public Position[] positions(TransactionType side) {
+      List<Position> positions = get(side);
+      return positions == null ? EMPTY : copy(positions);
+    }
+
+    void collect(List<Position> into) {
+      for (int i = 0; i < sides.length(); i++) {
+        List<Position> positions = sides.get(i);
+        if (positions != null) for (Position position : copy(positions)) into.add(position);
+      }
+    }
+
+    private final AtomicReferenceArray<List<Position>> sides =
+        new AtomicReferenceArray<List<Position>>(TransactionType.values().length);
+  }
+
+  /** @return the Positions held in the market, or null if none were ever added */
+  public Slot get(Asset asset, Exchange exchange, Listing listing) {
+    if (asset == null || exchange == null || listing == null) return null;
+    int a = EntityRegistry.ordinal(asset);
+    int e = EntityRegistry.ordinal(exchange);
+    int l = EntityRegistry.ordinal(listing);
+    Slot[][][] root = slots;
+    if (a >= root.length || root[a] == null) return null;
+    Slot[][] byExchange = root[a];
+    if (e >= byExchange.length || byExchange[e] == null) return null;
+    Slot[] byListing = byExchange[e];
+    return l < byListing.length ? byListing[l] : null;
+  }
+
+  public Slot get(Market market) {
+    return get(market.getBase(), market.getExchange(), market.getListing());
+  }
+
+  public synchronized Slot getOrCreate(Asset asset, Exchange exchange, Listing listing) {
+    Slot slot = get(asset, exchange, listing);
+    if (slot != null) return slot;
+    int a = EntityRegistry.ordinal(asset);
+    int e = EntityRegistry.ordinal(exchange);
+    int l = EntityRegistry.ordinal(listing);
+    Slot[][][] root = slots;
+    if (a >= root.length) root = Arrays.copyOf(root, capacity(a, root.length));
+    Slot[][] byExchange = root[a] == null ? new Slot[capacity(e, 0)][] : root[a];
+    if (e >= byExchange.length)
+      byExchange = Arrays.copyOf(byExchange, capacity(e, byExchange.length));
+    Slot[] byListing = byExchange[e] == null ? new Slot[capacity(l, 0)] : byExchange[e];
+    if (l >= byListing.length) byListing = Arrays.copyOf(byListing, capacity(l, byListing.length));
+    slot = new Slot();
+    byListing[l] = slot;
+    byExchange[e] = byListing;
+    root[a] = byExchange;
+    allSlots.add(slot);
+    // the volatile write publishes the slot to lookups, even when no array had to grow
+    slots = root;
+    return slot;
+  }
+
+  public void add(
+      Asset asset, Exchange exchange, Listing listing, TransactionType side, Position position) {
+    getOrCreate(asset, exchange, listing).add(side, position);
+  }
+
+  /** @return every Position held in the given Exchange for the asset, across all its listings */
+  public List<Position> getPositions(Asset asset, Exchange exchange) {
+    List<Position> positions = new ArrayList<Position>();
+    if (asset == null || exchange == null) return positions;
+    int a = EntityRegistry.ordinal(asset);
+    int e = EntityRegistry.ordinal(exchange);
+    Slot[][][] root = slots;
+    if (a >= root.length || root[a] == null || e >= root[a].length || root[a][e] == null)
+      return positions;
+    for (Slot slot : root[a][e]) if (slot != null) slot.collect(positions);
+    return positions;
+  }
+
+  /**
+   * @return an unmodifiable snapshot of every Position in the book, shared by all readers until the
+   *     book is next modified
+   */
+  public List<Position> getPositions() {
+    if (modified) {
+      // cleared before copying, so a modification made during the copy triggers another rebuild
+      modified = false;
+      List<Position> positions = new ArrayList<Position>();
+      for (Slot slot : allSlots) slot.collect(positions);
+      snapshot = Collections.unmodifiableList(positions);
+    }
+    return snapshot;
+  }
+
+  /** Marks the snapshot stale, to be called after Positions are added to or removed from a list */
+  public void modified() {
+    modified = true;
+  }
+
+  public synchronized void clear() {
+    slots = new Slot[0][][];
+    allSlots.clear();
+    modified();
+  }
+
+  private static Position[] copy(List<Position> positions) {
+    // the lists are plain ArrayLists, so copies take the lock merges hold while closing out
+    synchronized (positions) {
+      return positions.isEmpty() ? EMPTY : positions.toArray(new Position[positions.size()]);
+    }
+  }
+
+  private static int capacity(int index, int length) {
+    return Math.max(index + 1, length * 2);
+  }
+
+  private static final Position[] EMPTY = new Position[0];
+
+  private volatile Slot[][][] slots = new Slot[0][][];
+  private final List<Slot> allSlots = new CopyOnWriteArrayList<Slot>();
+  private volatile boolean modified;
+  private volatile List<Position> snapshot = Collections.emptyList();
+}
@@ -1,9 +1,9 @@
 package org.cryptocoinpartners.schema;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 import javax.persistence.Basic;
@@ -29,13 +29,14 @@ import com.google.inject.Inject;
 @Cacheable
 public class Prompt extends EntityBase {
   @Inject protected static transient PromptJpaDao promptDao;
-  private static Map<String, Prompt> promptMap = new HashMap<String, Prompt>();
+  private static Map<String, Prompt> promptMap = new ConcurrentHashMap<String, Prompt>();
 
   public static Prompt forSymbol(String symbol) {
+    if (symbol == null) return null;
     if (promptMap.isEmpty()) allSymbols();
     if (promptMap.get(symbol) == null) {
       Prompt prompt = EM.queryOne(Prompt.class, "select c from Prompt c where symbol=?1", symbol);
-      if (prompt != null) promptMap.put(symbol, prompt);
+      if (prompt != null) promptMap.put(symbol, EntityRegistry.intern(prompt));
     }
     return promptMap.get(symbol);
   }
@@ -50,7 +51,8 @@ public class Prompt extends EntityBase {
   public static Collection<String> allSymbols() {
     if (promptMap.isEmpty()) {
       List<Prompt> prompts = EM.queryList(Prompt.class, "select p from Prompt p");
-      for (Prompt prompt : prompts) promptMap.put(prompt.getSymbol(), prompt);
+      for (Prompt prompt : prompts)
+        promptMap.put(prompt.getSymbol(), EntityRegistry.intern(prompt));
     }
     return promptMap.keySet();
   }
@@ -23,6 +23,7 @@ import org.cryptocoinpartners.enumeration.FillType;
 import org.cryptocoinpartners.enumeration.PositionEffect;
 import org.cryptocoinpartners.enumeration.TransactionType;
 import org.cryptocoinpartners.schema.Market.MarketAmountBuilder;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.cryptocoinpartners.util.Remainder;
 import org.cryptocoinpartners.util.XchangeUtil;
 import org.hibernate.annotations.Type;
@@ -403,7 +404,7 @@ public class SpecificOrder extends Order {
                 ? "with parent order " + specficOrder.getParentOrder().getUuid()
                 : "")
             + "  called from class "
-            + Thread.currentThread().getStackTrace()[2]);
+            + PersistenceTrace.callSite(log));
 
     this.getUuid();
     this.orderUpdates = new CopyOnWriteArrayList<OrderUpdate>();
@@ -0,0 +1,149 @@
+package org.cryptocoinpartners.schema;
+
+import javax.annotation.Nullable;
+import javax.persistence.Transient;
+
+import org.cryptocoinpartners.schema.dao.Dao;
+import org.joda.time.Instant;
+
+/**
+ * Published whenever the best bid or best ask of a live order book changes. Unlike Book this event
+ * carries only the top level as price and volume counts, so strategies which need nothing deeper
+ * can subscribe to it without the cost of a full Book. It is never persisted.
+ */
+public class TopOfBook extends Event {
+
+  public TopOfBook(
+      Instant time,
+      Tradeable market,
+      long sequence,
+      long bidPriceCount,
+      long bidVolumeCount,
+      long askPriceCount,
+      long askVolumeCount) {
+    super(time);
+    this.market = market;
+    this.sequence = sequence;
+    this.bidPriceCount = bidPriceCount;
+    this.bidVolumeCount = bidVolumeCount;
+    this.askPriceCount = askPriceCount;
+    this.askVolumeCount = askVolumeCount;
+  }
+
+  public Tradeable getMarket() {
+    return market;
+  }
+
+  /** the exchange sequence number of the update which produced this top of book, or -1 if unknown */
+  public long getSequence() {
+    return sequence;
+  }
+
+  public long getBidPriceCount() {
+    return bidPriceCount;
+  }
+
+  public long getBidVolumeCount() {
+    return bidVolumeCount;
+  }
+
+  public long getAskPriceCount() {
+    return askPriceCount;
+  }
+
+  /** ask volume as a positive count */
+  public long getAskVolumeCount() {
+    return askVolumeCount;
+  }
+
+  public double getBidPriceAsDouble() {
+    return bidPriceCount * market.getPriceBasis();
+  }
+
+  public double getBidVolumeAsDouble() {
+    return bidVolumeCount * market.getVolumeBasis();
+  }
+
+  public double getAskPriceAsDouble() {
+    return askPriceCount * market.getPriceBasis();
+  }
+
+  public double getAskVolumeAsDouble() {
+    return askVolumeCount * market.getVolumeBasis();
+  }
+
+  public boolean hasBid() {
+    return bidVolumeCount != 0;
+  }
+
+  public boolean hasAsk() {
+    return askVolumeCount != 0;
+  }
+
+  @Override
+  public String toString() {
+    return "TopOfBook{"
+        + market
+        + " "
+        + getBidVolumeAsDouble()
+        + "@"
+        + getBidPriceAsDouble()
+        + " / "
+        + getAskVolumeAsDouble()
+        + "@"
+        + getAskPriceAsDouble()
+        + " seq="
+        + sequence
+        + "}";
+  }
+
+  @Override
+  @Transient
+  @Nullable
+  public EntityBase getParent() {
+    return null;
+  }
+
+  @Override
+  @Transient
+  public Dao getDao() {
+    return null;
+  }
+
+  @Override
+  @Transient
+  public void setDao(Dao dao) {}
+
+  @Override
+  public void persit() {}
+
+  @Override
+  public void persitParents() {}
+
+  @Override
+  public void detach() {}
+
+  @Override
+  public void merge() {}
+
+  @Override
+  public void delete() {}
+
+  @Override
+  public EntityBase refresh() {
+    return this;
+  }
+
+  @Override
+  public void prePersist() {}
+
+  @Override
+  public void postPersist() {}
+
+  private final Tradeable market;
+  private final long sequence;
+  private final long bidPriceCount;
+  private final long bidVolumeCount;
+  private final long askPriceCount;
+  private final long askVolumeCount;
+}
@@ -1,10 +1,13 @@
 package org.cryptocoinpartners.schema;
 
 import java.math.BigDecimal;
+import java.util.UUID;
 
 import javax.annotation.Nullable;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.PostPersist;
+import javax.persistence.Table;
 import javax.persistence.Transient;
 
 import org.cryptocoinpartners.enumeration.PersistanceAction;
@@ -29,7 +32,7 @@ import com.google.inject.assistedinject.AssistedInject;
 @Entity
 //@Cacheable(false)
 //@Table(indexes = { @Index(columnList = "time"), @Index(columnList = "timeReceived"), @Index(columnList = "market") })
-//@Table(indexes = { @Index(columnList = "market,time") })
+@Table(indexes = { @Index(columnList = "market,time") })
 public class Trade extends PriceData {
 
 	@Inject
@@ -139,6 +142,20 @@ public class Trade extends PriceData {
 		super(time, timeRecieved, remoteKey, market, priceCount, volumeCount);
 	}
 
+	/**
+	 * Builds a detached Trade from the columns of its database row, keeping its uuid so it is equal to the Trade loaded by JPA.
+	 * Used by MarketDataReader to read Trades without a persistence context.
+	 */
+	public static Trade fromRow(Long id, @Nullable UUID uuid, Tradeable market, Instant time, Instant timeReceived, @Nullable String remoteKey,
+			long priceCount, long volumeCount) {
+		Trade trade = new Trade(market, time, timeReceived, remoteKey, priceCount, volumeCount);
+		trade.setId(id);
+		if (uuid != null)
+			trade.setUuid(uuid);
+		trade.setPersisted(true);
+		return trade;
+	}
+
 	@AssistedInject
 	public Trade(@Assisted Tradeable tradeable, @Assisted Instant time, @Assisted @Nullable String remoteKey, @Assisted("tradePrice") BigDecimal price,
 			@Assisted("tradeVolume") BigDecimal volume) {
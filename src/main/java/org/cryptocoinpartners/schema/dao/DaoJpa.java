@@ -19,6 +19,7 @@ import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.EntityBase;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.PersistenceTrace;
 import org.cryptocoinpartners.util.Visitor;
 import org.hibernate.PersistentObjectException;
 import org.hibernate.PropertyAccessException;
@@ -389,8 +390,11 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
         //   long revision = entity.findRevisionById();
         // if (entity.getRevision() > revision) {
         if (!entity.getPersisted()) {
+          long start = System.nanoTime();
           if (bulkInsert) bulkInsert(entity);
           else insert(entity);
+          PersistenceTrace.record(
+              entity.getClass(), PersistenceTrace.Action.PERSIST, System.nanoTime() - start);
 
           persisted = true;
         } else mergeEntities(bulkInsert, entity);
@@ -788,7 +792,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
           "DaoJpa - Persist : Persit of {} {} called from class {}",
           entity.getClass().getSimpleName(),
           entity.getUuid(),
-          Thread.currentThread().getStackTrace()[2]);
+          PersistenceTrace.callSite(log));
 
       // let's clone the object as it could update and cause issues
       //  SerializationUtils.clone(Object);
@@ -908,7 +912,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
           "DaoJpa - Delete : delete of {} {} called from class {}",
           entity.getClass().getSimpleName(),
           entity.getUuid(),
-          Thread.currentThread().getStackTrace()[2]);
+          PersistenceTrace.callSite(log));
 
     delete(true, entities);
   }
@@ -987,7 +991,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
           "DaoJpa - Merge : Merge of {} {} called from class {}",
           entity.getClass().getSimpleName(),
           entity.getUuid(),
-          Thread.currentThread().getStackTrace()[2]);
+          PersistenceTrace.callSite(log));
 
     merge(false, entities);
   }
@@ -1667,7 +1671,10 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
         long revision = entity.findRevisionById();
         if (entity.getRevision() >= revision) {
           //	entity.setVersion(entity.getRevision());
+          long start = System.nanoTime();
           mergedEntity = (bulkInsert ? bulkUpdate(entity) : update(entity));
+          PersistenceTrace.record(
+              entity.getClass(), PersistenceTrace.Action.MERGE, System.nanoTime() - start);
 
           merged = true;
 
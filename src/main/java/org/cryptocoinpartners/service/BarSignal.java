@@ -0,0 +1,19 @@
+package org.cryptocoinpartners.service;
+
+import org.cryptocoinpartners.module.BarSeries;
+
+/**
+ * Implemented by strategies which can be backtested by the bar-vectorized vbacktest run mode. The
+ * signal is computed over a whole BarSeries at once instead of bar by bar through Esper.
+ */
+public interface BarSignal {
+
+  /**
+   * Fills targets[i] with the position, in units of the market's base asset, to hold once bar i
+   * has closed. A negative target is a short position. The simulation trades to targets[i] at the
+   * open of bar i + 1, so a signal may read any element up to and including i.
+   *
+   * @param targets an array of series.size() elements, initially zero
+   */
+  void positions(BarSeries series, double[] targets);
+}
@@ -0,0 +1,21 @@
+package org.cryptocoinpartners.service;
+
+import java.io.Serializable;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implemented by strategies whose indicator state should survive a restart. The state returned by
+ * getCheckpointState() is written to the periodic checkpoint, and handed back to
+ * restoreCheckpointState() when a live or paper run warm-starts from that checkpoint. It is handed
+ * back once the replayed history reaches the checkpoint time, replacing whatever the strategy
+ * derived from the replayed events the checkpoint had already seen.
+ */
+public interface Checkpointable {
+
+  /** @return a copy of the state to checkpoint, or null if there is nothing to save */
+  @Nullable
+  Serializable getCheckpointState();
+
+  void restoreCheckpointState(Serializable state);
+}
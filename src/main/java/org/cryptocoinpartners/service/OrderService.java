@@ -200,6 +200,15 @@ public interface OrderService {
 
   void handleFillProcessing(Fill fill);
 
+  /**
+   * Sets the number of threads fills are processed on. Fills of the same portfolio are always
+   * processed in the order received; 0 processes fills on the thread reporting them.
+   */
+  void setFillProcessingThreads(int threads);
+
+  /** @return the number of fills processed and their fill to position update latency */
+  String getFillLatency();
+
   Collection<SpecificOrder> getPendingLongOrders();
 
   Collection<SpecificOrder> getPendingShortOrders();
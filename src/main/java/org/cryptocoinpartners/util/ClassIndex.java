@@ -0,0 +1,128 @@
+package org.cryptocoinpartners.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the run mode, module, subtype and EPL indexes written into each jar by IndexProcessor. The
+ * indexes of every jar on the classpath are merged. When no jar carries an index, as when running
+ * from an IDE which does not run the processor, or reflection.scan=true, every lookup returns null
+ * and callers fall back to scanning the classpath.
+ */
+public class ClassIndex {
+
+  /** @return true if the compile-time indexes should be used instead of classpath scanning */
+  public static boolean isAvailable() {
+    if (available == null) {
+      boolean scan =
+          ConfigUtil.combined() != null
+              && ConfigUtil.combined().getBoolean("reflection.scan", false);
+      available = !scan && !readLines(IndexProcessor.MODULES).isEmpty();
+      log.debug("ClassIndex:isAvailable - class index " + (available ? "found" : "not used"));
+    }
+    return available;
+  }
+
+  /**
+   * @return the indexed subtypes of a supertype annotated with @Indexed, or null if there is no
+   *     index
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public static <T> Set<Class<? extends T>> getSubtypesOf(Class<T> cls) {
+    if (!isAvailable() || !cls.isAnnotationPresent(Indexed.class)) return null;
+    Set<Class<? extends T>> subtypes = new LinkedHashSet<Class<? extends T>>();
+    for (String name : readLines(IndexProcessor.SUBTYPES + cls.getName())) {
+      Class<?> subtype = load(name);
+      if (subtype != null && cls.isAssignableFrom(subtype))
+        subtypes.add((Class<? extends T>) subtype);
+    }
+    return subtypes;
+  }
+
+  /** @return the indexed module class with the given fully qualified name, or null */
+  @Nullable
+  public static Class<?> getModuleClass(String className) {
+    if (!isAvailable()) return null;
+    if (modules == null) modules = new HashSet<String>(readLines(IndexProcessor.MODULES));
+    return modules.contains(className) ? load(className) : null;
+  }
+
+  /**
+   * @return whether a Name.epl resource exists for the class with the given simple name, or null if
+   *     the class was not indexed
+   */
+  @Nullable
+  public static Boolean hasEpl(String simpleName) {
+    if (!isAvailable()) return null;
+    if (epl == null) {
+      Map<String, Boolean> found = new HashMap<String, Boolean>();
+      for (String line : readLines(IndexProcessor.EPL)) {
+        int split = line.indexOf('=');
+        if (split < 0) continue;
+        String name = line.substring(0, split);
+        // an EPL file found in any jar wins
+        boolean present = Boolean.parseBoolean(line.substring(split + 1));
+        found.put(name, present || Boolean.TRUE.equals(found.get(name)));
+      }
+      epl = found;
+    }
+    return epl.get(simpleName);
+  }
+
+  @Nullable
+  private static Class<?> load(String className) {
+    try {
+      return Class.forName(className, false, ClassIndex.class.getClassLoader());
+    } catch (ClassNotFoundException | LinkageError e) {
+      log.debug("ClassIndex:load - skipping stale index entry " + className);
+      return null;
+    }
+  }
+
+  /** @return the lines of the resource at the given path in every jar, in classpath order */
+  private static List<String> readLines(String path) {
+    List<String> cached = lines.get(path);
+    if (cached != null) return cached;
+    List<String> result = new ArrayList<String>();
+    try {
+      Enumeration<URL> urls = ClassIndex.class.getClassLoader().getResources(path);
+      while (urls.hasMoreElements()) {
+        try (BufferedReader reader =
+            new BufferedReader(
+                new InputStreamReader(urls.nextElement().openStream(), StandardCharsets.UTF_8))) {
+          for (String line = reader.readLine(); line != null; line = reader.readLine())
+            if (!line.trim().isEmpty()) result.add(line.trim());
+        }
+      }
+    } catch (IOException e) {
+      log.warn("ClassIndex:readLines - unable to read " + path, e);
+    }
+    lines.put(path, result);
+    return result;
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.classIndex");
+  private static final Map<String, List<String>> lines =
+      new ConcurrentHashMap<String, List<String>>();
+  private static volatile Boolean available;
+  private static volatile Set<String> modules;
+  private static volatile Map<String, Boolean> epl;
+}
@@ -0,0 +1,18 @@
+package org.cryptocoinpartners.util;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * An AsyncAppender which, once the remaining capacity of its queue falls below the discarding
+ * threshold, only drops DEBUG and TRACE events. The stock AsyncAppender drops INFO as well, and
+ * the order and position INFO messages are the ones worth blocking for.
+ */
+public class DebugDiscardingAsyncAppender extends AsyncAppender {
+
+  @Override
+  protected boolean isDiscardable(ILoggingEvent event) {
+    return event.getLevel().toInt() <= Level.DEBUG_INT;
+  }
+}
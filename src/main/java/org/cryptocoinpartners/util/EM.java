@@ -1,5 +1,6 @@
 package org.cryptocoinpartners.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +11,7 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
 import javax.persistence.NoResultException;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.Query;
@@ -707,6 +709,74 @@ public class EM {
     }
   }
 
+  /**
+   * Runs a native SQL query and returns its rows as scalar columns, without creating or managing
+   * any entities, or null if the query fails.
+   */
+  @SuppressWarnings("unchecked")
+  public static List<Object[]> queryListNativeSQL(String queryStr, Object... params) {
+    try {
+      beginUnitOfWork();
+      final Query query = em().createNativeQuery(queryStr);
+      if (params != null) {
+        for (int i = 0; i < params.length; i++) {
+          Object param = params[i];
+          query.setParameter(i + 1, param); // JPA uses 1-based indexes
+        }
+      }
+      List<Object[]> result = new ArrayList<Object[]>();
+      for (Object row : query.getResultList())
+        result.add(row instanceof Object[] ? (Object[]) row : new Object[] {row});
+      return result;
+    } catch (Error | Exception e) {
+      log.error(
+          EM.class.getClass().getSimpleName()
+              + " - queryListNativeSQL Unable to complete query "
+              + queryStr
+              + ", full stack trace follows:",
+          e);
+
+      return null;
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
+  /**
+   * Runs a native SQL statement, such as DDL, in its own transaction and returns the update count.
+   * Failures are rolled back and rethrown.
+   */
+  public static int executeNativeSQL(String queryStr, Object... params) {
+    try {
+      beginUnitOfWork();
+      EntityTransaction transaction = em().getTransaction();
+      transaction.begin();
+      try {
+        final Query query = em().createNativeQuery(queryStr);
+        if (params != null) {
+          for (int i = 0; i < params.length; i++) {
+            Object param = params[i];
+            query.setParameter(i + 1, param); // JPA uses 1-based indexes
+          }
+        }
+        int count = query.executeUpdate();
+        transaction.commit();
+        return count;
+      } catch (Error | RuntimeException e) {
+        if (transaction.isActive()) transaction.rollback();
+        log.error(
+            EM.class.getSimpleName()
+                + " - executeNativeSQL Unable to execute "
+                + queryStr
+                + ", full stack trace follows:",
+            e);
+        throw e;
+      }
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
   public static <T> List<T> queryList(
       Class<T> resultType, String queryStr, Map<String, String> properties, Object... params) {
     //  EntityManager em = em();
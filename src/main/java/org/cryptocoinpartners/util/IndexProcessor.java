@@ -0,0 +1,159 @@
+package org.cryptocoinpartners.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes the class indexes read by ClassIndex at compile time, so startup does not have to scan the
+ * classpath:
+ *
+ * <ul>
+ *   <li>META-INF/cointrader/subtypes/<i>supertype</i> lists every compiled subtype of each type
+ *       annotated with @Indexed, such as RunMode, Event and Command
+ *   <li>META-INF/cointrader/modules lists the public concrete top level classes in packages named
+ *       *.module, which Context.attach(String) looks up by simple name
+ *   <li>META-INF/cointrader/epl.properties records, for the simple name of every compiled class,
+ *       whether a Name.epl resource was present in the class output
+ * </ul>
+ *
+ * The processor is run by the second compile execution in the pom, once it has itself been compiled
+ * by the first, so it must not depend on any other class in this project. Jars of add-on modules can be indexed by passing -processor
+ * org.cryptocoinpartners.util.IndexProcessor to javac with cointrader on the processor path.
+ */
+@SupportedAnnotationTypes("*")
+public class IndexProcessor extends AbstractProcessor {
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      write();
+      return false;
+    }
+    for (Element element : roundEnv.getRootElements())
+      if (element instanceof TypeElement) visit((TypeElement) element);
+    return false;
+  }
+
+  private void visit(TypeElement type) {
+    for (Element enclosed : type.getEnclosedElements())
+      if (enclosed instanceof TypeElement) visit((TypeElement) enclosed);
+    if (type.getKind() != ElementKind.CLASS) return;
+
+    String name = processingEnv.getElementUtils().getBinaryName(type).toString();
+    for (String supertype : indexedSupertypes(type, new HashSet<String>())) {
+      Set<String> names = subtypes.get(supertype);
+      if (names == null) subtypes.put(supertype, names = new TreeSet<String>());
+      names.add(name);
+    }
+
+    Set<Modifier> modifiers = type.getModifiers();
+    String packageName =
+        processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    if (type.getNestingKind() == NestingKind.TOP_LEVEL
+        && modifiers.contains(Modifier.PUBLIC)
+        && !modifiers.contains(Modifier.ABSTRACT)
+        && packageName.endsWith(".module")) modules.add(name);
+
+    // superclasses compiled elsewhere are left out, as their EPL may live in their own jar
+    probeEpl(type.getSimpleName().toString());
+  }
+
+  /** @return the qualified names of all supertypes of the type which are annotated with @Indexed */
+  private Set<String> indexedSupertypes(TypeElement type, Set<String> visited) {
+    Set<String> found = new TreeSet<String>();
+    for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type.asType())) {
+      if (supertype.getKind() != TypeKind.DECLARED) continue;
+      TypeElement element = (TypeElement) ((DeclaredType) supertype).asElement();
+      String supertypeName = processingEnv.getElementUtils().getBinaryName(element).toString();
+      if (!visited.add(supertypeName)) continue;
+      if (isIndexed(element)) found.add(supertypeName);
+      found.addAll(indexedSupertypes(element, visited));
+    }
+    return found;
+  }
+
+  private static boolean isIndexed(TypeElement element) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors())
+      if (((TypeElement) annotation.getAnnotationType().asElement())
+          .getQualifiedName()
+          .contentEquals(INDEXED)) return true;
+    return false;
+  }
+
+  private void probeEpl(String simpleName) {
+    if (epl.containsKey(simpleName)) return;
+    boolean present;
+    try {
+      FileObject resource =
+          processingEnv
+              .getFiler()
+              .getResource(StandardLocation.CLASS_OUTPUT, "", simpleName + ".epl");
+      try (InputStream in = resource.openInputStream()) {
+        present = true;
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      present = false;
+    }
+    epl.put(simpleName, present);
+  }
+
+  private void write() {
+    try {
+      for (Map.Entry<String, Set<String>> entry : subtypes.entrySet())
+        write(SUBTYPES + entry.getKey(), entry.getValue());
+      write(MODULES, modules);
+      Set<String> lines = new TreeSet<String>();
+      for (Map.Entry<String, Boolean> entry : epl.entrySet())
+        lines.add(entry.getKey() + "=" + entry.getValue());
+      write(EPL, lines);
+    } catch (IOException e) {
+      processingEnv
+          .getMessager()
+          .printMessage(Diagnostic.Kind.WARNING, "unable to write class index: " + e);
+    }
+  }
+
+  private void write(String path, Set<String> lines) throws IOException {
+    FileObject resource =
+        processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", path);
+    try (Writer writer = resource.openWriter()) {
+      for (String line : lines) writer.write(line + "\n");
+    }
+  }
+
+  static final String SUBTYPES = "META-INF/cointrader/subtypes/";
+  static final String MODULES = "META-INF/cointrader/modules";
+  static final String EPL = "META-INF/cointrader/epl.properties";
+  private static final String INDEXED = "org.cryptocoinpartners.util.Indexed";
+  private final Map<String, Set<String>> subtypes = new TreeMap<String, Set<String>>();
+  private final Set<String> modules = new TreeSet<String>();
+  private final Map<String, Boolean> epl = new TreeMap<String, Boolean>();
+}
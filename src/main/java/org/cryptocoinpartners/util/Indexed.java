@@ -0,0 +1,19 @@
+package org.cryptocoinpartners.util;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a supertype whose subtypes are listed in the class index written by IndexProcessor, so
+ * ReflectionUtil.getSubtypesOf() can find them without scanning the classpath.
+ *
+ * @see IndexProcessor
+ * @see ClassIndex
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Indexed {}
@@ -0,0 +1,603 @@
+package org.cryptocoinpartners.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.MarketData;
+import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.RemoteEvent;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.util.MarketDataPartitioning.Period;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cold storage for the history of the trade, book and bar tables. Closed time partitions are moved
+ * out of the database into one gzipped, columnar segment file per table, market and UTC day, under
+ * db.archive.dir, and the partitions are then dropped. Books are archived fully resolved, so a
+ * segment never depends on another.
+ *
+ * <p>The manifest.properties file in the archive directory lists every segment with its row count,
+ * and for each table the time before which history is only in the archive. MarketDataReader reads
+ * from the segments for any interval starting before that time. A segment is written to a temporary
+ * file and renamed into place, and the archived time only advances after the segments of a
+ * partition are written and verified against its row count, so an interrupted archive can be rerun.
+ *
+ * <p>Every persisted column is archived, uuids included, so an archived event is equal to the one
+ * JPA loaded before the partition was dropped. Each read decodes new events, so readers may change
+ * them freely.
+ */
+public class MarketDataArchive {
+
+  /**
+   * @return the archive in db.archive.dir, or null if nothing has been archived there, so readers
+   *     pay nothing for an unused archive
+   */
+  @Nullable
+  public static MarketDataArchive open() {
+    File dir = new File(ConfigUtil.combined().getString("db.archive.dir", "archive"));
+    if (!new File(dir, MANIFEST).isFile()) return null;
+    return new MarketDataArchive(dir);
+  }
+
+  public MarketDataArchive(File dir) {
+    this.dir = dir;
+    File file = new File(dir, MANIFEST);
+    if (file.isFile())
+      try (InputStream in = new FileInputStream(file)) {
+        manifest.load(in);
+      } catch (IOException e) {
+        throw new Error(e);
+      }
+  }
+
+  /** @return the time before which the table's history is only in the archive, or null */
+  @Nullable
+  public synchronized Instant getArchivedThrough(String table) {
+    String archivedThrough = manifest.getProperty(table + ".archivedThrough");
+    return archivedThrough == null ? null : new Instant(Long.parseLong(archivedThrough));
+  }
+
+  /**
+   * Moves every partition of the table which ends before the cutoff into the archive and drops it.
+   * Stops at the first partition which cannot be archived completely.
+   *
+   * @return the names of the archived partitions
+   */
+  public List<String> archive(String table, Instant cutoff) throws IOException {
+    List<String> archived = new ArrayList<String>();
+    Map<String, Long> partitions = MarketDataPartitioning.getPartitions(table);
+    if (partitions.isEmpty()) {
+      log.warn(
+          this.getClass().getSimpleName()
+              + ":archive - "
+              + table
+              + " is not partitioned, run partition-data first");
+      return archived;
+    }
+    MarketDataReader reader = MarketDataPartitioning.newReader();
+    for (Map.Entry<String, Long> partition : partitions.entrySet()) {
+      long bound = partition.getValue();
+      if (bound == Long.MAX_VALUE || bound > cutoff.getMillis()) break;
+      Instant archivedThrough = getArchivedThrough(table);
+      if (archivedThrough == null || bound > archivedThrough.getMillis()) {
+        if (!archivePartition(table, partition.getKey(), bound, reader)) break;
+        setArchivedThrough(table, bound);
+      }
+      // an earlier run may have stopped between archiving the partition and dropping it
+      MarketDataPartitioning.dropPartitions(table, new Instant(bound));
+      archived.add(partition.getKey());
+    }
+    return archived;
+  }
+
+  /** @return the archived Trades of the markets between start and stop inclusive */
+  public List<Trade> readTrades(
+      Collection<Tradeable> markets, Instant start, Instant stop, boolean orderByTimeReceived) {
+    return read(TRADE, markets, start, stop, orderByTimeReceived, null);
+  }
+
+  /**
+   * @return the archived Bars of the markets and intervals between start and stop inclusive. Bars
+   *     are always selected by time, as they are received when they close.
+   */
+  public List<Bar> readBars(
+      Collection<Tradeable> markets, Instant start, Instant stop, List<Double> intervals) {
+    return read(BAR, markets, start, stop, false, intervals);
+  }
+
+  /** @return the archived Books of the markets between start and stop inclusive */
+  public List<Book> readBooks(
+      Collection<Tradeable> markets, Instant start, Instant stop, boolean orderByTimeReceived) {
+    return read(BOOK, markets, start, stop, orderByTimeReceived, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends RemoteEvent> List<T> read(
+      String table,
+      Collection<Tradeable> markets,
+      Instant start,
+      Instant stop,
+      boolean orderByTimeReceived,
+      @Nullable List<Double> intervals) {
+    List<T> events = new ArrayList<T>();
+    // an event is archived under the day it happened, which may precede the day it was received
+    Instant first = Period.DAY.floor(orderByTimeReceived ? start.minus(DAY_MILLIS) : start);
+    for (Tradeable market : markets) {
+      if (market.getId() == null) continue;
+      for (Instant day = first; !day.isAfter(stop); day = Period.DAY.next(day)) {
+        if (manifest(segmentKey(table, market.getId(), day)) == null) continue;
+        for (RemoteEvent event : segment(table, market, day)) {
+          Instant time = orderByTimeReceived ? event.getTimeReceived() : event.getTime();
+          if (time.isBefore(start) || time.isAfter(stop)) continue;
+          if (intervals != null && !intervals.contains(((Bar) event).getInterval())) continue;
+          events.add((T) event);
+        }
+      }
+    }
+    Collections.sort(events, orderByTimeReceived ? timeReceivedComparator : timeComparator);
+    return events;
+  }
+
+  /**
+   * @return newly decoded events of the segment. The unzipped bytes are kept for the next window of
+   *     a replay, which usually reads the same day, but never the events, which are mutable.
+   */
+  private List<RemoteEvent> segment(String table, Tradeable market, Instant day) {
+    String key = segmentKey(table, market.getId(), day);
+    try {
+      byte[] bytes;
+      synchronized (segments) {
+        bytes = segments.get(key);
+      }
+      if (bytes == null) {
+        bytes = unzip(segmentFile(table, market.getId(), day));
+        synchronized (segments) {
+          segments.put(key, bytes);
+        }
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readInt() != MAGIC) throw new IOException("not a market data segment");
+      int version = in.readInt();
+      if (version > VERSION) throw new IOException("unknown segment version " + version);
+      int rows = in.readInt();
+      if (table.equals(TRADE))
+        return new ArrayList<RemoteEvent>(decodeTrades(in, version, rows, market));
+      else if (table.equals(BAR))
+        return new ArrayList<RemoteEvent>(decodeBars(in, version, rows, market));
+      else return new ArrayList<RemoteEvent>(decodeBooks(in, version, rows, market));
+    } catch (IOException e) {
+      log.error(
+          this.getClass().getSimpleName() + ":segment - unable to read segment " + key, e);
+      return Collections.emptyList();
+    }
+  }
+
+  private static byte[] unzip(File file) throws IOException {
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int read; (read = in.read(buffer)) != -1; ) out.write(buffer, 0, read);
+      return out.toByteArray();
+    }
+  }
+
+  private boolean archivePartition(
+      String table, String partition, long bound, MarketDataReader reader) throws IOException {
+    List<Object[]> rows =
+        EM.queryListNativeSQL(
+            "select min(time), count(*) from " + table + " partition (" + partition + ")");
+    if (rows == null) return false;
+    long count = ((Number) rows.get(0)[1]).longValue();
+    long written = 0;
+    List<Double> intervals = table.equals(BAR) ? getIntervals() : null;
+    if (count > 0) {
+      Instant last = new Instant(bound - 1);
+      for (Instant day = Period.DAY.floor(new Instant(((Number) rows.get(0)[0]).longValue()));
+          !day.isAfter(last);
+          day = Period.DAY.next(day)) {
+        Instant stop = Period.DAY.next(day).minus(1);
+        if (stop.isAfter(last)) stop = last;
+        List<? extends MarketData> events;
+        if (table.equals(TRADE)) events = reader.readTrades(day, stop);
+        else if (table.equals(BAR)) events = reader.readBars(day, stop, intervals);
+        else events = reader.readBooks(day, stop);
+        if (events == null) return false;
+        Map<Long, List<RemoteEvent>> byMarket = new HashMap<Long, List<RemoteEvent>>();
+        for (MarketData event : events) {
+          Long market = event.getMarket().getId();
+          List<RemoteEvent> marketEvents = byMarket.get(market);
+          if (marketEvents == null) byMarket.put(market, marketEvents = new ArrayList<>());
+          marketEvents.add(event);
+        }
+        for (Map.Entry<Long, List<RemoteEvent>> marketEvents : byMarket.entrySet()) {
+          writeSegment(table, marketEvents.getKey(), day, marketEvents.getValue());
+          written += marketEvents.getValue().size();
+        }
+      }
+    }
+    if (written != count) {
+      log.error(
+          this.getClass().getSimpleName()
+              + ":archivePartition - wrote "
+              + written
+              + " of the "
+              + count
+              + " rows of "
+              + table
+              + " partition "
+              + partition
+              + ", leaving it in the database");
+      return false;
+    }
+    if (table.equals(BOOK)
+        && !MarketDataPartitioning.rerootChildren(
+            Collections.singletonList(partition), bound, reader)) return false;
+    log.info(
+        this.getClass().getSimpleName()
+            + ":archivePartition - archived "
+            + count
+            + " rows of "
+            + table
+            + " partition "
+            + partition);
+    return true;
+  }
+
+  void writeSegment(String table, long market, Instant day, List<RemoteEvent> events)
+      throws IOException {
+    File file = segmentFile(table, market, day);
+    file.getParentFile().mkdirs();
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(events.size());
+      if (table.equals(TRADE)) encodeTrades(out, events);
+      else if (table.equals(BAR)) encodeBars(out, events);
+      else encodeBooks(out, events);
+    }
+    Files.move(
+        temp.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    synchronized (this) {
+      manifest.setProperty(segmentKey(table, market, day), String.valueOf(events.size()));
+      saveManifest();
+    }
+  }
+
+  private synchronized void setArchivedThrough(String table, long bound) throws IOException {
+    manifest.setProperty(table + ".archivedThrough", String.valueOf(bound));
+    saveManifest();
+  }
+
+  private synchronized String manifest(String key) {
+    return manifest.getProperty(key);
+  }
+
+  private void saveManifest() throws IOException {
+    dir.mkdirs();
+    File temp = new File(dir, MANIFEST + ".tmp");
+    try (OutputStream out = new FileOutputStream(temp)) {
+      manifest.store(out, "market data archive");
+    }
+    Files.move(
+        temp.toPath(),
+        new File(dir, MANIFEST).toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private List<Double> getIntervals() {
+    List<Double> intervals = new ArrayList<Double>();
+    List<Object[]> rows = EM.queryListNativeSQL("select distinct b.`interval` from bar b");
+    if (rows != null)
+      for (Object[] row : rows) if (row[0] != null) intervals.add(((Number) row[0]).doubleValue());
+    return intervals;
+  }
+
+  // each column is written whole, with times as deltas, so gzip finds the repetition within it
+
+  private static void encodeTrades(DataOutputStream out, List<RemoteEvent> events)
+      throws IOException {
+    long[] time = new long[events.size()];
+    long[] timeReceived = new long[events.size()];
+    for (int i = 0; i < events.size(); i++) {
+      time[i] = events.get(i).getTime().getMillis();
+      timeReceived[i] = events.get(i).getTimeReceived().getMillis();
+    }
+    writeDeltas(out, time);
+    writeDeltas(out, timeReceived);
+    for (RemoteEvent event : events) out.writeLong(event.getId());
+    writeUuids(out, events);
+    for (RemoteEvent event : events) out.writeLong(((Trade) event).getPriceCount());
+    for (RemoteEvent event : events) out.writeLong(((Trade) event).getVolumeCount());
+    for (RemoteEvent event : events) writeString(out, event.getRemoteKey());
+  }
+
+  private static List<Trade> decodeTrades(
+      DataInputStream in, int version, int rows, Tradeable market) throws IOException {
+    long[] time = readDeltas(in, rows);
+    long[] timeReceived = readDeltas(in, rows);
+    long[] id = readLongs(in, rows);
+    UUID[] uuid = readUuids(in, version, rows);
+    long[] priceCount = readLongs(in, rows);
+    long[] volumeCount = readLongs(in, rows);
+    List<Trade> trades = new ArrayList<Trade>(rows);
+    for (int i = 0; i < rows; i++)
+      trades.add(
+          Trade.fromRow(
+              id[i],
+              uuid[i],
+              market,
+              new Instant(time[i]),
+              new Instant(timeReceived[i]),
+              readString(in),
+              priceCount[i],
+              volumeCount[i]));
+    return trades;
+  }
+
+  private static void encodeBars(DataOutputStream out, List<RemoteEvent> events)
+      throws IOException {
+    long[] time = new long[events.size()];
+    long[] timeReceived = new long[events.size()];
+    for (int i = 0; i < events.size(); i++) {
+      time[i] = events.get(i).getTime().getMillis();
+      timeReceived[i] = events.get(i).getTimeReceived().getMillis();
+    }
+    writeDeltas(out, time);
+    for (RemoteEvent event : events) out.writeLong(event.getId());
+    writeUuids(out, events);
+    writeDeltas(out, timeReceived);
+    for (RemoteEvent event : events) writeString(out, event.getRemoteKey());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getInterval());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getOpen());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getClose());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getHigh());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getLow());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getVolume());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getBuyVolume());
+    for (RemoteEvent event : events) writeDouble(out, ((Bar) event).getSellVolume());
+  }
+
+  private static List<Bar> decodeBars(DataInputStream in, int version, int rows, Tradeable market)
+      throws IOException {
+    long[] time = readDeltas(in, rows);
+    long[] id = readLongs(in, rows);
+    UUID[] uuid = readUuids(in, version, rows);
+    // version 1 segments did not keep when a bar was received, so it is taken as its close
+    long[] timeReceived = version < 2 ? time : readDeltas(in, rows);
+    String[] remoteKey = new String[rows];
+    if (version >= 2) for (int i = 0; i < rows; i++) remoteKey[i] = readString(in);
+    Double[][] columns = new Double[8][rows];
+    for (Double[] column : columns) for (int i = 0; i < rows; i++) column[i] = readDouble(in);
+    List<Bar> bars = new ArrayList<Bar>(rows);
+    for (int i = 0; i < rows; i++)
+      bars.add(
+          Bar.fromRow(
+              id[i],
+              uuid[i],
+              new Instant(time[i]),
+              new Instant(timeReceived[i]),
+              remoteKey[i],
+              columns[0][i],
+              columns[1][i],
+              columns[2][i],
+              columns[3][i],
+              columns[4][i],
+              columns[5][i],
+              columns[6][i],
+              columns[7][i],
+              market));
+    return bars;
+  }
+
+  private static void encodeBooks(DataOutputStream out, List<RemoteEvent> events)
+      throws IOException {
+    long[] time = new long[events.size()];
+    long[] timeReceived = new long[events.size()];
+    for (int i = 0; i < events.size(); i++) {
+      time[i] = events.get(i).getTime().getMillis();
+      timeReceived[i] = events.get(i).getTimeReceived().getMillis();
+    }
+    writeDeltas(out, time);
+    writeDeltas(out, timeReceived);
+    for (RemoteEvent event : events) out.writeLong(event.getId());
+    writeUuids(out, events);
+    for (RemoteEvent event : events) writeString(out, event.getRemoteKey());
+    for (RemoteEvent event : events) out.writeInt(((Book) event).getBids().size());
+    for (RemoteEvent event : events) out.writeInt(((Book) event).getAsks().size());
+    for (RemoteEvent event : events)
+      for (Offer bid : ((Book) event).getBids()) out.writeLong(bid.getPriceCount());
+    for (RemoteEvent event : events)
+      for (Offer bid : ((Book) event).getBids()) out.writeLong(bid.getVolumeCount());
+    for (RemoteEvent event : events)
+      for (Offer ask : ((Book) event).getAsks()) out.writeLong(ask.getPriceCount());
+    for (RemoteEvent event : events)
+      for (Offer ask : ((Book) event).getAsks()) out.writeLong(ask.getVolumeCount());
+  }
+
+  private static List<Book> decodeBooks(
+      DataInputStream in, int version, int rows, Tradeable market) throws IOException {
+    long[] time = readDeltas(in, rows);
+    long[] timeReceived = readDeltas(in, rows);
+    long[] id = readLongs(in, rows);
+    UUID[] uuid = readUuids(in, version, rows);
+    String[] remoteKey = new String[rows];
+    for (int i = 0; i < rows; i++) remoteKey[i] = readString(in);
+    int[] bidLevels = new int[rows];
+    int[] askLevels = new int[rows];
+    int bids = 0;
+    int asks = 0;
+    for (int i = 0; i < rows; i++) bids += bidLevels[i] = in.readInt();
+    for (int i = 0; i < rows; i++) asks += askLevels[i] = in.readInt();
+    long[] bidPrices = readLongs(in, bids);
+    long[] bidVolumes = readLongs(in, bids);
+    long[] askPrices = readLongs(in, asks);
+    long[] askVolumes = readLongs(in, asks);
+    List<Book> books = new ArrayList<Book>(rows);
+    int bid = 0;
+    int ask = 0;
+    for (int i = 0; i < rows; i++) {
+      Book book =
+          Book.fromRow(
+              id[i],
+              uuid[i],
+              new Instant(time[i]),
+              new Instant(timeReceived[i]),
+              remoteKey[i],
+              market,
+              null,
+              null,
+              null,
+              null,
+              null);
+      for (int j = 0; j < bidLevels[i]; j++, bid++) book.addBid(bidPrices[bid], bidVolumes[bid]);
+      for (int j = 0; j < askLevels[i]; j++, ask++) book.addAsk(askPrices[ask], askVolumes[ask]);
+      book.sortBook();
+      books.add(book);
+    }
+    return books;
+  }
+
+  private static void writeDeltas(DataOutputStream out, long[] values) throws IOException {
+    long previous = 0;
+    for (long value : values) {
+      out.writeLong(value - previous);
+      previous = value;
+    }
+  }
+
+  private static long[] readDeltas(DataInputStream in, int rows) throws IOException {
+    long[] values = new long[rows];
+    long previous = 0;
+    for (int i = 0; i < rows; i++) values[i] = previous += in.readLong();
+    return values;
+  }
+
+  private static long[] readLongs(DataInputStream in, int rows) throws IOException {
+    long[] values = new long[rows];
+    for (int i = 0; i < rows; i++) values[i] = in.readLong();
+    return values;
+  }
+
+  private static void writeUuids(DataOutputStream out, List<RemoteEvent> events)
+      throws IOException {
+    for (RemoteEvent event : events) out.writeLong(event.getUuid().getMostSignificantBits());
+    for (RemoteEvent event : events) out.writeLong(event.getUuid().getLeastSignificantBits());
+  }
+
+  /** @return the uuids of the rows, or nulls for a version 1 segment, which did not keep them */
+  private static UUID[] readUuids(DataInputStream in, int version, int rows) throws IOException {
+    UUID[] uuids = new UUID[rows];
+    if (version < 2) return uuids;
+    long[] most = readLongs(in, rows);
+    long[] least = readLongs(in, rows);
+    for (int i = 0; i < rows; i++) uuids[i] = new UUID(most[i], least[i]);
+    return uuids;
+  }
+
+  private static void writeDouble(DataOutputStream out, @Nullable Double value)
+      throws IOException {
+    out.writeDouble(value == null ? Double.NaN : value);
+  }
+
+  @Nullable
+  private static Double readDouble(DataInputStream in) throws IOException {
+    double value = in.readDouble();
+    return Double.isNaN(value) ? null : value;
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String value)
+      throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) out.writeUTF(value);
+  }
+
+  @Nullable
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static String segmentKey(String table, long market, Instant day) {
+    return "segment." + table + "." + market + "." + Period.DAY.partitionName(day).substring(1);
+  }
+
+  private File segmentFile(String table, long market, Instant day) {
+    return new File(
+        new File(new File(dir, table), String.valueOf(market)),
+        Period.DAY.partitionName(day).substring(1) + ".seg.gz");
+  }
+
+  private static final Comparator<RemoteEvent> timeComparator =
+      new Comparator<RemoteEvent>() {
+        @Override
+        public int compare(RemoteEvent event, RemoteEvent event2) {
+          return event.getTime().compareTo(event2.getTime());
+        }
+      };
+
+  private static final Comparator<RemoteEvent> timeReceivedComparator =
+      new Comparator<RemoteEvent>() {
+        @Override
+        public int compare(RemoteEvent event, RemoteEvent event2) {
+          return event.getTimeReceived().compareTo(event2.getTimeReceived());
+        }
+      };
+
+  private static final String TRADE = "trade";
+  private static final String BOOK = "book";
+  private static final String BAR = "bar";
+  private static final String MANIFEST = "manifest.properties";
+  private static final int MAGIC = 0x43545347;
+  // 2 added the uuids, and the timeReceived and remoteKey of bars
+  private static final int VERSION = 2;
+  private static final long DAY_MILLIS = 86400000L;
+  private static final int cachedSegments =
+      ConfigUtil.combined().getInt("db.archive.cache.segments", 32);
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.archive");
+  private final File dir;
+  private final Properties manifest = new Properties();
+  private final Map<String, byte[]> segments =
+      new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+          return size() > cachedSegments;
+        }
+      };
+}
@@ -0,0 +1,274 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.joda.time.format.DateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains MySQL range partitions by day or month on the time column of the market data tables,
+ * so range queries that bound time only scan the partitions they need, and expired history is
+ * removed by dropping whole partitions instead of deleting rows.
+ *
+ * <p>MySQL requires every unique key of a partitioned table to include the partitioning column and
+ * does not support foreign keys to or from partitioned tables, so partitioning a table drops its
+ * foreign keys, widens its primary key to (id, time) and ensures the (market, time) index exists.
+ * A trailing pmax partition holds rows beyond the last bound until addPartitions() splits it.
+ *
+ * <p>Books are stored as diffs against a parent Book, and the foreign key which kept a parent from
+ * being deleted is gone, so dropping book partitions first rewrites the surviving children of the
+ * dropped Books as full Books.
+ */
+public class MarketDataPartitioning {
+
+  /** the tables range partitioned by the partition-data run mode */
+  public static final List<String> TABLES = Arrays.asList("trade", "book", "bar");
+
+  public enum Period {
+    DAY("yyyyMMdd"),
+    MONTH("yyyyMM");
+
+    Period(String pattern) {
+      this.pattern = pattern;
+    }
+
+    /** @return the start of the period containing the instant */
+    public Instant floor(Instant instant) {
+      DateTime time = new DateTime(instant, DateTimeZone.UTC).withTimeAtStartOfDay();
+      return (this == MONTH ? time.withDayOfMonth(1) : time).toInstant();
+    }
+
+    /** @return the start of the period after the one starting at start */
+    public Instant next(Instant start) {
+      DateTime time = new DateTime(start, DateTimeZone.UTC);
+      return (this == MONTH ? time.plusMonths(1) : time.plusDays(1)).toInstant();
+    }
+
+    /** @return the name of the partition holding the period starting at start */
+    public String partitionName(Instant start) {
+      return "p" + DateTimeFormat.forPattern(pattern).withZoneUTC().print(start);
+    }
+
+    private final String pattern;
+  }
+
+  /**
+   * Range partitions the table by period from the period of its earliest row through the period
+   * containing until. A table which is already partitioned is only extended to until.
+   *
+   * @return the number of bounded partitions created
+   */
+  public static int partition(String table, Period period, Instant until) {
+    if (!getPartitions(table).isEmpty()) return addPartitions(table, period, until);
+    Instant from = period.floor(until);
+    List<Object[]> rows = query("select min(time) from " + table);
+    if (!rows.isEmpty() && rows.get(0)[0] != null)
+      from = period.floor(new Instant(((Number) rows.get(0)[0]).longValue()));
+
+    dropForeignKeys(table);
+    ensureMarketTimeIndex(table);
+    EM.executeNativeSQL("alter table " + table + " drop primary key, add primary key (id, time)");
+    List<String> definitions = definitions(period, from, until);
+    definitions.add("partition pmax values less than maxvalue");
+    EM.executeNativeSQL(
+        "alter table " + table + " partition by range (time) (" + join(definitions) + ")");
+    log.info(
+        MarketDataPartitioning.class.getSimpleName()
+            + ":partition - partitioned "
+            + table
+            + " by "
+            + period
+            + " from "
+            + from
+            + " into "
+            + (definitions.size() - 1)
+            + " partitions");
+    return definitions.size() - 1;
+  }
+
+  /**
+   * Splits the pmax partition of a partitioned table so there is a partition for every period
+   * through the period containing until.
+   *
+   * @return the number of partitions created, 0 if the table is not partitioned
+   */
+  public static int addPartitions(String table, Period period, Instant until) {
+    Map<String, Long> partitions = getPartitions(table);
+    if (partitions.isEmpty()) return 0;
+    long lastBound = Long.MIN_VALUE;
+    for (Long bound : partitions.values())
+      if (bound != Long.MAX_VALUE) lastBound = Math.max(lastBound, bound);
+    if (lastBound == Long.MIN_VALUE) return 0;
+    List<String> definitions = definitions(period, new Instant(lastBound), until);
+    if (definitions.isEmpty()) return 0;
+    if (partitions.containsKey("pmax")) {
+      definitions.add("partition pmax values less than maxvalue");
+      EM.executeNativeSQL(
+          "alter table " + table + " reorganize partition pmax into (" + join(definitions) + ")");
+      return definitions.size() - 1;
+    }
+    EM.executeNativeSQL("alter table " + table + " add partition (" + join(definitions) + ")");
+    return definitions.size();
+  }
+
+  /**
+   * Drops the partitions of the table which only hold rows before the given time. This discards
+   * the rows in constant time regardless of how many there are. Books kept are rewritten as full
+   * Books first wherever they are diffs against a Book being dropped.
+   *
+   * @return the names of the dropped partitions
+   * @throws IllegalStateException if the children of dropped Books could not be rewritten, in which
+   *     case nothing is dropped
+   */
+  public static List<String> dropPartitions(String table, Instant before) {
+    List<String> expired = new ArrayList<String>();
+    long bound = Long.MIN_VALUE;
+    for (Map.Entry<String, Long> partition : getPartitions(table).entrySet())
+      if (partition.getValue() != Long.MAX_VALUE && partition.getValue() <= before.getMillis()) {
+        expired.add(partition.getKey());
+        bound = Math.max(bound, partition.getValue());
+      }
+    if (expired.isEmpty()) return expired;
+    if (table.equals("book") && !rerootChildren(expired, bound, newReader()))
+      throw new IllegalStateException(
+          "Unable to rewrite the children of book partitions " + expired + ", not dropping them");
+    EM.executeNativeSQL("alter table " + table + " drop partition " + join(expired));
+    return expired;
+  }
+
+  /**
+   * Books from bound on may be diffs against a Book in the given partitions, so each such child is
+   * rewritten as a full Book before the partitions are dropped. Their own children stay valid, as
+   * the content of the rewritten Book is unchanged.
+   *
+   * @param reader a reader of every market, used to rebuild the children from their chains
+   * @return false if the children could not be read
+   */
+  public static boolean rerootChildren(
+      List<String> partitions, long bound, MarketDataReader reader) {
+    List<Object[]> rows =
+        EM.queryListNativeSQL(
+            "select c.id from book c where c.time >= ?1 and c.parent in (select p.id from book"
+                + " partition ("
+                + join(partitions)
+                + ") p)",
+            bound);
+    if (rows == null) return false;
+    List<Long> ids = new ArrayList<Long>();
+    for (Object[] row : rows) ids.add(((Number) row[0]).longValue());
+    List<Book> children = reader.readBooks(ids);
+    if (children == null) return false;
+    for (Book child : children)
+      EM.executeNativeSQL(
+          "update book set parent = null, bidInsertionsBlob = ?1, askInsertionsBlob = ?2,"
+              + " bidDeletionsBlob = null, askDeletionsBlob = null where id = ?3 and time = ?4",
+          Book.toDatabaseBlob(child.getBids()),
+          Book.toDatabaseBlob(child.getAsks()),
+          child.getId(),
+          child.getTime().getMillis());
+    return true;
+  }
+
+  /** @return a reader of the database rows of every market */
+  public static MarketDataReader newReader() {
+    List<Tradeable> markets = new ArrayList<Tradeable>();
+    for (Tradeable market : EM.queryList(Tradeable.class, "select m from Tradeable m"))
+      if (market != null && market.getId() != null) markets.add(market);
+    return new MarketDataReader(markets, false, null);
+  }
+
+  /**
+   * @return the exclusive upper bound in millis of each range partition of the table, keyed by
+   *     partition name in partition order, with Long.MAX_VALUE for a maxvalue partition, or an
+   *     empty map if the table is not partitioned
+   */
+  public static Map<String, Long> getPartitions(String table) {
+    Map<String, Long> partitions = new LinkedHashMap<String, Long>();
+    for (Object[] row :
+        query(
+            "select PARTITION_NAME, PARTITION_DESCRIPTION from information_schema.PARTITIONS where"
+                + " TABLE_SCHEMA = database() and TABLE_NAME = ?1 and PARTITION_NAME is not null"
+                + " order by PARTITION_ORDINAL_POSITION",
+            table))
+      partitions.put(
+          (String) row[0],
+          "MAXVALUE".equalsIgnoreCase(String.valueOf(row[1]))
+              ? Long.MAX_VALUE
+              : Long.parseLong(String.valueOf(row[1])));
+    return partitions;
+  }
+
+  private static List<String> definitions(Period period, Instant from, Instant until) {
+    List<String> definitions = new ArrayList<String>();
+    // each partition is named for its period and bounded by the start of the next one
+    for (Instant start = period.floor(from); !start.isAfter(until); start = period.next(start))
+      definitions.add(
+          "partition "
+              + period.partitionName(start)
+              + " values less than ("
+              + period.next(start).getMillis()
+              + ")");
+    return definitions;
+  }
+
+  private static void dropForeignKeys(String table) {
+    for (Object[] row :
+        query(
+            "select TABLE_NAME, CONSTRAINT_NAME from information_schema.REFERENTIAL_CONSTRAINTS"
+                + " where CONSTRAINT_SCHEMA = database() and (TABLE_NAME = ?1 or"
+                + " REFERENCED_TABLE_NAME = ?1)",
+            table)) {
+      log.info(
+          MarketDataPartitioning.class.getSimpleName()
+              + ":dropForeignKeys - dropping foreign key "
+              + row[1]
+              + " of "
+              + row[0]);
+      EM.executeNativeSQL("alter table " + row[0] + " drop foreign key " + row[1]);
+    }
+  }
+
+  private static void ensureMarketTimeIndex(String table) {
+    Map<String, String[]> indexes = new HashMap<String, String[]>();
+    for (Object[] row :
+        query(
+            "select INDEX_NAME, SEQ_IN_INDEX, COLUMN_NAME from information_schema.STATISTICS where"
+                + " TABLE_SCHEMA = database() and TABLE_NAME = ?1 and SEQ_IN_INDEX <= 2",
+            table)) {
+      String[] columns = indexes.get(row[0]);
+      if (columns == null) indexes.put((String) row[0], columns = new String[2]);
+      columns[((Number) row[1]).intValue() - 1] = (String) row[2];
+    }
+    for (String[] columns : indexes.values())
+      if ("market".equalsIgnoreCase(columns[0]) && "time".equalsIgnoreCase(columns[1])) return;
+    EM.executeNativeSQL("create index " + table + "_market_time on " + table + " (market, time)");
+  }
+
+  private static List<Object[]> query(String queryStr, Object... params) {
+    List<Object[]> rows = EM.queryListNativeSQL(queryStr, params);
+    if (rows == null) throw new IllegalStateException("Unable to complete query " + queryStr);
+    return rows;
+  }
+
+  private static String join(List<String> items) {
+    StringBuilder joined = new StringBuilder();
+    for (String item : items) {
+      if (joined.length() > 0) joined.append(", ");
+      joined.append(item);
+    }
+    return joined.toString();
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.partitioning");
+}
@@ -0,0 +1,342 @@
+package org.cryptocoinpartners.util;
+
+import java.nio.ByteBuffer;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only access to the persisted Trades, Bars and Books of a set of markets. Each read is one
+ * native SQL range scan over all the markets, ordered by time, and each row is mapped straight to a
+ * detached event. No entities are loaded into the persistence context, so bulk reads do not grow or
+ * flush the first-level cache and there is nothing to detach afterwards. The events keep the id,
+ * uuid, timeReceived and remoteKey of their rows, so they are equal to the entities JPA would load.
+ * They are marked persisted because they are never written back, and their markets are the
+ * instances passed in.
+ *
+ * <p>Books are stored as diffs against a parent Book, so the parents of the Books in a range are
+ * read by id until every chain ends at a full Book, then the chains are rebuilt in memory.
+ *
+ * <p>History which has been moved to a MarketDataArchive is read from its segments instead, and
+ * merged with the rows still in the database.
+ *
+ * <p>If a query fails, for example because the schema differs from the default table and column
+ * names, the reader disables itself and every read returns null, so the caller can fall back to
+ * JPQL.
+ */
+public class MarketDataReader {
+
+  public MarketDataReader(Collection<Tradeable> markets, boolean orderByTimeReceived) {
+    this(markets, orderByTimeReceived, MarketDataArchive.open());
+  }
+
+  /** @param archive the cold storage to read the history before its archived range from */
+  public MarketDataReader(
+      Collection<Tradeable> markets,
+      boolean orderByTimeReceived,
+      @Nullable MarketDataArchive archive) {
+    for (Tradeable market : markets)
+      if (market.getId() != null) this.markets.put(market.getId(), market);
+    this.orderByTimeReceived = orderByTimeReceived;
+    this.timeField = orderByTimeReceived ? "timeReceived" : "time";
+    this.archive = archive;
+  }
+
+  /**
+   * When reading by timeReceived, also bounds time so that tables partitioned on time are pruned.
+   * No replayable event happened after it was received, and db.replay.max.latency, if set, bounds
+   * how long before.
+   */
+  private String timeBounds(String alias, Instant start, Instant stop) {
+    if (timeField.equals("time")) return "";
+    String bounds = " and " + alias + ".time <= " + stop.getMillis();
+    if (maxLatency > 0) bounds += " and " + alias + ".time >= " + (start.getMillis() - maxLatency);
+    return bounds;
+  }
+
+  /** @return the Trades between start and stop inclusive, or null if the reader is disabled */
+  @Nullable
+  public List<Trade> readTrades(Instant start, Instant stop) {
+    if (disabled) return null;
+    List<Trade> trades = new ArrayList<Trade>();
+    if (markets.isEmpty()) return trades;
+    if (isArchived("trade", start)) {
+      trades.addAll(archive.readTrades(markets.values(), start, stop, orderByTimeReceived));
+      if (stop.isBefore(archive.getArchivedThrough("trade"))) return trades;
+    }
+    List<Object[]> rows =
+        EM.queryListNativeSQL(
+            "select t.id, t.time, t.timeReceived, t.remoteKey, t.priceCount, t.volumeCount,"
+                + " t.market, t.uuid from trade t where t.market in (?1) and t."
+                + timeField
+                + " >= ?2 and t."
+                + timeField
+                + " <= ?3"
+                + timeBounds("t", start, stop)
+                + " order by t."
+                + timeField,
+            new ArrayList<Long>(markets.keySet()),
+            start.getMillis(),
+            stop.getMillis());
+    if (rows == null) return disable();
+    for (Object[] row : rows) {
+      Tradeable market = markets.get(longValue(row[6]));
+      if (market == null) continue;
+      trades.add(
+          Trade.fromRow(
+              longValue(row[0]),
+              uuidValue(row[7]),
+              market,
+              new Instant(longValue(row[1])),
+              new Instant(longValue(row[2])),
+              (String) row[3],
+              longValue(row[4]),
+              longValue(row[5])));
+    }
+    return trades;
+  }
+
+  /**
+   * @return the Bars of the given intervals between start and stop inclusive, or null if the reader
+   *     is disabled
+   */
+  @Nullable
+  public List<Bar> readBars(Instant start, Instant stop, List<Double> intervals) {
+    if (disabled) return null;
+    List<Bar> bars = new ArrayList<Bar>();
+    if (markets.isEmpty() || intervals.isEmpty()) return bars;
+    if (isArchived("bar", start)) {
+      bars.addAll(archive.readBars(markets.values(), start, stop, intervals));
+      if (stop.isBefore(archive.getArchivedThrough("bar"))) return bars;
+    }
+    List<Object[]> rows =
+        EM.queryListNativeSQL(
+            "select b.id, b.time, b.`interval`, b.open, b.close, b.high, b.low, b.volume,"
+                + " b.buyVolume, b.sellVolume, b.market, b.timeReceived, b.remoteKey, b.uuid"
+                + " from bar b where b.`interval` in (?1) and"
+                + " b.market in (?2) and b."
+                + timeField
+                + " >= ?3 and b."
+                + timeField
+                + " <= ?4"
+                + timeBounds("b", start, stop)
+                + " order by b."
+                + timeField,
+            intervals,
+            new ArrayList<Long>(markets.keySet()),
+            start.getMillis(),
+            stop.getMillis());
+    if (rows == null) return disable();
+    for (Object[] row : rows) {
+      Tradeable market = markets.get(longValue(row[10]));
+      if (market == null) continue;
+      bars.add(
+          Bar.fromRow(
+              longValue(row[0]),
+              uuidValue(row[13]),
+              new Instant(longValue(row[1])),
+              new Instant(longValue(row[11])),
+              (String) row[12],
+              doubleValue(row[2]),
+              doubleValue(row[3]),
+              doubleValue(row[4]),
+              doubleValue(row[5]),
+              doubleValue(row[6]),
+              doubleValue(row[7]),
+              doubleValue(row[8]),
+              doubleValue(row[9]),
+              market));
+    }
+    return bars;
+  }
+
+  /** @return the Books between start and stop inclusive, or null if the reader is disabled */
+  @Nullable
+  public List<Book> readBooks(Instant start, Instant stop) {
+    if (disabled) return null;
+    List<Book> books = new ArrayList<Book>();
+    if (markets.isEmpty()) return books;
+    if (isArchived("book", start)) {
+      books.addAll(archive.readBooks(markets.values(), start, stop, orderByTimeReceived));
+      if (stop.isBefore(archive.getArchivedThrough("book"))) return books;
+    }
+    List<Object[]> rows =
+        EM.queryListNativeSQL(
+            BOOK_COLUMNS
+                + " from book b where b.market in (?1) and b."
+                + timeField
+                + " >= ?2 and b."
+                + timeField
+                + " <= ?3"
+                + timeBounds("b", start, stop)
+                + " order by b."
+                + timeField,
+            new ArrayList<Long>(markets.keySet()),
+            start.getMillis(),
+            stop.getMillis());
+    if (rows == null) return disable();
+    List<Book> hot = buildBooks(rows);
+    if (hot == null) return null;
+    books.addAll(hot);
+    return books;
+  }
+
+  /** @return the Books with the given ids, or null if the reader is disabled */
+  @Nullable
+  public List<Book> readBooks(Collection<Long> ids) {
+    if (disabled) return null;
+    if (ids.isEmpty()) return new ArrayList<Book>();
+    List<Object[]> rows =
+        EM.queryListNativeSQL(
+            BOOK_COLUMNS + " from book b where b.id in (?1) order by b." + timeField,
+            new ArrayList<Long>(ids));
+    if (rows == null) return disable();
+    return buildBooks(rows);
+  }
+
+  /** @return true once a query has failed and every read returns null */
+  public boolean isDisabled() {
+    return disabled;
+  }
+
+  /** builds the Books of the rows, reading the parents outside the rows one hop per query */
+  @Nullable
+  private List<Book> buildBooks(List<Object[]> rows) {
+    Map<Long, Object[]> rowsById = new LinkedHashMap<Long, Object[]>();
+    for (Object[] row : rows) rowsById.put(longValue(row[0]), row);
+    Map<Long, Object[]> parentRows = new HashMap<Long, Object[]>();
+    Set<Long> missing = missingParents(rowsById.values(), rowsById, parentRows);
+    while (!missing.isEmpty()) {
+      List<Object[]> parents =
+          EM.queryListNativeSQL(
+              BOOK_COLUMNS + " from book b where b.id in (?1)", new ArrayList<Long>(missing));
+      if (parents == null) return disable();
+      for (Object[] row : parents) parentRows.put(longValue(row[0]), row);
+      // a parent which no longer exists ends its chain
+      for (Long id : missing) if (!parentRows.containsKey(id)) parentRows.put(id, null);
+      missing = missingParents(parents, rowsById, parentRows);
+    }
+
+    Map<Long, Book> built = new HashMap<Long, Book>();
+    List<Book> books = new ArrayList<Book>(rowsById.size());
+    for (Long id : rowsById.keySet()) {
+      Book book = buildBook(id, rowsById, parentRows, built);
+      if (book != null) books.add(book);
+    }
+    return books;
+  }
+
+  private boolean isArchived(String table, Instant start) {
+    return archive != null
+        && archive.getArchivedThrough(table) != null
+        && start.isBefore(archive.getArchivedThrough(table));
+  }
+
+  private static Set<Long> missingParents(
+      Collection<Object[]> rows, Map<Long, Object[]> rowsById, Map<Long, Object[]> parentRows) {
+    Set<Long> missing = new HashSet<Long>();
+    for (Object[] row : rows) {
+      if (row[5] == null) continue;
+      Long parent = longValue(row[5]);
+      if (!rowsById.containsKey(parent) && !parentRows.containsKey(parent)) missing.add(parent);
+    }
+    return missing;
+  }
+
+  @Nullable
+  private Book buildBook(
+      Long id,
+      Map<Long, Object[]> rowsById,
+      Map<Long, Object[]> parentRows,
+      Map<Long, Book> built) {
+    if (built.containsKey(id)) return built.get(id);
+    Object[] row = rowsById.containsKey(id) ? rowsById.get(id) : parentRows.get(id);
+    Tradeable market = row == null ? null : markets.get(longValue(row[4]));
+    if (market == null) return null;
+    Book parent =
+        row[5] == null ? null : buildBook(longValue(row[5]), rowsById, parentRows, built);
+    Book book =
+        Book.fromRow(
+            id,
+            uuidValue(row[10]),
+            new Instant(longValue(row[1])),
+            new Instant(longValue(row[2])),
+            (String) row[3],
+            market,
+            parent,
+            bytesValue(row[6]),
+            bytesValue(row[7]),
+            bytesValue(row[8]),
+            bytesValue(row[9]));
+    built.put(id, book);
+    return book;
+  }
+
+  private <T> List<T> disable() {
+    disabled = true;
+    log.warn(
+        this.getClass().getSimpleName()
+            + ":disable - native market data queries failed, falling back to JPQL");
+    return null;
+  }
+
+  private static long longValue(Object column) {
+    return ((Number) column).longValue();
+  }
+
+  @Nullable
+  private static Double doubleValue(Object column) {
+    return column == null ? null : ((Number) column).doubleValue();
+  }
+
+  @Nullable
+  private static byte[] bytesValue(Object column) {
+    if (column instanceof Blob)
+      try {
+        Blob blob = (Blob) column;
+        return blob.getBytes(1, (int) blob.length());
+      } catch (SQLException e) {
+        throw new Error(e);
+      }
+    return (byte[]) column;
+  }
+
+  /** @return the uuid of a BINARY(16) column, stored most significant bytes first */
+  @Nullable
+  private static UUID uuidValue(Object column) {
+    if (column == null || column instanceof UUID) return (UUID) column;
+    if (column instanceof String) return UUID.fromString((String) column);
+    ByteBuffer bytes = ByteBuffer.wrap(bytesValue(column));
+    return new UUID(bytes.getLong(), bytes.getLong());
+  }
+
+  private static final String BOOK_COLUMNS =
+      "select b.id, b.time, b.timeReceived, b.remoteKey, b.market, b.parent, b.bidInsertionsBlob,"
+          + " b.askInsertionsBlob, b.bidDeletionsBlob, b.askDeletionsBlob, b.uuid";
+
+  private final Map<Long, Tradeable> markets = new HashMap<Long, Tradeable>();
+  private final boolean orderByTimeReceived;
+  private final String timeField;
+  @Nullable private final MarketDataArchive archive;
+  private final long maxLatency = ConfigUtil.combined().getLong("db.replay.max.latency", 0L);
+  private volatile boolean disabled;
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.replay");
+}
@@ -0,0 +1,41 @@
+package org.cryptocoinpartners.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs tasks on a fixed number of single threaded lanes, choosing the lane from the hash of a
+ * partition key. Tasks submitted with equal keys run one at a time in submission order, while tasks
+ * whose keys fall in different lanes run in parallel.
+ */
+public class PartitionedExecutor {
+
+  public PartitionedExecutor(final String name, int lanes) {
+    this.lanes = new ExecutorService[Math.max(1, lanes)];
+    for (int i = 0; i < this.lanes.length; i++) {
+      final String threadName = name + "-" + i;
+      this.lanes[i] =
+          Executors.newSingleThreadExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+  }
+
+  public void execute(Object key, Runnable task) {
+    lanes[(key.hashCode() & Integer.MAX_VALUE) % lanes.length].execute(task);
+  }
+
+  public int getLanes() {
+    return lanes.length;
+  }
+
+  /** Stops accepting tasks, letting those already submitted finish */
+  public void shutdown() {
+    for (ExecutorService lane : lanes) lane.shutdown();
+  }
+
+  private final ExecutorService[] lanes;
+}
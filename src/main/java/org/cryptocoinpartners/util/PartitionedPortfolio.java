@@ -0,0 +1,144 @@
+package org.cryptocoinpartners.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Fill;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.Transaction;
+import org.cryptocoinpartners.service.PortfolioService;
+
+/**
+ * One strategy's portfolio over every partition of a PartitionedReplay. Each partition runs its own
+ * instance of the strategy, whose Portfolio only holds the partition's markets, so the merged
+ * events of the named portfolio are folded, in (time, partition, sequence) order, into a single
+ * Portfolio: the Transactions add to its realised PnL and commissions and the Fills to its net
+ * position in each market. The fills already belong to their partition's positions, so they are
+ * not merged into the Portfolio's positions again.
+ *
+ * <p>Every partition starts from the same balances, so the cash balance is the starting balance
+ * plus the change in cash of each partition, and the open trade equity is that of each partition's
+ * positions, valued by the partition's own quotes.
+ */
+public class PartitionedPortfolio {
+
+  public PartitionedPortfolio(String name, Asset baseAsset) {
+    portfolio = new Portfolio();
+    portfolio.setName(name);
+    portfolio.setBaseAsset(baseAsset);
+  }
+
+  /** adds the balances of one partition's instance of the portfolio */
+  public void addPartition(Portfolio partition, PortfolioService portfolioService) {
+    Asset baseAsset = portfolio.getBaseAsset();
+    Amount startingCash = partition.getStartingBaseCashBalance();
+    if (startingCash == null) startingCash = DecimalAmount.ZERO;
+    if (partitions++ == 0) cashBalance = startingCash;
+    cashBalance =
+        cashBalance.plus(portfolioService.getBaseCashBalance(baseAsset)).minus(startingCash);
+    unrealisedPnL = unrealisedPnL.plus(portfolioService.getBaseUnrealisedPnL(baseAsset));
+  }
+
+  /** folds in the portfolio's Fills and Transactions, which must be in merged order */
+  public void merge(Collection<Event> events) {
+    for (Event event : events) {
+      if (event instanceof Fill) merge((Fill) event);
+      else if (event instanceof Transaction) merge((Transaction) event);
+    }
+  }
+
+  private void merge(Fill fill) {
+    if (!isOwn(fill.getPortfolio())) return;
+    fills++;
+    Long volumeCount = netVolumeCounts.get(fill.getMarket());
+    netVolumeCounts.put(
+        fill.getMarket(), (volumeCount == null ? 0 : volumeCount) + fill.getVolumeCount());
+  }
+
+  private void merge(Transaction transaction) {
+    if (!isOwn(transaction.getPortfolio())) return;
+    transactions++;
+    portfolio.addTransaction(transaction);
+  }
+
+  private boolean isOwn(Portfolio owner) {
+    return owner != null && portfolio.getName().equals(owner.getName());
+  }
+
+  public Portfolio getPortfolio() {
+    return portfolio;
+  }
+
+  public int getPartitions() {
+    return partitions;
+  }
+
+  public int getFills() {
+    return fills;
+  }
+
+  public int getTransactions() {
+    return transactions;
+  }
+
+  /** @return the starting cash plus the change in cash of every partition, in the base asset */
+  public Amount getBaseCashBalance() {
+    return cashBalance;
+  }
+
+  /** @return the open trade equity of every partition, in the base asset */
+  public Amount getBaseUnrealisedPnL() {
+    return unrealisedPnL;
+  }
+
+  /** @return the realised PnL over every market, by the currency it was realised in */
+  public Map<Asset, Amount> getRealisedPnL() {
+    return total(portfolio.getRealisedPnL());
+  }
+
+  /** @return the commissions and fees over every market, by the currency they were charged in */
+  public Map<Asset, Amount> getComissionAndFee() {
+    return total(portfolio.getComissionAndFee());
+  }
+
+  /** @return the net volume held in each market once every fill has been merged */
+  public Map<Market, Amount> getNetVolumes() {
+    Map<Market, Amount> netVolumes = new LinkedHashMap<Market, Amount>();
+    for (Map.Entry<Market, Long> entry : netVolumeCounts.entrySet())
+      if (entry.getValue() != 0)
+        netVolumes.put(
+            entry.getKey(),
+            new DiscreteAmount(entry.getValue(), entry.getKey().getVolumeBasis()));
+    return Collections.unmodifiableMap(netVolumes);
+  }
+
+  private static Map<Asset, Amount> total(
+      Map<Asset, Map<Exchange, Map<Listing, Amount>>> amounts) {
+    Map<Asset, Amount> totals = new LinkedHashMap<Asset, Amount>();
+    for (Map.Entry<Asset, Map<Exchange, Map<Listing, Amount>>> asset : amounts.entrySet()) {
+      Amount total = DecimalAmount.ZERO;
+      for (Map<Listing, Amount> listings : asset.getValue().values())
+        for (Amount amount : listings.values()) total = total.plus(amount);
+      totals.put(asset.getKey(), total);
+    }
+    return totals;
+  }
+
+  private final Portfolio portfolio;
+  private final Map<Market, Long> netVolumeCounts = new LinkedHashMap<Market, Long>();
+  private Amount cashBalance = DecimalAmount.ZERO;
+  private Amount unrealisedPnL = DecimalAmount.ZERO;
+  private int partitions;
+  private int fills;
+  private int transactions;
+}
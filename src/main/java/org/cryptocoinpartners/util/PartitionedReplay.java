@@ -0,0 +1,173 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.module.PartitionJournal;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.service.PortfolioService;
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays independent groups of markets concurrently. Each partition is a Replay with its own
+ * Context, Esper engine and clock, so the services and strategies must be attached to every
+ * partition's Context before run() is called. The markets of the portfolios are sorted by symbol
+ * and dealt round-robin to the partitions, then the partitions are replayed on up to
+ * replay.partition.threads threads.
+ *
+ * <p>Within a partition events are published serially, exactly as by a single Replay. Once every
+ * partition has finished, the Fills, Transactions and PositionUpdates of all partitions are merged
+ * by time, with ties broken by partition and then publication order, so the merged result does not
+ * depend on thread scheduling. run() throws, once every partition has finished, if any partition
+ * failed.
+ */
+public class PartitionedReplay implements Runnable {
+
+  public PartitionedReplay(
+      Interval replayTimeInterval,
+      boolean orderByTimeReceived,
+      int partitions,
+      boolean replayBooks,
+      boolean replayBars,
+      @Nullable List<String> barIntervals) {
+    for (int i = 0; i < Math.max(1, partitions); i++) {
+      Replay replay =
+          new Replay(
+              replayTimeInterval,
+              orderByTimeReceived,
+              false,
+              replayBooks,
+              replayBars,
+              barIntervals);
+      journals.add(replay.getContext().attach(PartitionJournal.class));
+      replays.add(replay);
+    }
+  }
+
+  /** @return the replay of each partition, whose Context needs the services and strategies */
+  public List<Replay> getReplays() {
+    return Collections.unmodifiableList(replays);
+  }
+
+  @Override
+  public void run() {
+    List<List<String>> partitions = partition(getSymbols(), replays.size());
+    int threads =
+        Math.min(
+            replays.size(),
+            ConfigUtil.combined()
+                .getInt("replay.partition.threads", Runtime.getRuntime().availableProcessors()));
+    ExecutorService service = Executors.newFixedThreadPool(Math.max(1, threads));
+    IllegalStateException failure = null;
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int i = 0; i < replays.size(); i++) {
+        log.info(
+            this.getClass().getSimpleName()
+                + ":run - partition "
+                + i
+                + " replaying markets "
+                + partitions.get(i));
+        replays.get(i).setPartition(partitions.get(i));
+        futures.add(service.submit(replays.get(i)));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          log.error(
+              this.getClass().getSimpleName()
+                  + ":run - partition "
+                  + i
+                  + " failed, full stack trace follows:",
+              e.getCause());
+          if (failure == null)
+            failure = new IllegalStateException("Partition " + i + " failed", e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error(this.getClass().getSimpleName() + ":run - interrupted waiting for partitions");
+    } finally {
+      service.shutdown();
+    }
+    // the merged events would be missing a partition's markets
+    if (failure != null) throw failure;
+
+    List<List<Event>> partitionEvents = new ArrayList<List<Event>>();
+    for (PartitionJournal journal : journals) partitionEvents.add(journal.getEvents());
+    events = merge(partitionEvents);
+    log.info(
+        this.getClass().getSimpleName()
+            + ":run - merged "
+            + events.size()
+            + " portfolio events from "
+            + replays.size()
+            + " partitions");
+  }
+
+  /** @return the Fills, Transactions and PositionUpdates of every partition, merged by time */
+  public List<Event> getEvents() {
+    return Collections.unmodifiableList(events);
+  }
+
+  /** deals the symbols, sorted, round-robin into the given number of partitions */
+  static List<List<String>> partition(Collection<String> symbols, int count) {
+    List<List<String>> partitions = new ArrayList<List<String>>();
+    for (int i = 0; i < count; i++) partitions.add(new ArrayList<String>());
+    int i = 0;
+    for (String symbol : new TreeSet<String>(symbols)) partitions.get(i++ % count).add(symbol);
+    return partitions;
+  }
+
+  /**
+   * merges the events of each partition by time, keeping events at the same time in partition then
+   * publication order
+   */
+  static List<Event> merge(List<? extends List<? extends Event>> partitionEvents) {
+    List<Event> merged = new ArrayList<Event>();
+    for (List<? extends Event> events : partitionEvents) merged.addAll(events);
+    // the sort is stable, so events at the same time stay in partition then publication order
+    Collections.sort(merged, timeComparator);
+    return merged;
+  }
+
+  private List<String> getSymbols() {
+    List<String> symbols = new ArrayList<String>();
+    for (Replay replay : replays) {
+      PortfolioService portfolioService =
+          replay.getContext().getInjector().getInstance(PortfolioService.class);
+      for (Portfolio portfolio : portfolioService.getPortfolios())
+        for (Tradeable tradeable : portfolio.getMarkets())
+          if (tradeable != null) symbols.add(tradeable.getSymbol());
+    }
+    return symbols;
+  }
+
+  private static final Comparator<Event> timeComparator =
+      new Comparator<Event>() {
+        @Override
+        public int compare(Event event, Event event2) {
+          return event.getTime().compareTo(event2.getTime());
+        }
+      };
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.replay");
+  private final List<Replay> replays = new ArrayList<Replay>();
+  private final List<PartitionJournal> journals = new ArrayList<PartitionJournal>();
+  private List<Event> events = Collections.emptyList();
+}
@@ -0,0 +1,163 @@
+package org.cryptocoinpartners.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Central tracing of entity persistence. Call sites are only captured when the logger they are
+ * reported to has debug enabled or when a persistence.trace.sample.rate sample hits, so the usual
+ * persist or merge no longer pays for walking the stack. Every persist and merge executed by the
+ * DAO is counted per entity type with its latency, and the totals are logged every
+ * persistence.trace.report.interval milliseconds.
+ */
+public class PersistenceTrace {
+
+  public enum Action {
+    PERSIST,
+    MERGE
+  }
+
+  /** returned in place of a call site which was not captured */
+  public static final String NOT_TRACED = "(not traced)";
+
+  /**
+   * @return the caller of the method calling callSite(), if debug is enabled on the log or the call
+   *     is sampled, otherwise NOT_TRACED
+   */
+  public static Object callSite(Logger log) {
+    if (!log.isDebugEnabled()
+        && (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate))
+      return NOT_TRACED;
+    return sample(capture());
+  }
+
+  /**
+   * @return the caller of the method calling callSite(), captured unconditionally for reports such
+   *     as errors which are always logged
+   */
+  public static Object callSite() {
+    return capture();
+  }
+
+  /** Records the time taken to persist or merge an entity of the given type */
+  public static void record(Class<?> type, Action action, long nanos) {
+    Stats entityStats = stats.get(type);
+    if (entityStats == null) {
+      entityStats = new Stats();
+      Stats existing = stats.putIfAbsent(type, entityStats);
+      if (existing != null) entityStats = existing;
+    }
+    entityStats.record(action, nanos);
+    if (reportInterval > 0) {
+      long now = System.currentTimeMillis();
+      long last = lastReport.get();
+      if (now - last >= reportInterval && lastReport.compareAndSet(last, now)) report();
+    }
+  }
+
+  /** @return a snapshot of the persist and merge counts and latencies by entity type name */
+  public static Map<String, String> getStats() {
+    Map<String, String> snapshot = new TreeMap<String, String>();
+    for (Map.Entry<Class<?>, Stats> entry : stats.entrySet())
+      snapshot.put(entry.getKey().getSimpleName(), entry.getValue().toString());
+    return snapshot;
+  }
+
+  /** @return the number of sampled captures of each call site */
+  public static Map<String, Long> getSampledCallSites() {
+    Map<String, Long> snapshot = new TreeMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> entry : sampledCallSites.entrySet())
+      snapshot.put(entry.getKey(), entry.getValue().get());
+    return snapshot;
+  }
+
+  /** Logs the persist and merge statistics of every entity type and the sampled call sites */
+  public static void report() {
+    for (Map.Entry<String, String> entry : getStats().entrySet())
+      log.info(
+          PersistenceTrace.class.getSimpleName()
+              + ":report - "
+              + entry.getKey()
+              + " "
+              + entry.getValue());
+    if (!sampledCallSites.isEmpty())
+      log.info(
+          PersistenceTrace.class.getSimpleName()
+              + ":report - sampled call sites "
+              + getSampledCallSites());
+  }
+
+  private static StackTraceElement capture() {
+    // frames are capture(), callSite(), the persisting method and then its caller
+    StackTraceElement[] frames = new Throwable().getStackTrace();
+    return frames.length > 3 ? frames[3] : frames[frames.length - 1];
+  }
+
+  private static Object sample(StackTraceElement frame) {
+    if (sampleRate > 0) {
+      String site = frame.toString();
+      AtomicLong count = sampledCallSites.get(site);
+      if (count == null) {
+        count = new AtomicLong();
+        AtomicLong existing = sampledCallSites.putIfAbsent(site, count);
+        if (existing != null) count = existing;
+      }
+      count.incrementAndGet();
+    }
+    return frame;
+  }
+
+  private static class Stats {
+
+    private final AtomicLong[] counts = {new AtomicLong(), new AtomicLong()};
+    private final AtomicLong[] totalNanos = {new AtomicLong(), new AtomicLong()};
+    private final AtomicLong[] maxNanos = {new AtomicLong(), new AtomicLong()};
+
+    void record(Action action, long nanos) {
+      int i = action.ordinal();
+      counts[i].incrementAndGet();
+      totalNanos[i].addAndGet(nanos);
+      long max;
+      do {
+        max = maxNanos[i].get();
+      } while (max < nanos && !maxNanos[i].compareAndSet(max, nanos));
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      for (Action action : Action.values()) {
+        int i = action.ordinal();
+        long count = counts[i].get();
+        if (builder.length() > 0) builder.append(", ");
+        builder
+            .append(action.name().toLowerCase())
+            .append(" count=")
+            .append(count)
+            .append(" avg=")
+            .append(count == 0 ? 0 : totalNanos[i].get() / count / 1000)
+            .append("us max=")
+            .append(maxNanos[i].get() / 1000)
+            .append("us");
+      }
+      return builder.toString();
+    }
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.persistenceTrace");
+  private static final double sampleRate =
+      ConfigUtil.combined().getDouble("persistence.trace.sample.rate", 0);
+  private static final long reportInterval =
+      ConfigUtil.combined().getLong("persistence.trace.report.interval", 0);
+  private static final AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+  private static final ConcurrentHashMap<Class<?>, Stats> stats =
+      new ConcurrentHashMap<Class<?>, Stats>();
+  private static final ConcurrentHashMap<String, AtomicLong> sampledCallSites =
+      new ConcurrentHashMap<String, AtomicLong>();
+}
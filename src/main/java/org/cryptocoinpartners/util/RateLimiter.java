@@ -1,32 +1,80 @@
 package org.cryptocoinpartners.util;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.cryptocoinpartners.schema.Exchange;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
-import com.google.common.util.concurrent.UncheckedTimeoutException;
+import si.mazi.rescu.HttpStatusException;
 
 /**
  * Implements an Executor which delays execution until a rate limit is fulfilled.
  *
+ * <p>The limit is a smooth token bucket: tokens refill continuously at {@code invocations / per}
+ * up to a burst of {@code invocations}. Work waits in one of several priority lanes, and whenever a
+ * token is available the oldest item in the most urgent non-empty lane goes next, so a busy market
+ * data lane can never hold up a cancel. Waiting work ages: the head of a lane ranks one lane higher
+ * for each window it has waited, up to just below CANCEL, and equally ranked heads go oldest first,
+ * so a lane which never empties cannot starve the lanes below it. The default executor runs
+ * dispatched work in the order it was ranked, so a cancel dispatched while the executor is busy
+ * does not queue behind market data.
+ *
+ * <p>Each exchange call costs one token. A Runnable is charged when it is dispatched, so the first
+ * acquire() it makes while running uses that token instead of taking another; later acquires take
+ * their own.
+ *
+ * <p>When the exchange answers with HTTP 429 the refill rate is halved, down to a tenth of the
+ * configured rate, and dispatch pauses for one window (at least a second); HTTP 418 pauses for two
+ * minutes. Once the pause is over the rate climbs back by a tenth of the configured rate for each
+ * full window without another rejection. Successful calls are not reported, so recovery is driven
+ * by time alone.
+ *
+ * <p>Use {@link #forExchange} to share one limiter between the data and order services of an
+ * exchange. The shared limiter keeps the slowest rate any of them asked for.
+ *
  * @author Tim Olson
  */
 @SuppressWarnings("NullableProblems")
 public class RateLimiter implements Executor {
 
+  /** Lanes in order of precedence */
+  public enum Priority {
+    CANCEL,
+    NEW_ORDER,
+    ORDER_STATUS,
+    MARKET_DATA
+  }
+
+  /**
+   * @return the limiter shared by all users of the exchange, creating it with the given limit if
+   *     this is the first request for it, or slowing it down to the given limit if that is slower
+   *     than its current one
+   */
+  public static RateLimiter forExchange(Exchange exchange, int invocations, Duration per) {
+    RateLimiter limiter =
+        exchangeRateLimiters.computeIfAbsent(
+            exchange, key -> new RateLimiter(null, invocations, per, key.getSymbol()));
+    limiter.restrict(invocations, per);
+    return limiter;
+  }
+
   /**
    * Constructs a RateLimiter with a single-threaded executor
    *
@@ -37,196 +85,460 @@ public class RateLimiter implements Executor {
   }
 
   /**
-   * Implements the Token Bucket algorithm to provide a maximum number of invocations within each
-   * fixed time window. Useful for rate-limiting. If given a non-null executor, the scheduled
-   * runnables are passed to that executor for execution at the rate limit. If executor is null, a
-   * single-threaded executor is used
-   *
    * @param executor the Executor which executes the Runnables. the executor is not called with the
-   *     runnable until the rate limit has been fulfilled
-   * @param invocations number of queries allowed during each time window
+   *     runnable until the rate limit has been fulfilled. If executor is null, a single-threaded
+   *     executor which runs the most urgent lane first is used
+   * @param invocations number of queries allowed during each time window, which is also the burst
+   *     size of the bucket
    * @param per the duration of each time window
    */
   public RateLimiter(Executor executor, final int invocations, final Duration per) {
-    this.per = per;
-    if (executor != null) {
-      this.executor = executor;
+    this(executor, invocations, per, "");
+  }
 
-      this.limiter = SimpleTimeLimiter.create((ExecutorService) this.executor);
-    } else {
-      this.executor = Executors.newSingleThreadExecutor();
-      this.limiter = SimpleTimeLimiter.create((ExecutorService) this.executor);
+  private RateLimiter(Executor executor, int invocations, Duration per, String name) {
+    this.per = per;
+    this.name = name;
+    this.capacity = Math.max(1, invocations);
+    this.tokensPerMilli = (double) capacity / Math.max(1, per.getMillis());
+    this.tokens = capacity;
+    this.lastRefill = System.currentTimeMillis();
+    this.executor =
+        executor != null
+            ? executor
+            : new ThreadPoolExecutor(
+                1, 1, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+    for (Priority priority : Priority.values()) {
+      lanes.put(priority, new ArrayDeque<Task>());
+      metrics.put(priority, new LaneMetrics());
     }
-
-    // This thread fills the TokenBucket with available requests every time window
-    ScheduledThreadPoolExecutor replenisher = new ScheduledThreadPoolExecutor(1);
-    replenisher.scheduleAtFixedRate(
-        new Runnable() {
-          @Override
-          public void run() {
-            int permitsToCreate = invocations - requestsAvailable.availablePermits();
-            if (permitsToCreate > 0) {
-              synchronized (requestsAvailable) {
-                // bring the number of requests up to the maximum size per time window
-                requestsAvailable.release(permitsToCreate);
-              }
-            }
-          }
-        },
-        0,
-        per.getMillis(),
-        TimeUnit.MILLISECONDS);
-
     pump = new RunnablePump();
     pump.start();
   }
 
+  /** Runs the runnable in the MARKET_DATA lane */
   @Override
   public void execute(Runnable runnable) {
-    waitingRunnables.add(runnable);
-    runnableCount.release();
+    execute(runnable, Priority.MARKET_DATA);
   }
 
-  public void execute(final Callable callable) {
-    waitingCallables.add(callable);
-    callableCount.release();
+  public void execute(Runnable runnable, Priority priority) {
+    enqueue(new Task(runnable, null, priority));
+  }
 
-    Runnable run =
+  public void execute(final Callable callable) {
+    execute(
         new Runnable() {
           @Override
           public void run() {
             try {
               Object o = callable.call();
-              log.info(
+              log.debug(
                   this.getClass().getSimpleName()
                       + "execute - "
                       + callable.getClass().getSimpleName()
                       + " returned "
                       + o);
-
             } catch (Exception e) {
               log.error(
                   this.getClass().getSimpleName()
                       + "execute - "
                       + callable.getClass().getSimpleName()
-                      + " returned "
+                      + " threw "
                       + e);
-              try {
-                throw e;
-              } catch (Exception e1) {
-                // TODO Auto-generated catch block
-                log.error(
-                    this.getClass().getSimpleName()
-                        + "execute - "
-                        + callable.getClass().getSimpleName()
-                        + " returned "
-                        + e1);
-              }
             }
           }
-        };
-    execute(run);
+        });
+  }
+
+  /**
+   * Blocks the calling thread until a token is granted in the given lane. Use this around
+   * synchronous exchange calls such as order placement so they are counted against the same limit
+   * as the queued work. Within a Runnable this limiter dispatched, the first call returns at once,
+   * as the Runnable was charged a token when it was dispatched.
+   */
+  public void acquire(Priority priority) throws InterruptedException {
+    if (prepaid.get() == this) {
+      prepaid.remove();
+      return;
+    }
+    CountDownLatch granted = new CountDownLatch(1);
+    Task task = new Task(null, granted, priority);
+    enqueue(task);
+    try {
+      granted.await();
+    } catch (InterruptedException e) {
+      lock.lock();
+      try {
+        lanes.get(priority).remove(task);
+      } finally {
+        lock.unlock();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Reports the outcome of an exchange call. If the error is an HTTP 429 (too many requests) or 418
+   * (IP banned for ignoring 429s) the refill rate is halved and dispatch pauses.
+   *
+   * @return true if the error was a rate limit rejection
+   */
+  public boolean reportError(Throwable error) {
+    int status = getHttpStatus(error);
+    if (status != 429 && status != 418) return false;
+    long pause = status == 418 ? BAN_PAUSE_MILLIS : Math.max(per.getMillis(), MIN_PAUSE_MILLIS);
+    lock.lock();
+    try {
+      long now = System.currentTimeMillis();
+      rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor / 2);
+      pausedUntil = Math.max(pausedUntil, now + pause);
+      // recovery starts once the pause is over
+      lastThrottle = pausedUntil;
+      tokens = 0;
+      throttles.incrementAndGet();
+    } finally {
+      lock.unlock();
+    }
+    log.warn(
+        this.getClass().getSimpleName()
+            + ":reportError - "
+            + name
+            + " rejected a request with HTTP "
+            + status
+            + ", pausing "
+            + pause
+            + "ms and reducing rate to "
+            + Math.round(rateFactor * 100)
+            + "%");
+    return true;
   }
 
-  public boolean remove(Runnable runnable) throws Throwable {
-    if (waitingRunnables.remove(runnable)) {
-      finalize();
-      // runnableCount.release();
-      // requestsAvailable.release();
-      return true;
+  public boolean remove(Runnable runnable) {
+    lock.lock();
+    try {
+      for (Queue<Task> lane : lanes.values())
+        for (Task task : lane)
+          if (task.runnable == runnable) {
+            lane.remove(task);
+            return true;
+          }
+      return false;
+    } finally {
+      lock.unlock();
     }
-    return false;
   }
 
   public Collection<Runnable> getRunnables() {
-    return waitingRunnables;
+    lock.lock();
+    try {
+      Collection<Runnable> runnables = new ArrayList<>();
+      for (Queue<Task> lane : lanes.values())
+        for (Task task : lane) if (task.runnable != null) runnables.add(task.runnable);
+      return runnables;
+    } finally {
+      lock.unlock();
+    }
   }
 
   public Duration getPeriod() {
     return per;
   }
 
+  /** @return the current fraction of the configured rate, below 1 after a 429 or 418 */
+  public double getRateFactor() {
+    return rateFactor;
+  }
+
+  public long getThrottleCount() {
+    return throttles.get();
+  }
+
+  public LaneMetrics getMetrics(Priority priority) {
+    return metrics.get(priority);
+  }
+
   public void stopRunnablePump() {
     pump.interrupt();
   }
 
-  // }
-  // This thread waits for a Runnable to be put on the waitingRunnables queue, then waits for the
-  // rate limit
-  // to be available, then pushes the Runnable to the executor for execution.
+  /** Counters for one priority lane */
+  public static class LaneMetrics {
+    public long getDispatched() {
+      return dispatched.get();
+    }
+
+    public int getQueued() {
+      return queued;
+    }
+
+    public long getTotalWaitMillis() {
+      return totalWait.get();
+    }
+
+    public long getMaxWaitMillis() {
+      return maxWait;
+    }
+
+    public double getAverageWaitMillis() {
+      long count = dispatched.get();
+      return count == 0 ? 0 : (double) totalWait.get() / count;
+    }
+
+    @Override
+    public String toString() {
+      return "dispatched="
+          + getDispatched()
+          + " queued="
+          + queued
+          + " avgWait="
+          + Math.round(getAverageWaitMillis())
+          + "ms maxWait="
+          + maxWait
+          + "ms";
+    }
+
+    private void record(long wait) {
+      dispatched.incrementAndGet();
+      totalWait.addAndGet(wait);
+      if (wait > maxWait) maxWait = wait;
+    }
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private volatile long maxWait;
+    private volatile int queued;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb =
+        new StringBuilder("RateLimiter{")
+            .append(name)
+            .append(" rate=")
+            .append(Math.round(rateFactor * 100))
+            .append("% throttles=")
+            .append(throttles.get());
+    for (Priority priority : Priority.values())
+      sb.append(' ').append(priority).append('[').append(metrics.get(priority)).append(']');
+    return sb.append('}').toString();
+  }
+
+  private void enqueue(Task task) {
+    lock.lock();
+    try {
+      Queue<Task> lane = lanes.get(task.priority);
+      lane.add(task);
+      metrics.get(task.priority).queued = lane.size();
+      workAvailable.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** lowers the limit to the given one if that is slower, so no user exceeds its own limit */
+  private void restrict(int invocations, Duration per) {
+    int burst = Math.max(1, invocations);
+    double rate = (double) burst / Math.max(1, per.getMillis());
+    lock.lock();
+    try {
+      if (rate >= tokensPerMilli) return;
+      refill(System.currentTimeMillis());
+      this.per = per;
+      tokensPerMilli = rate;
+      capacity = Math.min(capacity, burst);
+      tokens = Math.min(tokens, capacity);
+    } finally {
+      lock.unlock();
+    }
+    log.info(
+        this.getClass().getSimpleName()
+            + ":restrict - "
+            + name
+            + " limited to "
+            + burst
+            + " calls per "
+            + per.getMillis()
+            + "ms");
+  }
+
+  private static int getHttpStatus(Throwable error) {
+    for (Throwable t = error; t != null; t = t.getCause())
+      if (t instanceof HttpStatusException) return ((HttpStatusException) t).getHttpStatusCode();
+    return 0;
+  }
+
+  /** must hold the lock */
+  private void refill(long now) {
+    if (now > lastRefill) {
+      // additive recovery for every full window since the last rejection or recovery step
+      long window = Math.max(1, per.getMillis());
+      long windows = (now - lastThrottle) / window;
+      if (rateFactor < 1 && windows > 0) {
+        rateFactor = Math.min(1, rateFactor + windows * RATE_RECOVERY_STEP);
+        lastThrottle += windows * window;
+      }
+      tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMilli * rateFactor);
+      lastRefill = now;
+    }
+  }
+
+  /** must hold the lock */
+  private Task nextTask(long now) {
+    Queue<Task> next = null;
+    double nextRank = Double.MAX_VALUE;
+    for (Queue<Task> lane : lanes.values()) {
+      Task head = lane.peek();
+      if (head == null) continue;
+      double rank = rank(head, now);
+      if (next == null
+          || rank < nextRank
+          || rank == nextRank && head.queuedAt < next.peek().queuedAt) {
+        next = lane;
+        nextRank = rank;
+      }
+    }
+    if (next == null) return null;
+    Task task = next.poll();
+    task.rank = nextRank;
+    metrics.get(task.priority).queued = next.size();
+    return task;
+  }
+
+  /**
+   * @return the lane of the task less one for each window it has waited, but never up to CANCEL
+   *     unless it is one
+   */
+  private double rank(Task task, long now) {
+    int lane = task.priority.ordinal();
+    if (lane == 0) return 0;
+    double windows = (double) (now - task.queuedAt) / Math.max(1, per.getMillis());
+    return Math.max(1, lane - windows);
+  }
+
+  /** must hold the lock */
+  private boolean isEmpty() {
+    for (Queue<Task> lane : lanes.values()) if (!lane.isEmpty()) return false;
+    return true;
+  }
+
+  /**
+   * Queued work, or an acquire() waiting for its token, ordered by the rank it was dispatched with
+   * then by arrival
+   */
+  private class Task implements Runnable, Comparable<Task> {
+    private Task(Runnable runnable, CountDownLatch granted, Priority priority) {
+      this.runnable = runnable;
+      this.granted = granted;
+      this.priority = priority;
+      this.queuedAt = System.currentTimeMillis();
+      this.sequence = sequences.incrementAndGet();
+    }
+
+    /** runs the work with the token it was dispatched with available to its first acquire() */
+    @Override
+    public void run() {
+      prepaid.set(RateLimiter.this);
+      try {
+        runnable.run();
+      } finally {
+        prepaid.remove();
+      }
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      int order = Double.compare(rank, other.rank);
+      return order != 0 ? order : Long.compare(sequence, other.sequence);
+    }
+
+    private final Runnable runnable;
+    private final CountDownLatch granted;
+    private final Priority priority;
+    private final long queuedAt;
+    private final long sequence;
+    // set when dispatched
+    private double rank;
+  }
+
+  // This thread waits for work in any lane, then waits for a token to be available, then pushes
+  // the most urgent Runnable to the executor or releases the most urgent acquire().
   private class RunnablePump extends Thread {
     private RunnablePump() {
+      super("RateLimiter-" + name);
       setDaemon(true);
     }
 
     @Override
     public void run() {
-      boolean running = true;
-      while (running && !isInterrupted()) {
+      while (!isInterrupted()) {
+        Task task;
+        lock.lock();
         try {
-          runnableCount.acquire(); // wait until there are any scheduled runnables available
-          Runnable runnable;
-          Callable callable;
-          runnable = waitingRunnables.poll();
-          callable = waitingCallables.poll();
-          // TODO we need to override this somehow for when we rate quering the latest trade time.
-          if (callable != null)
-            try {
-              limiter.callWithTimeout(callable, 3000, TimeUnit.MILLISECONDS);
-            } catch (UncheckedTimeoutException ute) {
-              log.error(
-                  this.getClass().getSimpleName()
-                      + ":run - unable to complete "
-                      + callable.getClass().getSimpleName()
-                      + " within "
-                      + per.getMillis()
-                      + " "
-                      + TimeUnit.MILLISECONDS);
-
-            } catch (Exception e) {
-              log.error(
-                  this.getClass().getSimpleName()
-                      + ":run - unable to complete "
-                      + callable.getClass().getSimpleName()
-                      + " within  "
-                      + per.getMillis()
-                      + " "
-                      + TimeUnit.MILLISECONDS
-                      + "  stack trace",
-                  e);
-              // TODO Auto-generated catch block
-
-            }
-          else executor.execute(runnable);
-
-          requestsAvailable
-              .acquire(); // wait until there is request limit available, issue here with acquring
-          // the lock
+          while (isEmpty()) workAvailable.await();
+          long now = System.currentTimeMillis();
+          if (pausedUntil > now) {
+            workAvailable.await(pausedUntil - now, TimeUnit.MILLISECONDS);
+            continue;
+          }
+          refill(now);
+          if (tokens < 1) {
+            long wait = (long) Math.ceil((1 - tokens) / (tokensPerMilli * rateFactor));
+            workAvailable.await(Math.max(1, wait), TimeUnit.MILLISECONDS);
+            continue;
+          }
+          tokens -= 1;
+          task = nextTask(now);
+          if (task == null) continue;
+          metrics.get(task.priority).record(now - task.queuedAt);
         } catch (InterruptedException e) {
-
-          running = false;
           break;
+        } finally {
+          lock.unlock();
+        }
+        if (task.granted != null) task.granted.countDown();
+        else {
+          try {
+            executor.execute(task);
+          } catch (RuntimeException e) {
+            log.error(
+                RateLimiter.this.getClass().getSimpleName()
+                    + ":run - unable to execute "
+                    + task.runnable,
+                e);
+          }
         }
       }
     }
   }
 
-  @Override
-  public void finalize() throws Throwable {
-    pump.interrupt();
-    super.finalize();
-  }
-
-  private final RunnablePump pump;
-  private final Semaphore runnableCount = new Semaphore(0);
-  private final Semaphore callableCount = new Semaphore(0);
-
-  private final Semaphore requestsAvailable = new Semaphore(0);
-  private final Queue<Runnable> waitingRunnables = new ConcurrentLinkedQueue<>();
-  private final Queue<Callable> waitingCallables = new ConcurrentLinkedQueue<>();
+  private static final double MIN_RATE_FACTOR = 0.1;
+  private static final double RATE_RECOVERY_STEP = 0.1;
+  private static final long MIN_PAUSE_MILLIS = 1000;
+  private static final long BAN_PAUSE_MILLIS = 120000;
+  private static final Map<Exchange, RateLimiter> exchangeRateLimiters =
+      new ConcurrentHashMap<Exchange, RateLimiter>();
+  // the limiter whose dispatch token the current thread's Runnable has not used yet
+  private static final ThreadLocal<RateLimiter> prepaid = new ThreadLocal<RateLimiter>();
   protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.util.ratelimiter");
 
+  private final RunnablePump pump;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition workAvailable = lock.newCondition();
+  private final Map<Priority, Queue<Task>> lanes = new EnumMap<>(Priority.class);
+  private final Map<Priority, LaneMetrics> metrics = new EnumMap<>(Priority.class);
+  private final AtomicLong throttles = new AtomicLong();
+  private final AtomicLong sequences = new AtomicLong();
   private final Executor executor;
-  private final TimeLimiter limiter;
-  private final Duration per;
+  private final String name;
+  // only changed under the lock, but read without it
+  private volatile Duration per;
+  // guarded by lock
+  private int capacity;
+  private double tokensPerMilli;
+  private double tokens;
+  private long lastRefill;
+  private long pausedUntil;
+  private long lastThrottle;
+  private volatile double rateFactor = 1;
 }
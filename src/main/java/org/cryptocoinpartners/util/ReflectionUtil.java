@@ -21,13 +21,20 @@ import java.util.regex.Pattern;
 public class ReflectionUtil {
 
 
+    /**
+     * Subtypes of an @Indexed supertype come from the compile-time ClassIndex when it is available, and otherwise from a scan of
+     * the classpath.
+     */
     public static <T> Set<Class<? extends T>> getSubtypesOf(Class<T> cls) {
-        return reflections.getSubTypesOf(cls);
+        Set<Class<? extends T>> indexed = ClassIndex.getSubtypesOf(cls);
+        if( indexed != null )
+            return indexed;
+        return getReflections().getSubTypesOf(cls);
     }
 
 
     public static Set<String> searchResources(String regex) {
-        return reflections.getResources(Pattern.compile(regex));
+        return getReflections().getResources(Pattern.compile(regex));
     }
 
 
@@ -88,14 +95,17 @@ public class ReflectionUtil {
     }
 
 
-    private static Reflections reflections;
+    // the classpath is only scanned when something is not in the ClassIndex
+    private static synchronized Reflections getReflections() {
+        if( reflections == null )
+            reflections = new Reflections(ClasspathHelper.forPackage("org.cryptocoinpartners"),
+                                          new SubTypesScanner(),
+                                          new ResourcesScanner() /* , other scanners here */);
+        return reflections;
+    }
 
 
-    static {
-        reflections = new Reflections(ClasspathHelper.forPackage("org.cryptocoinpartners"),
-                                      new SubTypesScanner(),
-                                      new ResourcesScanner() /* , other scanners here */);
-    }
+    private static Reflections reflections;
 
 
     private static Reflections commandReflections;
@@ -1,16 +1,22 @@
 package org.cryptocoinpartners.util;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
@@ -32,17 +38,19 @@ import org.joda.time.Interval;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.espertech.esper.client.EPRuntime;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 
 /**
  * Manages a Context into which Trades and Books from the database are replayed. The Context time is
  * also managed by this class as it advances through the events.
+ *
+ * <p>run() returns once every event has been published, and throws if a window of events could
+ * not be read, rather than replaying the rest of the interval with a gap in it.
  */
 public class Replay implements Runnable {
 
-  private Map<Double, Instant> latestBars = new HashMap<Double, Instant>();
+  private final Map<Double, Instant> latestBars = new HashMap<Double, Instant>();
 
   @AssistedInject
   public Replay(@Assisted boolean orderByTimeReceived) {
@@ -54,30 +62,12 @@ public class Replay implements Runnable {
         orderByTimeReceived);
   }
 
-  //
-  @AssistedInject
-  public Replay(@Assisted boolean orderByTimeReceived, @Assisted Semaphore semaphore) {
-    this(
-        new Interval(getEventsStart(orderByTimeReceived), getEventsEnd(orderByTimeReceived)),
-        orderByTimeReceived,
-        semaphore);
-  }
-
   //
   @AssistedInject
   public Replay(@Assisted("startTime") Instant start, @Assisted boolean orderByTimeReceived) {
     this(new Interval(start, getEventsEnd(orderByTimeReceived)), orderByTimeReceived);
   }
 
-  //
-  @AssistedInject
-  public Replay(
-      @Assisted("startTime") Instant start,
-      @Assisted boolean orderByTimeReceived,
-      @Assisted Semaphore semaphore) {
-    this(new Interval(start, getEventsEnd(orderByTimeReceived)), orderByTimeReceived, semaphore);
-  }
-
   //
 
   @AssistedInject
@@ -88,16 +78,6 @@ public class Replay implements Runnable {
     this(new Interval(getEventsStart(orderByTimeReceived), end), orderByTimeReceived);
   }
 
-  //
-  @AssistedInject
-  public Replay(
-      @Assisted("endTime") Instant end,
-      @Assisted boolean orderByTimeReceived,
-      @Assisted Semaphore semaphore,
-      @Assisted("until") boolean until) {
-    this(new Interval(getEventsStart(orderByTimeReceived), end), orderByTimeReceived, semaphore);
-  }
-
   //
   @AssistedInject
   public Replay(
@@ -113,7 +93,6 @@ public class Replay implements Runnable {
       @Assisted("startTime") Instant start,
       @Assisted("endTime") Instant end,
       @Assisted("orderByTimeReceived") boolean orderByTimeReceived,
-      @Assisted Semaphore semaphore,
       @Assisted("useRandomData") boolean useRandomData,
       @Assisted("replayBooks") boolean replayBooks,
       @Assisted("replayBars") boolean replayBars,
@@ -121,7 +100,6 @@ public class Replay implements Runnable {
     this(
         new Interval(start, end),
         orderByTimeReceived,
-        semaphore,
         useRandomData,
         replayBooks,
         replayBars,
@@ -142,35 +120,19 @@ public class Replay implements Runnable {
   @AssistedInject
   public Replay(@Assisted Interval replayTimeInterval, @Assisted boolean orderByTimeReceived) {
     this.replayTimeInterval = replayTimeInterval; // set this before creating EventTimeManager
-    this.semaphore = null;
     this.context = Context.create(new EventTimeManager());
     this.orderByTimeReceived = orderByTimeReceived;
     this.useRandomData = false;
   }
 
-  @AssistedInject
-  public Replay(
-      @Assisted Interval replayTimeInterval,
-      @Assisted boolean orderByTimeReceived,
-      @Assisted Semaphore semaphore) {
-    this.replayTimeInterval = replayTimeInterval; // set this before creating EventTimeManager
-    this.semaphore = semaphore;
-    this.context = Context.create(new EventTimeManager());
-    this.orderByTimeReceived = orderByTimeReceived;
-    this.useRandomData = false;
-    // this.useRandomData=useRandomData;
-  }
-
   public Replay(
       Interval replayTimeInterval,
       boolean orderByTimeReceived,
-      @Assisted Semaphore semaphore,
       boolean useRandomData,
       boolean replayBooks,
       boolean replayBars,
       @Nullable List<String> barIntervals) {
     this.replayTimeInterval = replayTimeInterval; // set this before creating EventTimeManager
-    this.semaphore = semaphore;
     this.context = Context.create(new EventTimeManager());
     this.orderByTimeReceived = orderByTimeReceived;
     this.useRandomData = useRandomData;
@@ -184,6 +146,22 @@ public class Replay implements Runnable {
     return context;
   }
 
+  /**
+   * Restricts the replay to the markets with the given symbols, out of the markets of all the
+   * portfolios in the Context. Used by PartitionedReplay to give each partition its own markets.
+   */
+  public void setPartition(@Nullable Collection<String> symbols) {
+    this.partition = symbols == null ? null : new HashSet<String>(symbols);
+  }
+
+  /**
+   * Runs the action on the replay thread just before the first event at or after the time is
+   * published, or once every event has been published if none is that late
+   */
+  public void at(Instant time, Runnable action) {
+    triggers.at(time, action);
+  }
+
   /**
    * queries the database for all Books (optional) and Trades which have start <= time <= stop, then
    * publishes those Events in order of time to this Replay's Context
@@ -203,6 +181,9 @@ public class Replay implements Runnable {
         for (Tradeable tradeable : portfolio.getMarkets())
           if (tradeable != null) markets.put(tradeable.getSymbol(), tradeable);
       }
+      if (partition != null) markets.keySet().retainAll(partition);
+      if (ConfigUtil.combined().getBoolean("db.replay.native", true))
+        rowReader = new MarketDataReader(markets.values(), orderByTimeReceived);
       if (replayBars) {
         for (String interval : barIntervals) {
           Double intervalAsDouble = Double.parseDouble(interval);
@@ -234,168 +215,45 @@ public class Replay implements Runnable {
       // stop));
 
       if (!useRandomData) {
-        int threadCount = 0;
-        CountDownLatch startLatch = null;
-        CountDownLatch stopLatch = null;
         service = Executors.newFixedThreadPool(dbReaderThreads);
-
-        //   engines = Executors.newFixedThreadPool(1);
-        //    replayTimeInterval.toDuration().
-        // engines.submit(new PublisherRunnable());
-        /*
-         * if (replayTimeInterval.toDuration().isLongerThan(timeStep)) { // Start two threads, but ensure the first thread publish first, then reuse it
-         * for (Instant now = start; !now.isAfter(end);) { final Instant stepEnd = now.plus(timeStep); threadCount++; now = stepEnd; } } endLatch = new
-         * CountDownLatch(threadCount);
-         */
-        //  semaphore.release(threadCount);
-
-        if (replayTimeInterval.toDuration().isLongerThan(timeStep)) {
-          // Start two threads, but ensure the first thread publish first, then reuse it
-
-          for (Instant now = start; !now.isAfter(end); ) {
-            try {
-              final Instant stepEnd = now.plus(timeStep);
-              Instant lastBarEnd =
-                  lastBar == null
-                      ? null
-                      : lastBar
-                          .getTime()
-                          .toDateTime()
-                          .plusSeconds(lastBar.getInterval().intValue())
-                          .toInstant();
-              log.debug(
-                  "Replay: Run replaying from {} to {} {} ",
-                  now,
-                  stepEnd,
-                  (lastBarEnd == null ? "" : "with last bar start time of " + lastBarEnd));
-              stopLatch = new CountDownLatch(1);
-              log.trace(
-                  "Replay: ReplayStepRunnable created with: {}, {}, {}, {}, {}",
-                  now,
-                  context.getRunTime(),
-                  semaphore,
-                  startLatch,
-                  stopLatch,
-                  threadCount);
-
-              ReplayStepRunnable replayStep =
-                  new ReplayStepRunnable(
-                      now,
-                      stepEnd,
-                      context.getRunTime(),
-                      semaphore,
-                      startLatch,
-                      stopLatch,
-                      threadCount,
-                      replayBooks,
-                      replayBars,
-                      (lastBarEnd == null ? null : lastBarEnd),
-                      markets,
-                      intervals);
-              startLatch = stopLatch;
-              // we submit 170 threads but only  9 executed!
-              service.submit(replayStep);
-              log.trace(
-                  "Replay: ReplayStepRunnable submitted with: {}, {},{},{},{},{} ",
-                  now,
-                  context.getRunTime(),
-                  semaphore,
-                  startLatch,
-                  stopLatch,
-                  threadCount);
-
-              // if (threadCount != 0)
-              threadCount++;
-              now = stepEnd;
-            } catch (Error | Exception e) {
-              log.error(
-                  "{} run - Unable to replay books and trades due  to {}",
-                  this.getClass().getSimpleName(),
-                  e);
-              continue;
-            }
-          }
-          semaphore.release(threadCount);
-          while (semaphore.availablePermits() > 0) {
-            try {
-              Thread.sleep(1000);
-            } catch (InterruptedException e) {
-              // TODO Auto-generated catch block
-              log.debug(": replaying historic prices", this.getClass().getSimpleName(), e);
-            }
-          }
-          if (replayBars) {
-            threadCount = 0;
-            // context = replay.getContext();
-
-            //	latestBars
-            double lastBarInterval = 0d;
-            for (Double interval : latestBars.keySet())
-              if (interval > lastBarInterval) lastBarInterval = interval;
-            Instant endInstant = new Instant(System.currentTimeMillis());
-            Instant startInstant =
-                (latestBars.get(lastBarInterval) != null)
-                    ? latestBars
-                        .get(lastBarInterval)
+        try {
+          if (replayTimeInterval.toDuration().isLongerThan(timeStep)) {
+            Instant lastBarEnd =
+                lastBar == null
+                    ? null
+                    : lastBar
+                        .getTime()
                         .toDateTime()
-                        .plusSeconds((int) lastBarInterval)
-                        .toInstant()
-                    : endInstant.toDateTime().minusSeconds(maxInterval.intValue()).toInstant();
-
-            for (Instant now = startInstant; !now.isAfter(endInstant); ) {
-              try {
-                final Instant stepEnd = now.plus(timeStep);
-                log.debug("Replay: Run replaying from {} to {}", now, stepEnd);
-                stopLatch = new CountDownLatch(1);
-                log.trace(
-                    "Replay: ReplayStepRunnable created with: {}, {},{},{},{},{} ",
-                    now,
-                    context.getRunTime(),
-                    semaphore,
-                    startLatch,
-                    stopLatch,
-                    threadCount);
-
-                ReplayStepRunnable replayStep =
-                    new ReplayStepRunnable(
-                        now,
-                        stepEnd,
-                        context.getRunTime(),
-                        semaphore,
-                        startLatch,
-                        stopLatch,
-                        threadCount,
-                        false,
-                        false,
-                        null,
-                        markets,
-                        intervals);
-                startLatch = stopLatch;
-                service.submit(replayStep);
-                // if (threadCount != 0)
-                threadCount++;
-                now = stepEnd;
-              } catch (Error | Exception e) {
-                log.error(
-                    "{} run - Unable to replay barsvdue to {} ",
-                    this.getClass().getSimpleName(),
-                    e);
-                continue;
-              }
-            }
-            semaphore.release(threadCount);
-          }
-          while (semaphore.availablePermits() > 0) {
-            try {
-              Thread.sleep(1000);
-            } catch (InterruptedException e) {
-              // TODO Auto-generated catch block
-              log.debug("{}: replaying historic prices{}", this.getClass().getSimpleName(), e);
+                        .plusSeconds(lastBar.getInterval().intValue())
+                        .toInstant();
+            log.debug(
+                "Replay: Run replaying from {} to {} {} ",
+                start,
+                end,
+                (lastBarEnd == null ? "" : "with last bar start time of " + lastBarEnd));
+            replayWindows(start, end, replayBooks, replayBars, lastBarEnd, markets, intervals);
+            if (replayBars) {
+              // replay the trades since the end of the latest bar
+              double lastBarInterval = 0d;
+              for (Double interval : latestBars.keySet())
+                if (interval > lastBarInterval) lastBarInterval = interval;
+              Instant endInstant = new Instant(System.currentTimeMillis());
+              Instant startInstant =
+                  (latestBars.get(lastBarInterval) != null)
+                      ? latestBars
+                          .get(lastBarInterval)
+                          .toDateTime()
+                          .plusSeconds((int) lastBarInterval)
+                          .toInstant()
+                      : endInstant.toDateTime().minusSeconds(maxInterval.intValue()).toInstant();
+              log.debug("Replay: Run replaying trades from {} to {}", startInstant, endInstant);
+              replayWindows(startInstant, endInstant, false, false, null, markets, intervals);
             }
-          }
-          log.debug("completed");
-
-        } else replayStep(start, end, replayBooks, replayBars, null, markets, intervals);
+            log.debug("completed");
+          } else replayStep(start, end, replayBooks, replayBars, null, markets, intervals);
+        } finally {
+          service.shutdown();
+        }
       } else {
         new MockTicker(
             context,
@@ -408,118 +266,75 @@ public class Replay implements Runnable {
     } catch (Error | Exception e) {
       log.error(
           " {} run - Unable to replay market data due to {}", this.getClass().getSimpleName(), e);
+      throw e;
     }
+    triggers.fireAll();
   }
 
-  private class ReplayStepRunnable implements Runnable {
-
-    private final Instant start;
-    private final Instant stop;
-    private final boolean replayBooks;
-    private final boolean replayBars;
-    private final Instant barEnd;
-    private Map<String, Tradeable> markets;
-    private List<Double> intervals;
-
-    private final EPRuntime runtime;
-    private final Semaphore semaphore;
-    //  private final CountDownLatch startLatch;
-    private final CountDownLatch stopLatch;
-    private final int threadCount;
-    private final CountDownLatch startLatch;
-
-    public ReplayStepRunnable(
-        Instant start,
-        Instant stop,
-        EPRuntime runtime,
-        Semaphore semaphore,
-        final CountDownLatch startLatch,
-        CountDownLatch stopLatch,
-        int threadCount,
-        boolean replayBooks,
-        boolean replayBars,
-        Instant barEnd,
-        Map<String, Tradeable> markets,
-        List<Double> intervals) {
-      this.semaphore = semaphore;
-      this.start = start;
-      this.stop = stop;
-      this.runtime = runtime;
-      this.startLatch = startLatch;
-      this.stopLatch = stopLatch;
-      this.threadCount = threadCount;
-      this.replayBooks = replayBooks;
-      this.replayBars = replayBars;
-      this.barEnd = barEnd;
-      this.markets = markets;
-      this.intervals = intervals;
-    }
-
-    @Override
-    // @Inject
-    public void run() {
-
+  /**
+   * Publishes the events of each timeStep window from start to end, in order, on the calling
+   * thread. The next db.replay.prefetch windows are queried on the reader pool while the current
+   * window is published, so reads overlap publishing while bounding the events held in memory. A
+   * window which cannot be queried, or an interruption while waiting for one, fails the replay.
+   */
+  private void replayWindows(
+      Instant start,
+      Instant end,
+      final boolean replayBooks,
+      final boolean replayBars,
+      final Instant barEnd,
+      final Map<String, Tradeable> markets,
+      final List<Double> intervals) {
+    Deque<Future<List<RemoteEvent>>> windows = new ArrayDeque<Future<List<RemoteEvent>>>();
+    Instant next = start;
+    while (true) {
+      while (windows.size() < prefetchWindows && !next.isAfter(end)) {
+        final Instant windowStart = next;
+        final Instant windowStop = next.plus(timeStep);
+        windows.add(
+            service.submit(
+                new Callable<List<RemoteEvent>>() {
+                  @Override
+                  public List<RemoteEvent> call() {
+                    log.debug("Replay: querying events from {} to {}", windowStart, windowStop);
+                    return queryEvents(
+                        windowStart,
+                        windowStop,
+                        replayBooks,
+                        replayBars,
+                        barEnd,
+                        markets,
+                        intervals);
+                  }
+                }));
+        next = windowStop;
+      }
+      Future<List<RemoteEvent>> window = windows.poll();
+      if (window == null) return;
+      List<RemoteEvent> events;
       try {
-        // perform interesting task
-        log.debug(
-            "ReplayStepRunnable: Run querying events from {} to {} with latch  {}",
-            start,
-            stop,
-            startLatch);
-        List<RemoteEvent> events =
-            queryEvents(start, stop, replayBooks, replayBars, barEnd, markets, intervals);
-        log.debug(
-            "ReplayStepRunnable: Run queried events from {} to {}  with latch {}",
-            start,
-            stop,
-            startLatch);
-
-        if (startLatch != null) {
-          log.debug("ReplayStepRunnable: Run Waiting for start latch {}", startLatch);
-
-          startLatch.await();
-        }
-        log.debug("ReplayStepRunnable: Run publishing events from {} to {}", start, stop);
-
-        for (RemoteEvent event : events) {
-          if ((event.getTimeReceived().getMillis() < event.getTime().getMillis()))
-            log.warn(
-                "{} :run. Unable to publish event: {} as recived before created",
-                this.getClass().getSimpleName(),
-                event);
-          else {
-            context.publish(event);
-            EM.detach(event);
-          }
-        }
-
-        log.debug("ReplayStepRunnable: Published events from {} to {}", start, stop);
-      } catch (Error | Exception e) {
-        log.debug(
-            "ReplayStepRunnable: Unable to query events between {} and stop {}  , full stack trace follows: {}",
-            start,
-            stop,
-            e);
-      } finally {
-        try {
-
-          if (semaphore != null) {
-            log.debug(
-                "ReplayStepRunnable: removing permit from to pool for semaphore avaiable permits {}",
-                semaphore.availablePermits());
-            semaphore.acquire();
-          }
-
-        } catch (Error | Exception e) {
-          log.debug(
-              "ReplayStepRunnable: Unable to query events between  {} and stop  {} , full stack trace follows:{} ",
-              start,
-              stop,
-              e);
-
-        } finally {
-          log.debug("ReplayStepRunnable: Run Counting down stop latch {} ", stopLatch);
-          stopLatch.countDown();
+        events = window.get();
+      } catch (ExecutionException e) {
+        // replaying the later windows would leave a gap the strategies never see
+        for (Future<List<RemoteEvent>> pending : windows) pending.cancel(true);
+        throw new IllegalStateException("Unable to query events", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (Future<List<RemoteEvent>> pending : windows) pending.cancel(true);
+        // returning would let run() fire the remaining triggers as if the replay had finished
+        throw new IllegalStateException("Interrupted querying events", e);
+      }
+      for (RemoteEvent event : events) {
+        if ((event.getTimeReceived().getMillis() < event.getTime().getMillis()))
+          log.warn(
+              "{} :replayWindows. Unable to publish event: {} as recived before created",
+              this.getClass().getSimpleName(),
+              event);
+        else {
+          triggers.fire(event.getTime());
+          context.publish(event);
+          // events read by the MarketDataReader were never managed
+          if (rowReader == null || rowReader.isDisabled()) EM.detach(event);
         }
       }
     }
@@ -544,9 +359,9 @@ public class Replay implements Runnable {
                 + event
                 + " as recived before created");
       else {
-
+        triggers.fire(event.getTime());
         context.publish(event);
-        event.detach();
+        if (rowReader == null || rowReader.isDisabled()) event.detach();
       }
     }
 
@@ -562,25 +377,29 @@ public class Replay implements Runnable {
       Map<String, Tradeable> markets,
       List<Double> intervals) {
     final String timeField = timeFieldForOrdering(orderByTimeReceived);
-    //  order in (?1)
+    // no replayable event happened after it was received, so bounding time as well lets the
+    // database prune time partitions when ordering by timeReceived
     final String tradeQuery =
         "select t from Trade t where  market in (?1) and "
             + timeField
             + " >= ?2 and "
             + timeField
-            + " <= ?3";
+            + " <= ?3"
+            + (orderByTimeReceived ? " and time <= ?3" : "");
     final String bookQuery =
         "select b from Book b where  market in (?1) and "
             + timeField
             + " >= ?2 and "
             + timeField
-            + " <= ?3";
+            + " <= ?3"
+            + (orderByTimeReceived ? " and time <= ?3" : "");
     final String barQuery =
         "select r from Bar r where interval in (?1) and market in (?2) and "
             + timeField
             + " >= ?3 and "
             + timeField
-            + " <= ?4";
+            + " <= ?4"
+            + (orderByTimeReceived ? " and time <= ?4" : "");
 
     final List<RemoteEvent> events = new ArrayList<>();
     final List<Book> books = new ArrayList<>();
@@ -593,8 +412,9 @@ public class Replay implements Runnable {
     // stop));
 
     if (replayBooks) {
-      List<Book> results =
-          EM.queryList(Book.class, bookQuery, new ArrayList(markets.values()), start, stop);
+      List<Book> results = rowReader == null ? null : rowReader.readBooks(start, stop);
+      if (results == null)
+        results = EM.queryList(Book.class, bookQuery, new ArrayList(markets.values()), start, stop);
       if (results != null) {
         books.addAll(results);
         Iterator<Book> itb = books.iterator();
@@ -637,22 +457,24 @@ public class Replay implements Runnable {
 
     if (replayBars && start.isBefore(barEnd)) {
       if (stop.isAfter(barEnd)) stop = barEnd;
-      List<Bar> results =
-          EM.queryList(
-              Bar.class, barQuery, intervals, new ArrayList(markets.values()), start, stop);
+      List<Bar> results = rowReader == null ? null : rowReader.readBars(start, stop, intervals);
+      if (results == null)
+        results =
+            EM.queryList(
+                Bar.class, barQuery, intervals, new ArrayList(markets.values()), start, stop);
       if (results != null) {
         bars.addAll(results);
         Iterator<Bar> itb = bars.iterator();
 
         while (itb.hasNext()) {
           Bar bar = itb.next();
-          if (latestBars == null
-              || latestBars.isEmpty()
-              || !latestBars.containsKey(bar.getInterval()))
-            latestBars.put(bar.getInterval(), bar.getTime());
-          else if (latestBars.containsKey(bar.getInterval())
-              && latestBars.get(bar.getInterval()).isBefore(bar.getTime()))
-            latestBars.put(bar.getInterval(), bar.getTime());
+          // windows are queried concurrently by the prefetching readers
+          synchronized (latestBars) {
+            if (latestBars.isEmpty() || !latestBars.containsKey(bar.getInterval()))
+              latestBars.put(bar.getInterval(), bar.getTime());
+            else if (latestBars.get(bar.getInterval()).isBefore(bar.getTime()))
+              latestBars.put(bar.getInterval(), bar.getTime());
+          }
 
           if (!markets.containsKey(bar.getMarket().getSymbol())) {
             itb.remove();
@@ -666,8 +488,10 @@ public class Replay implements Runnable {
       }
     } else if (!replayBars || (replayBars && barEnd == null)) {
       // TODO we need to replay trades for any bars we don't have.
-      List<Trade> results =
-          EM.queryList(Trade.class, tradeQuery, new ArrayList(markets.values()), start, stop);
+      List<Trade> results = rowReader == null ? null : rowReader.readTrades(start, stop);
+      if (results == null)
+        results =
+            EM.queryList(Trade.class, tradeQuery, new ArrayList(markets.values()), start, stop);
       if (results != null) {
         trades.addAll(results);
 
@@ -772,10 +596,9 @@ public class Replay implements Runnable {
   private static final Integer replayTimeStep =
       ConfigUtil.combined().getInt("db.replay.batchhours", 24);
 
-  private final Semaphore semaphore;
-  private static ExecutorService service;
-  private static ExecutorService engines;
-  private static CountDownLatch endLatch;
+  private final int prefetchWindows =
+      ConfigUtil.combined().getInt("db.replay.prefetch", dbReaderThreads);
+  private ExecutorService service;
 
   private final Context context;
   private static final Duration timeStep =
@@ -789,4 +612,7 @@ public class Replay implements Runnable {
   private List<String> barIntervals = new ArrayList<String>();
   private boolean replayBars = false;
   private Instant barEnd;
+  private Set<String> partition;
+  private volatile MarketDataReader rowReader;
+  private final ReplayTriggers triggers = new ReplayTriggers();
 }
@@ -0,0 +1,56 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.joda.time.Instant;
+
+/**
+ * Actions to run once a replay reaches a given time. The replay calls fire() with the time of each
+ * event before publishing it, which runs every action due at or before that time in time order, so
+ * an action sees the effects of exactly the events earlier than its time. Actions still pending
+ * when the replay ends are run by fireAll().
+ */
+public class ReplayTriggers {
+
+  public synchronized void at(Instant time, Runnable action) {
+    List<Runnable> actions = pending.get(time.getMillis());
+    if (actions == null) {
+      actions = new ArrayList<Runnable>();
+      pending.put(time.getMillis(), actions);
+    }
+    actions.add(action);
+    next = pending.firstKey();
+  }
+
+  /** Runs the actions due before an event at the given time is published */
+  public void fire(Instant time) {
+    // checked without locking, as nearly every event is earlier than the next action
+    if (time.getMillis() < next) return;
+    for (Runnable action : due(time.getMillis())) action.run();
+  }
+
+  /** Runs every pending action, for when the replay has ended */
+  public void fireAll() {
+    for (Runnable action : due(Long.MAX_VALUE)) action.run();
+  }
+
+  public synchronized boolean isEmpty() {
+    return pending.isEmpty();
+  }
+
+  private synchronized List<Runnable> due(long time) {
+    List<Runnable> due = new ArrayList<Runnable>();
+    while (!pending.isEmpty() && pending.firstKey() <= time) {
+      Map.Entry<Long, List<Runnable>> entry = pending.pollFirstEntry();
+      due.addAll(entry.getValue());
+    }
+    next = pending.isEmpty() ? Long.MAX_VALUE : pending.firstKey();
+    return due;
+  }
+
+  private final TreeMap<Long, List<Runnable>> pending = new TreeMap<Long, List<Runnable>>();
+  private volatile long next = Long.MAX_VALUE;
+}
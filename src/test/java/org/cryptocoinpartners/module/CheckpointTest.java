@@ -0,0 +1,161 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.cryptocoinpartners.bin.Main.MainParamsOnly;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.service.Checkpointable;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.ReplayTriggers;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class CheckpointTest {
+
+  @Test
+  public final void test() throws IOException {
+    Asset base = new Currency(false, "BTC", 0.00000001);
+    Asset quote = new Currency(false, "USD", 0.01);
+    Market market = new Market(new Exchange("BITSTAMP"), new Listing(base, quote), 0.01, 0.01);
+
+    Checkpoint checkpoint = new Checkpoint(new Instant(1000000));
+    assertEquals(1000000, checkpoint.getReplayStart().getMillis());
+
+    checkpoint.addTrade(new Trade(market, new Instant(990000), null, 10000L, 100L));
+    // the 60s bar starting at 900000 is complete, so the bar in progress started at 960000
+    checkpoint.addBar(new Bar(840000, 60d, 1d, 2d, 3d, 0.5d, 10d, 6d, 4d, market));
+    checkpoint.addBar(new Bar(900000, 60d, 2d, 3d, 3d, 1d, 10d, 6d, 4d, market));
+    // the 300s bar in progress started at 600000
+    checkpoint.addBar(new Bar(300000, 300d, 1d, 2d, 3d, 0.5d, 10d, null, null, market));
+    checkpoint.putState("strategy", "state");
+    assertEquals(600000, checkpoint.getReplayStart().getMillis());
+
+    File file = File.createTempFile("checkpoint", ".ser");
+    try {
+      checkpoint.write(file);
+      Checkpoint read = Checkpoint.read(file);
+      assertNotNull(read);
+      assertEquals(1000000, read.getTime().getMillis());
+      assertEquals(600000, read.getReplayStart().getMillis());
+      assertEquals(1, read.getTradeCount());
+      assertEquals(3, read.getBarCount());
+      assertEquals("state", read.getState("strategy"));
+    } finally {
+      file.delete();
+    }
+    assertNull(Checkpoint.read(file));
+  }
+
+  @Test
+  public final void testContext() throws ConfigurationException {
+    MainParamsOnly mainParamsOnly = new MainParamsOnly();
+    ConfigUtil.init(mainParamsOnly.propertiesFilename, mainParamsOnly.definitions);
+    // no quote service is attached, so the QuoteWindows named windows do not exist
+    Context context = Context.create();
+    try {
+      Checkpointer checkpointer = context.attach(Checkpointer.class);
+      Asset base = new Currency(false, "BTC", 0.00000001);
+      Asset quote = new Currency(false, "USD", 0.01);
+      Market market = new Market(new Exchange("BITSTAMP"), new Listing(base, quote), 0.01, 0.01);
+      context.publish(new Bar(840000, 60d, 1d, 2d, 3d, 0.5d, 10d, 6d, 4d, market));
+      context.publish(new Bar(900000, 60d, 2d, 3d, 3d, 1d, 10d, 6d, 4d, market));
+      context.publish(new Trade(market, new Instant(990000), null, 10000L, 100L));
+
+      Checkpoint checkpoint = checkpointer.checkpoint();
+      assertEquals(2, checkpoint.getBarCount());
+      assertEquals(1, checkpoint.getTradeCount());
+      assertEquals(960000, checkpoint.getReplayStart().getMillis());
+    } finally {
+      context.destroy();
+    }
+  }
+
+  @Test
+  public final void testWarmRestart() throws IOException {
+    // an uninterrupted run, checkpointed at 60s before the events at 60s are seen
+    CountingStrategy original = new CountingStrategy();
+    Checkpoint checkpoint = null;
+    for (long time = 0; time < 100000; time += 1000) {
+      if (time == 60000) {
+        checkpoint = new Checkpoint(new Instant(time));
+        checkpoint.putState("counter", original.getCheckpointState());
+      }
+      original.trade(time);
+    }
+
+    File file = File.createTempFile("checkpoint", ".ser");
+    try {
+      checkpoint.write(file);
+      final Checkpoint read = Checkpoint.read(file);
+      assertNotNull(read);
+
+      // a warm restart replaying from 30s, before the checkpoint
+      CountingStrategy restarted = new CountingStrategy();
+      final Map<String, Checkpointable> strategies =
+          Collections.<String, Checkpointable>singletonMap("counter", restarted);
+      ReplayTriggers triggers = new ReplayTriggers();
+      triggers.at(
+          read.getTime(),
+          new Runnable() {
+            @Override
+            public void run() {
+              read.restoreStates(strategies);
+            }
+          });
+      for (long time = 30000; time < 100000; time += 1000) {
+        triggers.fire(new Instant(time));
+        restarted.trade(time);
+      }
+      triggers.fireAll();
+      assertTrue(triggers.isEmpty());
+      assertEquals(original.count, restarted.count);
+      assertEquals(original.sum, restarted.sum);
+
+      // restoring before the replay would count the events from 30s to 60s twice
+      CountingStrategy early = new CountingStrategy();
+      read.restoreStates(Collections.<String, Checkpointable>singletonMap("counter", early));
+      for (long time = 30000; time < 100000; time += 1000) early.trade(time);
+      assertEquals(original.count + 30, early.count);
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static class CountingStrategy implements Checkpointable {
+
+    private void trade(long time) {
+      count++;
+      sum += time;
+    }
+
+    @Override
+    public Serializable getCheckpointState() {
+      return new long[] {count, sum};
+    }
+
+    @Override
+    public void restoreCheckpointState(Serializable state) {
+      count = ((long[]) state)[0];
+      sum = ((long[]) state)[1];
+    }
+
+    private long count;
+    private long sum;
+  }
+}
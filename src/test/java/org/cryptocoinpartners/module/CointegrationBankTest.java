@@ -0,0 +1,118 @@
+package org.cryptocoinpartners.module;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.ETH;
+import static org.cryptocoinpartners.schema.Fixtures.USD;
+import static org.cryptocoinpartners.schema.Fixtures.currency;
+import static org.cryptocoinpartners.schema.Fixtures.market;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.CointegrationUpdate;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Fixtures.Recorder;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.util.Cointegration;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class CointegrationBankTest {
+
+  @Test
+  public final void testPairAlignment() {
+    TestBank bank = new TestBank(0);
+    bank.register(btc, eth, 0.0001, 0.001);
+    assertNull(bank.getLast(btc, eth));
+
+    // stepped only once both legs have closed a bar at the same time
+    bank.handleBar(bar(btc, 60000, 10000));
+    bank.handleBar(bar(eth, 0, 5000));
+    assertNull(bank.getLast(btc, eth));
+    bank.handleBar(bar(eth, 60000, 5100));
+    CointegrationUpdate update = bank.getLast(btc, eth);
+    assertNotNull(update);
+    assertEquals(new Instant(60000), update.getTime());
+    assertEquals(1, update.getSteps());
+
+    // a repeated bar, or a bar of another interval, does not step the pair again
+    bank.handleBar(bar(eth, 60000, 5200));
+    bank.handleBar(new Bar(120000, 300d, 1d, 10100d, 1d, 1d, 1d, 1d, 1d, btc));
+    assertSame(update, bank.getLast(btc, eth));
+    assertNull(bank.getLast(eth, btc));
+
+    // the hedge closing first works as well, and the filter sees the closes in their price basis
+    bank.handleBar(bar(eth, 120000, 5300));
+    bank.handleBar(bar(btc, 120000, 10200));
+    Cointegration filter = new Cointegration(0.0001, 0.001);
+    filter.step(51, 100);
+    filter.step(53, 102);
+    update = bank.getLast(btc, eth);
+    assertEquals(2, update.getSteps());
+    assertEquals(filter.getAlpha(), update.getAlpha(), 0);
+    assertEquals(filter.getBeta(), update.getBeta(), 0);
+    assertEquals(filter.getError(), update.getError(), 0);
+    assertEquals(2, bank.updates.size());
+  }
+
+  @Test
+  public final void testLanes() throws InterruptedException {
+    int bars = 50;
+    TestBank bank = new TestBank(2 * bars);
+    bank.setThreads(2);
+    bank.register(btc, eth, 0.0001, 0.001);
+    bank.register(btc, ltc, 0.0001, 0.001);
+    for (int i = 1; i <= bars; i++) {
+      bank.handleBar(bar(btc, i * 60000, 10000 + i));
+      bank.handleBar(bar(eth, i * 60000, 5000 + i));
+      bank.handleBar(bar(ltc, i * 60000, 1000 + i));
+    }
+    assertTrue(bank.updates.await(5));
+
+    // each pair is stepped on one lane, in bar order
+    for (Market hedge : new Market[] {eth, ltc}) {
+      String thread = null;
+      long steps = 0;
+      for (int i = 0; i < bank.updates.size(); i++) {
+        if (bank.updates.get(i).getHedge() != hedge) continue;
+        if (thread == null) thread = bank.updates.getThread(i);
+        assertEquals(thread, bank.updates.getThread(i));
+        assertEquals(++steps, bank.updates.get(i).getSteps());
+      }
+      assertEquals(bars, steps);
+      assertTrue(thread.startsWith("cointegration-"));
+    }
+    assertEquals(bars, bank.getLast(btc, ltc).getSteps());
+
+    // destroying the Context stops the lanes
+    bank.beforeDestroy(null);
+    assertNull(bank.getExecutor());
+  }
+
+  private static Bar bar(Market market, long time, double close) {
+    return new Bar(time, 60d, close, close, close, close, 1d, 1d, 1d, market);
+  }
+
+  /** records the updates and the threads stepping them instead of publishing them */
+  private static class TestBank extends CointegrationBank {
+
+    private TestBank(int steps) {
+      updates = new Recorder<CointegrationUpdate>(steps);
+    }
+
+    @Override
+    void publish(CointegrationUpdate update) {
+      updates.record(update);
+    }
+
+    private final Recorder<CointegrationUpdate> updates;
+  }
+
+  private static final Exchange exchange = new Exchange("BITSTAMP");
+  private static final Market btc = market(exchange, BTC, USD, 0.01, 0.01);
+  private static final Market eth = market(exchange, ETH, USD, 0.01, 0.01);
+  private static final Market ltc = market(exchange, currency("LTC"), USD, 0.01, 0.01);
+}
@@ -0,0 +1,72 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class OrderStateIndexTest {
+
+  @Test
+  public final void test() {
+    Asset base = new Currency(false, "BTC", 0.00000001);
+    Asset quote = new Currency(false, "USD", 0.01);
+    Market market = new Market(new Exchange("BITSTAMP"), new Listing(base, quote), 0.01, 0.01);
+    Portfolio portfolio = new Portfolio();
+    OrderStateIndex index = new OrderStateIndex();
+
+    SpecificOrder longOpen = new SpecificOrder(new Instant(0), portfolio, market, 100);
+    longOpen.setPositionEffect(PositionEffect.OPEN);
+    SpecificOrder longClose = new SpecificOrder(new Instant(0), portfolio, market, -100);
+    longClose.setPositionEffect(PositionEffect.CLOSE);
+
+    index.put(longOpen, OrderState.NEW);
+    index.put(longClose, OrderState.NEW);
+    assertEquals(2, index.getOpenOrders(portfolio, market).size());
+    assertTrue(index.hasOpenOrders(market));
+    assertEquals(
+        longOpen,
+        index
+            .getOpenOrders(portfolio, market, TransactionType.BUY, PositionEffect.OPEN)
+            .iterator()
+            .next());
+    assertEquals(
+        longClose,
+        index
+            .getOpenOrders(portfolio, market, TransactionType.SELL, PositionEffect.CLOSE)
+            .iterator()
+            .next());
+
+    // a transition moves the order between state buckets
+    assertEquals(OrderState.NEW, index.put(longOpen, OrderState.PLACED));
+    assertEquals(1, index.getOrders(OrderState.NEW).size());
+    assertTrue(index.getOrders(OrderState.PLACED).contains(longOpen));
+    assertSame(longOpen, index.getOrder(longOpen.getUuid()));
+
+    // a terminal state leaves the open indexes
+    index.put(longOpen, OrderState.FILLED);
+    assertEquals(1, index.getOpenOrders().size());
+    assertTrue(
+        index
+            .getOpenOrders(portfolio, market, TransactionType.BUY, PositionEffect.OPEN)
+            .isEmpty());
+
+    assertEquals(OrderState.NEW, index.remove(longClose));
+    assertTrue(index.getOpenOrders(portfolio, market).isEmpty());
+    assertFalse(index.hasOpenOrders(market));
+    assertEquals(1, index.size());
+  }
+}
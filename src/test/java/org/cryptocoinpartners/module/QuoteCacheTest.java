@@ -0,0 +1,110 @@
+package org.cryptocoinpartners.module;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.USD;
+import static org.cryptocoinpartners.schema.Fixtures.book;
+import static org.cryptocoinpartners.schema.Fixtures.market;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class QuoteCacheTest {
+
+  @Test
+  public final void testStaleTrade() {
+    QuoteCache cache = new QuoteCache();
+    assertSame(QuoteCache.EMPTY, cache.get(bitstamp));
+
+    Trade last = new Trade(bitstamp, new Instant(2000), null, 10000L, 100L);
+    assertTrue(cache.slot(bitstamp).putTrade(last));
+    // an older trade is rejected, one at the same time replaces the last
+    Trade older = new Trade(bitstamp, new Instant(1000), null, 9000L, 100L);
+    assertFalse(cache.slot(bitstamp).putTrade(older));
+    assertSame(last, cache.get(bitstamp).getTrade());
+    Trade same = new Trade(bitstamp, new Instant(2000), null, 10100L, 100L);
+    assertTrue(cache.slot(bitstamp).putTrade(same));
+    assertSame(same, cache.get(bitstamp).getTrade());
+  }
+
+  @Test
+  public final void testBestBidAndAsk() {
+    QuoteCache cache = new QuoteCache();
+    Book first = book(bitstamp, 1000, "100", "102");
+    Book higherBid = book(bitstamp, 2000, "101", "103");
+    Book lowerAsk = book(bitstamp, 3000, "99", "101");
+    for (Book book : Arrays.asList(first, higherBid, lowerAsk))
+      cache.slot(bitstamp).putBook(book, true);
+    QuoteCache.Quote quote = cache.get(bitstamp);
+    assertSame(lowerAsk, quote.getBook());
+    assertSame(higherBid, quote.getBestBidBook());
+    assertSame(lowerAsk, quote.getBestAskBook());
+
+    // an older book is not the last one, and an empty side is never the best
+    cache.slot(bitstamp).putBook(book(bitstamp, 500, "100", null), true);
+    quote = cache.get(bitstamp);
+    assertSame(lowerAsk, quote.getBook());
+    assertSame(lowerAsk, quote.getBestAskBook());
+
+    // books of a listing are not tracked for the best bid and ask
+    cache.slot(listing).putBook(first, false);
+    assertSame(first, cache.get(listing).getBook());
+    assertNull(cache.get(listing).getBestBidBook());
+    assertNull(cache.get(listing).getBestAskBook());
+  }
+
+  @Test
+  public final void testIntervalSlots() {
+    QuoteCache cache = new QuoteCache();
+    int minute = cache.intervalSlot(60d);
+    int hour = cache.intervalSlot(3600d);
+    assertEquals(0, minute);
+    assertEquals(1, hour);
+    assertEquals(minute, cache.intervalSlot(60d));
+
+    Bar minuteBar = new Bar(120000, 60d, 1d, 2d, 3d, 0.5d, 10d, 6d, 4d, bitstamp);
+    Bar hourBar = new Bar(0, 3600d, 1d, 2d, 3d, 0.5d, 10d, 6d, 4d, bitstamp);
+    cache.slot(bitstamp).putBar(minute, minuteBar);
+    cache.slot(bitstamp).putBar(hour, hourBar);
+    // an older bar of the interval does not replace the last one
+    Bar olderBar = new Bar(60000, 60d, 1d, 2d, 3d, 0.5d, 10d, 6d, 4d, bitstamp);
+    cache.slot(bitstamp).putBar(minute, olderBar);
+
+    QuoteCache.Quote quote = cache.get(bitstamp);
+    assertSame(minuteBar, cache.getBar(quote, 60d));
+    assertSame(hourBar, cache.getBar(quote, 3600d));
+    assertNull(cache.getBar(quote, 300d));
+    assertNull(cache.getBar(cache.get(kraken), 60d));
+  }
+
+  @Test
+  public final void testListingMarkets() {
+    QuoteCache cache = new QuoteCache();
+    assertTrue(cache.get(listing).getMarkets().isEmpty());
+    cache.slot(listing).addMarket(bitstamp);
+    cache.slot(listing).addMarket(kraken);
+    cache.slot(listing).addMarket(bitstamp);
+
+    assertEquals(
+        new HashSet<Market>(Arrays.asList(bitstamp, kraken)), cache.get(listing).getMarkets());
+    assertEquals(Collections.emptySet(), cache.get(bitstamp).getMarkets());
+    assertSame(cache.slot(listing), cache.slot(listing));
+  }
+
+  private static final Listing listing = new Listing(BTC, USD);
+  private static final Market bitstamp = market("BITSTAMP", listing);
+  private static final Market kraken = market("KRAKEN", listing);
+}
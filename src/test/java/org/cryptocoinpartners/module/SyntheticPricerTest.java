@@ -0,0 +1,156 @@
+package org.cryptocoinpartners.module;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.ETH;
+import static org.cryptocoinpartners.schema.Fixtures.USD;
+import static org.cryptocoinpartners.schema.Fixtures.market;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Fixtures.Recorder;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.SyntheticMarket;
+import org.cryptocoinpartners.schema.TopOfBook;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class SyntheticPricerTest {
+
+  @Test
+  public final void testWeightedPrices() {
+    TestPricer pricer = new TestPricer();
+    SyntheticMarket spread = spread("SPREAD1");
+    pricer.register(spread, 1, -2);
+    pricer.handleTopOfBook(top(0, btc, 10000, 30000, 10100, 5000));
+    assertNull(pricer.getTopOfBook(spread));
+    pricer.handleTopOfBook(top(0, eth, 10000, 2000, 10100, 4000));
+
+    // selling the spread sells BTC at its bid and buys back twice the ETH at its ask
+    TopOfBook top = pricer.getTopOfBook(spread);
+    assertEquals(79800, top.getBidPriceCount());
+    assertEquals(81000, top.getAskPriceCount());
+  }
+
+  @Test
+  public final void testBasisConversion() {
+    TestPricer pricer = new TestPricer();
+    SyntheticMarket spread = spread("SPREAD2");
+    pricer.register(spread, 1, 1);
+    // 100.00 and 10.000 in the leg bases are 100000 and 10000 in the 0.001 synthetic basis
+    pricer.handleTopOfBook(top(0, btc, 10000, 10000, 10000, 10000));
+    pricer.handleTopOfBook(top(0, eth, 10000, 1000, 10000, 1000));
+    assertEquals(110000, pricer.getTopOfBook(spread).getBidPriceCount());
+    assertEquals(0.001, spread.getPriceBasis(), 0);
+    assertEquals(0.0001, spread.getVolumeBasis(), 0);
+
+    pricer.handleTrade(new Trade(btc, new Instant(0), null, 10100, 10000));
+    assertEquals(0, pricer.getLastPriceCount(spread));
+    pricer.handleTrade(new Trade(eth, new Instant(0), null, 10100, 1000));
+    assertEquals(111100, pricer.getLastPriceCount(spread));
+  }
+
+  @Test
+  public final void testThinnestLeg() {
+    TestPricer pricer = new TestPricer();
+    SyntheticMarket spread = spread("SPREAD3");
+    pricer.register(spread, 1, -2);
+    pricer.handleTopOfBook(top(0, btc, 10000, 30000, 10100, 5000));
+    pricer.handleTopOfBook(top(0, eth, 10000, 2000, 10100, 4000));
+
+    // the bid is limited by the 4 ETH offered, two baskets, and the ask by the 0.5 BTC offered
+    TopOfBook top = pricer.getTopOfBook(spread);
+    assertEquals(20000, top.getBidVolumeCount());
+    assertEquals(5000, top.getAskVolumeCount());
+  }
+
+  @Test
+  public final void testMissingSide() {
+    TestPricer pricer = new TestPricer();
+    SyntheticMarket spread = spread("SPREAD4");
+    pricer.register(spread, 1, 1);
+    pricer.handleTopOfBook(top(0, btc, 10000, 10000, 0, 0));
+    pricer.handleTopOfBook(top(0, eth, 10000, 1000, 10100, 1000));
+
+    // the BTC leg has no ask, so neither has the spread
+    TopOfBook top = pricer.getTopOfBook(spread);
+    assertTrue(top.hasBid());
+    assertEquals(110000, top.getBidPriceCount());
+    assertFalse(top.hasAsk());
+    assertEquals(0, top.getAskPriceCount());
+
+    pricer.handleTopOfBook(top(0, btc, 0, 0, 10100, 10000));
+    top = pricer.getTopOfBook(spread);
+    assertFalse(top.hasBid());
+    assertEquals(0, top.getBidPriceCount());
+    assertTrue(top.hasAsk());
+    assertEquals(111100, top.getAskPriceCount());
+
+    pricer.handleTopOfBook(top(0, btc, 10000, 10000, 10100, 10000));
+    top = pricer.getTopOfBook(spread);
+    assertEquals(110000, top.getBidPriceCount());
+    assertEquals(111100, top.getAskPriceCount());
+  }
+
+  @Test
+  public final void testThrottling() {
+    TestPricer pricer = new TestPricer();
+    SyntheticMarket spread = spread("SPREAD5");
+    pricer.register(spread, 1, 1);
+    pricer.handleTopOfBook(top(0, btc, 10000, 10000, 10100, 10000));
+    assertTrue(pricer.published.isEmpty());
+    pricer.handleTopOfBook(top(0, eth, 10000, 1000, 10100, 1000));
+    assertEquals(1, pricer.published.size());
+
+    // held back until the 250ms interval has passed, then published by the timer
+    pricer.handleTopOfBook(top(100, btc, 10010, 10000, 10100, 10000));
+    pricer.flush(200);
+    assertEquals(1, pricer.published.size());
+    pricer.flush(250);
+    assertEquals(2, pricer.published.size());
+    TopOfBook top = pricer.published.get(1);
+    assertEquals(new Instant(250), top.getTime());
+    assertEquals(110100, top.getBidPriceCount());
+    pricer.flush(500);
+    assertEquals(2, pricer.published.size());
+
+    // a trade once every leg has traded goes out with the next publication
+    pricer.handleTrade(new Trade(btc, new Instant(600), null, 10100, 10000));
+    pricer.handleTrade(new Trade(eth, new Instant(600), null, 10000, 1000));
+    assertEquals(3, pricer.published.size());
+    assertEquals(1, pricer.trades.size());
+    assertEquals(111000, pricer.trades.get(0).getPriceCount());
+  }
+
+  private static SyntheticMarket spread(String symbol) {
+    return new SyntheticMarket(symbol, new ArrayList<Market>(Arrays.asList(btc, eth)));
+  }
+
+  private static TopOfBook top(
+      long time, Market market, long bidPrice, long bidVolume, long askPrice, long askVolume) {
+    return new TopOfBook(new Instant(time), market, -1, bidPrice, bidVolume, askPrice, askVolume);
+  }
+
+  /** records the publications instead of sending them to a Context */
+  private static class TestPricer extends SyntheticPricer {
+
+    @Override
+    void publish(TopOfBook top, Trade trade) {
+      published.record(top);
+      if (trade != null) trades.record(trade);
+    }
+
+    private final Recorder<TopOfBook> published = new Recorder<TopOfBook>();
+    private final Recorder<Trade> trades = new Recorder<Trade>();
+  }
+
+  private static final Exchange exchange = new Exchange("BITFINEX");
+  private static final Market btc = market(exchange, BTC, USD, 0.01, 0.0001);
+  private static final Market eth = market(exchange, ETH, USD, 0.001, 0.001);
+}
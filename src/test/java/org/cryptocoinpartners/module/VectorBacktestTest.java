@@ -0,0 +1,44 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.junit.Test;
+
+public class VectorBacktestTest {
+
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public final void test() {
+    Asset base = new Currency(false, "BTC", 0.00000001);
+    Asset quote = new Currency(false, "USD", 0.01);
+    Market market = new Market(new Exchange("BITSTAMP"), new Listing(base, quote), 0.01, 0.01);
+    BarSeries series = new BarSeries(market, 60d, 2);
+    for (int i = 0; i < 4; i++)
+      series.add(i * 60000L, 10 + i, 11 + i, 10 + i, 11 + i, 1, Double.NaN, Double.NaN);
+    assertEquals(4, series.size());
+
+    // long from the open of bar 1 to the open of bar 3
+    VectorBacktest.Result result = VectorBacktest.simulate(series, new double[] {1, 1, 0, 0});
+    assertArrayEquals(new double[] {0, 1, 1, 0}, result.getPositions(), DELTA);
+    assertArrayEquals(new double[] {0, 1, 2, 2}, result.getEquity(), DELTA);
+    assertEquals(2, result.getRealisedPnL(), DELTA);
+    assertEquals(0, result.getUnrealisedPnL(), DELTA);
+    assertEquals(2, result.getFills());
+
+    // reverse from long to short at the open of bar 2, still short at the last close
+    result = VectorBacktest.simulate(series, new double[] {1, -1, -1, 0});
+    assertArrayEquals(new double[] {0, 1, -1, -1}, result.getPositions(), DELTA);
+    assertEquals(1, result.getRealisedPnL(), DELTA);
+    assertEquals(12, result.getEntryPrice(), DELTA);
+    assertEquals(-2, result.getUnrealisedPnL(), DELTA);
+    assertEquals(-14, result.getMarketValue(), DELTA);
+    assertEquals(0, result.getFees(), DELTA);
+  }
+}
@@ -0,0 +1,143 @@
+package org.cryptocoinpartners.module.xchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.Test;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.marketdata.Trade;
+
+/** Runs BinanceMarketDataStream against a local WebSocket stand-in for the Binance combined stream */
+public class BinanceMarketDataStreamTest {
+
+	@Test
+	public final void test() throws Exception {
+		Exchange exchange = new Exchange("BINANCE");
+		Asset base = new Currency(false, "BTC", 0.00000001);
+		Asset quote = new Currency(false, "USDT", 0.01);
+		final Market market = new Market(exchange, new Listing(base, quote), 0.01, 0.00000001);
+
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		StandIn standIn = new StandIn(port);
+		standIn.start();
+
+		final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		final LiveBook liveBook = new LiveBook(market);
+		BinanceMarketDataStream stream = new BinanceMarketDataStream() {
+			@Override
+			protected BookDelta fetchSnapshot(Market snapshotMarket) {
+				return new BookDelta(snapshotMarket, 100, 100, 0).addBid(new BigDecimal("9999.00"), new BigDecimal("1"))
+						.addAsk(new BigDecimal("10001.00"), new BigDecimal("2"));
+			}
+		};
+		try {
+			stream.connect(exchange, Collections.singletonList(market), "ws://localhost:" + port + "/stream", new MarketDataStream.Listener() {
+				@Override
+				public void onConnected() {
+				}
+
+				@Override
+				public void onDisconnected(Exception cause) {
+				}
+
+				@Override
+				public void onTrade(Market tradeMarket, Trade trade) {
+					received.add(trade);
+				}
+
+				@Override
+				public void onBookSnapshot(BookDelta snapshot) {
+					received.add(liveBook.reset(snapshot));
+				}
+
+				@Override
+				public void onBookDelta(BookDelta delta) {
+					received.add(liveBook.apply(delta));
+				}
+			});
+
+			// deltas before the snapshot are buffered, and the one spanning the snapshot id is replayed on top of it
+			standIn.send("{\"stream\":\"btcusdt@depth@100ms\",\"data\":{\"e\":\"depthUpdate\",\"E\":1,\"s\":\"BTCUSDT\",\"U\":95,\"u\":99,"
+					+ "\"b\":[],\"a\":[]}}");
+			assertEquals(LiveBook.Result.BUFFERED, received.poll(5, TimeUnit.SECONDS));
+			standIn.send("{\"stream\":\"btcusdt@depth@100ms\",\"data\":{\"e\":\"depthUpdate\",\"E\":2,\"s\":\"BTCUSDT\",\"U\":100,\"u\":102,"
+					+ "\"b\":[[\"10000.00\",\"3\"]],\"a\":[[\"10001.00\",\"0\"],[\"10002.00\",\"4\"]]}}");
+			assertEquals(LiveBook.Result.BUFFERED, received.poll(5, TimeUnit.SECONDS));
+			stream.requestSnapshot(market);
+			assertEquals(LiveBook.Result.APPLIED, received.poll(5, TimeUnit.SECONDS));
+			assertTrue(liveBook.isSynced());
+			assertEquals(102, liveBook.getSequence());
+
+			standIn.send("{\"stream\":\"btcusdt@trade\",\"data\":{\"e\":\"trade\",\"E\":3,\"s\":\"BTCUSDT\",\"t\":12345,\"p\":\"10001.50\","
+					+ "\"q\":\"0.5\",\"T\":3,\"m\":true}}");
+			Trade trade = (Trade) received.poll(5, TimeUnit.SECONDS);
+			assertNotNull(trade);
+			assertEquals(OrderType.ASK, trade.getType());
+			assertEquals("12345", trade.getId());
+			assertEquals(0, new BigDecimal("10001.50").compareTo(trade.getPrice()));
+
+			// update ids 103-104 never arrive
+			standIn.send("{\"stream\":\"btcusdt@depth@100ms\",\"data\":{\"e\":\"depthUpdate\",\"E\":4,\"s\":\"BTCUSDT\",\"U\":105,\"u\":106,"
+					+ "\"b\":[],\"a\":[]}}");
+			assertEquals(LiveBook.Result.GAP, received.poll(5, TimeUnit.SECONDS));
+			assertFalse(liveBook.isSynced());
+		} finally {
+			stream.disconnect();
+			standIn.stop();
+		}
+	}
+
+	private static class StandIn extends WebSocketServer {
+
+		private StandIn(int port) {
+			super(new InetSocketAddress("localhost", port));
+		}
+
+		private void send(String message) throws InterruptedException {
+			WebSocket conn = connections.poll(5, TimeUnit.SECONDS);
+			assertNotNull("stream did not connect", conn);
+			conn.send(message);
+			connections.add(conn);
+		}
+
+		@Override
+		public void onOpen(WebSocket conn, ClientHandshake handshake) {
+			connections.add(conn);
+		}
+
+		@Override
+		public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+		}
+
+		@Override
+		public void onMessage(WebSocket conn, String message) {
+		}
+
+		@Override
+		public void onError(WebSocket conn, Exception ex) {
+		}
+
+		private final BlockingQueue<WebSocket> connections = new LinkedBlockingQueue<>();
+	}
+}
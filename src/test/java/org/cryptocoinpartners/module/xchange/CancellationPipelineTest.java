@@ -0,0 +1,198 @@
+package org.cryptocoinpartners.module.xchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
+
+public class CancellationPipelineTest {
+
+  @Test
+  public final void testBatching() throws InterruptedException {
+    TestCancels cancels = new TestCancels();
+    CancellationPipeline pipeline = new CancellationPipeline(exchange, cancels, 2, 1, 3);
+    List<SpecificOrder> orders = new ArrayList<SpecificOrder>();
+    for (int i = 0; i < 5; i++) orders.add(cancels.create(100 + i));
+    // queued before the drain runs, so all five go out in one drain
+    for (SpecificOrder order : orders) cancels.queue.offer(order);
+    pipeline.submit(orders.get(0));
+    pipeline.shutdown();
+    assertTrue(pipeline.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(Arrays.asList(2, 2), cancels.batches);
+    assertEquals(1, cancels.singles.get());
+    assertEquals(1, cancels.confirms.get());
+    for (SpecificOrder order : orders) assertEquals(OrderState.CANCELLED, cancels.getState(order));
+  }
+
+  @Test
+  public final void testNoBatchCancel() throws InterruptedException {
+    TestCancels cancels = new TestCancels();
+    cancels.batchSupported = false;
+    CancellationPipeline pipeline = new CancellationPipeline(exchange, cancels, 10, 2, 3);
+    List<SpecificOrder> orders = new ArrayList<SpecificOrder>();
+    for (int i = 0; i < 4; i++) orders.add(cancels.create(100 + i));
+    for (SpecificOrder order : orders) cancels.queue.offer(order);
+    pipeline.submit(orders.get(0));
+    pipeline.shutdown();
+    assertTrue(pipeline.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(4, cancels.singles.get());
+    for (SpecificOrder order : orders) assertEquals(OrderState.CANCELLED, cancels.getState(order));
+  }
+
+  @Test
+  public final void testRetry() throws InterruptedException {
+    TestCancels cancels = new TestCancels();
+    CancellationPipeline pipeline = new CancellationPipeline(exchange, cancels, 10, 1, 3);
+    SpecificOrder order = cancels.create(100);
+    cancels.refused.add(order);
+    pipeline.submit(order);
+    assertTrue(waitFor(cancels.singles, 1));
+
+    // each order poll schedules a drain, which retries the order until the retry count
+    for (int attempt = 2; attempt <= 3; attempt++) {
+      Thread.sleep(100);
+      pipeline.schedule();
+      assertTrue(waitFor(cancels.singles, attempt));
+    }
+    Thread.sleep(100);
+    pipeline.schedule();
+    pipeline.shutdown();
+    assertTrue(pipeline.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(3, cancels.singles.get());
+    assertEquals(OrderState.CANCELLING, cancels.getState(order));
+    assertTrue(cancels.cancelled.isEmpty());
+  }
+
+  @Test
+  public final void testConfirmation() throws InterruptedException {
+    TestCancels cancels = new TestCancels();
+    // single cancels, so the exchange can treat each order differently
+    CancellationPipeline pipeline = new CancellationPipeline(exchange, cancels, 1, 1, 3);
+    SpecificOrder confirmed = cancels.create(100);
+    SpecificOrder lagging = cancels.create(200);
+    SpecificOrder filled = cancels.create(300);
+    // the exchange accepts the cancel but does not report it by the confirming poll
+    cancels.lagging.add(lagging);
+    cancels.refused.add(filled);
+    pipeline.submit(confirmed);
+    pipeline.submit(lagging);
+    pipeline.submit(filled);
+    assertTrue(waitFor(cancels.singles, 3));
+    Thread.sleep(100);
+
+    // settled once, when the drain has confirmed it
+    assertEquals(Collections.singletonList(confirmed), cancels.cancelled);
+    assertEquals(OrderState.CANCELLING, cancels.getState(lagging));
+
+    // a later order poll reports the cancel, and filled orders are never settled as cancelled
+    cancels.states.put(lagging, OrderState.CANCELLED);
+    cancels.states.put(filled, OrderState.FILLED);
+    pipeline.schedule();
+    pipeline.shutdown();
+    assertTrue(pipeline.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(confirmed, lagging), cancels.cancelled);
+  }
+
+  private static boolean waitFor(AtomicInteger counter, int count) throws InterruptedException {
+    for (int i = 0; i < 100 && counter.get() < count; i++) Thread.sleep(50);
+    return counter.get() >= count;
+  }
+
+  private static class TestCancels implements CancellationPipeline.Cancels {
+
+    private SpecificOrder create(long volumeCount) {
+      SpecificOrder order = new SpecificOrder(new Instant(0), portfolio, market, volumeCount);
+      order.setRemoteKey("remote-" + volumeCount);
+      states.put(order, OrderState.CANCELLING);
+      return order;
+    }
+
+    @Override
+    public OrderState getState(SpecificOrder order) {
+      return states.get(order);
+    }
+
+    @Override
+    public BlockingQueue<SpecificOrder> getQueue() {
+      return queue;
+    }
+
+    @Override
+    public boolean cancelBatch(List<SpecificOrder> batch) {
+      if (!batchSupported) throw new NotYetImplementedForExchangeException();
+      batches.add(batch.size());
+      for (SpecificOrder order : batch) onExchange.add(order);
+      return true;
+    }
+
+    @Override
+    public boolean cancel(SpecificOrder order) {
+      singles.incrementAndGet();
+      if (refused.contains(order)) return false;
+      if (!lagging.contains(order)) onExchange.add(order);
+      return true;
+    }
+
+    @Override
+    public void confirm(Market market) {
+      confirms.incrementAndGet();
+      for (SpecificOrder order : onExchange)
+        if (order.getMarket().equals(market)) states.put(order, OrderState.CANCELLED);
+    }
+
+    @Override
+    public void cancelled(SpecificOrder order) {
+      cancelled.add(order);
+    }
+
+    @Override
+    public void failed(Exception e) {}
+
+    private final Map<SpecificOrder, OrderState> states =
+        new ConcurrentHashMap<SpecificOrder, OrderState>();
+    private final BlockingQueue<SpecificOrder> queue = new LinkedBlockingQueue<SpecificOrder>();
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<SpecificOrder> cancelled =
+        Collections.synchronizedList(new ArrayList<SpecificOrder>());
+    private final Set<SpecificOrder> onExchange =
+        Collections.newSetFromMap(new ConcurrentHashMap<SpecificOrder, Boolean>());
+    private final Set<SpecificOrder> refused =
+        Collections.newSetFromMap(new ConcurrentHashMap<SpecificOrder, Boolean>());
+    private final Set<SpecificOrder> lagging =
+        Collections.newSetFromMap(new ConcurrentHashMap<SpecificOrder, Boolean>());
+    private final AtomicInteger singles = new AtomicInteger();
+    private final AtomicInteger confirms = new AtomicInteger();
+    private volatile boolean batchSupported = true;
+  }
+
+  private static final Asset base = new Currency(false, "BTC", 0.00000001);
+  private static final Asset quote = new Currency(false, "USD", 0.01);
+  private static final Exchange exchange = new Exchange("BITSTAMP");
+  private static final Market market = new Market(exchange, new Listing(base, quote), 0.01, 0.01);
+  private static final Portfolio portfolio = new Portfolio();
+}
@@ -0,0 +1,90 @@
+package org.cryptocoinpartners.module.xchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.TopOfBook;
+import org.junit.Test;
+
+public class LiveBookTest {
+
+	@Test
+	public final void test() {
+		Asset base = new Currency(false, "BTC", 0.00000001);
+		Asset quote = new Currency(false, "USD", 0.01);
+		Market market = new Market(new Exchange("BITSTAMP"), new Listing(base, quote), 0.01, 0.01);
+		LiveBook liveBook = new LiveBook(market);
+
+		// levels arrive unsorted and are kept best price first
+		BookDelta snapshot = new BookDelta(market, 10, 10, 1000).addBid(new BigDecimal("99.00"), new BigDecimal("1"))
+				.addBid(new BigDecimal("100.00"), new BigDecimal("2")).addAsk(new BigDecimal("102.00"), new BigDecimal("4"))
+				.addAsk(new BigDecimal("101.00"), new BigDecimal("3"));
+		assertEquals(LiveBook.Result.APPLIED, liveBook.reset(snapshot));
+		assertEquals(10000, liveBook.getBestBidPriceCount());
+		assertEquals(200, liveBook.getBestBidVolumeCount());
+		assertEquals(10100, liveBook.getBestAskPriceCount());
+
+		TopOfBook topOfBook = liveBook.pollTopOfBookChange();
+		assertNotNull(topOfBook);
+		assertEquals(100.0, topOfBook.getBidPriceAsDouble(), 0.0000001);
+		assertEquals(101.0, topOfBook.getAskPriceAsDouble(), 0.0000001);
+
+		// a change below the top does not produce a TopOfBook
+		assertEquals(LiveBook.Result.APPLIED, liveBook.apply(new BookDelta(market, 11, 11, 1001).addBid(new BigDecimal("98.00"), new BigDecimal("5"))));
+		assertNull(liveBook.pollTopOfBookChange());
+		assertEquals(3, liveBook.getBidDepth());
+
+		// removing the best ask exposes the next level
+		assertEquals(LiveBook.Result.APPLIED, liveBook.apply(new BookDelta(market, 12, 12, 1002).addAsk(new BigDecimal("101.00"), BigDecimal.ZERO)));
+		topOfBook = liveBook.pollTopOfBookChange();
+		assertNotNull(topOfBook);
+		assertEquals(10200, topOfBook.getAskPriceCount());
+		assertEquals(12, topOfBook.getSequence());
+
+		assertEquals(LiveBook.Result.STALE, liveBook.apply(new BookDelta(market, 12, 12, 1002)));
+		assertEquals(LiveBook.Result.GAP, liveBook.apply(new BookDelta(market, 14, 14, 1004)));
+		assertEquals(LiveBook.Result.BUFFERED, liveBook.apply(new BookDelta(market, 15, 15, 1005)));
+		assertNull(liveBook.pollTopOfBookChange());
+
+		liveBook.add(true, 10050, 100);
+		liveBook.modify(true, 10050, 150);
+		assertEquals(150, liveBook.getBestBidVolumeCount());
+		liveBook.delete(true, 10050);
+		assertEquals(10000, liveBook.getBestBidPriceCount());
+	}
+
+	@Test
+	public final void testZeroVolume() {
+		Asset base = new Currency(false, "BTC", 0.00000001);
+		Asset quote = new Currency(false, "USD", 0.01);
+		Market market = new Market(new Exchange("BITSTAMP"), new Listing(base, quote), 0.01, 0.01);
+		LiveBook liveBook = new LiveBook(market);
+		liveBook.reset(new BookDelta(market, 1, 1, 1000).addBid(new BigDecimal("100.00"), new BigDecimal("2")).addAsk(new BigDecimal("101.00"),
+				new BigDecimal("3")));
+		liveBook.add(true, 10050, 100);
+		liveBook.add(false, 10075, 100);
+		assertEquals(2, liveBook.getBidDepth());
+
+		// modifying a level to zero removes it rather than leaving an empty best bid
+		assertTrue(liveBook.modify(true, 10050, 0));
+		assertEquals(1, liveBook.getBidDepth());
+		assertEquals(10000, liveBook.getBestBidPriceCount());
+		assertEquals(200, liveBook.getBestBidVolumeCount());
+		assertFalse(liveBook.modify(true, 10050, 0));
+
+		// adding a zero volume removes the level too
+		liveBook.add(false, 10075, 0);
+		assertEquals(1, liveBook.getAskDepth());
+		assertEquals(10100, liveBook.getBestAskPriceCount());
+	}
+}
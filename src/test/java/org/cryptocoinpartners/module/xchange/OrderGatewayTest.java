@@ -0,0 +1,135 @@
+package org.cryptocoinpartners.module.xchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.exceptions.UnknownOrderStateException;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class OrderGatewayTest {
+
+  @Test
+  public final void testSend() throws InterruptedException {
+    TestOrders orders = new TestOrders();
+    OrderGateway gateway = new OrderGateway(exchange, orders, 1, 0);
+    SpecificOrder order = orders.create(100);
+    gateway.submit(order);
+    gateway.shutdown();
+    assertTrue(gateway.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(OrderState.PLACED, orders.states.get(order));
+    assertEquals(1, orders.sent.get());
+  }
+
+  @Test
+  public final void testAckTimeout() throws InterruptedException {
+    TestOrders orders = new TestOrders();
+    orders.hold = new CountDownLatch(1);
+    OrderGateway gateway = new OrderGateway(exchange, orders, 1, 200);
+    SpecificOrder slow = orders.create(100);
+    SpecificOrder queued = orders.create(200);
+    gateway.submit(slow);
+    gateway.submit(queued);
+
+    // the sent order times out, the one queued behind it has not reached the exchange
+    assertTrue(waitFor(orders, slow, OrderState.ERROR));
+    Thread.sleep(500);
+    assertEquals(OrderState.NEW, orders.states.get(queued));
+    assertEquals(1, orders.sent.get());
+
+    orders.hold.countDown();
+    gateway.shutdown();
+    assertTrue(gateway.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(OrderState.PLACED, orders.states.get(queued));
+    assertEquals(2, orders.sent.get());
+  }
+
+  @Test
+  public final void testRejection() throws InterruptedException {
+    TestOrders orders = new TestOrders();
+    OrderGateway gateway = new OrderGateway(exchange, orders, 1, 0);
+    SpecificOrder refused = orders.create(100);
+    orders.failures.put(refused, new IllegalStateException("insufficient funds"));
+    SpecificOrder unknown = orders.create(200);
+    orders.failures.put(unknown, new UnknownOrderStateException("timed out reading response"));
+    SpecificOrder cancelled = orders.create(300);
+    orders.states.put(cancelled, OrderState.CANCELLED);
+    gateway.submit(refused);
+    gateway.submit(unknown);
+    gateway.submit(cancelled);
+    gateway.shutdown();
+    assertTrue(gateway.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(OrderState.REJECTED, orders.states.get(refused));
+    // the order may be live on the exchange, so it is left for the order polling to reconcile
+    assertEquals(OrderState.ERROR, orders.states.get(unknown));
+    assertEquals(OrderState.CANCELLED, orders.states.get(cancelled));
+    assertEquals(2, orders.sent.get());
+  }
+
+  private static boolean waitFor(TestOrders orders, SpecificOrder order, OrderState state)
+      throws InterruptedException {
+    for (int i = 0; i < 100 && orders.states.get(order) != state; i++) Thread.sleep(50);
+    return orders.states.get(order) == state;
+  }
+
+  private static class TestOrders implements OrderGateway.Orders {
+
+    private SpecificOrder create(long volumeCount) {
+      SpecificOrder order = new SpecificOrder(new Instant(0), portfolio, market, volumeCount);
+      states.put(order, OrderState.NEW);
+      return order;
+    }
+
+    @Override
+    public OrderState getState(SpecificOrder order) {
+      return states.get(order);
+    }
+
+    @Override
+    public void send(SpecificOrder order) throws Throwable {
+      sent.incrementAndGet();
+      if (hold != null) hold.await();
+      Exception failure = failures.get(order);
+      if (failure != null) throw failure;
+      states.put(order, OrderState.PLACED);
+    }
+
+    @Override
+    public void reject(SpecificOrder order, String reason) {
+      states.put(order, OrderState.REJECTED);
+    }
+
+    @Override
+    public void unknown(SpecificOrder order, String reason) {
+      states.put(order, OrderState.ERROR);
+    }
+
+    private final Map<SpecificOrder, OrderState> states =
+        new ConcurrentHashMap<SpecificOrder, OrderState>();
+    private final Map<SpecificOrder, Exception> failures =
+        new ConcurrentHashMap<SpecificOrder, Exception>();
+    private final AtomicInteger sent = new AtomicInteger();
+    private volatile CountDownLatch hold;
+  }
+
+  private static final Asset base = new Currency(false, "BTC", 0.00000001);
+  private static final Asset quote = new Currency(false, "USD", 0.01);
+  private static final Exchange exchange = new Exchange("BITSTAMP");
+  private static final Market market = new Market(exchange, new Listing(base, quote), 0.01, 0.01);
+  private static final Portfolio portfolio = new Portfolio();
+}
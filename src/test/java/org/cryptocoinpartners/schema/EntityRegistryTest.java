@@ -0,0 +1,51 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class EntityRegistryTest {
+
+  @Test
+  public final void testIntern() {
+    Market market = market("REGISTRY1");
+    Market copy = market("REGISTRY1");
+    assertNotSame(market, copy);
+    assertSame(market, EntityRegistry.intern(market));
+
+    // a copy loaded separately resolves to the interned instance and shares its ordinal
+    assertSame(market, EntityRegistry.intern(copy));
+    assertEquals(EntityRegistry.ordinal(market), EntityRegistry.ordinal(copy));
+    assertSame(market, EntityRegistry.market(market.getSymbol()));
+    assertSame(market, EntityRegistry.market(copy.getExchange(), copy.getListing()));
+    assertSame(market, EntityRegistry.market(EntityRegistry.ordinal(copy)));
+
+    // interning a market interns its exchange too
+    assertSame(market.getExchange(), EntityRegistry.exchange("REGISTRY1"));
+    assertSame(market.getExchange(), EntityRegistry.intern(copy.getExchange()));
+  }
+
+  @Test
+  public final void testOrdinals() {
+    int count = EntityRegistry.getMarketCount();
+    Market first = EntityRegistry.intern(market("REGISTRY2"));
+    Market second = EntityRegistry.intern(market("REGISTRY3"));
+    int ordinal = EntityRegistry.ordinal(first);
+    assertEquals(count, ordinal);
+    assertEquals(ordinal + 1, EntityRegistry.ordinal(second));
+
+    // growing the registry past its initial table leaves the ordinals given out unchanged
+    for (int i = 0; i < 100; i++) EntityRegistry.intern(market("REGISTRY" + (i + 4)));
+    assertEquals(count + 102, EntityRegistry.getMarketCount());
+    assertEquals(ordinal, EntityRegistry.ordinal(first));
+    assertSame(first, EntityRegistry.market(ordinal));
+    assertSame(second, EntityRegistry.market(ordinal + 1));
+    assertEquals(ordinal, EntityRegistry.ordinal(EntityRegistry.intern(market("REGISTRY2"))));
+  }
+
+  private static Market market(String exchange) {
+    return Fixtures.market(exchange, Fixtures.BTC);
+  }
+}
@@ -0,0 +1,99 @@
+package org.cryptocoinpartners.schema;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Instant;
+
+/** Reference data built without a database, and a recorder for what services under test publish */
+public final class Fixtures {
+
+  public static final Asset USD = new Currency(false, "USD", 0.01);
+  public static final Asset USDT = new Currency(false, "USDT", 0.01);
+  public static final Asset BTC = currency("BTC");
+  public static final Asset ETH = currency("ETH");
+
+  /** @return a crypto currency with a satoshi basis */
+  public static Asset currency(String symbol) {
+    return new Currency(false, symbol, 0.00000001);
+  }
+
+  /** @return a market quoted in USD with 0.01 price and volume bases */
+  public static Market market(String exchange, Asset base) {
+    return market(exchange, new Listing(base, USD));
+  }
+
+  public static Market market(String exchange, Listing listing) {
+    return new Market(new Exchange(exchange), listing, 0.01, 0.01);
+  }
+
+  public static Market market(
+      Exchange exchange, Asset base, Asset quote, double priceBasis, double volumeBasis) {
+    return new Market(exchange, new Listing(base, quote), priceBasis, volumeBasis);
+  }
+
+  /** @return a book with one level of volume 1 on each side given, or none on a null side */
+  public static Book book(Market market, long time, String bid, String ask) {
+    Book.Builder builder = new Book.Builder();
+    builder.start(new Instant(time), null, market);
+    if (bid != null) builder.addBid(new BigDecimal(bid), BigDecimal.ONE);
+    if (ask != null) builder.addAsk(new BigDecimal(ask), BigDecimal.ONE);
+    return builder.build();
+  }
+
+  /** Collects what a test subclass would have published, with the thread publishing each item */
+  public static class Recorder<T> {
+
+    public Recorder() {
+      this(0);
+    }
+
+    /** @param expected the number of items {@link #await} waits for */
+    public Recorder(int expected) {
+      recorded = new CountDownLatch(expected);
+    }
+
+    public void record(T item) {
+      synchronized (items) {
+        items.add(item);
+        threads.add(Thread.currentThread().getName());
+      }
+      recorded.countDown();
+    }
+
+    public boolean await(long seconds) throws InterruptedException {
+      return recorded.await(seconds, TimeUnit.SECONDS);
+    }
+
+    public T get(int index) {
+      synchronized (items) {
+        return items.get(index);
+      }
+    }
+
+    public String getThread(int index) {
+      synchronized (items) {
+        return threads.get(index);
+      }
+    }
+
+    public int size() {
+      synchronized (items) {
+        return items.size();
+      }
+    }
+
+    public boolean isEmpty() {
+      return size() == 0;
+    }
+
+    private final List<T> items = new ArrayList<T>();
+    private final List<String> threads = new ArrayList<String>();
+    private final CountDownLatch recorded;
+  }
+
+  private Fixtures() {}
+}
@@ -0,0 +1,287 @@
+package org.cryptocoinpartners.schema;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.USDT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.cryptocoinpartners.bin.Main.MainParamsOnly;
+import org.cryptocoinpartners.enumeration.FeeMethod;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.service.QuoteService;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Merges fills into a Portfolio wired directly, without an Injector or a database */
+public class PortfolioMergeTest {
+
+  @Before
+  public void setup() throws ConfigurationException {
+    MainParamsOnly mainParamsOnly = new MainParamsOnly();
+    ConfigUtil.init(mainParamsOnly.propertiesFilename, mainParamsOnly.definitions);
+    context = Context.create();
+    context.setTimeProvider(null);
+  }
+
+  @Test
+  public final void testMergeOpen() {
+    Portfolio portfolio = mergingPortfolio();
+    Fill open = fill(portfolio, PositionEffect.OPEN, "100", "2");
+    portfolio.merge(open);
+
+    Collection<Position> positions = portfolio.getNetPositions();
+    assertEquals(1, positions.size());
+    Position position = positions.iterator().next();
+    assertEquals(open.getPosition(), position);
+    assertEquals(volume("2"), position.getOpenVolumeCount());
+    assertEquals(volume("2"), open.getOpenVolumeCount());
+    assertTrue(realised.isEmpty());
+  }
+
+  @Test
+  public final void testMergePartialClose() {
+    Portfolio portfolio = mergingPortfolio();
+    Fill open = fill(portfolio, PositionEffect.OPEN, "100", "2");
+    portfolio.merge(open);
+    Fill close = fill(portfolio, PositionEffect.CLOSE, "110", "-0.5");
+    portfolio.merge(close);
+
+    // the closing fill is used up against the open fill, which stays open for the rest
+    assertEquals(volume("1.5"), open.getOpenVolumeCount());
+    assertEquals(0, close.getOpenVolumeCount());
+    assertEquals(1, realised.size());
+    assertEquals(TransactionType.REALISED_PROFIT_LOSS, realised.get(0).getType());
+    assertAmount("5", realised.get(0).getAmount());
+  }
+
+  @Test
+  public final void testMergeFullClose() {
+    Portfolio portfolio = mergingPortfolio();
+    Fill open = fill(portfolio, PositionEffect.OPEN, "100", "2");
+    portfolio.merge(open);
+    Fill close = fill(portfolio, PositionEffect.CLOSE, "110", "-0.5");
+    portfolio.merge(close);
+    Fill finalClose = fill(portfolio, PositionEffect.CLOSE, "90", "-1.5");
+    portfolio.merge(finalClose);
+
+    assertEquals(0, open.getOpenVolumeCount());
+    assertEquals(0, close.getOpenVolumeCount());
+    assertEquals(0, finalClose.getOpenVolumeCount());
+    for (Position position : portfolio.getNetPositions())
+      assertEquals(0, position.getOpenVolumeCount());
+    assertEquals(2, realised.size());
+    assertAmount("-15", realised.get(1).getAmount());
+  }
+
+  @Test
+  public final void testRealisedPnL() {
+    Portfolio portfolio = mergingPortfolio();
+    portfolio.merge(fill(portfolio, PositionEffect.OPEN, "100", "2"));
+    portfolio.merge(fill(portfolio, PositionEffect.CLOSE, "110", "-0.5"));
+    portfolio.merge(fill(portfolio, PositionEffect.CLOSE, "90", "-1.5"));
+
+    // 0.5 closed 10 up and 1.5 closed 10 down, realised in the quote currency of the market
+    assertAmount(
+        "-10",
+        portfolio.getRealisedPnL().get(USDT).get(market.getExchange()).get(market.getListing()));
+  }
+
+  /**
+   * @return a Portfolio whose positions and transactions are created directly, with the realised
+   *     PnL transactions recorded by its manager instead of being published
+   */
+  private Portfolio mergingPortfolio() {
+    final Portfolio portfolio = new Portfolio();
+    portfolio.setName("merge");
+    portfolio.setBaseAsset(USDT);
+    portfolio.context = context;
+    portfolio.quoteService = new NoQuotes();
+    portfolio.positionFactory =
+        new PositionFactory() {
+          @Override
+          public Position create(Collection<Fill> fills, Market market) {
+            return new Position(fills, market);
+          }
+
+          @Override
+          public Position create(Fill fill, Market market) {
+            return new Position(fill, market);
+          }
+        };
+    portfolio.transactionFactory =
+        new TransactionFactory() {
+          @Override
+          public Transaction create(
+              Portfolio portfolio,
+              Exchange exchange,
+              Asset currency,
+              TransactionType type,
+              Amount amount,
+              Amount price) {
+            return new Transaction(portfolio, exchange, currency, type, amount, price);
+          }
+
+          @Override
+          public Transaction create(Order order, Instant creationTime) {
+            return new Transaction(order, creationTime);
+          }
+
+          @Override
+          public Transaction create(Fill fill, Instant creationTime) {
+            return new Transaction(fill, creationTime);
+          }
+
+          @Override
+          public Transaction create(
+              Fill fill,
+              Portfolio portfolio,
+              Exchange exchange,
+              Asset currency,
+              TransactionType type,
+              Amount amount,
+              Amount price) {
+            return new Transaction(fill, portfolio, exchange, currency, type, amount, price);
+          }
+        };
+    portfolio.manager =
+        new PortfolioManager() {
+          @Override
+          public void updatePortfolio(Transaction transaction) {
+            realised.add(transaction);
+            portfolio.addTransaction(transaction);
+          }
+        };
+    return portfolio;
+  }
+
+  private Fill fill(
+      Portfolio portfolio, PositionEffect positionEffect, String price, String volume) {
+    Instant time = new Instant(++fillTime);
+    SpecificOrder order = new SpecificOrder(time, portfolio, market, volume(volume));
+    order.withPositionEffect(positionEffect);
+    return new Fill(
+        order,
+        time,
+        time,
+        market,
+        DiscreteAmount.roundedCountForBasis(new BigDecimal(price), market.getPriceBasis()),
+        volume(volume),
+        Long.toString(fillTime));
+  }
+
+  private long volume(String volume) {
+    return DiscreteAmount.roundedCountForBasis(new BigDecimal(volume), market.getVolumeBasis());
+  }
+
+  private static void assertAmount(String expected, Amount amount) {
+    assertEquals(0, new BigDecimal(expected).compareTo(amount.asBigDecimal()));
+  }
+
+  private static class NoQuotes implements QuoteService {
+
+    @Override
+    public Trade getLastTrade(Tradeable market) {
+      return null;
+    }
+
+    @Override
+    public Bar getLastBar(Tradeable market, double interval) {
+      return null;
+    }
+
+    @Override
+    public Trade getLastTrade(Listing listing) {
+      return null;
+    }
+
+    @Override
+    public Book getLastBook(Tradeable market) {
+      return null;
+    }
+
+    @Override
+    public Book getLastBook(Listing listing) {
+      return null;
+    }
+
+    @Override
+    public Set<Market> getMarketsForListing(Listing listing) {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public Offer getBestBidForListing(Listing listing) {
+      return null;
+    }
+
+    @Override
+    public Offer getBestAskForListing(Listing listing) {
+      return null;
+    }
+
+    @Override
+    public Offer getLastBidForMarket(Tradeable market) {
+      return null;
+    }
+
+    @Override
+    public Offer getLastAskForMarket(Tradeable market) {
+      return null;
+    }
+
+    @Override
+    public Offer getImpliedBestAskForListing(Listing listing) {
+      return null;
+    }
+
+    @Override
+    public Offer getImpliedBestBidForListing(Listing listing) {
+      return null;
+    }
+
+    @Override
+    public Trade getLastImpliedTrade(Listing listing) {
+      return null;
+    }
+  }
+
+  // fees are charged at a zero rate, so the realised PnL is the price difference alone
+  private static final Market market =
+      new Market(
+          new Exchange(
+              "OKCOIN",
+              1,
+              0,
+              0,
+              0.01,
+              0.00000001,
+              FeeMethod.PercentagePerUnit,
+              0,
+              FeeMethod.PercentagePerUnit,
+              0.00000001,
+              false),
+          new Listing(BTC, USDT),
+          0.01,
+          0.00000001);
+
+  static {
+    // realised PnL is converted through the quote to base listing, found without a query
+    EntityRegistry.intern(new Listing(USDT, USDT));
+  }
+
+  private final List<Transaction> realised = new ArrayList<Transaction>();
+  private Context context;
+  private long fillTime = System.currentTimeMillis() - 60000;
+}
@@ -0,0 +1,66 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.la4j.Matrix;
+import org.la4j.matrix.DenseMatrix;
+
+public class CointegrationTest {
+
+  @Test
+  public final void test() {
+    Cointegration filter = new Cointegration(0.0001, 0.001);
+    Random random = new Random(42);
+    double x = 100;
+    for (int i = 0; i < 5000; i++) {
+      x += random.nextGaussian();
+      filter.step(x, 2 + 0.5 * x + 0.01 * random.nextGaussian());
+    }
+    assertEquals(0.5, filter.getBeta(), 0.05);
+    assertEquals(5000, filter.getSteps());
+    assertTrue(filter.getVariance() > 0);
+    assertTrue(Math.abs(filter.getZScore()) < 5);
+
+    filter.reset();
+    assertEquals(0, filter.getBeta(), 0);
+    assertEquals(0, filter.getSteps());
+  }
+
+  @Test
+  public final void testKalmanFilter() {
+    double delta = 0.0001;
+    double r = 0.001;
+    double q = delta / (1 - delta);
+    Cointegration filter = new Cointegration(delta, r);
+    // the same filter with matrices: F = I, Q = q I, R = r and H = [1 x] on every step
+    KalmanFilter kalman = new KalmanFilter(2, 1);
+    kalman.setState(DenseMatrix.zero(2, 1));
+    kalman.setStateCovariance(DenseMatrix.zero(2, 2));
+    kalman.setUpdateMatrix(DenseMatrix.identity(2));
+    kalman.setUpdateCovariance(DenseMatrix.from2DArray(new double[][] {{q, 0}, {0, q}}));
+    kalman.setMeasurementCovariance(DenseMatrix.from2DArray(new double[][] {{r}}));
+    Random random = new Random(7);
+    double x = 100;
+    for (int i = 0; i < 1000; i++) {
+      x += random.nextGaussian();
+      double y = 2 + 0.5 * x + 0.01 * random.nextGaussian();
+      filter.step(x, y);
+      kalman.setExtractionMatrix(DenseMatrix.from2DArray(new double[][] {{1, x}}));
+      kalman.step(DenseMatrix.from2DArray(new double[][] {{y}}));
+
+      Matrix state = kalman.getState();
+      assertClose(state.get(0, 0), filter.getAlpha());
+      assertClose(state.get(1, 0), filter.getBeta());
+      assertClose(kalman.getInnovation().get(0, 0), filter.getError());
+      assertClose(kalman.getInnovationCovariance().get(0, 0), filter.getVariance());
+    }
+  }
+
+  private static void assertClose(double expected, double actual) {
+    assertEquals(expected, actual, 1e-9 * Math.max(1, Math.abs(expected)));
+  }
+}
@@ -0,0 +1,102 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+public class IndexProcessorTest {
+
+  @Test
+  public final void test() throws IOException, URISyntaxException {
+    File dir = Files.createTempDirectory("index").toFile();
+    try {
+      // an EPL file already in the class output is recorded for the class of the same simple name
+      Files.write(new File(dir, "Quiet.epl").toPath(), "select * from Trade".getBytes());
+      List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+      sources.add(source("com.example.Mode", "@" + Indexed.class.getName() + " public interface"));
+      sources.add(
+          source(
+              "com.example.module.Quiet",
+              "public class",
+              "implements com.example.Mode { public static class Nested extends Quiet {} }"));
+      sources.add(source("com.example.module.Base", "public abstract class"));
+      sources.add(source("com.example.module.Hidden", "class"));
+      sources.add(source("com.example.Loud", "public class", "extends com.example.module.Quiet"));
+
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      String classpath =
+          new File(Indexed.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+              .getPath();
+      JavaCompiler.CompilationTask task =
+          compiler.getTask(
+              null,
+              null,
+              null,
+              Arrays.asList("-d", dir.getPath(), "-classpath", classpath),
+              null,
+              sources);
+      task.setProcessors(Collections.singletonList(new IndexProcessor()));
+      assertTrue(task.call());
+
+      // subtypes are indexed however indirectly they implement the @Indexed type
+      assertEquals(
+          Arrays.asList(
+              "com.example.Loud", "com.example.module.Quiet", "com.example.module.Quiet$Nested"),
+          lines(dir, IndexProcessor.SUBTYPES + "com.example.Mode"));
+      // modules are the public, concrete, top level classes of *.module packages
+      assertEquals(
+          Collections.singletonList("com.example.module.Quiet"),
+          lines(dir, IndexProcessor.MODULES));
+      assertEquals(
+          Arrays.asList("Base=false", "Hidden=false", "Loud=false", "Nested=false", "Quiet=true"),
+          lines(dir, IndexProcessor.EPL));
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /** @return an in-memory source declaring the named type with the given keywords and body */
+  private static JavaFileObject source(String name, String declaration, String... rest) {
+    int dot = name.lastIndexOf('.');
+    StringBuilder code = new StringBuilder();
+    code.append("package ").append(name.substring(0, dot)).append(";\n");
+    code.append(declaration).append(' ').append(name.substring(dot + 1));
+    for (String part : rest) code.append(' ').append(part);
+    if (rest.length == 0 || !rest[rest.length - 1].endsWith("}")) code.append(" {}");
+    final String content = code.append('\n').toString();
+    return new SimpleJavaFileObject(
+        URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+
+  private static List<String> lines(File dir, String path) throws IOException {
+    return Files.readAllLines(new File(dir, path).toPath(), StandardCharsets.UTF_8);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) for (File child : children) delete(child);
+    file.delete();
+  }
+}
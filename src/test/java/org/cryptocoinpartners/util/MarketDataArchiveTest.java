@@ -0,0 +1,170 @@
+package org.cryptocoinpartners.util;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.market;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.cryptocoinpartners.bin.Main.MainParamsOnly;
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.RemoteEvent;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MarketDataArchiveTest {
+
+  @Before
+  public void setup() throws ConfigurationException, IOException {
+    MainParamsOnly mainParamsOnly = new MainParamsOnly();
+    ConfigUtil.init(mainParamsOnly.propertiesFilename, mainParamsOnly.definitions);
+    dir = Files.createTempDirectory("archive").toFile();
+  }
+
+  @After
+  public void cleanup() {
+    delete(dir);
+  }
+
+  @Test
+  public final void testTrades() throws IOException {
+    MarketDataArchive archive = new MarketDataArchive(dir);
+    Trade trade =
+        Trade.fromRow(
+            1L, UUID.randomUUID(), market, time(1000), time(1500), "t1", 10000L, 100L);
+    Trade noKey = Trade.fromRow(2L, UUID.randomUUID(), market, time(2000), time(2000), null, 1, 2);
+    archive.writeSegment("trade", market.getId(), time(0), events(trade, noKey));
+
+    List<Trade> read = archive.readTrades(markets, time(0), time(10000), false);
+    assertEquals(2, read.size());
+    assertTrade(trade, read.get(0));
+    assertTrade(noKey, read.get(1));
+    // each read decodes new instances
+    assertNotSame(read.get(0), archive.readTrades(markets, time(0), time(10000), false).get(0));
+  }
+
+  @Test
+  public final void testBars() throws IOException {
+    MarketDataArchive archive = new MarketDataArchive(dir);
+    Bar bar =
+        Bar.fromRow(
+            1L,
+            UUID.randomUUID(),
+            time(60000),
+            time(60100),
+            "b1",
+            60d,
+            1d,
+            2d,
+            3d,
+            0.5d,
+            10d,
+            null,
+            4d,
+            market);
+    archive.writeSegment("bar", market.getId(), time(0), events(bar));
+
+    List<Bar> read =
+        archive.readBars(markets, time(0), time(120000), Collections.singletonList(60d));
+    assertEquals(1, read.size());
+    Bar decoded = read.get(0);
+    assertEquals(bar.getUuid(), decoded.getUuid());
+    assertEquals(bar.getId(), decoded.getId());
+    assertEquals(bar.getTime(), decoded.getTime());
+    assertEquals(bar.getTimeReceived(), decoded.getTimeReceived());
+    assertEquals("b1", decoded.getRemoteKey());
+    assertEquals(60d, decoded.getInterval(), 0);
+    assertEquals(1d, decoded.getOpen(), 0);
+    assertEquals(2d, decoded.getClose(), 0);
+    assertEquals(3d, decoded.getHigh(), 0);
+    assertEquals(0.5d, decoded.getLow(), 0);
+    assertEquals(10d, decoded.getVolume(), 0);
+    assertNull(decoded.getBuyVolume());
+    assertEquals(4d, decoded.getSellVolume(), 0);
+    assertNotSame(decoded, archive.readBars(markets, time(0), time(120000), null).get(0));
+  }
+
+  @Test
+  public final void testBooks() throws IOException {
+    MarketDataArchive archive = new MarketDataArchive(dir);
+    Book.Builder builder = new Book.Builder();
+    builder.start(time(3000), "k1", market);
+    builder.addBid(new BigDecimal("100.01"), new BigDecimal("0.5"));
+    builder.addBid(new BigDecimal("100.00"), new BigDecimal("1"));
+    builder.addAsk(new BigDecimal("100.05"), new BigDecimal("2"));
+    Book book = builder.build();
+    book.setId(1L);
+    archive.writeSegment("book", market.getId(), time(0), events(book));
+
+    List<Book> read = archive.readBooks(markets, time(0), time(10000), false);
+    assertEquals(1, read.size());
+    Book decoded = read.get(0);
+    assertEquals(book.getUuid(), decoded.getUuid());
+    assertEquals(book.getId(), decoded.getId());
+    assertEquals(book.getTime(), decoded.getTime());
+    assertEquals(book.getTimeReceived(), decoded.getTimeReceived());
+    assertEquals("k1", decoded.getRemoteKey());
+    assertEquals(2, decoded.getBids().size());
+    assertEquals(1, decoded.getAsks().size());
+    for (int i = 0; i < 2; i++) {
+      assertEquals(book.getBids().get(i).getPriceCount(), decoded.getBids().get(i).getPriceCount());
+      assertEquals(
+          book.getBids().get(i).getVolumeCount(), decoded.getBids().get(i).getVolumeCount());
+    }
+    assertEquals(book.getBestAsk().getPriceCount(), decoded.getBestAsk().getPriceCount());
+    assertEquals(book.getBestAsk().getVolumeCount(), decoded.getBestAsk().getVolumeCount());
+    assertNotSame(decoded, archive.readBooks(markets, time(0), time(10000), false).get(0));
+  }
+
+  private static void assertTrade(Trade expected, Trade actual) {
+    assertEquals(expected.getUuid(), actual.getUuid());
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getTime(), actual.getTime());
+    assertEquals(expected.getTimeReceived(), actual.getTimeReceived());
+    assertEquals(expected.getRemoteKey(), actual.getRemoteKey());
+    assertEquals(expected.getPriceCount(), actual.getPriceCount());
+    assertEquals(expected.getVolumeCount(), actual.getVolumeCount());
+  }
+
+  private static List<RemoteEvent> events(RemoteEvent... events) {
+    return Arrays.asList(events);
+  }
+
+  /** @return the time in the second day of 1970, so it is not at the very start of the epoch */
+  private static Instant time(long millis) {
+    return new Instant(DAY + millis);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) for (File child : children) delete(child);
+    file.delete();
+  }
+
+  private static final long DAY = 86400000L;
+  private static final Market market = market("BITSTAMP", BTC);
+  private static final Collection<Tradeable> markets = Collections.<Tradeable>singletonList(market);
+
+  static {
+    market.setId(1L);
+  }
+
+  private File dir;
+}
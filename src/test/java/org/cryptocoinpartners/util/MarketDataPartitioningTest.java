@@ -0,0 +1,168 @@
+package org.cryptocoinpartners.util;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.market;
+import static org.cryptocoinpartners.util.StubDatabase.bookRow;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.cryptocoinpartners.bin.Main.MainParamsOnly;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.util.MarketDataPartitioning.Period;
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MarketDataPartitioningTest {
+
+  @Before
+  public void setup() throws ConfigurationException {
+    MainParamsOnly mainParamsOnly = new MainParamsOnly();
+    ConfigUtil.init(mainParamsOnly.propertiesFilename, mainParamsOnly.definitions);
+  }
+
+  @After
+  public void cleanup() {
+    if (database != null) database.uninstall();
+  }
+
+  @Test
+  public final void testAddPartitions() {
+    database = new StubDatabase(partitions("p19700101", DAY)).install();
+
+    // pmax is split into a partition for each day through until, and kept at the end
+    assertEquals(
+        2, MarketDataPartitioning.addPartitions("trade", Period.DAY, new Instant(DAY * 2)));
+    List<StubDatabase.Statement> statements = database.getStatements();
+    assertEquals(1, statements.size());
+    assertEquals(
+        "alter table trade reorganize partition pmax into (partition p19700102 values less than ("
+            + DAY * 2
+            + "), partition p19700103 values less than ("
+            + DAY * 3
+            + "), partition pmax values less than maxvalue)",
+        statements.get(0).sql);
+  }
+
+  @Test
+  public final void testDropBookParents() {
+    // the parent is in the first day's partition, its child and grandchild in the second
+    Book.Builder builder = new Book.Builder();
+    Book parent = book(builder, 1L, DAY - 1000, "100.00", "101.00");
+    final Book child = book(builder, 2L, DAY + 1000, "100.50", "101.00");
+    Book grandchild = book(builder, 3L, DAY + 2000, "100.50", "100.75");
+    final List<Object[]> table = new ArrayList<Object[]>();
+    for (Book book : new Book[] {parent, child, grandchild}) table.add(bookRow(book));
+    final StubDatabase.Rows partitions = partitions("p19700101", DAY, "p19700102", DAY * 2);
+    database =
+        new StubDatabase(
+                new StubDatabase.Rows() {
+                  @Override
+                  public List<Object[]> select(String sql, List<Object> params) {
+                    if (sql.contains("information_schema.PARTITIONS"))
+                      return partitions.select(sql, params);
+                    if (sql.startsWith("select c.id from book c")) {
+                      assertTrue(sql.contains("partition (p19700101)"));
+                      assertEquals(DAY, params.get(0));
+                      return Collections.singletonList(new Object[] {child.getId()});
+                    }
+                    List<Object[]> rows = new ArrayList<Object[]>();
+                    for (Object[] row : table)
+                      if (((Collection<?>) params.get(0)).contains(row[0])) rows.add(row);
+                    return rows;
+                  }
+                })
+            .entities(Collections.singletonList(btc))
+            .install();
+
+    assertEquals(
+        Collections.singletonList("p19700101"),
+        MarketDataPartitioning.dropPartitions("book", new Instant(DAY)));
+
+    // the child is rewritten as a full Book before its parent's partition is dropped
+    List<StubDatabase.Statement> statements = database.getStatements();
+    assertEquals(2, statements.size());
+    StubDatabase.Statement reroot = statements.get(0);
+    assertTrue(reroot.sql.startsWith("update book set parent = null"));
+    assertArrayEquals(Book.toDatabaseBlob(child.getBids()), (byte[]) reroot.params.get(0));
+    assertArrayEquals(Book.toDatabaseBlob(child.getAsks()), (byte[]) reroot.params.get(1));
+    assertEquals(child.getId(), reroot.params.get(2));
+    assertEquals(child.getTime().getMillis(), reroot.params.get(3));
+    assertEquals("alter table book drop partition p19700101", statements.get(1).sql);
+  }
+
+  @Test
+  public final void testDropFailure() {
+    final StubDatabase.Rows partitions = partitions("p19700101", DAY);
+    database =
+        new StubDatabase(
+                new StubDatabase.Rows() {
+                  @Override
+                  public List<Object[]> select(String sql, List<Object> params) {
+                    if (sql.contains("information_schema.PARTITIONS"))
+                      return partitions.select(sql, params);
+                    return null;
+                  }
+                })
+            .entities(Collections.singletonList(btc))
+            .install();
+
+    // the children cannot be found, so the partition holding their parents is kept
+    try {
+      MarketDataPartitioning.dropPartitions("book", new Instant(DAY));
+      fail("dropped a partition whose children were not rewritten");
+    } catch (IllegalStateException e) {
+      assertTrue(database.getStatements().isEmpty());
+    }
+    // trades have no parents to rewrite
+    assertEquals(
+        Collections.singletonList("p19700101"),
+        MarketDataPartitioning.dropPartitions("trade", new Instant(DAY)));
+    assertEquals(
+        "alter table trade drop partition p19700101", database.getStatements().get(0).sql);
+  }
+
+  /** @return the partitions of a table, by name and bound in pairs, followed by pmax */
+  private static StubDatabase.Rows partitions(final Object... bounds) {
+    return new StubDatabase.Rows() {
+      @Override
+      public List<Object[]> select(String sql, List<Object> params) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < bounds.length; i += 2)
+          rows.add(new Object[] {bounds[i], String.valueOf(bounds[i + 1])});
+        rows.add(new Object[] {"pmax", "MAXVALUE"});
+        return rows;
+      }
+    };
+  }
+
+  private static Book book(Book.Builder builder, long id, long time, String bid, String ask) {
+    builder.start(new Instant(time), "k" + id, btc);
+    builder.addBid(new BigDecimal(bid), BigDecimal.ONE);
+    builder.addBid(new BigDecimal("99.00"), new BigDecimal("2"));
+    builder.addAsk(new BigDecimal(ask), BigDecimal.ONE);
+    Book book = builder.build();
+    book.setId(id);
+    return book;
+  }
+
+  private static final long DAY = 86400000L;
+  private static final Market btc = market("BITSTAMP", BTC);
+
+  static {
+    btc.setId(1L);
+  }
+
+  private StubDatabase database;
+}
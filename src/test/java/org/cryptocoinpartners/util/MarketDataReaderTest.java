@@ -0,0 +1,296 @@
+package org.cryptocoinpartners.util;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.ETH;
+import static org.cryptocoinpartners.schema.Fixtures.market;
+import static org.cryptocoinpartners.util.StubDatabase.barRow;
+import static org.cryptocoinpartners.util.StubDatabase.bookRow;
+import static org.cryptocoinpartners.util.StubDatabase.tradeRow;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.cryptocoinpartners.bin.Main.MainParamsOnly;
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.RemoteEvent;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads rows stored the way JPA stores the entities, and checks the native reader rebuilds events
+ * equal to the entities JPQL would have loaded from them.
+ */
+public class MarketDataReaderTest {
+
+  @Before
+  public void setup() throws ConfigurationException {
+    MainParamsOnly mainParamsOnly = new MainParamsOnly();
+    ConfigUtil.init(mainParamsOnly.propertiesFilename, mainParamsOnly.definitions);
+  }
+
+  @After
+  public void cleanup() {
+    if (database != null) database.uninstall();
+    if (dir != null) delete(dir);
+  }
+
+  @Test
+  public final void testTrades() {
+    final Trade trade = trade(1L, btc, 1000, "t1");
+    final Trade noKey = trade(2L, btc, 2000, null);
+    // a row of a market the reader was not given is skipped
+    final Trade other = trade(3L, market("KRAKEN", ETH), 1500, "t3");
+    other.getMarket().setId(99L);
+    database =
+        new StubDatabase(
+                new StubDatabase.Rows() {
+                  @Override
+                  public List<Object[]> select(String sql, List<Object> params) {
+                    assertEquals(Collections.singletonList(btc.getId()), params.get(0));
+                    return rows(tradeRow(trade), tradeRow(other), tradeRow(noKey));
+                  }
+                })
+            .install();
+
+    List<Trade> read = new MarketDataReader(markets, false, null).readTrades(time(0), time(10000));
+    assertEquals(2, read.size());
+    assertTrade(trade, read.get(0));
+    assertTrade(noKey, read.get(1));
+    assertSame(btc, read.get(0).getMarket());
+    assertTrue(read.get(0).isPersisted());
+    assertTrue(database.getSelects().get(0).contains("t.time >= ?2 and t.time <= ?3 order by"));
+
+    // reading by timeReceived still bounds time, so partitions on time are pruned
+    new MarketDataReader(markets, true, null).readTrades(time(0), time(10000));
+    assertTrue(database.getSelects().get(1).contains("t.timeReceived >= ?2"));
+    assertTrue(database.getSelects().get(1).contains("t.time <= " + time(10000).getMillis()));
+  }
+
+  @Test
+  public final void testBars() {
+    final Bar bar =
+        new Bar(time(60000), time(60000), "b1", 60d, 1d, 2d, 3d, 0.5d, 10d, null, 4d, btc);
+    bar.setId(1L);
+    database =
+        new StubDatabase(
+                new StubDatabase.Rows() {
+                  @Override
+                  public List<Object[]> select(String sql, List<Object> params) {
+                    assertEquals(Collections.singletonList(60d), params.get(0));
+                    return rows(barRow(bar));
+                  }
+                })
+            .install();
+
+    List<Bar> read =
+        new MarketDataReader(markets, false, null)
+            .readBars(time(0), time(120000), Collections.singletonList(60d));
+    assertEquals(1, read.size());
+    Bar decoded = read.get(0);
+    assertEquals(bar, decoded);
+    assertEquals(bar.getId(), decoded.getId());
+    assertEquals(bar.getTime(), decoded.getTime());
+    assertEquals(bar.getTimeReceived(), decoded.getTimeReceived());
+    assertEquals("b1", decoded.getRemoteKey());
+    assertEquals(60d, decoded.getInterval(), 0);
+    assertEquals(1d, decoded.getOpen(), 0);
+    assertEquals(2d, decoded.getClose(), 0);
+    assertEquals(3d, decoded.getHigh(), 0);
+    assertEquals(0.5d, decoded.getLow(), 0);
+    assertEquals(10d, decoded.getVolume(), 0);
+    assertNull(decoded.getBuyVolume());
+    assertEquals(4d, decoded.getSellVolume(), 0);
+  }
+
+  @Test
+  public final void testBookChains() {
+    Book.Builder builder = new Book.Builder();
+    final Book full = book(builder, 1L, 1000, "100.00", "101.00");
+    final Book child = book(builder, 2L, 2000, "100.50", "101.00");
+    final Book grandchild = book(builder, 3L, 3000, "100.50", "100.75");
+    assertSame(child, grandchild.getParent());
+    final List<Object[]> table = rows(bookRow(full), bookRow(child), bookRow(grandchild));
+    database =
+        new StubDatabase(
+                new StubDatabase.Rows() {
+                  @Override
+                  public List<Object[]> select(String sql, List<Object> params) {
+                    // only the grandchild is in the range, its parents are read by id
+                    if (sql.contains("b.id in")) return byId(table, params.get(0));
+                    return rows(table.get(2));
+                  }
+                })
+            .install();
+    MarketDataReader reader = new MarketDataReader(markets, false, null);
+
+    List<Book> read = reader.readBooks(time(2500), time(10000));
+    assertEquals(1, read.size());
+    assertBook(grandchild, read.get(0));
+    // one query for the range, then one for each hop up the chain to the full Book
+    assertEquals(3, database.getSelects().size());
+
+    // Books whose parent is among the rows share the rebuilt parent
+    read = reader.readBooks(Arrays.asList(2L, 3L));
+    assertEquals(2, read.size());
+    assertBook(child, read.get(0));
+    assertBook(grandchild, read.get(1));
+    assertSame(read.get(0), read.get(1).getParent());
+    assertBook(full, read.get(0).getParent());
+    assertEquals(5, database.getSelects().size());
+  }
+
+  @Test
+  public final void testArchivedMerge() throws IOException {
+    dir = Files.createTempDirectory("archive").toFile();
+    Properties manifest = new Properties();
+    manifest.setProperty("trade.archivedThrough", String.valueOf(time(DAY).getMillis()));
+    try (OutputStream out = new FileOutputStream(new File(dir, "manifest.properties"))) {
+      manifest.store(out, null);
+    }
+    MarketDataArchive archive = new MarketDataArchive(dir);
+    Trade archived = trade(1L, btc, 1000, "t1");
+    archive.writeSegment(
+        "trade", btc.getId(), time(0), Collections.<RemoteEvent>singletonList(archived));
+    final Trade hot = trade(2L, btc, DAY + 1000, "t2");
+    database =
+        new StubDatabase(
+                new StubDatabase.Rows() {
+                  @Override
+                  public List<Object[]> select(String sql, List<Object> params) {
+                    return rows(tradeRow(hot));
+                  }
+                })
+            .install();
+    MarketDataReader reader = new MarketDataReader(markets, false, archive);
+
+    // history before archivedThrough comes from the archive, the rest from the database
+    List<Trade> read = reader.readTrades(time(0), time(DAY + 10000));
+    assertEquals(2, read.size());
+    assertTrade(archived, read.get(0));
+    assertTrade(hot, read.get(1));
+    assertEquals(1, database.getSelects().size());
+
+    // a range entirely before archivedThrough does not query the database
+    read = reader.readTrades(time(0), time(10000));
+    assertEquals(1, read.size());
+    assertTrade(archived, read.get(0));
+    assertEquals(1, database.getSelects().size());
+  }
+
+  @Test
+  public final void testDisable() {
+    database =
+        new StubDatabase(
+                new StubDatabase.Rows() {
+                  @Override
+                  public List<Object[]> select(String sql, List<Object> params) {
+                    return null;
+                  }
+                })
+            .install();
+    MarketDataReader reader = new MarketDataReader(markets, false, null);
+
+    // a failed query disables the reader, so the caller falls back to JPQL
+    assertNull(reader.readTrades(time(0), time(10000)));
+    assertTrue(reader.isDisabled());
+    assertNull(reader.readBooks(time(0), time(10000)));
+    assertEquals(1, database.getSelects().size());
+  }
+
+  private static Trade trade(long id, Market market, long time, String remoteKey) {
+    Trade trade = new Trade(market, time(time), time(time + 100), remoteKey, 10000L + id, 100L);
+    trade.setId(id);
+    return trade;
+  }
+
+  private static Book book(Book.Builder builder, long id, long time, String bid, String ask) {
+    builder.start(time(time), "k" + id, btc);
+    builder.addBid(new BigDecimal(bid), BigDecimal.ONE);
+    builder.addBid(new BigDecimal("99.00"), new BigDecimal("2"));
+    builder.addAsk(new BigDecimal(ask), BigDecimal.ONE);
+    Book book = builder.build();
+    book.setId(id);
+    return book;
+  }
+
+  private static void assertTrade(Trade expected, Trade actual) {
+    assertEquals(expected, actual);
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getTime(), actual.getTime());
+    assertEquals(expected.getTimeReceived(), actual.getTimeReceived());
+    assertEquals(expected.getRemoteKey(), actual.getRemoteKey());
+    assertEquals(expected.getPriceCount(), actual.getPriceCount());
+    assertEquals(expected.getVolumeCount(), actual.getVolumeCount());
+  }
+
+  private static void assertBook(Book expected, Book actual) {
+    assertEquals(expected, actual);
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getTime(), actual.getTime());
+    assertEquals(expected.getRemoteKey(), actual.getRemoteKey());
+    assertOffers(expected.getBids(), actual.getBids());
+    assertOffers(expected.getAsks(), actual.getAsks());
+  }
+
+  private static void assertOffers(List<Offer> expected, List<Offer> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getPriceCount(), actual.get(i).getPriceCount());
+      assertEquals(expected.get(i).getVolumeCount(), actual.get(i).getVolumeCount());
+    }
+  }
+
+  private static List<Object[]> rows(Object[]... rows) {
+    return new ArrayList<Object[]>(Arrays.asList(rows));
+  }
+
+  private static List<Object[]> byId(List<Object[]> table, Object ids) {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for (Object[] row : table) if (((Collection<?>) ids).contains(row[0])) rows.add(row);
+    return rows;
+  }
+
+  /** @return the time in the second day of 1970, so it is not at the very start of the epoch */
+  private static Instant time(long millis) {
+    return new Instant(DAY + millis);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) for (File child : children) delete(child);
+    file.delete();
+  }
+
+  private static final long DAY = 86400000L;
+  private static final Market btc = market("BITSTAMP", BTC);
+  private static final Collection<Tradeable> markets = Collections.<Tradeable>singletonList(btc);
+
+  static {
+    btc.setId(1L);
+  }
+
+  private StubDatabase database;
+  private File dir;
+}
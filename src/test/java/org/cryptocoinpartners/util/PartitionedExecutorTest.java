@@ -0,0 +1,45 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PartitionedExecutorTest {
+
+  @Test
+  public final void test() throws InterruptedException {
+    PartitionedExecutor executor = new PartitionedExecutor("test", 4);
+    final List<Integer> first = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> second = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(2000);
+    for (int i = 0; i < 1000; i++) {
+      final int sequence = i;
+      executor.execute(
+          "first",
+          () -> {
+            first.add(sequence);
+            done.countDown();
+          });
+      executor.execute(
+          "second",
+          () -> {
+            second.add(sequence);
+            done.countDown();
+          });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    // tasks with the same key run in submission order
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, first.get(i).intValue());
+      assertEquals(i, second.get(i).intValue());
+    }
+    executor.shutdown();
+  }
+}
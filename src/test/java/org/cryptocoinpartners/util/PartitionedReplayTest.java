@@ -0,0 +1,63 @@
+package org.cryptocoinpartners.util;
+
+import static org.cryptocoinpartners.schema.Fixtures.BTC;
+import static org.cryptocoinpartners.schema.Fixtures.market;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class PartitionedReplayTest {
+
+  @Test
+  public final void testPartition() {
+    // sorted and dealt round-robin, with each symbol in one partition however often it is listed
+    List<String> symbols =
+        Arrays.asList("KRAKEN:ETH.USD", "BITSTAMP:BTC.USD", "KRAKEN:BTC.USD", "BITSTAMP:BTC.USD");
+    List<List<String>> partitions = PartitionedReplay.partition(symbols, 2);
+    assertEquals(2, partitions.size());
+    assertEquals(Arrays.asList("BITSTAMP:BTC.USD", "KRAKEN:ETH.USD"), partitions.get(0));
+    assertEquals(Collections.singletonList("KRAKEN:BTC.USD"), partitions.get(1));
+
+    // more partitions than symbols leaves the last ones empty
+    partitions = PartitionedReplay.partition(Arrays.asList("B", "A"), 3);
+    assertEquals(Collections.singletonList("A"), partitions.get(0));
+    assertEquals(Collections.singletonList("B"), partitions.get(1));
+    assertTrue(partitions.get(2).isEmpty());
+  }
+
+  @Test
+  public final void testMerge() {
+    Trade first0 = trade(1000);
+    Trade tie0 = trade(2000);
+    Trade tie0Later = trade(2000);
+    Trade last0 = trade(4000);
+    Trade first1 = trade(1500);
+    Trade tie1 = trade(2000);
+    Trade last1 = trade(3000);
+
+    List<Event> merged =
+        PartitionedReplay.merge(
+            Arrays.asList(
+                Arrays.asList(first0, tie0, tie0Later, last0), Arrays.asList(first1, tie1, last1)));
+    // by time, and at the same time by partition and then by publication order
+    List<Trade> expected = Arrays.asList(first0, first1, tie0, tie0Later, tie1, last1, last0);
+    assertEquals(expected.size(), merged.size());
+    for (int i = 0; i < expected.size(); i++) assertSame(expected.get(i), merged.get(i));
+  }
+
+  private static Trade trade(long time) {
+    return new Trade(market, new Instant(time), null, 10000L, 100L);
+  }
+
+  private static final Market market = market("BITSTAMP", BTC);
+}
@@ -0,0 +1,167 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.schema.Exchange;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import si.mazi.rescu.HttpStatusIOException;
+
+public class RateLimiterTest {
+
+  @Test
+  public final void testLaneOrder() throws InterruptedException {
+    RateLimiter limiter = new RateLimiter(1000, Duration.millis(1000));
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(4);
+    final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    limiter.execute(
+        () -> {
+          try {
+            blocked.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    for (String name : Arrays.asList("data1", "data2"))
+      limiter.execute(record(ran, name, done), RateLimiter.Priority.MARKET_DATA);
+    awaitDispatch(limiter);
+    // dispatched to the busy executor after the market data, but run before it
+    limiter.execute(record(ran, "status", done), RateLimiter.Priority.ORDER_STATUS);
+    limiter.execute(record(ran, "cancel", done), RateLimiter.Priority.CANCEL);
+    awaitDispatch(limiter);
+    blocked.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("cancel", "status", "data1", "data2"), ran);
+    limiter.stopRunnablePump();
+  }
+
+  @Test
+  public final void testOneTokenPerCall() throws InterruptedException {
+    // a single token per minute, so a second charge would block the test
+    final RateLimiter limiter = new RateLimiter(1, Duration.millis(60000));
+    final CountDownLatch done = new CountDownLatch(1);
+    limiter.execute(
+        () -> {
+          try {
+            limiter.acquire(RateLimiter.Priority.ORDER_STATUS);
+            done.countDown();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        },
+        RateLimiter.Priority.ORDER_STATUS);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, limiter.getMetrics(RateLimiter.Priority.ORDER_STATUS).getDispatched());
+    limiter.stopRunnablePump();
+  }
+
+  @Test
+  public final void testLaterCallsCharged() throws InterruptedException {
+    final RateLimiter limiter = new RateLimiter(3, Duration.millis(60000));
+    final CountDownLatch done = new CountDownLatch(1);
+    limiter.execute(
+        () -> {
+          try {
+            limiter.acquire(RateLimiter.Priority.ORDER_STATUS);
+            limiter.acquire(RateLimiter.Priority.ORDER_STATUS);
+            done.countDown();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        },
+        RateLimiter.Priority.ORDER_STATUS);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(2, limiter.getMetrics(RateLimiter.Priority.ORDER_STATUS).getDispatched());
+
+    // acquires outside a dispatched Runnable always take a token
+    limiter.acquire(RateLimiter.Priority.CANCEL);
+    assertEquals(1, limiter.getMetrics(RateLimiter.Priority.CANCEL).getDispatched());
+    limiter.stopRunnablePump();
+  }
+
+  @Test
+  public final void testThrottleAndRecovery() throws InterruptedException {
+    RateLimiter limiter = new RateLimiter(100, Duration.millis(100));
+    assertFalse(limiter.reportError(new IOException("connection reset")));
+    assertEquals(1, limiter.getRateFactor(), 0);
+
+    assertTrue(limiter.reportError(new HttpStatusIOException("too many requests", 429, "")));
+    assertEquals(0.5, limiter.getRateFactor(), 0);
+    assertTrue(limiter.reportError(new HttpStatusIOException("too many requests", 429, "")));
+    assertEquals(0.25, limiter.getRateFactor(), 0);
+    assertEquals(2, limiter.getThrottleCount());
+
+    // paused for a second, then a tenth of the rate back per 100ms window
+    long start = System.currentTimeMillis();
+    limiter.acquire(RateLimiter.Priority.CANCEL);
+    assertTrue(System.currentTimeMillis() - start >= 900);
+    assertTrue(limiter.getRateFactor() < 0.5);
+    Thread.sleep(1000);
+    limiter.acquire(RateLimiter.Priority.CANCEL);
+    assertEquals(1, limiter.getRateFactor(), 0);
+    limiter.stopRunnablePump();
+  }
+
+  @Test
+  public final void testAging() throws InterruptedException {
+    final RateLimiter limiter = new RateLimiter(10, Duration.millis(100));
+    final CountDownLatch done = new CountDownLatch(1);
+    // order status polls which queue themselves again every time they run keep their lane busy
+    for (int i = 0; i < 3; i++)
+      limiter.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (done.getCount() > 0) limiter.execute(this, RateLimiter.Priority.ORDER_STATUS);
+            }
+          },
+          RateLimiter.Priority.ORDER_STATUS);
+    limiter.execute(done::countDown, RateLimiter.Priority.MARKET_DATA);
+
+    // the market data ages past the poll within a few windows
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, limiter.getMetrics(RateLimiter.Priority.MARKET_DATA).getDispatched());
+    assertTrue(limiter.getMetrics(RateLimiter.Priority.ORDER_STATUS).getDispatched() > 1);
+    limiter.stopRunnablePump();
+  }
+
+  @Test
+  public final void testSharedLimit() {
+    Exchange exchange = new Exchange("RATELIMITERTEST");
+    RateLimiter limiter = RateLimiter.forExchange(exchange, 1, Duration.millis(1000));
+    // a slower user slows the shared limiter down, a faster one does not speed it up
+    assertSame(limiter, RateLimiter.forExchange(exchange, 1, Duration.millis(2000)));
+    assertEquals(Duration.millis(2000), limiter.getPeriod());
+    assertSame(limiter, RateLimiter.forExchange(exchange, 1, Duration.millis(500)));
+    assertEquals(Duration.millis(2000), limiter.getPeriod());
+    limiter.stopRunnablePump();
+  }
+
+  private static void awaitDispatch(RateLimiter limiter) throws InterruptedException {
+    for (int i = 0; i < 100 && !limiter.getRunnables().isEmpty(); i++) Thread.sleep(10);
+    Thread.sleep(50);
+  }
+
+  private static Runnable record(
+      final List<String> ran, final String name, final CountDownLatch done) {
+    return () -> {
+      ran.add(name);
+      done.countDown();
+    };
+  }
+}
@@ -0,0 +1,266 @@
+package org.cryptocoinpartners.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.inject.Provider;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.Trade;
+
+import com.google.inject.persist.UnitOfWork;
+
+/**
+ * Stands in for the EntityManager behind EM, so code issuing native SQL can be tested without a
+ * database. Each native select is answered by the test's Rows with the rows MySQL would return, and
+ * the selects and statements run are recorded.
+ */
+final class StubDatabase {
+
+  interface Rows {
+    /** @return the rows of the select, or null to fail it */
+    List<Object[]> select(String sql, List<Object> params);
+  }
+
+  /** a statement run through EM.executeNativeSQL */
+  static class Statement {
+
+    private Statement(String sql, List<Object> params) {
+      this.sql = sql;
+      this.params = params;
+    }
+
+    final String sql;
+    final List<Object> params;
+  }
+
+  StubDatabase(Rows rows) {
+    this.rows = rows;
+  }
+
+  /** answers the JPQL queries of EM.queryList with the given entities */
+  StubDatabase entities(List<?> entities) {
+    this.entities = entities;
+    return this;
+  }
+
+  StubDatabase install() {
+    provider = EM.entityManagerProvider;
+    unitOfWork = EM.unitOfWork;
+    final EntityManager entityManager = proxy(EntityManager.class, new EntityManagerHandler());
+    EM.entityManagerProvider =
+        new Provider<EntityManager>() {
+          @Override
+          public EntityManager get() {
+            return entityManager;
+          }
+        };
+    EM.unitOfWork = proxy(UnitOfWork.class, null);
+    return this;
+  }
+
+  void uninstall() {
+    EM.entityManagerProvider = provider;
+    EM.unitOfWork = unitOfWork;
+  }
+
+  /** @return the native selects run so far, in order */
+  synchronized List<String> getSelects() {
+    return new ArrayList<String>(selects);
+  }
+
+  /** @return the native statements run so far, in order */
+  synchronized List<Statement> getStatements() {
+    return new ArrayList<Statement>(statements);
+  }
+
+  /** @return the trade row JPA would have stored for the Trade, in MarketDataReader's columns */
+  static Object[] tradeRow(Trade trade) {
+    return new Object[] {
+      trade.getId(),
+      trade.getTime().getMillis(),
+      trade.getTimeReceived().getMillis(),
+      trade.getRemoteKey(),
+      trade.getPriceCount(),
+      trade.getVolumeCount(),
+      trade.getMarket().getId(),
+      uuidColumn(trade.getUuid())
+    };
+  }
+
+  /** @return the bar row JPA would have stored for the Bar, in MarketDataReader's columns */
+  static Object[] barRow(Bar bar) {
+    return new Object[] {
+      bar.getId(),
+      bar.getTime().getMillis(),
+      bar.getInterval(),
+      bar.getOpen(),
+      bar.getClose(),
+      bar.getHigh(),
+      bar.getLow(),
+      bar.getVolume(),
+      bar.getBuyVolume(),
+      bar.getSellVolume(),
+      bar.getMarket().getId(),
+      bar.getTimeReceived().getMillis(),
+      bar.getRemoteKey(),
+      uuidColumn(bar.getUuid())
+    };
+  }
+
+  /**
+   * @return the book row JPA would have stored for the Book, in MarketDataReader's columns. A Book
+   *     with a parent is stored as the offers it adds and the indexes of the parent offers it
+   *     drops.
+   */
+  static Object[] bookRow(Book book) {
+    Book parent = book.getParent();
+    byte[] bidDeletions = null;
+    byte[] askDeletions = null;
+    List<Offer> bids = book.getBids();
+    List<Offer> asks = book.getAsks();
+    if (parent != null) {
+      bidDeletions = deletions(parent.getBids(), bids);
+      askDeletions = deletions(parent.getAsks(), asks);
+      bids = insertions(parent.getBids(), bids);
+      asks = insertions(parent.getAsks(), asks);
+    }
+    return new Object[] {
+      book.getId(),
+      book.getTime().getMillis(),
+      book.getTimeReceived().getMillis(),
+      book.getRemoteKey(),
+      book.getMarket().getId(),
+      parent == null ? null : parent.getId(),
+      Book.toDatabaseBlob(bids),
+      Book.toDatabaseBlob(asks),
+      bidDeletions,
+      askDeletions,
+      uuidColumn(book.getUuid())
+    };
+  }
+
+  /** @return the uuid as a BINARY(16) column, most significant bytes first */
+  static byte[] uuidColumn(UUID uuid) {
+    return ByteBuffer.allocate(16)
+        .putLong(uuid.getMostSignificantBits())
+        .putLong(uuid.getLeastSignificantBits())
+        .array();
+  }
+
+  private static List<Offer> insertions(List<Offer> parent, List<Offer> child) {
+    List<Offer> insertions = new ArrayList<Offer>();
+    for (Offer offer : child) if (indexOf(parent, offer) < 0) insertions.add(offer);
+    return insertions;
+  }
+
+  private static byte[] deletions(List<Offer> parent, List<Offer> child) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    List<Integer> indexes = new ArrayList<Integer>();
+    for (int i = 0; i < parent.size(); i++) if (indexOf(child, parent.get(i)) < 0) indexes.add(i);
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeInt(indexes.size());
+      for (Integer index : indexes) out.writeInt(index);
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static int indexOf(List<Offer> offers, Offer offer) {
+    for (int i = 0; i < offers.size(); i++)
+      if (offers.get(i).getPriceCount().equals(offer.getPriceCount())
+          && offers.get(i).getVolumeCount().equals(offer.getVolumeCount())) return i;
+    return -1;
+  }
+
+  private class EntityManagerHandler implements InvocationHandler {
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getName().equals("createNativeQuery"))
+        return proxy(Query.class, new QueryHandler((String) args[0], true));
+      if (method.getName().equals("createQuery"))
+        return proxy(TypedQuery.class, new QueryHandler((String) args[0], false));
+      if (method.getName().equals("getTransaction")) return proxy(EntityTransaction.class, null);
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+
+  private class QueryHandler implements InvocationHandler {
+
+    private QueryHandler(String sql, boolean nativeSql) {
+      this.sql = sql;
+      this.nativeSql = nativeSql;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getName().equals("setParameter")) {
+        int position = (Integer) args[0];
+        while (params.size() < position) params.add(null);
+        params.set(position - 1, args[1]);
+        return proxy;
+      }
+      if (method.getName().equals("getResultList")) {
+        if (!nativeSql) return entities;
+        synchronized (StubDatabase.this) {
+          selects.add(sql);
+        }
+        List<Object[]> result = rows.select(sql, params);
+        if (result == null) throw new IllegalStateException("stub failure of " + sql);
+        return result;
+      }
+      if (method.getName().equals("executeUpdate")) {
+        synchronized (StubDatabase.this) {
+          statements.add(new Statement(sql, params));
+        }
+        return 1;
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+
+    private final String sql;
+    private final boolean nativeSql;
+    private final List<Object> params = new ArrayList<Object>();
+  }
+
+  /** @return a proxy of the interface, doing nothing for the methods the handler is null for */
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, final InvocationHandler handler) {
+    return (T)
+        Proxy.newProxyInstance(
+            StubDatabase.class.getClassLoader(),
+            new Class<?>[] {type},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) return method.invoke(this, args);
+                if (handler != null) return handler.invoke(proxy, method, args);
+                return method.getReturnType() == boolean.class ? false : null;
+              }
+            });
+  }
+
+  private final Rows rows;
+  private final List<String> selects = new ArrayList<String>();
+  private final List<Statement> statements = new ArrayList<Statement>();
+  private List<?> entities = Collections.emptyList();
+  private Provider<EntityManager> provider;
+  private UnitOfWork unitOfWork;
+}